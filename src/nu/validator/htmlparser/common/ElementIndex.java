@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps ids, class names and element local names to the elements that the 
+ * parser created for them, so that lookups after the parse do not need to 
+ * walk the tree. 
+ * 
+ * <p>Elements are listed in the order the parser created them, which is the 
+ * tree order except for elements moved by the adoption agency algorithm and 
+ * foster parenting. Clones made by the adoption agency algorithm are listed 
+ * like any other element, since they are in the tree with the attributes of 
+ * the original. Elements later removed from the tree, such as a 
+ * <code>body</code> replaced by a <code>frameset</code>, are not unlisted. 
+ * Class names are matched case-sensitively.
+ * 
+ * @param <T> the element type of the tree
+ * @version $Id$
+ * @author hsivonen
+ */
+public final class ElementIndex<T> {
+
+    /**
+     * The key under which tree builders that support user data attach the 
+     * index to the document.
+     */
+    public static final String USER_DATA_KEY = "nu.validator.element-index";
+
+    private final Map<String, T> ids = new HashMap<String, T>();
+
+    private final Map<String, List<T>> classes = new HashMap<String, List<T>>();
+
+    private final Map<String, List<T>> names = new HashMap<String, List<T>>();
+
+    /**
+     * Returns the first element created with the given id. When ids are 
+     * unique, as conforming documents require, this is the element 
+     * <code>getElementById()</code> of the tree would return. 
+     * 
+     * @param id
+     *            the id
+     * @return the element or <code>null</code> if none
+     */
+    public T getElementById(String id) {
+        return ids.get(id);
+    }
+
+    /**
+     * Returns the elements whose <code>class</code> attribute contains the 
+     * given class name.
+     * 
+     * @param className
+     *            a single class name
+     * @return the elements; never <code>null</code>
+     */
+    public List<T> getElementsByClassName(String className) {
+        return unmodifiable(classes.get(className));
+    }
+
+    /**
+     * Returns the elements with the given local name in any namespace.
+     * 
+     * @param localName
+     *            the local name
+     * @return the elements; never <code>null</code>
+     */
+    public List<T> getElementsByLocalName(String localName) {
+        return unmodifiable(names.get(localName));
+    }
+
+    /**
+     * Lists an element under its local name.
+     * 
+     * @param element
+     *            the element
+     * @param localName
+     *            its local name
+     */
+    public void addElement(T element, String localName) {
+        add(names, localName, element);
+    }
+
+    /**
+     * Lists an element under its id unless an earlier element has the same 
+     * id.
+     * 
+     * @param element
+     *            the element
+     * @param id
+     *            the value of its <code>id</code> attribute
+     */
+    public void addId(T element, String id) {
+        if (id != null && id.length() != 0 && !ids.containsKey(id)) {
+            ids.put(id, element);
+        }
+    }
+
+    /**
+     * Lists an element under each class name in its <code>class</code> 
+     * attribute.
+     * 
+     * @param element
+     *            the element
+     * @param classAttribute
+     *            the value of its <code>class</code> attribute
+     */
+    public void addClasses(T element, String classAttribute) {
+        if (classAttribute == null) {
+            return;
+        }
+        int len = classAttribute.length();
+        int start = -1;
+        for (int i = 0; i <= len; i++) {
+            char c = i == len ? ' ' : classAttribute.charAt(i);
+            switch (c) {
+                case ' ':
+                case '\t':
+                case '\n':
+                case '\u000C':
+                case '\r':
+                    if (start != -1) {
+                        String name = classAttribute.substring(start, i);
+                        List<T> list = classes.get(name);
+                        // Skip duplicate tokens in the same attribute.
+                        if (list == null || list.get(list.size() - 1) != element) {
+                            add(classes, name, element);
+                        }
+                        start = -1;
+                    }
+                    continue;
+                default:
+                    if (start == -1) {
+                        start = i;
+                    }
+                    continue;
+            }
+        }
+    }
+
+    private static <T> void add(Map<String, List<T>> map, String key, T element) {
+        List<T> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<T>(1);
+            map.put(key, list);
+        }
+        list.add(element);
+    }
+
+    private static <T> List<T> unmodifiable(List<T> list) {
+        if (list == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(list);
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.common;
+
+/**
+ * Resource limits for parsing untrusted input. A limit of -1 means no limit, 
+ * which is the default for all limits. When a limit is exceeded, the parser 
+ * either truncates the offending construct and reports a warning 
+ * (<code>ALTER_INFOSET</code>, the default) or stops with a fatal error 
+ * (<code>FATAL</code>).
+ * 
+ * <p>An instance may be shared by many parsers as long as it is not 
+ * modified while they are parsing.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+public class ParserLimits {
+
+    private XmlViolationPolicy policy = XmlViolationPolicy.ALTER_INFOSET;
+
+    private long maxDocumentLength = -1;
+
+    private int maxAttributesPerElement = -1;
+
+    private int maxAttributeValueLength = -1;
+
+    private int maxCommentLength = -1;
+
+    private int maxTokenLength = -1;
+
+    private int maxTextLength = -1;
+
+    private int maxDepth = -1;
+
+    /**
+     * Returns the policy for exceeded limits.
+     * 
+     * @return the policy
+     */
+    public XmlViolationPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Sets the policy for exceeded limits. <code>ALTER_INFOSET</code> 
+     * truncates and <code>FATAL</code> fails. <code>ALLOW</code> is treated 
+     * as <code>ALTER_INFOSET</code>, since allowing would defeat the limit.
+     * 
+     * @param policy
+     *            the policy
+     */
+    public void setPolicy(XmlViolationPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Returns the maximum number of decoded UTF-16 code units read from the 
+     * input.
+     * 
+     * @return the limit or -1
+     */
+    public long getMaxDocumentLength() {
+        return maxDocumentLength;
+    }
+
+    /**
+     * Sets the maximum number of decoded UTF-16 code units read from the 
+     * input. When truncating, the rest of the input is treated as if the end 
+     * of the input had been reached.
+     * 
+     * @param maxDocumentLength
+     *            the limit or -1
+     */
+    public void setMaxDocumentLength(long maxDocumentLength) {
+        this.maxDocumentLength = maxDocumentLength;
+    }
+
+    /**
+     * Returns the maximum number of attributes on an element.
+     * 
+     * @return the limit or -1
+     */
+    public int getMaxAttributesPerElement() {
+        return maxAttributesPerElement;
+    }
+
+    /**
+     * Sets the maximum number of attributes on an element. When truncating, 
+     * the attributes after the limit are dropped.
+     * 
+     * @param maxAttributesPerElement
+     *            the limit or -1
+     */
+    public void setMaxAttributesPerElement(int maxAttributesPerElement) {
+        this.maxAttributesPerElement = maxAttributesPerElement;
+    }
+
+    /**
+     * Returns the maximum length of an attribute value.
+     * 
+     * @return the limit or -1
+     */
+    public int getMaxAttributeValueLength() {
+        return maxAttributeValueLength;
+    }
+
+    /**
+     * Sets the maximum length of an attribute value in UTF-16 code units. 
+     * When truncating, the value is cut at the limit.
+     * 
+     * @param maxAttributeValueLength
+     *            the limit or -1
+     */
+    public void setMaxAttributeValueLength(int maxAttributeValueLength) {
+        this.maxAttributeValueLength = maxAttributeValueLength;
+    }
+
+    /**
+     * Returns the maximum length of a comment.
+     * 
+     * @return the limit or -1
+     */
+    public int getMaxCommentLength() {
+        return maxCommentLength;
+    }
+
+    /**
+     * Sets the maximum length of a comment in UTF-16 code units. When 
+     * truncating, the comment is cut at the limit.
+     * 
+     * @param maxCommentLength
+     *            the limit or -1
+     */
+    public void setMaxCommentLength(int maxCommentLength) {
+        this.maxCommentLength = maxCommentLength;
+    }
+
+    /**
+     * Returns the maximum length of a tag name, an attribute name or a 
+     * DOCTYPE name or identifier.
+     * 
+     * @return the limit or -1
+     */
+    public int getMaxTokenLength() {
+        return maxTokenLength;
+    }
+
+    /**
+     * Sets the maximum length in UTF-16 code units of a tag name, an 
+     * attribute name or a DOCTYPE name or identifier. When truncating, the 
+     * name or identifier is cut at the limit, so a truncated tag name may 
+     * name a different element. Without this limit, a single long name can 
+     * grow the tokenizer buffer without bound even when the other limits are 
+     * set.
+     * 
+     * @param maxTokenLength
+     *            the limit or -1
+     */
+    public void setMaxTokenLength(int maxTokenLength) {
+        this.maxTokenLength = maxTokenLength;
+    }
+
+    /**
+     * Returns the maximum length of a run of text buffered by the tree 
+     * builder.
+     * 
+     * @return the limit or -1
+     */
+    public int getMaxTextLength() {
+        return maxTextLength;
+    }
+
+    /**
+     * Sets the maximum length in UTF-16 code units of a run of text the tree 
+     * builder buffers between two tags. When truncating, the rest of the run 
+     * is dropped. Tree builders that pass text through without buffering it 
+     * (the SAX ones) do not need this limit and ignore it.
+     * 
+     * @param maxTextLength
+     *            the limit or -1
+     */
+    public void setMaxTextLength(int maxTextLength) {
+        this.maxTextLength = maxTextLength;
+    }
+
+    /**
+     * Returns the maximum depth of the tree.
+     * 
+     * @return the limit or -1
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Sets the maximum number of elements deep the tree may get. When 
+     * truncating, deeper elements are inserted as siblings like browsers do. 
+     * Only failing bounds the memory used by the stack of open elements.
+     * 
+     * @param maxDepth
+     *            the limit (at least 2) or -1
+     * @throws IllegalArgumentException
+     *             if the limit is neither -1 nor at least 2
+     */
+    public void setMaxDepth(int maxDepth) {
+        if (maxDepth != -1 && maxDepth < 2) {
+            throw new IllegalArgumentException(
+                    "The depth limit must be -1 or at least 2.");
+        }
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Tells whether exceeding a limit is a fatal error.
+     * 
+     * @return <code>true</code> if the policy is <code>FATAL</code>
+     */
+    public boolean isFailingFast() {
+        return policy == XmlViolationPolicy.FATAL;
+    }
+}
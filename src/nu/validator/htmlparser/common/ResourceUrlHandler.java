@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.common;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+
+/**
+ * A callback interface for receiving notifications about subresource URLs 
+ * discovered by a preload scan.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+public interface ResourceUrlHandler {
+
+    /**
+     * Receive notification of a URL found in an attribute.
+     * 
+     * @param url
+     *            the URL resolved against the base URL or as it appeared in 
+     *            the attribute if there is no base URL or resolving failed
+     * @param localName
+     *            the local name of the element (interned)
+     * @param attributeName
+     *            the local name of the attribute the URL came from (interned)
+     * @param attributes
+     *            all the attributes of the element; only valid during this 
+     *            call
+     * @throws SAXException
+     *             if things go wrong
+     */
+    public void resourceUrl(String url, String localName,
+            String attributeName, Attributes attributes) throws SAXException;
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.common;
+
+/**
+ * An interface implemented by the parser entry points so that parser 
+ * instances can be pooled and reused for parsing many documents.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+public interface ReusableParser {
+
+    /**
+     * Sets whether the tokenizer and tree builder buffers that have been 
+     * grown while parsing a document are kept for the next parse instead of 
+     * being reallocated. The tree builder also keeps the stack node objects 
+     * it allocated, with their references to the previous tree cleared.
+     * 
+     * @param keepingBuffers
+     *            <code>true</code> to keep the buffers
+     */
+    public void setKeepingBuffers(boolean keepingBuffers);
+
+    /**
+     * Drops the references to the result of the previous parse so that an 
+     * idle parser does not keep a document alive. The configuration and the 
+     * kept buffers are retained.
+     */
+    public void reset();
+
+    /**
+     * Drops the kept buffers that have grown longer than the given length.
+     * 
+     * @param length
+     *            the maximum length (in characters or array slots) to keep
+     */
+    public void dropBuffersLongerThan(int length);
+
+    /**
+     * Sets the length above which kept buffers are shrunk automatically at 
+     * the end of each parse.
+     * 
+     * @param bufferHighWaterMark
+     *            the length (in characters or array slots) or -1 to never 
+     *            shrink
+     */
+    public void setBufferHighWaterMark(int bufferHighWaterMark);
+}
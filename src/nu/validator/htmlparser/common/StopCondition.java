@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.common;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+
+/**
+ * A predicate that lets the user of the parser end the parse early. The 
+ * condition is consulted before the tree builder processes each start tag. 
+ * When it returns <code>true</code>, the tag is not processed, the rest of 
+ * the input is not read and the parse finishes as if the end of the input 
+ * had been reached at that point, i.e. the usual end-of-file processing 
+ * closes the open elements.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+public interface StopCondition {
+
+    /**
+     * Stops before the first start tag that would begin the body of the 
+     * document. Useful for extracting the <code>title</code>, 
+     * <code>meta</code> and <code>link</code> elements without parsing the 
+     * rest of the document.
+     */
+    public static final StopCondition BEFORE_BODY = new StopCondition() {
+        public boolean stopBeforeStartTag(String localName,
+                Attributes attributes) throws SAXException {
+            return !("html" == localName || "head" == localName
+                    || "title" == localName || "base" == localName
+                    || "basefont" == localName || "bgsound" == localName
+                    || "link" == localName || "meta" == localName
+                    || "style" == localName || "script" == localName
+                    || "noscript" == localName || "noframes" == localName
+                    || "template" == localName);
+        }
+    };
+
+    /**
+     * Decides whether parsing should stop before the given start tag.
+     * 
+     * @param localName
+     *            the lower-cased tag name (interned)
+     * @param attributes
+     *            the attributes of the tag
+     * @return <code>true</code> to stop parsing
+     * @throws SAXException
+     *             if things go wrong
+     */
+    public boolean stopBeforeStartTag(String localName, Attributes attributes)
+            throws SAXException;
+}
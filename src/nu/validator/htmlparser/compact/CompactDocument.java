@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.compact;
+
+import nu.validator.htmlparser.common.DocumentMode;
+
+/**
+ * A read-only HTML document stored as parallel arrays instead of as an 
+ * object per node. 
+ * 
+ * <p>The structure is kept in parent, first child and next sibling arrays. The 
+ * data of text and comment nodes and the attribute values are ranges in 
+ * one shared <code>char</code> array. Element and attribute names are 
+ * indexes into small per-document tables that refer to the interned name 
+ * strings of the parser, so a name costs nothing per node beyond the index.
+ * 
+ * <p>Instances are immutable and can be read from many threads. Locations 
+ * are not retained.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+public final class CompactDocument extends CompactTree {
+
+    final int nodeCount;
+
+    final byte[] types;
+
+    final int[] parents;
+
+    final int[] firstChildren;
+
+    final int[] nextSiblings;
+
+    /**
+     * The element name index for elements.
+     */
+    final int[] names;
+
+    /**
+     * The index of the first attribute for elements and the text offset for
+     * text and comments.
+     */
+    final int[] starts;
+
+    /**
+     * The number of attributes for elements and the text length for text and
+     * comments.
+     */
+    final int[] lengths;
+
+    final int[] attributeNames;
+
+    final int[] attributeValueStarts;
+
+    final int[] attributeValueLengths;
+
+    final char[] text;
+
+    final String[] elementLocalNames;
+
+    final String[] elementUris;
+
+    final String[] attributeLocalNames;
+
+    final String[] attributeUris;
+
+    final String[] attributeQNames;
+
+    final String doctypeName;
+
+    final String doctypePublicIdentifier;
+
+    final String doctypeSystemIdentifier;
+
+    final DocumentMode documentMode;
+
+    CompactDocument(int nodeCount, byte[] types, int[] parents,
+            int[] firstChildren, int[] nextSiblings, int[] names,
+            int[] starts, int[] lengths, int[] attributeNames,
+            int[] attributeValueStarts, int[] attributeValueLengths,
+            char[] text, String[] elementLocalNames, String[] elementUris,
+            String[] attributeLocalNames, String[] attributeUris,
+            String[] attributeQNames, String doctypeName,
+            String doctypePublicIdentifier, String doctypeSystemIdentifier,
+            DocumentMode documentMode) {
+        this.nodeCount = nodeCount;
+        this.types = types;
+        this.parents = parents;
+        this.firstChildren = firstChildren;
+        this.nextSiblings = nextSiblings;
+        this.names = names;
+        this.starts = starts;
+        this.lengths = lengths;
+        this.attributeNames = attributeNames;
+        this.attributeValueStarts = attributeValueStarts;
+        this.attributeValueLengths = attributeValueLengths;
+        this.text = text;
+        this.elementLocalNames = elementLocalNames;
+        this.elementUris = elementUris;
+        this.attributeLocalNames = attributeLocalNames;
+        this.attributeUris = attributeUris;
+        this.attributeQNames = attributeQNames;
+        this.doctypeName = doctypeName;
+        this.doctypePublicIdentifier = doctypePublicIdentifier;
+        this.doctypeSystemIdentifier = doctypeSystemIdentifier;
+        this.documentMode = documentMode;
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getNodeCount()
+     */
+    @Override public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getNodeType(int)
+     */
+    @Override public int getNodeType(int node) {
+        return types[node];
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getParent(int)
+     */
+    @Override public int getParent(int node) {
+        return parents[node];
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getFirstChild(int)
+     */
+    @Override public int getFirstChild(int node) {
+        return firstChildren[node];
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getNextSibling(int)
+     */
+    @Override public int getNextSibling(int node) {
+        return nextSiblings[node];
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getLocalName(int)
+     */
+    @Override public String getLocalName(int element) {
+        return elementLocalNames[names[element]];
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getUri(int)
+     */
+    @Override public String getUri(int element) {
+        return elementUris[names[element]];
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getAttributeCount(int)
+     */
+    @Override public int getAttributeCount(int element) {
+        return lengths[element];
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getAttributeLocalName(int, int)
+     */
+    @Override public String getAttributeLocalName(int element, int index) {
+        return attributeLocalNames[attributeNames[attributeIndex(element,
+                index)]];
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getAttributeUri(int, int)
+     */
+    @Override public String getAttributeUri(int element, int index) {
+        return attributeUris[attributeNames[attributeIndex(element, index)]];
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getAttributeQName(int, int)
+     */
+    @Override public String getAttributeQName(int element, int index) {
+        return attributeQNames[attributeNames[attributeIndex(element, index)]];
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getAttributeValue(int, int)
+     */
+    @Override public String getAttributeValue(int element, int index) {
+        int i = attributeIndex(element, index);
+        return new String(text, attributeValueStarts[i],
+                attributeValueLengths[i]);
+    }
+
+    @Override void getTextSlice(int node, TextSlice slice) {
+        slice.buffer = text;
+        slice.start = starts[node];
+    }
+
+    private int attributeIndex(int element, int index) {
+        if (index < 0 || index >= lengths[element]) {
+            throw new IndexOutOfBoundsException("Attribute index " + index
+                    + " out of range.");
+        }
+        return starts[element] + index;
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getData(int)
+     */
+    @Override public String getData(int node) {
+        return new String(text, starts[node], lengths[node]);
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getDataLength(int)
+     */
+    @Override public int getDataLength(int node) {
+        return lengths[node];
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getData(int, char[], int)
+     */
+    @Override public void getData(int node, char[] dst, int dstBegin) {
+        System.arraycopy(text, starts[node], dst, dstBegin, lengths[node]);
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getDoctypeName()
+     */
+    @Override public String getDoctypeName() {
+        return doctypeName;
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getDoctypePublicIdentifier()
+     */
+    @Override public String getDoctypePublicIdentifier() {
+        return doctypePublicIdentifier;
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getDoctypeSystemIdentifier()
+     */
+    @Override public String getDoctypeSystemIdentifier() {
+        return doctypeSystemIdentifier;
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getDocumentMode()
+     */
+    @Override public DocumentMode getDocumentMode() {
+        return documentMode;
+    }
+
+    /**
+     * Returns an estimate of the heap memory taken by the arrays of this 
+     * document in bytes, excluding the shared name strings.
+     * 
+     * @return the estimate
+     */
+    public long getArraysSize() {
+        return types.length + 4L * (parents.length + firstChildren.length
+                + nextSiblings.length + names.length + starts.length
+                + lengths.length + attributeNames.length
+                + attributeValueStarts.length + attributeValueLengths.length)
+                + 2L * text.length;
+    }
+}
@@ -0,0 +1,528 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.compact;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+
+import nu.validator.htmlparser.common.DocumentMode;
+
+/**
+ * The read-only API shared by the compact document representations. 
+ * 
+ * <p>Nodes are identified by <code>int</code> ids. The document node is 
+ * always <code>0</code> and <code>NONE</code> (-1) stands for no node. 
+ * Implementations are immutable and can be read from many threads. 
+ * Locations are not retained.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+public abstract class CompactTree {
+
+    /**
+     * The id that stands for no node.
+     */
+    public static final int NONE = -1;
+
+    /**
+     * The type of the document node.
+     */
+    public static final int DOCUMENT_NODE = 0;
+
+    /**
+     * The type of the doctype node.
+     */
+    public static final int DOCUMENT_TYPE_NODE = 1;
+
+    /**
+     * The type of element nodes.
+     */
+    public static final int ELEMENT_NODE = 2;
+
+    /**
+     * The type of text nodes.
+     */
+    public static final int TEXT_NODE = 3;
+
+    /**
+     * The type of comment nodes.
+     */
+    public static final int COMMENT_NODE = 4;
+
+    CompactTree() {
+    }
+
+    /**
+     * Returns the number of node ids in use. Ids range from 0 to this number 
+     * minus one. Ids of nodes that the parser removed from the tree stay 
+     * allocated but are not reachable from the document node.
+     * 
+     * @return the number of nodes
+     */
+    public abstract int getNodeCount();
+
+    /**
+     * Returns the type of a node.
+     * 
+     * @param node
+     *            the node id
+     * @return one of the <code>*_NODE</code> constants
+     */
+    public abstract int getNodeType(int node);
+
+    /**
+     * Returns the parent of a node.
+     * 
+     * @param node
+     *            the node id
+     * @return the parent or <code>NONE</code>
+     */
+    public abstract int getParent(int node);
+
+    /**
+     * Returns the first child of a node.
+     * 
+     * @param node
+     *            the node id
+     * @return the first child or <code>NONE</code>
+     */
+    public abstract int getFirstChild(int node);
+
+    /**
+     * Returns the next sibling of a node.
+     * 
+     * @param node
+     *            the node id
+     * @return the next sibling or <code>NONE</code>
+     */
+    public abstract int getNextSibling(int node);
+
+    /**
+     * Returns the local name of an element. The qualified name of an element 
+     * in an HTML document is the same as the local name.
+     * 
+     * @param element
+     *            the element id
+     * @return the local name
+     */
+    public abstract String getLocalName(int element);
+
+    /**
+     * Returns the namespace URI of an element.
+     * 
+     * @param element
+     *            the element id
+     * @return the namespace URI
+     */
+    public abstract String getUri(int element);
+
+    /**
+     * Returns the number of attributes an element has.
+     * 
+     * @param element
+     *            the element id
+     * @return the number of attributes
+     */
+    public abstract int getAttributeCount(int element);
+
+    /**
+     * Returns the local name of an attribute.
+     * 
+     * @param element
+     *            the element id
+     * @param index
+     *            the attribute index
+     * @return the local name
+     */
+    public abstract String getAttributeLocalName(int element, int index);
+
+    /**
+     * Returns the namespace URI of an attribute.
+     * 
+     * @param element
+     *            the element id
+     * @param index
+     *            the attribute index
+     * @return the namespace URI (the empty string for no namespace)
+     */
+    public abstract String getAttributeUri(int element, int index);
+
+    /**
+     * Returns the qualified name of an attribute.
+     * 
+     * @param element
+     *            the element id
+     * @param index
+     *            the attribute index
+     * @return the qualified name
+     */
+    public abstract String getAttributeQName(int element, int index);
+
+    /**
+     * Returns the value of an attribute. The string is created on each call.
+     * 
+     * @param element
+     *            the element id
+     * @param index
+     *            the attribute index
+     * @return the value
+     */
+    public abstract String getAttributeValue(int element, int index);
+
+    /**
+     * Returns the data of a text or comment node. The string is created on 
+     * each call.
+     * 
+     * @param node
+     *            the node id
+     * @return the data
+     */
+    public abstract String getData(int node);
+
+    /**
+     * Returns the length of the data of a text or comment node.
+     * 
+     * @param node
+     *            the node id
+     * @return the length in UTF-16 code units
+     */
+    public abstract int getDataLength(int node);
+
+    /**
+     * Copies the data of a text or comment node into an array.
+     * 
+     * @param node
+     *            the node id
+     * @param dst
+     *            the destination array
+     * @param dstBegin
+     *            the offset in the destination array
+     */
+    public abstract void getData(int node, char[] dst, int dstBegin);
+
+    /**
+     * Returns the name of the doctype.
+     * 
+     * @return the name or <code>null</code> if there was no doctype
+     */
+    public abstract String getDoctypeName();
+
+    /**
+     * Returns the public identifier of the doctype.
+     * 
+     * @return the public identifier or <code>null</code>
+     */
+    public abstract String getDoctypePublicIdentifier();
+
+    /**
+     * Returns the system identifier of the doctype.
+     * 
+     * @return the system identifier or <code>null</code>
+     */
+    public abstract String getDoctypeSystemIdentifier();
+
+    /**
+     * Returns the document mode.
+     * 
+     * @return the mode or <code>null</code> if it was not determined
+     */
+    public abstract DocumentMode getDocumentMode();
+
+    /**
+     * Points a slice at the data of a text or comment node. The slice 
+     * either shares the array that holds the text of the document or gets 
+     * the data copied into its own array, which is grown as needed.
+     * 
+     * @param node
+     *            the node id
+     * @param slice
+     *            the slice to point at the data
+     */
+    abstract void getTextSlice(int node, TextSlice slice);
+
+    /**
+     * Returns the first element child of the document.
+     * 
+     * @return the root element or <code>NONE</code>
+     */
+    public int getDocumentElement() {
+        for (int node = getFirstChild(0); node != NONE; node = getNextSibling(node)) {
+            if (getNodeType(node) == ELEMENT_NODE) {
+                return node;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Returns the next node in document order that is inside 
+     * <code>root</code>. Starting with <code>next(root, root)</code> and 
+     * repeating until <code>NONE</code> visits every node under 
+     * <code>root</code> without recursion.
+     * 
+     * @param root
+     *            the root of the traversal
+     * @param node
+     *            the current node
+     * @return the next node or <code>NONE</code>
+     */
+    public int next(int root, int node) {
+        int child = getFirstChild(node);
+        if (child != NONE) {
+            return child;
+        }
+        while (node != root) {
+            int sibling = getNextSibling(node);
+            if (sibling != NONE) {
+                return sibling;
+            }
+            node = getParent(node);
+        }
+        return NONE;
+    }
+
+    /**
+     * Returns the index of an attribute by name.
+     * 
+     * @param element
+     *            the element id
+     * @param uri
+     *            the namespace URI (the empty string for no namespace)
+     * @param localName
+     *            the local name
+     * @return the index or -1 if the element does not have the attribute
+     */
+    public int getAttributeIndex(int element, String uri, String localName) {
+        int length = getAttributeCount(element);
+        for (int i = 0; i < length; i++) {
+            if (getAttributeLocalName(element, i).equals(localName)
+                    && getAttributeUri(element, i).equals(uri)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the value of an attribute by name.
+     * 
+     * @param element
+     *            the element id
+     * @param uri
+     *            the namespace URI (the empty string for no namespace)
+     * @param localName
+     *            the local name
+     * @return the value or <code>null</code> if the element does not have 
+     *         the attribute
+     */
+    public String getAttributeValue(int element, String uri, String localName) {
+        int index = getAttributeIndex(element, uri, localName);
+        return index == -1 ? null : getAttributeValue(element, index);
+    }
+
+    /**
+     * Reports the document as SAX events. No locator is set. The character 
+     * and comment callbacks may receive an array shared with the document, 
+     * which they must not modify.
+     * 
+     * @param contentHandler
+     *            the content handler
+     * @param lexicalHandler
+     *            the lexical handler or <code>null</code> to drop the 
+     *            doctype and comments
+     * @throws SAXException
+     *             if a handler throws
+     */
+    public void replay(ContentHandler contentHandler,
+            LexicalHandler lexicalHandler) throws SAXException {
+        replay(contentHandler, lexicalHandler, 0);
+    }
+
+    /**
+     * Reports a subtree as SAX events. If <code>root</code> is not the 
+     * document node, <code>startDocument()</code> and 
+     * <code>endDocument()</code> are still reported around the subtree.
+     * 
+     * @param contentHandler
+     *            the content handler
+     * @param lexicalHandler
+     *            the lexical handler or <code>null</code>
+     * @param root
+     *            the root of the subtree
+     * @throws SAXException
+     *             if a handler throws
+     */
+    public void replay(ContentHandler contentHandler,
+            LexicalHandler lexicalHandler, int root) throws SAXException {
+        if (contentHandler == null) {
+            throw new IllegalArgumentException("contentHandler was null.");
+        }
+        ElementAttributes attributes = new ElementAttributes();
+        TextSlice slice = new TextSlice();
+        contentHandler.startDocument();
+        int node = root;
+        for (;;) {
+            int type = getNodeType(node);
+            switch (type) {
+                case DOCUMENT_TYPE_NODE:
+                    if (lexicalHandler != null) {
+                        lexicalHandler.startDTD(getDoctypeName(),
+                                getDoctypePublicIdentifier(),
+                                getDoctypeSystemIdentifier());
+                        lexicalHandler.endDTD();
+                    }
+                    break;
+                case ELEMENT_NODE:
+                    attributes.element = node;
+                    String localName = getLocalName(node);
+                    contentHandler.startElement(getUri(node), localName,
+                            localName, attributes);
+                    break;
+                case TEXT_NODE:
+                case COMMENT_NODE:
+                    if (type == COMMENT_NODE && lexicalHandler == null) {
+                        break;
+                    }
+                    int length = getDataLength(node);
+                    getTextSlice(node, slice);
+                    if (type == TEXT_NODE) {
+                        contentHandler.characters(slice.buffer, slice.start,
+                                length);
+                    } else {
+                        lexicalHandler.comment(slice.buffer, slice.start,
+                                length);
+                    }
+                    break;
+                default:
+                    break;
+            }
+            int child = getFirstChild(node);
+            if (child != NONE) {
+                node = child;
+                continue;
+            }
+            for (;;) {
+                if (getNodeType(node) == ELEMENT_NODE) {
+                    String localName = getLocalName(node);
+                    contentHandler.endElement(getUri(node), localName,
+                            localName);
+                }
+                if (node == root) {
+                    contentHandler.endDocument();
+                    return;
+                }
+                int sibling = getNextSibling(node);
+                if (sibling != NONE) {
+                    node = sibling;
+                    break;
+                }
+                node = getParent(node);
+            }
+        }
+    }
+
+    /**
+     * The location of the data of a text or comment node in a 
+     * <code>char</code> array.
+     */
+    static final class TextSlice {
+
+        char[] buffer;
+
+        int start;
+    }
+
+    /**
+     * A view of the attributes of the element being replayed.
+     */
+    private final class ElementAttributes implements Attributes {
+
+        int element;
+
+        public int getLength() {
+            return getAttributeCount(element);
+        }
+
+        private boolean inRange(int index) {
+            return index >= 0 && index < getAttributeCount(element);
+        }
+
+        public String getURI(int index) {
+            return inRange(index) ? getAttributeUri(element, index) : null;
+        }
+
+        public String getLocalName(int index) {
+            return inRange(index) ? getAttributeLocalName(element, index)
+                    : null;
+        }
+
+        public String getQName(int index) {
+            return inRange(index) ? getAttributeQName(element, index) : null;
+        }
+
+        public String getType(int index) {
+            if (!inRange(index)) {
+                return null;
+            }
+            return ("id" == getAttributeLocalName(element, index) && "" == getAttributeUri(
+                    element, index)) ? "ID" : "CDATA";
+        }
+
+        public String getValue(int index) {
+            return inRange(index) ? getAttributeValue(element, index) : null;
+        }
+
+        public int getIndex(String uri, String localName) {
+            return getAttributeIndex(element, uri, localName);
+        }
+
+        public int getIndex(String qName) {
+            int length = getAttributeCount(element);
+            for (int i = 0; i < length; i++) {
+                if (getAttributeQName(element, i).equals(qName)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        public String getType(String uri, String localName) {
+            return getType(getIndex(uri, localName));
+        }
+
+        public String getType(String qName) {
+            return getType(getIndex(qName));
+        }
+
+        public String getValue(String uri, String localName) {
+            return getValue(getIndex(uri, localName));
+        }
+
+        public String getValue(String qName) {
+            return getValue(getIndex(qName));
+        }
+    }
+}
@@ -0,0 +1,843 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.compact;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.xml.sax.SAXException;
+
+import nu.validator.htmlparser.common.DocumentMode;
+import nu.validator.htmlparser.impl.HtmlAttributes;
+import nu.validator.htmlparser.impl.TreeBuilder;
+
+/**
+ * The tree builder glue for building a <code>CompactDocument</code>. 
+ * Elements are represented by boxed node ids while the tree is being built.
+ * Text is coalesced in the character buffer of the superclass.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+class CompactTreeBuilder extends TreeBuilder<Integer> {
+
+    private static final int NONE = CompactDocument.NONE;
+
+    private int nodeCount;
+
+    private byte[] types;
+
+    private int[] parents;
+
+    private int[] firstChildren;
+
+    private int[] lastChildren;
+
+    private int[] nextSiblings;
+
+    private int[] previousSiblings;
+
+    private int[] names;
+
+    private int[] starts;
+
+    private int[] lengths;
+
+    private int attributeCount;
+
+    private int[] attributeNames;
+
+    private int[] attributeValueStarts;
+
+    private int[] attributeValueLengths;
+
+    private int textLength;
+
+    private char[] text;
+
+    /**
+     * The number of characters in <code>text</code> that no node refers to 
+     * anymore.
+     */
+    private int wastedText;
+
+    /**
+     * The text node whose data is being accumulated in 
+     * <code>pendingText</code> or <code>NONE</code>. Appending to a text 
+     * node in place only works if nothing has been written to the text array 
+     * after it, so the data of the node being appended to is collected here 
+     * and written back once.
+     */
+    private int pendingNode;
+
+    private char[] pendingText;
+
+    private int pendingLength;
+
+    private final HashMap<String, HashMap<String, Integer>> elementNameIndexes = new HashMap<String, HashMap<String, Integer>>();
+
+    private String[] elementLocalNames;
+
+    private String[] elementUris;
+
+    private int elementNameCount;
+
+    private final HashMap<String, HashMap<String, Integer>> attributeNameIndexes = new HashMap<String, HashMap<String, Integer>>();
+
+    private String[] attributeLocalNames;
+
+    private String[] attributeUris;
+
+    private String[] attributeQNames;
+
+    private int attributeNameCount;
+
+    private String doctypeName;
+
+    private String doctypePublicIdentifier;
+
+    private String doctypeSystemIdentifier;
+
+    private DocumentMode documentMode;
+
+    private boolean keepArrays;
+
+    private CompactDocument document;
+
+    CompactTreeBuilder() {
+        super();
+    }
+
+    /**
+     * @see nu.validator.htmlparser.impl.TreeBuilder#start(boolean)
+     */
+    @Override protected void start(boolean fragment) throws SAXException {
+        if (types == null) {
+            allocateNodes(64);
+            attributeNames = new int[64];
+            attributeValueStarts = new int[64];
+            attributeValueLengths = new int[64];
+            text = new char[1024];
+            pendingText = new char[128];
+            elementLocalNames = new String[32];
+            elementUris = new String[32];
+            attributeLocalNames = new String[32];
+            attributeUris = new String[32];
+            attributeQNames = new String[32];
+        }
+        nodeCount = 0;
+        attributeCount = 0;
+        textLength = 0;
+        wastedText = 0;
+        pendingNode = NONE;
+        pendingLength = 0;
+        elementNameIndexes.clear();
+        elementNameCount = 0;
+        attributeNameIndexes.clear();
+        attributeNameCount = 0;
+        doctypeName = null;
+        doctypePublicIdentifier = null;
+        doctypeSystemIdentifier = null;
+        documentMode = null;
+        document = null;
+        newNode(CompactDocument.DOCUMENT_NODE);
+    }
+
+    /**
+     * @see nu.validator.htmlparser.impl.TreeBuilder#end()
+     */
+    @Override protected void end() throws SAXException {
+        flushPendingText();
+        if (wastedText > textLength / 4) {
+            compactText();
+        }
+        document = new CompactDocument(nodeCount,
+                Arrays.copyOf(types, nodeCount),
+                Arrays.copyOf(parents, nodeCount),
+                Arrays.copyOf(firstChildren, nodeCount),
+                Arrays.copyOf(nextSiblings, nodeCount),
+                Arrays.copyOf(names, nodeCount),
+                Arrays.copyOf(starts, nodeCount),
+                Arrays.copyOf(lengths, nodeCount),
+                Arrays.copyOf(attributeNames, attributeCount),
+                Arrays.copyOf(attributeValueStarts, attributeCount),
+                Arrays.copyOf(attributeValueLengths, attributeCount),
+                Arrays.copyOf(text, textLength),
+                Arrays.copyOf(elementLocalNames, elementNameCount),
+                Arrays.copyOf(elementUris, elementNameCount),
+                Arrays.copyOf(attributeLocalNames, attributeNameCount),
+                Arrays.copyOf(attributeUris, attributeNameCount),
+                Arrays.copyOf(attributeQNames, attributeNameCount),
+                doctypeName, doctypePublicIdentifier, doctypeSystemIdentifier,
+                documentMode);
+        elementNameIndexes.clear();
+        attributeNameIndexes.clear();
+        if (keepArrays) {
+            Arrays.fill(elementLocalNames, 0, elementNameCount, null);
+            Arrays.fill(elementUris, 0, elementNameCount, null);
+            Arrays.fill(attributeLocalNames, 0, attributeNameCount, null);
+            Arrays.fill(attributeUris, 0, attributeNameCount, null);
+            Arrays.fill(attributeQNames, 0, attributeNameCount, null);
+        } else {
+            dropArrays();
+        }
+    }
+
+    /**
+     * Returns the document built by the last parse and forgets it.
+     * 
+     * @return the document or <code>null</code>
+     */
+    CompactDocument getDocument() {
+        CompactDocument rv = document;
+        document = null;
+        return rv;
+    }
+
+    /**
+     * Forgets the document built by the last parse without returning it.
+     */
+    void clearDocument() {
+        document = null;
+    }
+
+    @Override public void setKeepBuffer(boolean keepBuffer) {
+        super.setKeepBuffer(keepBuffer);
+        keepArrays = keepBuffer;
+    }
+
+    @Override public boolean dropBufferIfLongerThan(int length) {
+        boolean dropped = super.dropBufferIfLongerThan(length);
+        if (types != null
+                && (types.length > length || attributeNames.length > length || text.length > length)) {
+            dropArrays();
+            return true;
+        }
+        return dropped;
+    }
+
+    private void dropArrays() {
+        types = null;
+        parents = null;
+        firstChildren = null;
+        lastChildren = null;
+        nextSiblings = null;
+        previousSiblings = null;
+        names = null;
+        starts = null;
+        lengths = null;
+        attributeNames = null;
+        attributeValueStarts = null;
+        attributeValueLengths = null;
+        text = null;
+        pendingText = null;
+        elementLocalNames = null;
+        elementUris = null;
+        attributeLocalNames = null;
+        attributeUris = null;
+        attributeQNames = null;
+    }
+
+    private void allocateNodes(int length) {
+        types = new byte[length];
+        parents = new int[length];
+        firstChildren = new int[length];
+        lastChildren = new int[length];
+        nextSiblings = new int[length];
+        previousSiblings = new int[length];
+        names = new int[length];
+        starts = new int[length];
+        lengths = new int[length];
+    }
+
+    private int newNode(int type) {
+        if (nodeCount == types.length) {
+            int length = nodeCount + (nodeCount >> 1);
+            types = Arrays.copyOf(types, length);
+            parents = Arrays.copyOf(parents, length);
+            firstChildren = Arrays.copyOf(firstChildren, length);
+            lastChildren = Arrays.copyOf(lastChildren, length);
+            nextSiblings = Arrays.copyOf(nextSiblings, length);
+            previousSiblings = Arrays.copyOf(previousSiblings, length);
+            names = Arrays.copyOf(names, length);
+            starts = Arrays.copyOf(starts, length);
+            lengths = Arrays.copyOf(lengths, length);
+        }
+        int node = nodeCount++;
+        types[node] = (byte) type;
+        parents[node] = NONE;
+        firstChildren[node] = NONE;
+        lastChildren[node] = NONE;
+        nextSiblings[node] = NONE;
+        previousSiblings[node] = NONE;
+        names[node] = NONE;
+        starts[node] = 0;
+        lengths[node] = 0;
+        return node;
+    }
+
+    private int newTextNode(int type, char[] buf, int start, int length) {
+        int node = newNode(type);
+        starts[node] = writeText(buf, start, length);
+        lengths[node] = length;
+        return node;
+    }
+
+    private int writeText(char[] buf, int start, int length) {
+        int offset = textLength;
+        if (offset + length > text.length) {
+            text = Arrays.copyOf(text, Math.max(offset + length,
+                    text.length + (text.length >> 1)));
+        }
+        System.arraycopy(buf, start, text, offset, length);
+        textLength += length;
+        return offset;
+    }
+
+    private void appendChild(int parent, int child) {
+        int last = lastChildren[parent];
+        parents[child] = parent;
+        previousSiblings[child] = last;
+        nextSiblings[child] = NONE;
+        if (last == NONE) {
+            firstChildren[parent] = child;
+        } else {
+            nextSiblings[last] = child;
+        }
+        lastChildren[parent] = child;
+    }
+
+    private void insertBefore(int parent, int child, int reference) {
+        int previous = previousSiblings[reference];
+        parents[child] = parent;
+        previousSiblings[child] = previous;
+        nextSiblings[child] = reference;
+        previousSiblings[reference] = child;
+        if (previous == NONE) {
+            firstChildren[parent] = child;
+        } else {
+            nextSiblings[previous] = child;
+        }
+    }
+
+    private void detach(int node) {
+        int parent = parents[node];
+        if (parent == NONE) {
+            return;
+        }
+        int previous = previousSiblings[node];
+        int next = nextSiblings[node];
+        if (previous == NONE) {
+            firstChildren[parent] = next;
+        } else {
+            nextSiblings[previous] = next;
+        }
+        if (next == NONE) {
+            lastChildren[parent] = previous;
+        } else {
+            previousSiblings[next] = previous;
+        }
+        parents[node] = NONE;
+        previousSiblings[node] = NONE;
+        nextSiblings[node] = NONE;
+    }
+
+    /**
+     * Appends characters to an existing text node through the pending text 
+     * buffer.
+     */
+    private void appendToText(int node, char[] buf, int start, int length) {
+        if (node != pendingNode) {
+            flushPendingText();
+            pendingNode = node;
+            pendingLength = 0;
+            appendPending(text, starts[node], lengths[node]);
+        }
+        appendPending(buf, start, length);
+    }
+
+    private void appendPending(char[] buf, int start, int length) {
+        if (pendingLength + length > pendingText.length) {
+            pendingText = Arrays.copyOf(pendingText, Math.max(pendingLength
+                    + length, pendingText.length + (pendingText.length >> 1)));
+        }
+        System.arraycopy(buf, start, pendingText, pendingLength, length);
+        pendingLength += length;
+    }
+
+    private void flushPendingText() {
+        if (pendingNode != NONE) {
+            wastedText += lengths[pendingNode];
+            starts[pendingNode] = writeText(pendingText, 0, pendingLength);
+            lengths[pendingNode] = pendingLength;
+            pendingNode = NONE;
+            pendingLength = 0;
+        }
+    }
+
+    /**
+     * Copies the live text ranges into a new array, dropping the ranges that
+     * were abandoned when text nodes were appended to.
+     */
+    private void compactText() {
+        int live = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            if (hasText(node)) {
+                live += lengths[node];
+            }
+        }
+        for (int i = 0; i < attributeCount; i++) {
+            live += attributeValueLengths[i];
+        }
+        char[] compacted = new char[live];
+        int offset = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            if (hasText(node)) {
+                int length = lengths[node];
+                System.arraycopy(text, starts[node], compacted, offset, length);
+                starts[node] = offset;
+                offset += length;
+            }
+        }
+        for (int i = 0; i < attributeCount; i++) {
+            int length = attributeValueLengths[i];
+            System.arraycopy(text, attributeValueStarts[i], compacted, offset,
+                    length);
+            attributeValueStarts[i] = offset;
+            offset += length;
+        }
+        text = compacted;
+        textLength = offset;
+        wastedText = 0;
+    }
+
+    private boolean hasText(int node) {
+        int type = types[node];
+        return type == CompactDocument.TEXT_NODE
+                || type == CompactDocument.COMMENT_NODE;
+    }
+
+    private int elementName(String ns, String name) {
+        HashMap<String, Integer> byLocal = elementNameIndexes.get(ns);
+        if (byLocal == null) {
+            byLocal = new HashMap<String, Integer>();
+            elementNameIndexes.put(ns, byLocal);
+        }
+        Integer index = byLocal.get(name);
+        if (index != null) {
+            return index.intValue();
+        }
+        if (elementNameCount == elementLocalNames.length) {
+            elementLocalNames = Arrays.copyOf(elementLocalNames,
+                    elementNameCount * 2);
+            elementUris = Arrays.copyOf(elementUris, elementNameCount * 2);
+        }
+        elementLocalNames[elementNameCount] = name;
+        elementUris[elementNameCount] = ns;
+        byLocal.put(name, Integer.valueOf(elementNameCount));
+        return elementNameCount++;
+    }
+
+    private int attributeName(HtmlAttributes attributes, int i) {
+        String uri = attributes.getURINoBoundsCheck(i);
+        String local = attributes.getLocalNameNoBoundsCheck(i);
+        HashMap<String, Integer> byLocal = attributeNameIndexes.get(uri);
+        if (byLocal == null) {
+            byLocal = new HashMap<String, Integer>();
+            attributeNameIndexes.put(uri, byLocal);
+        }
+        Integer index = byLocal.get(local);
+        if (index != null) {
+            return index.intValue();
+        }
+        if (attributeNameCount == attributeLocalNames.length) {
+            attributeLocalNames = Arrays.copyOf(attributeLocalNames,
+                    attributeNameCount * 2);
+            attributeUris = Arrays.copyOf(attributeUris,
+                    attributeNameCount * 2);
+            attributeQNames = Arrays.copyOf(attributeQNames,
+                    attributeNameCount * 2);
+        }
+        attributeLocalNames[attributeNameCount] = local;
+        attributeUris[attributeNameCount] = uri;
+        attributeQNames[attributeNameCount] = attributes.getQNameNoBoundsCheck(i);
+        byLocal.put(local, Integer.valueOf(attributeNameCount));
+        return attributeNameCount++;
+    }
+
+    private void ensureAttributeSpace(int additional) {
+        int needed = attributeCount + additional;
+        if (needed > attributeNames.length) {
+            int length = Math.max(needed, attributeNames.length
+                    + (attributeNames.length >> 1));
+            attributeNames = Arrays.copyOf(attributeNames, length);
+            attributeValueStarts = Arrays.copyOf(attributeValueStarts, length);
+            attributeValueLengths = Arrays.copyOf(attributeValueLengths,
+                    length);
+        }
+    }
+
+    private void addAttribute(int name, String value) {
+        int length = value.length();
+        if (textLength + length > text.length) {
+            text = Arrays.copyOf(text, Math.max(textLength + length,
+                    text.length + (text.length >> 1)));
+        }
+        value.getChars(0, length, text, textLength);
+        attributeNames[attributeCount] = name;
+        attributeValueStarts[attributeCount] = textLength;
+        attributeValueLengths[attributeCount] = length;
+        attributeCount++;
+        textLength += length;
+    }
+
+    private int newElement(String ns, String name, HtmlAttributes attributes) {
+        int node = newNode(CompactDocument.ELEMENT_NODE);
+        names[node] = elementName(ns, name);
+        int length = attributes.getLength();
+        ensureAttributeSpace(length);
+        starts[node] = attributeCount;
+        lengths[node] = length;
+        for (int i = 0; i < length; i++) {
+            addAttribute(attributeName(attributes, i),
+                    attributes.getValueNoBoundsCheck(i));
+        }
+        return node;
+    }
+
+    /**
+     * Coalesces text in the character buffer like 
+     * <code>CoalescingTreeBuilder</code> does but without creating strings.
+     * 
+     * @see nu.validator.htmlparser.impl.TreeBuilder#accumulateCharacters(char[], int, int)
+     */
+    @Override protected void accumulateCharacters(char[] buf, int start,
+            int length) throws SAXException {
+        System.arraycopy(buf, start, charBuffer, charBufferLen, length);
+        charBufferLen += length;
+    }
+
+    /**
+     * The attributes are copied into the arrays.
+     * 
+     * @see nu.validator.htmlparser.impl.TreeBuilder#isRetainingAttributes()
+     */
+    @Override protected boolean isRetainingAttributes() {
+        return false;
+    }
+
+    @Override protected Integer createElement(String ns, String name,
+            HtmlAttributes attributes, Integer intendedParent)
+            throws SAXException {
+        return Integer.valueOf(newElement(ns, name, attributes));
+    }
+
+    /**
+     * The form pointer is not stored.
+     * 
+     * @see nu.validator.htmlparser.impl.TreeBuilder#createElement(String, String, HtmlAttributes, Object, Object)
+     */
+    @Override protected Integer createElement(String ns, String name,
+            HtmlAttributes attributes, Integer form, Integer intendedParent)
+            throws SAXException {
+        return createElement(ns, name, attributes, intendedParent);
+    }
+
+    @Override protected Integer createHtmlElementSetAsRoot(
+            HtmlAttributes attributes) throws SAXException {
+        int node = newElement("http://www.w3.org/1999/xhtml", "html",
+                attributes);
+        appendChild(0, node);
+        return Integer.valueOf(node);
+    }
+
+    @Override protected void addAttributesToElement(Integer element,
+            HtmlAttributes attributes) throws SAXException {
+        int node = element.intValue();
+        int start = starts[node];
+        int length = lengths[node];
+        int added = attributes.getLength();
+        ensureAttributeSpace(length + added);
+        if (start + length != attributeCount) {
+            // Move the existing attributes to the end so that they stay
+            // contiguous with the added ones.
+            System.arraycopy(attributeNames, start, attributeNames,
+                    attributeCount, length);
+            System.arraycopy(attributeValueStarts, start,
+                    attributeValueStarts, attributeCount, length);
+            System.arraycopy(attributeValueLengths, start,
+                    attributeValueLengths, attributeCount, length);
+            start = attributeCount;
+            attributeCount += length;
+            starts[node] = start;
+        }
+        outer: for (int i = 0; i < added; i++) {
+            int name = attributeName(attributes, i);
+            for (int j = start; j < start + length; j++) {
+                if (attributeNames[j] == name) {
+                    continue outer;
+                }
+            }
+            addAttribute(name, attributes.getValueNoBoundsCheck(i));
+            lengths[node]++;
+        }
+    }
+
+    @Override protected void appendElement(Integer child, Integer newParent)
+            throws SAXException {
+        appendChild(newParent.intValue(), child.intValue());
+    }
+
+    @Override protected boolean hasChildren(Integer element)
+            throws SAXException {
+        return firstChildren[element.intValue()] != NONE;
+    }
+
+    @Override protected void appendChildrenToNewParent(Integer oldParent,
+            Integer newParent) throws SAXException {
+        int from = oldParent.intValue();
+        int to = newParent.intValue();
+        int first = firstChildren[from];
+        if (first == NONE) {
+            return;
+        }
+        for (int child = first; child != NONE; child = nextSiblings[child]) {
+            parents[child] = to;
+        }
+        int last = lastChildren[to];
+        previousSiblings[first] = last;
+        if (last == NONE) {
+            firstChildren[to] = first;
+        } else {
+            nextSiblings[last] = first;
+        }
+        lastChildren[to] = lastChildren[from];
+        firstChildren[from] = NONE;
+        lastChildren[from] = NONE;
+    }
+
+    @Override protected void detachFromParent(Integer element)
+            throws SAXException {
+        detach(element.intValue());
+    }
+
+    @Override protected void insertFosterParentedChild(Integer child,
+            Integer table, Integer stackParent) throws SAXException {
+        int parent = parents[table.intValue()];
+        if (parent != NONE) { // always an element if not none
+            insertBefore(parent, child.intValue(), table.intValue());
+        } else {
+            appendChild(stackParent.intValue(), child.intValue());
+        }
+    }
+
+    @Override protected Integer createAndInsertFosterParentedElement(
+            String ns, String name, HtmlAttributes attributes, Integer table,
+            Integer stackParent) throws SAXException {
+        Integer child = Integer.valueOf(newElement(ns, name, attributes));
+        insertFosterParentedChild(child, table, stackParent);
+        return child;
+    }
+
+    @Override protected void insertFosterParentedCharacters(char[] buf,
+            int start, int length, Integer table, Integer stackParent)
+            throws SAXException {
+        int tableNode = table.intValue();
+        int parent = parents[tableNode];
+        if (parent == NONE) {
+            appendCharacters(stackParent, buf, start, length);
+            return;
+        }
+        int previous = previousSiblings[tableNode];
+        if (previous != NONE && types[previous] == CompactDocument.TEXT_NODE) {
+            appendToText(previous, buf, start, length);
+            return;
+        }
+        insertBefore(parent, newTextNode(CompactDocument.TEXT_NODE, buf,
+                start, length), tableNode);
+    }
+
+    @Override protected void appendCharacters(Integer parent, char[] buf,
+            int start, int length) throws SAXException {
+        int node = parent.intValue();
+        int last = lastChildren[node];
+        if (last != NONE && types[last] == CompactDocument.TEXT_NODE) {
+            appendToText(last, buf, start, length);
+            return;
+        }
+        appendChild(node, newTextNode(CompactDocument.TEXT_NODE, buf, start,
+                length));
+    }
+
+    @Override protected void appendComment(Integer parent, char[] buf,
+            int start, int length) throws SAXException {
+        appendChild(parent.intValue(), newTextNode(
+                CompactDocument.COMMENT_NODE, buf, start, length));
+    }
+
+    @Override protected void appendCommentToDocument(char[] buf, int start,
+            int length) throws SAXException {
+        appendChild(0, newTextNode(CompactDocument.COMMENT_NODE, buf, start,
+                length));
+    }
+
+    @Override protected void appendDoctypeToDocument(String name,
+            String publicIdentifier, String systemIdentifier)
+            throws SAXException {
+        doctypeName = name;
+        doctypePublicIdentifier = publicIdentifier;
+        doctypeSystemIdentifier = systemIdentifier;
+        appendChild(0, newNode(CompactDocument.DOCUMENT_TYPE_NODE));
+    }
+
+    @Override protected void documentMode(DocumentMode mode,
+            String publicIdentifier, String systemIdentifier)
+            throws SAXException {
+        documentMode = mode;
+    }
+
+    @Override
+    // https://html.spec.whatwg.org/multipage/form-elements.html#maybe-clone-an-option-into-selectedcontent
+    // Implements "maybe clone an option into selectedcontent"
+    protected void optionElementPopped(Integer option) throws SAXException {
+        int optionNode = option.intValue();
+        int select = parents[optionNode];
+        while (select != NONE && !isHtmlElement(select, "select")) {
+            select = parents[select];
+        }
+        if (select == NONE || hasAttribute(select, "multiple")) {
+            return;
+        }
+        int selectedContent = NONE;
+        for (int node = firstChildren[select]; node != NONE; node = next(
+                select, node)) {
+            if (isHtmlElement(node, "selectedcontent")) {
+                selectedContent = node;
+                break;
+            }
+        }
+        if (selectedContent == NONE) {
+            return;
+        }
+        if (!hasAttribute(optionNode, "selected")
+                && firstChildren[selectedContent] != NONE) {
+            // Not the first option and no explicit selected attr
+            return;
+        }
+        // The option's text is about to be shared with the clones.
+        flushPendingText();
+        while (firstChildren[selectedContent] != NONE) {
+            detach(firstChildren[selectedContent]);
+        }
+        cloneChildren(optionNode, selectedContent);
+    }
+
+    private boolean isHtmlElement(int node, String localName) {
+        return types[node] == CompactDocument.ELEMENT_NODE
+                && elementLocalNames[names[node]] == localName
+                && "http://www.w3.org/1999/xhtml" == elementUris[names[node]];
+    }
+
+    private boolean hasAttribute(int element, String localName) {
+        int start = starts[element];
+        int end = start + lengths[element];
+        for (int i = start; i < end; i++) {
+            int name = attributeNames[i];
+            if (attributeLocalNames[name] == localName
+                    && "" == attributeUris[name]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int next(int root, int node) {
+        int child = firstChildren[node];
+        if (child != NONE) {
+            return child;
+        }
+        while (node != root) {
+            int sibling = nextSiblings[node];
+            if (sibling != NONE) {
+                return sibling;
+            }
+            node = parents[node];
+        }
+        return NONE;
+    }
+
+    /**
+     * Deep-clones the children of <code>source</code> into 
+     * <code>destination</code>. The clones share the text ranges of the 
+     * originals. The subtree is listed before anything is appended, since 
+     * <code>destination</code> may be inside it.
+     */
+    private void cloneChildren(int source, int destination) {
+        int count = 0;
+        for (int node = firstChildren[source]; node != NONE; node = next(
+                source, node)) {
+            count++;
+        }
+        if (count == 0) {
+            return;
+        }
+        int[] originals = new int[count];
+        int i = 0;
+        for (int node = firstChildren[source]; node != NONE; node = next(
+                source, node)) {
+            originals[i++] = node;
+        }
+        // The originals and clones of the ancestors of the current node
+        int[] openOriginals = new int[count];
+        int[] openClones = new int[count];
+        int top = -1;
+        for (i = 0; i < count; i++) {
+            int current = originals[i];
+            while (top >= 0 && openOriginals[top] != parents[current]) {
+                top--;
+            }
+            int type = types[current];
+            int clone = newNode(type);
+            starts[clone] = starts[current];
+            lengths[clone] = lengths[current];
+            if (type == CompactDocument.ELEMENT_NODE) {
+                names[clone] = names[current];
+                int length = lengths[current];
+                ensureAttributeSpace(length);
+                int start = starts[current];
+                System.arraycopy(attributeNames, start, attributeNames,
+                        attributeCount, length);
+                System.arraycopy(attributeValueStarts, start,
+                        attributeValueStarts, attributeCount, length);
+                System.arraycopy(attributeValueLengths, start,
+                        attributeValueLengths, attributeCount, length);
+                starts[clone] = attributeCount;
+                attributeCount += length;
+            }
+            appendChild(top < 0 ? destination : openClones[top], clone);
+            top++;
+            openOriginals[top] = current;
+            openClones[top] = clone;
+        }
+    }
+}
@@ -0,0 +1,413 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.compact;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.URL;
+
+import nu.validator.htmlparser.common.Heuristics;
+import nu.validator.htmlparser.common.ParserLimits;
+import nu.validator.htmlparser.common.ReusableParser;
+import nu.validator.htmlparser.common.XmlViolationPolicy;
+import nu.validator.htmlparser.impl.ErrorReportingTokenizer;
+import nu.validator.htmlparser.impl.Tokenizer;
+import nu.validator.htmlparser.io.Driver;
+
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * This class implements an HTML5 parser that builds a 
+ * <code>CompactDocument</code>. 
+ * 
+ * <p>The compact document is meant for holding a large number of parsed 
+ * documents in memory for analysis. It is not an XML infoset, so names and 
+ * text are kept as the HTML parsing algorithm produces them without XML 1.0 
+ * coercion. Locations and the form pointer are not stored. Fragment parsing 
+ * is not supported.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+public class HtmlCompactBuilder implements ReusableParser {
+
+    private Driver driver;
+
+    private final CompactTreeBuilder treeBuilder;
+
+    private ErrorHandler errorHandler = null;
+
+    private boolean scriptingEnabled = false;
+
+    private Heuristics heuristics = Heuristics.NONE;
+
+    private ParserLimits parserLimits = null;
+
+    private boolean keepingBuffers = false;
+
+    private int bufferHighWaterMark = -1;
+
+    private int maxDepth = 513;
+
+    private XmlViolationPolicy deepTreePolicy = XmlViolationPolicy.ALTER_INFOSET;
+
+    /**
+     * The constructor.
+     */
+    public HtmlCompactBuilder() {
+        this.treeBuilder = new CompactTreeBuilder();
+        this.driver = null;
+    }
+
+    /**
+     * This class wraps different tree builders depending on configuration. This 
+     * method does the work of hiding this from the user of the class.
+     */
+    private void lazyInit() {
+        if (driver == null) {
+            Tokenizer tokenizer = errorHandler == null ? new Tokenizer(
+                    treeBuilder, false) : new ErrorReportingTokenizer(
+                    treeBuilder, false);
+            this.driver = new Driver(tokenizer);
+            this.driver.setErrorHandler(errorHandler);
+            this.treeBuilder.setErrorHandler(errorHandler);
+            this.driver.setCommentPolicy(XmlViolationPolicy.ALLOW);
+            this.driver.setContentNonXmlCharPolicy(XmlViolationPolicy.ALLOW);
+            this.driver.setContentSpacePolicy(XmlViolationPolicy.ALLOW);
+            this.driver.setNamePolicy(XmlViolationPolicy.ALLOW);
+            this.driver.setXmlnsPolicy(XmlViolationPolicy.ALLOW);
+            this.driver.setHeuristics(heuristics);
+            this.treeBuilder.setNamePolicy(XmlViolationPolicy.ALLOW);
+            this.treeBuilder.setScriptingEnabled(scriptingEnabled);
+            this.treeBuilder.setParserLimits(parserLimits);
+            this.driver.setParserLimits(parserLimits);
+            this.driver.setKeepBuffer(keepingBuffers);
+            this.treeBuilder.setKeepBuffer(keepingBuffers);
+            this.driver.setBufferHighWaterMark(bufferHighWaterMark);
+            this.treeBuilder.setBufferHighWaterMark(bufferHighWaterMark);
+            this.treeBuilder.setMaxDepth(maxDepth);
+            this.treeBuilder.setDeepTreePolicy(deepTreePolicy);
+        }
+    }
+
+    /**
+     * Parses a document from a SAX <code>InputSource</code>. If the input 
+     * source has neither a byte stream nor a character stream, the system id 
+     * is dereferenced as a URL.
+     * 
+     * @param is
+     *            the input source
+     * @return the document
+     * @throws SAXException
+     *             if the error handler throws or the limits are exceeded 
+     *             with the fatal policy
+     * @throws IOException
+     *             if IO goes wrong
+     */
+    public CompactDocument parse(InputSource is) throws SAXException,
+            IOException {
+        if (is == null) {
+            throw new IllegalArgumentException("Null input.");
+        }
+        if (is.getByteStream() == null && is.getCharacterStream() == null) {
+            String systemId = is.getSystemId();
+            if (systemId == null) {
+                throw new IllegalArgumentException(
+                        "No byte stream, no character stream nor URI.");
+            }
+            is = new InputSource();
+            is.setSystemId(systemId);
+            is.setByteStream(new URL(systemId).openStream());
+        }
+        lazyInit();
+        treeBuilder.setFragmentContext(null);
+        driver.tokenize(is);
+        return treeBuilder.getDocument();
+    }
+
+    /**
+     * Parses a document from a byte stream sniffing the encoding.
+     * 
+     * @param stream
+     *            the stream
+     * @return the document
+     * @throws SAXException
+     *             if the error handler throws or the limits are exceeded 
+     *             with the fatal policy
+     * @throws IOException
+     *             if IO goes wrong
+     */
+    public CompactDocument parse(InputStream stream) throws SAXException,
+            IOException {
+        return parse(new InputSource(stream));
+    }
+
+    /**
+     * Parses a document from a character stream.
+     * 
+     * @param reader
+     *            the character stream
+     * @return the document
+     * @throws SAXException
+     *             if the error handler throws or the limits are exceeded 
+     *             with the fatal policy
+     * @throws IOException
+     *             if IO goes wrong
+     */
+    public CompactDocument parse(Reader reader) throws SAXException,
+            IOException {
+        return parse(new InputSource(reader));
+    }
+
+    /**
+     * Sets the error handler.
+     * 
+     * @param errorHandler
+     *            the handler or <code>null</code>
+     */
+    public void setErrorHandler(ErrorHandler errorHandler) {
+        this.errorHandler = errorHandler;
+        driver = null;
+    }
+
+    /**
+     * Returns the error handler.
+     * 
+     * @return the handler or <code>null</code>
+     */
+    public ErrorHandler getErrorHandler() {
+        return errorHandler;
+    }
+
+    /**
+     * Whether the parser considers scripting to be enabled for noscript 
+     * treatment.
+     * 
+     * @return <code>true</code> if enabled
+     */
+    public boolean isScriptingEnabled() {
+        return scriptingEnabled;
+    }
+
+    /**
+     * Sets whether the parser considers scripting to be enabled for noscript 
+     * treatment.
+     * 
+     * @param scriptingEnabled
+     *            <code>true</code> to enable
+     */
+    public void setScriptingEnabled(boolean scriptingEnabled) {
+        this.scriptingEnabled = scriptingEnabled;
+        if (driver != null) {
+            treeBuilder.setScriptingEnabled(scriptingEnabled);
+        }
+    }
+
+    /**
+     * Sets whether comment nodes appear in the tree.
+     * 
+     * @param ignoreComments
+     *            <code>true</code> to ignore comments
+     * @see nu.validator.htmlparser.impl.TreeBuilder#setIgnoringComments(boolean)
+     */
+    public void setIgnoringComments(boolean ignoreComments) {
+        treeBuilder.setIgnoringComments(ignoreComments);
+    }
+
+    /**
+     * Returns the encoding sniffing heuristics.
+     * 
+     * @return the heuristics
+     */
+    public Heuristics getHeuristics() {
+        return heuristics;
+    }
+
+    /**
+     * Sets the encoding sniffing heuristics.
+     * 
+     * @param heuristics
+     *            the heuristics to set
+     */
+    public void setHeuristics(Heuristics heuristics) {
+        this.heuristics = heuristics;
+        if (driver != null) {
+            driver.setHeuristics(heuristics);
+        }
+    }
+
+    /**
+     * Returns the limits for untrusted input.
+     * 
+     * @return the limits or <code>null</code>
+     */
+    public ParserLimits getParserLimits() {
+        return parserLimits;
+    }
+
+    /**
+     * Sets the limits for untrusted input.
+     * 
+     * @param parserLimits
+     *            the limits or <code>null</code> for no limits
+     */
+    public void setParserLimits(ParserLimits parserLimits) {
+        this.parserLimits = parserLimits;
+        if (driver != null) {
+            treeBuilder.setParserLimits(parserLimits);
+            driver.setParserLimits(parserLimits);
+        }
+    }
+
+    /**
+     * Returns the number of elements deep the tree may get before the deep 
+     * tree policy applies.
+     * 
+     * @return the maximum depth
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Sets the number of elements deep the tree may get before the deep 
+     * tree policy applies. The default is 513, which matches browsers. 
+     * Under the default policy this bounds the depth of the tree but not 
+     * the stack of open elements; see <code>setDeepTreePolicy()</code>.
+     * 
+     * @param maxDepth the maximum depth counting the root element
+     */
+    public void setMaxDepth(int maxDepth) {
+        if (maxDepth < 2) {
+            throw new IllegalArgumentException("The maximum depth must be at least 2.");
+        }
+        this.maxDepth = maxDepth;
+        treeBuilder.setMaxDepth(maxDepth);
+    }
+
+    /**
+     * Returns the deep tree policy.
+     * 
+     * @return the deep tree policy
+     */
+    public XmlViolationPolicy getDeepTreePolicy() {
+        return deepTreePolicy;
+    }
+
+    /**
+     * Sets what happens to elements that would be deeper than the maximum 
+     * depth. <code>ALTER_INFOSET</code> (the default) inserts them as 
+     * siblings like browsers do, <code>FATAL</code> stops the parse with a 
+     * fatal error and <code>ALLOW</code> builds the tree as deep as the 
+     * markup says.
+     * 
+     * <p>Only <code>FATAL</code> bounds memory. <code>ALTER_INFOSET</code> 
+     * flattens the tree, but the parser's stack of open elements still 
+     * grows with the nesting of the markup. When memory is the concern, as 
+     * with untrusted input in a shared process, use <code>FATAL</code> or a 
+     * depth limit in failing <code>ParserLimits</code>.
+     * 
+     * @param deepTreePolicy the policy
+     */
+    public void setDeepTreePolicy(XmlViolationPolicy deepTreePolicy) {
+        this.deepTreePolicy = deepTreePolicy;
+        treeBuilder.setDeepTreePolicy(deepTreePolicy);
+    }
+
+    /**
+     * Returns whether buffers are kept between parses.
+     * 
+     * @return <code>true</code> if buffers are kept
+     */
+    public boolean isKeepingBuffers() {
+        return keepingBuffers;
+    }
+
+    /**
+     * Sets whether the buffers that have been grown while parsing a document 
+     * are kept for the next parse. This includes the arrays the document is 
+     * built in, which are copied to right-sized arrays at the end of each 
+     * parse.
+     * 
+     * @param keepingBuffers <code>true</code> to keep the buffers
+     * @see nu.validator.htmlparser.common.ReusableParser#setKeepingBuffers(boolean)
+     */
+    public void setKeepingBuffers(boolean keepingBuffers) {
+        this.keepingBuffers = keepingBuffers;
+        treeBuilder.setKeepBuffer(keepingBuffers);
+        if (driver != null) {
+            driver.setKeepBuffer(keepingBuffers);
+        }
+    }
+
+    /**
+     * Drops the references to the last parsed document. The configuration
+     * and the kept buffers are retained.
+     * 
+     * @see nu.validator.htmlparser.common.ReusableParser#reset()
+     */
+    public void reset() {
+        treeBuilder.clearDocument();
+    }
+
+    /**
+     * Drops the kept buffers that have grown longer than the given length.
+     * 
+     * @param length the maximum length to keep
+     * @see nu.validator.htmlparser.common.ReusableParser#dropBuffersLongerThan(int)
+     */
+    public void dropBuffersLongerThan(int length) {
+        treeBuilder.dropBufferIfLongerThan(length);
+        if (driver != null) {
+            driver.dropBufferIfLongerThan(length);
+        }
+    }
+
+    /**
+     * Returns the length above which kept buffers are shrunk at the end of 
+     * each parse.
+     * 
+     * @return the length or -1 if kept buffers are never shrunk
+     */
+    public int getBufferHighWaterMark() {
+        return bufferHighWaterMark;
+    }
+
+    /**
+     * Sets the length above which kept buffers are shrunk at the end of 
+     * each parse.
+     * 
+     * @param bufferHighWaterMark the length or -1 to never shrink
+     * @see nu.validator.htmlparser.common.ReusableParser#setBufferHighWaterMark(int)
+     */
+    public void setBufferHighWaterMark(int bufferHighWaterMark) {
+        this.bufferHighWaterMark = bufferHighWaterMark;
+        treeBuilder.setBufferHighWaterMark(bufferHighWaterMark);
+        if (driver != null) {
+            driver.setBufferHighWaterMark(bufferHighWaterMark);
+        }
+    }
+}
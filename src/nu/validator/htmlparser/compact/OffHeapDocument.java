@@ -0,0 +1,684 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.compact;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import nu.validator.htmlparser.common.DocumentMode;
+
+/**
+ * A read-only HTML document stored in a <code>ByteBuffer</code> outside 
+ * the Java heap, for example in a direct buffer or a memory-mapped file. 
+ * 
+ * <p>The buffer holds the arrays of a <code>CompactDocument</code> in a 
+ * self-describing binary form, so a document written by one process can 
+ * be mapped and queried by another without parsing. Documents can be 
+ * concatenated in one file; <code>getEncodedLength()</code> gives the 
+ * offset of the next one. Only the element and attribute name tables and 
+ * the doctype are decoded onto the heap when a document is opened. The 
+ * name strings are interned, so they are shared across documents.
+ * 
+ * <p>A document is always parsed into a <code>CompactDocument</code> on 
+ * the heap first and then encoded, so the heap has to hold the parsed 
+ * document once. <code>write()</code> encodes through a buffer of bounded 
+ * size and <code>copyOf()</code> encodes straight into the direct buffer. 
+ * 
+ * <p>The buffer must not be modified while the document is in use. 
+ * Reading does not move the position of the buffer, so a document can be 
+ * read from many threads.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+public final class OffHeapDocument extends CompactTree {
+
+    /**
+     * The first four bytes of an encoded document.
+     */
+    private static final int MAGIC = 0x48544344; // "HTCD"
+
+    private static final int VERSION = 1;
+
+    /**
+     * The number of <code>int</code>s in the fixed-size header.
+     */
+    private static final int HEADER_INTS = 9;
+
+    private static final DocumentMode[] MODES = DocumentMode.values();
+
+    /**
+     * The size of the buffer <code>write()</code> encodes through.
+     */
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final ByteBuffer buffer;
+
+    private final int encodedLength;
+
+    private final int nodeCount;
+
+    private final int types;
+
+    private final int parents;
+
+    private final int firstChildren;
+
+    private final int nextSiblings;
+
+    private final int names;
+
+    private final int starts;
+
+    private final int lengths;
+
+    private final int attributeNames;
+
+    private final int attributeValueStarts;
+
+    private final int attributeValueLengths;
+
+    private final int text;
+
+    private final String[] elementLocalNames;
+
+    private final String[] elementUris;
+
+    private final String[] attributeLocalNames;
+
+    private final String[] attributeUris;
+
+    private final String[] attributeQNames;
+
+    private final String doctypeName;
+
+    private final String doctypePublicIdentifier;
+
+    private final String doctypeSystemIdentifier;
+
+    private final DocumentMode documentMode;
+
+    /**
+     * Opens a document encoded at the position of a buffer. The buffer is 
+     * not copied and its position is not changed.
+     * 
+     * @param source
+     *            the buffer
+     * @throws IllegalArgumentException
+     *             if the buffer does not contain an encoded document
+     */
+    public OffHeapDocument(ByteBuffer source) {
+        ByteBuffer buffer = source.slice().order(ByteOrder.BIG_ENDIAN);
+        if (buffer.remaining() < HEADER_INTS * 4
+                || buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not an encoded document.");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("Unsupported version "
+                    + buffer.getInt(4) + ".");
+        }
+        encodedLength = buffer.getInt(8);
+        if (encodedLength > buffer.remaining()) {
+            throw new IllegalArgumentException("Truncated document.");
+        }
+        buffer.limit(encodedLength);
+        this.buffer = buffer;
+        nodeCount = buffer.getInt(12);
+        int attributeCount = buffer.getInt(16);
+        int textLength = buffer.getInt(20);
+        int elementNameCount = buffer.getInt(24);
+        int attributeNameCount = buffer.getInt(28);
+        int mode = buffer.getInt(32);
+        documentMode = mode < 0 ? null : MODES[mode];
+        int offset = HEADER_INTS * 4;
+        types = offset;
+        offset = align(offset + nodeCount);
+        parents = offset;
+        offset += 4 * nodeCount;
+        firstChildren = offset;
+        offset += 4 * nodeCount;
+        nextSiblings = offset;
+        offset += 4 * nodeCount;
+        names = offset;
+        offset += 4 * nodeCount;
+        starts = offset;
+        offset += 4 * nodeCount;
+        lengths = offset;
+        offset += 4 * nodeCount;
+        attributeNames = offset;
+        offset += 4 * attributeCount;
+        attributeValueStarts = offset;
+        offset += 4 * attributeCount;
+        attributeValueLengths = offset;
+        offset += 4 * attributeCount;
+        text = offset;
+        offset = align(offset + 2 * textLength);
+        ByteBuffer strings = buffer.duplicate();
+        strings.position(offset);
+        elementLocalNames = new String[elementNameCount];
+        elementUris = new String[elementNameCount];
+        for (int i = 0; i < elementNameCount; i++) {
+            elementUris[i] = readString(strings);
+            elementLocalNames[i] = readString(strings);
+        }
+        attributeLocalNames = new String[attributeNameCount];
+        attributeUris = new String[attributeNameCount];
+        attributeQNames = new String[attributeNameCount];
+        for (int i = 0; i < attributeNameCount; i++) {
+            attributeUris[i] = readString(strings);
+            attributeLocalNames[i] = readString(strings);
+            attributeQNames[i] = readString(strings);
+        }
+        doctypeName = readString(strings);
+        doctypePublicIdentifier = readString(strings);
+        doctypeSystemIdentifier = readString(strings);
+    }
+
+    /**
+     * Copies a document into a new direct buffer.
+     * 
+     * @param document
+     *            the document
+     * @return the off-heap copy
+     */
+    public static OffHeapDocument copyOf(CompactDocument document) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(encodedLength(document));
+        encode(document, buffer);
+        buffer.flip();
+        return new OffHeapDocument(buffer);
+    }
+
+    /**
+     * Maps a document that was written to a file.
+     * 
+     * @param channel
+     *            the file
+     * @param position
+     *            the position of the document in the file
+     * @return the document
+     * @throws IOException
+     *             if reading or mapping fails
+     */
+    public static OffHeapDocument map(FileChannel channel, long position)
+            throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(12);
+        while (header.hasRemaining()) {
+            if (channel.read(header, position + header.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        int length = header.getInt(8);
+        if (header.getInt(0) != MAGIC || length < HEADER_INTS * 4) {
+            throw new IOException("Not an encoded document.");
+        }
+        return new OffHeapDocument(channel.map(FileChannel.MapMode.READ_ONLY,
+                position, length));
+    }
+
+    /**
+     * Writes a document to a channel in the form read by this class. The 
+     * encoding goes through a buffer of bounded size, so the encoded 
+     * document is not held on the heap in full.
+     * 
+     * @param document
+     *            the document
+     * @param channel
+     *            the channel
+     * @return the number of bytes written
+     * @throws IOException
+     *             if writing fails
+     */
+    public static int write(CompactDocument document,
+            WritableByteChannel channel) throws IOException {
+        int length = encodedLength(document);
+        Encoder encoder = new Encoder(ByteBuffer.allocate(Math.min(length,
+                WRITE_BUFFER_SIZE)), channel);
+        encoder.encode(document, length);
+        encoder.flush();
+        return length;
+    }
+
+    /**
+     * Returns the number of bytes <code>encode()</code> writes for a 
+     * document.
+     * 
+     * @param document
+     *            the document
+     * @return the length in bytes
+     */
+    public static int encodedLength(CompactDocument document) {
+        long length = align(HEADER_INTS * 4 + document.nodeCount) + 24L
+                * document.nodeCount + 12L * document.attributeValueStarts.length
+                + align(2L * document.text.length);
+        for (int i = 0; i < document.elementLocalNames.length; i++) {
+            length += stringLength(document.elementUris[i])
+                    + stringLength(document.elementLocalNames[i]);
+        }
+        for (int i = 0; i < document.attributeLocalNames.length; i++) {
+            length += stringLength(document.attributeUris[i])
+                    + stringLength(document.attributeLocalNames[i])
+                    + stringLength(document.attributeQNames[i]);
+        }
+        length += stringLength(document.doctypeName)
+                + stringLength(document.doctypePublicIdentifier)
+                + stringLength(document.doctypeSystemIdentifier);
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Document too large.");
+        }
+        return (int) length;
+    }
+
+    /**
+     * Writes a document at the position of a buffer and advances the 
+     * position.
+     * 
+     * @param document
+     *            the document
+     * @param buffer
+     *            the buffer with at least <code>encodedLength(document)</code>
+     *            bytes remaining
+     */
+    public static void encode(CompactDocument document, ByteBuffer buffer) {
+        int length = encodedLength(document);
+        if (buffer.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+        Encoder encoder = new Encoder(buffer.slice(), null);
+        try {
+            encoder.encode(document, length);
+        } catch (IOException e) {
+            // Only flushing to a channel does IO.
+            throw new IllegalStateException(e);
+        }
+        buffer.position(buffer.position() + length);
+    }
+
+    private static int align(int offset) {
+        return (offset + 3) & ~3;
+    }
+
+    private static long align(long offset) {
+        return (offset + 3) & ~3L;
+    }
+
+    private static long stringLength(String string) {
+        return string == null ? 4 : align(4L + 2L * string.length());
+    }
+
+    /**
+     * Writes the encoded form into a buffer that either holds the whole 
+     * document or is flushed to a channel whenever it fills up.
+     */
+    private static final class Encoder {
+
+        private final ByteBuffer out;
+
+        private final WritableByteChannel channel;
+
+        /**
+         * The number of bytes already flushed to the channel.
+         */
+        private int flushed = 0;
+
+        Encoder(ByteBuffer out, WritableByteChannel channel) {
+            this.out = out.order(ByteOrder.BIG_ENDIAN);
+            this.channel = channel;
+        }
+
+        void encode(CompactDocument document, int length) throws IOException {
+            int nodeCount = document.nodeCount;
+            putInt(MAGIC);
+            putInt(VERSION);
+            putInt(length);
+            putInt(nodeCount);
+            putInt(document.attributeValueStarts.length);
+            putInt(document.text.length);
+            putInt(document.elementLocalNames.length);
+            putInt(document.attributeLocalNames.length);
+            putInt(document.documentMode == null ? -1
+                    : document.documentMode.ordinal());
+            putBytes(document.types, nodeCount);
+            pad();
+            putInts(document.parents);
+            putInts(document.firstChildren);
+            putInts(document.nextSiblings);
+            putInts(document.names);
+            putInts(document.starts);
+            putInts(document.lengths);
+            putInts(document.attributeNames);
+            putInts(document.attributeValueStarts);
+            putInts(document.attributeValueLengths);
+            putChars(document.text);
+            pad();
+            for (int i = 0; i < document.elementLocalNames.length; i++) {
+                putString(document.elementUris[i]);
+                putString(document.elementLocalNames[i]);
+            }
+            for (int i = 0; i < document.attributeLocalNames.length; i++) {
+                putString(document.attributeUris[i]);
+                putString(document.attributeLocalNames[i]);
+                putString(document.attributeQNames[i]);
+            }
+            putString(document.doctypeName);
+            putString(document.doctypePublicIdentifier);
+            putString(document.doctypeSystemIdentifier);
+            assert flushed + out.position() == length;
+        }
+
+        void flush() throws IOException {
+            out.flip();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            flushed += out.limit();
+            out.clear();
+        }
+
+        /**
+         * Makes room for at least <code>bytes</code> bytes, which is at 
+         * most 4.
+         */
+        private void ensure(int bytes) throws IOException {
+            if (channel != null && out.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void putInt(int value) throws IOException {
+            ensure(4);
+            out.putInt(value);
+        }
+
+        private void pad() throws IOException {
+            while (((flushed + out.position()) & 3) != 0) {
+                ensure(1);
+                out.put((byte) 0);
+            }
+        }
+
+        private void putBytes(byte[] values, int length) throws IOException {
+            int offset = 0;
+            while (offset < length) {
+                ensure(1);
+                int count = Math.min(length - offset, out.remaining());
+                out.put(values, offset, count);
+                offset += count;
+            }
+        }
+
+        private void putInts(int[] values) throws IOException {
+            int offset = 0;
+            while (offset < values.length) {
+                ensure(4);
+                int count = Math.min(values.length - offset,
+                        out.remaining() / 4);
+                out.asIntBuffer().put(values, offset, count);
+                out.position(out.position() + 4 * count);
+                offset += count;
+            }
+        }
+
+        private void putChars(char[] values) throws IOException {
+            int offset = 0;
+            while (offset < values.length) {
+                ensure(2);
+                int count = Math.min(values.length - offset,
+                        out.remaining() / 2);
+                out.asCharBuffer().put(values, offset, count);
+                out.position(out.position() + 2 * count);
+                offset += count;
+            }
+        }
+
+        private void putString(String string) throws IOException {
+            if (string == null) {
+                putInt(-1);
+                return;
+            }
+            putInt(string.length());
+            for (int i = 0; i < string.length(); i++) {
+                ensure(2);
+                out.putChar(string.charAt(i));
+            }
+            pad();
+        }
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = in.getChar();
+        }
+        while ((in.position() & 3) != 0) {
+            in.get();
+        }
+        return new String(chars).intern();
+    }
+
+    /**
+     * Returns the number of bytes the document takes in the buffer.
+     * 
+     * @return the length in bytes
+     */
+    public int getEncodedLength() {
+        return encodedLength;
+    }
+
+    private int intAt(int array, int index) {
+        return buffer.getInt(array + 4 * index);
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getNodeCount()
+     */
+    @Override public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getNodeType(int)
+     */
+    @Override public int getNodeType(int node) {
+        checkNode(node);
+        return buffer.get(types + node);
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getParent(int)
+     */
+    @Override public int getParent(int node) {
+        checkNode(node);
+        return intAt(parents, node);
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getFirstChild(int)
+     */
+    @Override public int getFirstChild(int node) {
+        checkNode(node);
+        return intAt(firstChildren, node);
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getNextSibling(int)
+     */
+    @Override public int getNextSibling(int node) {
+        checkNode(node);
+        return intAt(nextSiblings, node);
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getLocalName(int)
+     */
+    @Override public String getLocalName(int element) {
+        checkNode(element);
+        return elementLocalNames[intAt(names, element)];
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getUri(int)
+     */
+    @Override public String getUri(int element) {
+        checkNode(element);
+        return elementUris[intAt(names, element)];
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getAttributeCount(int)
+     */
+    @Override public int getAttributeCount(int element) {
+        checkNode(element);
+        return intAt(lengths, element);
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getAttributeLocalName(int, int)
+     */
+    @Override public String getAttributeLocalName(int element, int index) {
+        return attributeLocalNames[intAt(attributeNames, attributeIndex(
+                element, index))];
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getAttributeUri(int, int)
+     */
+    @Override public String getAttributeUri(int element, int index) {
+        return attributeUris[intAt(attributeNames, attributeIndex(element,
+                index))];
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getAttributeQName(int, int)
+     */
+    @Override public String getAttributeQName(int element, int index) {
+        return attributeQNames[intAt(attributeNames, attributeIndex(element,
+                index))];
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getAttributeValue(int, int)
+     */
+    @Override public String getAttributeValue(int element, int index) {
+        int i = attributeIndex(element, index);
+        return readText(intAt(attributeValueStarts, i), intAt(
+                attributeValueLengths, i));
+    }
+
+    private int attributeIndex(int element, int index) {
+        if (index < 0 || index >= getAttributeCount(element)) {
+            throw new IndexOutOfBoundsException("Attribute index " + index
+                    + " out of range.");
+        }
+        return intAt(starts, element) + index;
+    }
+
+    private void checkNode(int node) {
+        if (node < 0 || node >= nodeCount) {
+            throw new IndexOutOfBoundsException("Node " + node
+                    + " out of range.");
+        }
+    }
+
+    private String readText(int start, int length) {
+        char[] chars = new char[length];
+        copyText(start, length, chars, 0);
+        return new String(chars);
+    }
+
+    private void copyText(int start, int length, char[] dst, int dstBegin) {
+        int offset = text + 2 * start;
+        for (int i = 0; i < length; i++) {
+            dst[dstBegin + i] = buffer.getChar(offset + 2 * i);
+        }
+    }
+
+    @Override void getTextSlice(int node, TextSlice slice) {
+        int length = getDataLength(node);
+        if (slice.buffer == null || slice.buffer.length < length) {
+            slice.buffer = new char[Math.max(length, 1024)];
+        }
+        copyText(intAt(starts, node), length, slice.buffer, 0);
+        slice.start = 0;
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getData(int)
+     */
+    @Override public String getData(int node) {
+        checkNode(node);
+        return readText(intAt(starts, node), intAt(lengths, node));
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getDataLength(int)
+     */
+    @Override public int getDataLength(int node) {
+        checkNode(node);
+        return intAt(lengths, node);
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getData(int, char[], int)
+     */
+    @Override public void getData(int node, char[] dst, int dstBegin) {
+        checkNode(node);
+        copyText(intAt(starts, node), intAt(lengths, node), dst, dstBegin);
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getDoctypeName()
+     */
+    @Override public String getDoctypeName() {
+        return doctypeName;
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getDoctypePublicIdentifier()
+     */
+    @Override public String getDoctypePublicIdentifier() {
+        return doctypePublicIdentifier;
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getDoctypeSystemIdentifier()
+     */
+    @Override public String getDoctypeSystemIdentifier() {
+        return doctypeSystemIdentifier;
+    }
+
+    /**
+     * @see nu.validator.htmlparser.compact.CompactTree#getDocumentMode()
+     */
+    @Override public DocumentMode getDocumentMode() {
+        return documentMode;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.concurrent;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import nu.validator.htmlparser.common.ReusableParser;
+
+/**
+ * A thread-safe pool of parser instances. The parsers themselves are not 
+ * thread-safe, so a thread checks a parser out, uses it for one or more 
+ * parses and checks it back in. 
+ * 
+ * <p>The parsers are created by a factory supplied by the user of the pool 
+ * and are configured to keep their buffers between parses. When a parser 
+ * is checked in, it is reset so that it does not keep the last document 
+ * alive, and its buffers are dropped if they have grown longer than the 
+ * configured limit. Parsers that are checked in when the pool already holds 
+ * the maximum number of idle parsers are discarded.
+ * 
+ * <p>The pool does not block: if there are no idle parsers, 
+ * <code>checkout()</code> creates a new one.
+ * 
+ * @param <T> the parser class
+ * @version $Id$
+ * @author hsivonen
+ */
+public class HtmlParserPool<T extends ReusableParser> {
+
+    /**
+     * The default limit for the length of buffers kept by idle parsers.
+     */
+    public static final int DEFAULT_MAX_RETAINED_BUFFER_LENGTH = 64 * 1024;
+
+    private final Supplier<? extends T> factory;
+
+    private final int maxIdle;
+
+    private final ConcurrentLinkedDeque<T> idle = new ConcurrentLinkedDeque<T>();
+
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    private final AtomicLong created = new AtomicLong();
+
+    private volatile int maxRetainedBufferLength = DEFAULT_MAX_RETAINED_BUFFER_LENGTH;
+
+    /**
+     * Instantiates the pool.
+     * 
+     * @param factory
+     *            creates a configured parser when there are no idle ones
+     * @param maxIdle
+     *            the maximum number of idle parsers to keep
+     */
+    public HtmlParserPool(Supplier<? extends T> factory, int maxIdle) {
+        if (factory == null) {
+            throw new IllegalArgumentException("Null factory.");
+        }
+        if (maxIdle < 0) {
+            throw new IllegalArgumentException("Negative maxIdle.");
+        }
+        this.factory = factory;
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Takes an idle parser from the pool or creates a new one.
+     * 
+     * @return a parser for the exclusive use of the caller until it is 
+     *         checked in
+     */
+    public T checkout() {
+        T parser = idle.pollFirst();
+        if (parser != null) {
+            idleCount.decrementAndGet();
+            return parser;
+        }
+        parser = factory.get();
+        parser.setKeepingBuffers(true);
+        created.incrementAndGet();
+        return parser;
+    }
+
+    /**
+     * Returns a parser to the pool. The caller must not use the parser after 
+     * this call. Parsers that threw during a parse may be checked in.
+     * 
+     * @param parser
+     *            a parser obtained from <code>checkout()</code>
+     */
+    public void checkin(T parser) {
+        if (parser == null) {
+            return;
+        }
+        parser.reset();
+        int max = maxRetainedBufferLength;
+        if (max >= 0) {
+            parser.dropBuffersLongerThan(max);
+        }
+        if (idleCount.incrementAndGet() > maxIdle) {
+            idleCount.decrementAndGet();
+            return;
+        }
+        // Most recently used first, since its buffers are most likely warm.
+        idle.offerFirst(parser);
+    }
+
+    /**
+     * Discards all idle parsers.
+     */
+    public void clear() {
+        while (idle.pollFirst() != null) {
+            idleCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the limit for the length of buffers kept by idle parsers.
+     * 
+     * @return the limit or -1 if buffers of any length are kept
+     */
+    public int getMaxRetainedBufferLength() {
+        return maxRetainedBufferLength;
+    }
+
+    /**
+     * Sets the limit for the length of buffers kept by idle parsers. Buffers 
+     * that have grown longer are dropped when the parser is checked in.
+     * 
+     * @param maxRetainedBufferLength
+     *            the limit or -1 to keep buffers of any length
+     */
+    public void setMaxRetainedBufferLength(int maxRetainedBufferLength) {
+        this.maxRetainedBufferLength = maxRetainedBufferLength;
+    }
+
+    /**
+     * Returns the number of idle parsers.
+     * 
+     * @return the number of idle parsers
+     */
+    public int getIdleCount() {
+        return idleCount.get();
+    }
+
+    /**
+     * Returns the number of parsers the pool has created.
+     * 
+     * @return the number of parsers created
+     */
+    public long getCreatedCount() {
+        return created.get();
+    }
+}
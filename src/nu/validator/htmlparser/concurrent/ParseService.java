@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.concurrent;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.ToLongFunction;
+
+import nu.validator.htmlparser.common.ReusableParser;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Parses many documents concurrently with parsers checked out of a 
+ * <code>HtmlParserPool</code>. 
+ * 
+ * <p>The number of parses in progress is bounded by the parallelism, and 
+ * their total estimated memory is bounded by a budget. A document is 
+ * admitted only when both allow it; until then, <code>submit()</code> 
+ * blocks the caller, which pushes back on whatever produces the input 
+ * sources. A document whose estimate alone exceeds the budget is admitted 
+ * when nothing else is in progress. The estimate is supplied by the user of 
+ * the service, because only the caller knows the size of the input and 
+ * how much of the parse result it retains. The buffers of idle parsers are 
+ * bounded separately by the pool.
+ * 
+ * <p>Parses run on virtual threads when the runtime provides them and on a 
+ * <code>ForkJoinPool</code> with the given parallelism otherwise.
+ * 
+ * @param <T> the parser class
+ * @param <R> the result class
+ * @version $Id$
+ * @author hsivonen
+ */
+public class ParseService<T extends ReusableParser, R> implements AutoCloseable {
+
+    /**
+     * Parses one document with a checked-out parser.
+     * 
+     * @param <T> the parser class
+     * @param <R> the result class
+     */
+    public interface ParseTask<T, R> {
+
+        /**
+         * Parses a document.
+         * 
+         * @param parser
+         *            a parser for the exclusive use of this call
+         * @param is
+         *            the document
+         * @return the result
+         * @throws SAXException
+         *             on parse error
+         * @throws IOException
+         *             if the stream threw
+         */
+        R parse(T parser, InputSource is) throws SAXException, IOException;
+    }
+
+    /**
+     * The admission charge of a document when no estimator is given.
+     */
+    public static final long DEFAULT_DOCUMENT_ESTIMATE = 1024 * 1024;
+
+    private final HtmlParserPool<T> pool;
+
+    private final ParseTask<? super T, ? extends R> task;
+
+    private final ExecutorService executor;
+
+    private final Semaphore slots;
+
+    private final long memoryBudget;
+
+    private final Object budgetLock = new Object();
+
+    private long admittedBytes = 0;
+
+    private volatile ToLongFunction<? super InputSource> estimator = null;
+
+    private final AtomicLong completed = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    private final long startTime = System.nanoTime();
+
+    /**
+     * Instantiates the service.
+     * 
+     * @param pool
+     *            the parsers
+     * @param task
+     *            what to do with each document
+     * @param parallelism
+     *            the maximum number of parses in progress
+     * @param memoryBudget
+     *            the maximum total estimate of the documents in progress in 
+     *            bytes
+     */
+    public ParseService(HtmlParserPool<T> pool,
+            ParseTask<? super T, ? extends R> task, int parallelism,
+            long memoryBudget) {
+        if (pool == null || task == null) {
+            throw new IllegalArgumentException("Null pool or task.");
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException(
+                    "Parallelism must be positive.");
+        }
+        if (memoryBudget < 1) {
+            throw new IllegalArgumentException(
+                    "Memory budget must be positive.");
+        }
+        this.pool = pool;
+        this.task = task;
+        this.slots = new Semaphore(parallelism);
+        this.memoryBudget = memoryBudget;
+        ExecutorService virtual = newVirtualThreadExecutor();
+        this.executor = virtual == null ? new ForkJoinPool(parallelism)
+                : virtual;
+    }
+
+    /**
+     * Returns <code>Executors.newVirtualThreadPerTaskExecutor()</code> on 
+     * runtimes that have it.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod(
+                    "newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Sets the function that estimates the memory needed for parsing a 
+     * document and holding its result, such as a multiple of the input 
+     * length.
+     * 
+     * @param estimator
+     *            the estimator or <code>null</code> to charge 
+     *            <code>DEFAULT_DOCUMENT_ESTIMATE</code>
+     */
+    public void setEstimator(ToLongFunction<? super InputSource> estimator) {
+        this.estimator = estimator;
+    }
+
+    /**
+     * Waits until the document is admitted and starts parsing it.
+     * 
+     * @param is
+     *            the document
+     * @return the future result
+     * @throws InterruptedException
+     *             if interrupted while waiting for admission
+     */
+    public CompletableFuture<R> submit(final InputSource is)
+            throws InterruptedException {
+        ToLongFunction<? super InputSource> est = estimator;
+        final long cost = Math.max(0, est == null ? DEFAULT_DOCUMENT_ESTIMATE
+                : est.applyAsLong(is));
+        slots.acquire();
+        try {
+            admit(cost);
+        } catch (InterruptedException e) {
+            slots.release();
+            throw e;
+        }
+        final long start = System.nanoTime();
+        final CompletableFuture<R> future = new CompletableFuture<R>();
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    R result = null;
+                    Throwable failure = null;
+                    T parser = null;
+                    try {
+                        parser = pool.checkout();
+                        result = task.parse(parser, is);
+                    } catch (Throwable t) {
+                        failure = t;
+                    } finally {
+                        if (parser != null) {
+                            try {
+                                pool.checkin(parser);
+                            } catch (Throwable t) {
+                                if (failure == null) {
+                                    failure = t;
+                                } else {
+                                    failure.addSuppressed(t);
+                                }
+                            }
+                        }
+                        release(cost);
+                        slots.release();
+                    }
+                    // Complete only after releasing so that callbacks see
+                    // the capacity as available again.
+                    latencies.record(System.nanoTime() - start);
+                    if (failure == null) {
+                        completed.incrementAndGet();
+                        future.complete(result);
+                    } else {
+                        failed.incrementAndGet();
+                        future.completeExceptionally(failure);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            release(cost);
+            slots.release();
+            throw e;
+        }
+        return future;
+    }
+
+    /**
+     * Parses all the documents and waits until they are done. The handlers 
+     * are called on the parsing threads and must be thread-safe.
+     * 
+     * @param sources
+     *            the documents
+     * @param onResult
+     *            called with each successful result
+     * @param onError
+     *            called with the failure of each failed parse
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    public void parseAll(Iterator<? extends InputSource> sources,
+            final BiConsumer<? super InputSource, ? super R> onResult,
+            final BiConsumer<? super InputSource, ? super Throwable> onError)
+            throws InterruptedException {
+        final Semaphore outstanding = new Semaphore(0);
+        int count = 0;
+        while (sources.hasNext()) {
+            final InputSource is = sources.next();
+            submit(is).whenComplete(new BiConsumer<R, Throwable>() {
+                public void accept(R result, Throwable t) {
+                    try {
+                        if (t == null) {
+                            onResult.accept(is, result);
+                        } else {
+                            onError.accept(is, t);
+                        }
+                    } finally {
+                        outstanding.release();
+                    }
+                }
+            });
+            count++;
+        }
+        outstanding.acquire(count);
+    }
+
+    private void admit(long cost) throws InterruptedException {
+        synchronized (budgetLock) {
+            while (admittedBytes > 0 && admittedBytes + cost > memoryBudget) {
+                budgetLock.wait();
+            }
+            admittedBytes += cost;
+        }
+    }
+
+    private void release(long cost) {
+        synchronized (budgetLock) {
+            admittedBytes -= cost;
+            budgetLock.notifyAll();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the counters.
+     * 
+     * @return the statistics
+     */
+    public ParseStatistics getStatistics() {
+        long admitted;
+        synchronized (budgetLock) {
+            admitted = admittedBytes;
+        }
+        return new ParseStatistics(completed.get(), failed.get(),
+                System.nanoTime() - startTime, latencies, admitted);
+    }
+
+    /**
+     * Stops accepting documents and waits for the parses in progress. If 
+     * the calling thread is interrupted, stops waiting and returns with the 
+     * interrupt status set.
+     * 
+     * @see java.lang.AutoCloseable#close()
+     */
+    public void close() {
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                // keep waiting
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.concurrent;
+
+/**
+ * A snapshot of the counters of a <code>ParseService</code>. Latencies are 
+ * measured from admission to the end of the parse, so they do not include 
+ * the time spent waiting for the memory budget.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+public final class ParseStatistics {
+
+    private final long completed;
+
+    private final long failed;
+
+    private final long elapsedNanos;
+
+    private final long p50Nanos;
+
+    private final long p90Nanos;
+
+    private final long p99Nanos;
+
+    private final long maxNanos;
+
+    private final long admittedBytes;
+
+    ParseStatistics(long completed, long failed, long elapsedNanos,
+            LatencyHistogram histogram, long admittedBytes) {
+        this.completed = completed;
+        this.failed = failed;
+        this.elapsedNanos = elapsedNanos;
+        this.p50Nanos = histogram.percentile(0.5);
+        this.p90Nanos = histogram.percentile(0.9);
+        this.p99Nanos = histogram.percentile(0.99);
+        this.maxNanos = histogram.max();
+        this.admittedBytes = admittedBytes;
+    }
+
+    /**
+     * Returns the number of documents parsed successfully.
+     * 
+     * @return the number of successful parses
+     */
+    public long getCompleted() {
+        return completed;
+    }
+
+    /**
+     * Returns the number of documents whose parse threw.
+     * 
+     * @return the number of failed parses
+     */
+    public long getFailed() {
+        return failed;
+    }
+
+    /**
+     * Returns the time since the service was created.
+     * 
+     * @return the elapsed time in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Returns the number of documents finished per second, whether 
+     * successfully or not, since the service was created.
+     * 
+     * @return the throughput
+     */
+    public double getDocumentsPerSecond() {
+        if (elapsedNanos <= 0) {
+            return 0;
+        }
+        return (completed + failed) * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * Returns the median latency.
+     * 
+     * @return the latency in nanoseconds
+     */
+    public long getMedianNanos() {
+        return p50Nanos;
+    }
+
+    /**
+     * Returns the 90th percentile latency.
+     * 
+     * @return the latency in nanoseconds
+     */
+    public long getP90Nanos() {
+        return p90Nanos;
+    }
+
+    /**
+     * Returns the 99th percentile latency.
+     * 
+     * @return the latency in nanoseconds
+     */
+    public long getP99Nanos() {
+        return p99Nanos;
+    }
+
+    /**
+     * Returns the highest latency.
+     * 
+     * @return the latency in nanoseconds
+     */
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * Returns the estimated memory of the documents being parsed at the 
+     * time of the snapshot.
+     * 
+     * @return the estimate in bytes
+     */
+    public long getAdmittedBytes() {
+        return admittedBytes;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return String.format(
+                "%d ok, %d failed, %.1f docs/s, p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms",
+                completed, failed, getDocumentsPerSecond(),
+                LatencyHistogram.toMillis(p50Nanos),
+                LatencyHistogram.toMillis(p90Nanos),
+                LatencyHistogram.toMillis(p99Nanos),
+                LatencyHistogram.toMillis(maxNanos));
+    }
+}
@@ -24,6 +24,7 @@
 package nu.validator.htmlparser.dom;
 
 import nu.validator.htmlparser.common.DocumentMode;
+import nu.validator.htmlparser.common.ElementIndex;
 import nu.validator.htmlparser.impl.CoalescingTreeBuilder;
 import nu.validator.htmlparser.impl.HtmlAttributes;
 
@@ -54,6 +55,20 @@ class DOMTreeBuilder extends CoalescingTreeBuilder<Element> {
      */
     private Document document;
 
+    /**
+     * The text node whose data is being accumulated in 
+     * <code>pendingData</code> or <code>null</code>.
+     */
+    private Text pendingText;
+
+    /**
+     * The full data of <code>pendingText</code> while it is being appended 
+     * to. Calling <code>setData(getData() + text)</code> on each append would 
+     * copy the whole node data every time, which is quadratic when a run of 
+     * text arrives in many pieces.
+     */
+    private final StringBuilder pendingData = new StringBuilder();
+
     /**
      * The constructor.
      * 
@@ -77,8 +92,9 @@ class DOMTreeBuilder extends CoalescingTreeBuilder<Element> {
                 String localName = attributes.getLocalNameNoBoundsCheck(i);
                 String uri = attributes.getURINoBoundsCheck(i);
                 if (!element.hasAttributeNS(uri, localName)) {
-                    element.setAttributeNS(uri, localName,
-                            attributes.getValueNoBoundsCheck(i));
+                    String value = attributes.getValueNoBoundsCheck(i);
+                    element.setAttributeNS(uri, localName, value);
+                    indexAddedAttribute(element, uri, localName, value);
                 }
             }
         } catch (DOMException e) {
@@ -96,8 +112,7 @@ class DOMTreeBuilder extends CoalescingTreeBuilder<Element> {
         try {
             Node lastChild = parent.getLastChild();
             if (lastChild != null && lastChild.getNodeType() == Node.TEXT_NODE) {
-                Text lastAsText = (Text) lastChild;
-                lastAsText.setData(lastAsText.getData() + text);
+                appendToText((Text) lastChild, text);
                 return;
             }
             parent.appendChild(document.createTextNode(text));
@@ -106,6 +121,36 @@ class DOMTreeBuilder extends CoalescingTreeBuilder<Element> {
         }
     }
 
+    /**
+     * Appends text to an existing text node. The node data is updated only 
+     * when another node starts being appended to or the tree is about to be 
+     * looked at.
+     * 
+     * @param node
+     *            the text node
+     * @param text
+     *            the text to append
+     */
+    private void appendToText(Text node, String text) {
+        if (node != pendingText) {
+            flushPendingText();
+            pendingText = node;
+            pendingData.append(node.getData());
+        }
+        pendingData.append(text);
+    }
+
+    /**
+     * Writes the accumulated data into the pending text node, if any.
+     */
+    private void flushPendingText() {
+        if (pendingText != null) {
+            pendingText.setData(pendingData.toString());
+            pendingText = null;
+            pendingData.setLength(0);
+        }
+    }
+
     /**
      * 
      * @see nu.validator.htmlparser.impl.TreeBuilder#appendChildrenToNewParent(java.lang.Object,
@@ -165,6 +210,7 @@ class DOMTreeBuilder extends CoalescingTreeBuilder<Element> {
                     rv.setIdAttributeNS(null, attributes.getLocalName(i), true);
                 }
             }
+            indexElement(rv, name, attributes);
             return rv;
         } catch (DOMException e) {
             fatal(e);
@@ -172,6 +218,15 @@ class DOMTreeBuilder extends CoalescingTreeBuilder<Element> {
         }
     }
 
+    /**
+     * The attributes are copied into the DOM.
+     * 
+     * @see nu.validator.htmlparser.impl.TreeBuilder#isRetainingAttributes()
+     */
+    @Override protected boolean isRetainingAttributes() {
+        return false;
+    }
+
     /**
      * 
      * @see nu.validator.htmlparser.impl.TreeBuilder#createHtmlElementSetAsRoot(nu.validator.htmlparser.impl.HtmlAttributes)
@@ -186,6 +241,7 @@ class DOMTreeBuilder extends CoalescingTreeBuilder<Element> {
                         attributes.getLocalNameNoBoundsCheck(i),
                         attributes.getValueNoBoundsCheck(i));
             }
+            indexElement(rv, "html", attributes);
             document.appendChild(rv);
             return rv;
         } catch (DOMException e) {
@@ -243,6 +299,25 @@ class DOMTreeBuilder extends CoalescingTreeBuilder<Element> {
      */
     @Override protected void start(boolean fragment) throws SAXException {
         document = implementation.createDocument(null, null, null);
+        pendingText = null;
+        pendingData.setLength(0);
+    }
+
+    /**
+     * @see nu.validator.htmlparser.impl.TreeBuilder#end()
+     */
+    @Override protected void end() throws SAXException {
+        try {
+            flushPendingText();
+            // Don't keep a huge buffer around after a huge text node.
+            pendingData.trimToSize();
+            if (getElementIndex() != null) {
+                document.setUserData(ElementIndex.USER_DATA_KEY,
+                        getElementIndex(), null);
+            }
+        } catch (DOMException e) {
+            fatal(e);
+        }
     }
 
     /**
@@ -267,6 +342,13 @@ class DOMTreeBuilder extends CoalescingTreeBuilder<Element> {
         return rv;
     }
 
+    /**
+     * Forgets the document built by the last parse without returning it.
+     */
+    void clearDocument() {
+        document = null;
+    }
+
     /**
      * Return the document fragment.
      * 
@@ -310,8 +392,7 @@ class DOMTreeBuilder extends CoalescingTreeBuilder<Element> {
                 Node previousSibling = table.getPreviousSibling();
                 if (previousSibling != null
                         && previousSibling.getNodeType() == Node.TEXT_NODE) {
-                    Text lastAsText = (Text) previousSibling;
-                    lastAsText.setData(lastAsText.getData() + text);
+                    appendToText((Text) previousSibling, text);
                     return;
                 }
                 parent.insertBefore(document.createTextNode(text), table);
@@ -319,8 +400,7 @@ class DOMTreeBuilder extends CoalescingTreeBuilder<Element> {
             }
             Node lastChild = stackParent.getLastChild();
             if (lastChild != null && lastChild.getNodeType() == Node.TEXT_NODE) {
-                Text lastAsText = (Text) lastChild;
-                lastAsText.setData(lastAsText.getData() + text);
+                appendToText((Text) lastChild, text);
                 return;
             }
             stackParent.appendChild(document.createTextNode(text));
@@ -360,6 +440,8 @@ class DOMTreeBuilder extends CoalescingTreeBuilder<Element> {
     // Implements "maybe clone an option into selectedcontent"
     protected void optionElementPopped(Element option) throws SAXException {
         try {
+            // The option's text is about to be cloned.
+            flushPendingText();
             // Find the nearest ancestor <select> element
             Node ancestor = option.getParentNode();
             Element select = null;
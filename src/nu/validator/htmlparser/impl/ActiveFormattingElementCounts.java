@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts the entries on the list of active formatting elements by local name
+ * and by local name together with the attributes so that the tree builder
+ * can rule out matches without scanning the list. The counts cover the whole
+ * list, so they are upper bounds for the part of the list after the last
+ * marker.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+final class ActiveFormattingElementCounts {
+
+    private static final class Key {
+
+        String name;
+
+        int attributesHash;
+
+        Key(String name, int attributesHash) {
+            this.name = name;
+            this.attributesHash = attributesHash;
+        }
+
+        @Override public int hashCode() {
+            return name.hashCode() * 31 + attributesHash;
+        }
+
+        @Override public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return name == other.name && attributesHash == other.attributesHash;
+        }
+    }
+
+    private final Map<String, int[]> byName = new HashMap<String, int[]>();
+
+    private final Map<Key, int[]> byNameAndAttributes = new HashMap<Key, int[]>();
+
+    /**
+     * Reused for lookups so that counting doesn't allocate once a key has 
+     * been seen.
+     */
+    private final Key probe = new Key(null, 0);
+
+    void add(String name, int attributesHash) {
+        int[] count = byName.get(name);
+        if (count == null) {
+            count = new int[1];
+            byName.put(name, count);
+        }
+        count[0]++;
+        count = lookup(name, attributesHash);
+        if (count == null) {
+            count = new int[1];
+            byNameAndAttributes.put(new Key(name, attributesHash), count);
+        }
+        count[0]++;
+    }
+
+    void remove(String name, int attributesHash) {
+        byName.get(name)[0]--;
+        lookup(name, attributesHash)[0]--;
+    }
+
+    int count(String name) {
+        int[] count = byName.get(name);
+        return count == null ? 0 : count[0];
+    }
+
+    int count(String name, int attributesHash) {
+        int[] count = lookup(name, attributesHash);
+        return count == null ? 0 : count[0];
+    }
+
+    void clear() {
+        byName.clear();
+        byNameAndAttributes.clear();
+    }
+
+    private int[] lookup(String name, int attributesHash) {
+        probe.name = name;
+        probe.attributesHash = attributesHash;
+        int[] count = byNameAndAttributes.get(probe);
+        probe.name = null;
+        return count;
+    }
+}
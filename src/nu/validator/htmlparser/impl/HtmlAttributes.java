@@ -454,6 +454,30 @@ public final class HtmlAttributes implements Attributes {
         return clone; // XXX!!!
     }
 
+    /**
+     * Makes this attribute holder hold a copy of the attributes of another 
+     * one. The same as <code>cloneAttributes()</code> but reuses this 
+     * holder and its arrays.
+     * 
+     * @param other the attributes to copy
+     * @throws SAXException never
+     */
+    void copyFrom(HtmlAttributes other) throws SAXException {
+        assert (other.length == 0
+                && other.xmlnsLength == 0
+                )
+                || other.mode == 0 || other.mode == 3;
+        clear(0);
+        for (int i = 0; i < other.length; i++) {
+            addAttribute(other.names[i], other.values[i],
+                    XmlViolationPolicy.ALLOW);
+        }
+        for (int i = 0; i < other.xmlnsLength; i++) {
+            addAttribute(other.xmlnsNames[i], other.xmlnsValues[i],
+                    XmlViolationPolicy.ALLOW);
+        }
+    }
+
     public boolean equalsAnother(HtmlAttributes other) {
         assert mode == 0 || mode == 3 : "Trying to compare attributes in foreign content.";
         int otherLength = other.getLength();
@@ -482,6 +506,22 @@ public final class HtmlAttributes implements Attributes {
         return true;
     }
 
+    /**
+     * Returns a hash code that is equal for attribute holders that are 
+     * equal according to <code>equalsAnother()</code>.
+     * 
+     * @return the hash code
+     */
+    int formattingHashCode() {
+        int hash = length;
+        for (int i = 0; i < length; i++) {
+            // Summing makes the hash independent of the attribute order.
+            hash += names[i].getLocal(AttributeName.HTML).hashCode() * 31
+                    ^ values[i].hashCode();
+        }
+        return hash;
+    }
+
     void processNonNcNames(TreeBuilder<?> treeBuilder, XmlViolationPolicy namePolicy) throws SAXException {
         for (int i = 0; i < length; i++) {
             AttributeName attName = names[i];
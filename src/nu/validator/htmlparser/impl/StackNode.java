@@ -57,6 +57,22 @@ final class StackNode<T> {
 
     private TaintableLocatorImpl locator;
 
+    /**
+     * Whether this node is on the stack of open elements.
+     */
+    boolean onStack;
+
+    /**
+     * Whether this node is on the list of active formatting elements.
+     */
+    boolean inList;
+
+    /**
+     * The hash of the attributes when this node was put on the list of
+     * active formatting elements.
+     */
+    int attributesHash;
+
     public TaintableLocatorImpl getLocator() {
         return locator;
     }
@@ -331,6 +347,20 @@ final class StackNode<T> {
     }
 
     // [NOCPP[
+    /**
+     * Drops the references of an unused node so that a node kept for the
+     * next parse does not keep the previous tree alive.
+     */
+    void clearForReuse() {
+        assert isUnused();
+        name = null;
+        popName = null;
+        ns = null;
+        node = null;
+        attributes = null;
+        locator = null;
+    }
+
     /**
      * @see java.lang.Object#toString()
      */
@@ -349,6 +379,14 @@ final class StackNode<T> {
         assert refcount >= 0;
         if (refcount == 0) {
             Portability.delete(attributes);
+            // [NOCPP[
+            if (owningTreeBuilder != null) {
+                owningTreeBuilder.recycleAttributes(attributes);
+            }
+            attributes = null;
+            onStack = false;
+            inList = false;
+            // ]NOCPP]
             if (idxInTreeBuilder >= 0) {
                 owningTreeBuilder.notifyUnusedStackNode(idxInTreeBuilder);
             } else {
@@ -51,6 +51,7 @@ import nu.validator.htmlparser.annotation.Local;
 import nu.validator.htmlparser.annotation.NoLength;
 import nu.validator.htmlparser.common.EncodingDeclarationHandler;
 import nu.validator.htmlparser.common.Interner;
+import nu.validator.htmlparser.common.ParserLimits;
 import nu.validator.htmlparser.common.TokenHandler;
 import nu.validator.htmlparser.common.XmlViolationPolicy;
 
@@ -505,6 +506,30 @@ public class Tokenizer implements Locator, Locator2 {
 
     private int mappingLangToXmlLang;
 
+    /**
+     * Whether the token handler has asked for the parse to end before the
+     * end of the input.
+     */
+    private boolean stopped;
+
+    /**
+     * The length above which a kept buffer is shrunk at the end of a parse
+     * or -1 if kept buffers are never shrunk.
+     */
+    private int bufferHighWaterMark = -1;
+
+    private int peakBufferLength = 0;
+
+    private int bufferTrimCount = 0;
+
+    private ParserLimits limits = null;
+
+    /**
+     * Whether the current comment or attribute value was truncated before
+     * it was complete, so that truncation is reported when it is emitted.
+     */
+    private boolean tokenTruncated = false;
+
     // ]NOCPP]
 
     private final boolean newAttributesEachTime;
@@ -662,6 +687,11 @@ public class Tokenizer implements Locator, Locator2 {
     }
 
     public boolean dropBufferIfLongerThan(int length) {
+        // [NOCPP[
+        if (strBuf == null) {
+            return false;
+        }
+        // ]NOCPP]
         if (strBuf.length > length) {
             strBuf = null;
             return true;
@@ -963,6 +993,9 @@ public class Tokenizer implements Locator, Locator2 {
 
     @Inline private void clearStrBufAfterUse() {
         strBufLen = 0;
+        // [NOCPP[
+        tokenTruncated = false;
+        // ]NOCPP]
     }
 
     @Inline private void clearStrBufBeforeUse() {
@@ -1016,11 +1049,26 @@ public class Tokenizer implements Locator, Locator2 {
      *
      * @return the buffer as local name
      */
-    @Inline private void strBufToDoctypeName() {
+    @Inline private void strBufToDoctypeName() throws SAXException {
+        // [NOCPP[
+        limitNameLength("DOCTYPE name");
+        // ]NOCPP]
         doctypeName = Portability.newLocalNameFromBuffer(strBuf, strBufLen, interner);
         clearStrBufAfterUse();
     }
 
+    /**
+     * Returns the buffer as a DOCTYPE public or system identifier.
+     *
+     * @return the buffer as a string
+     */
+    @Inline private String strBufToDoctypeIdentifier() throws SAXException {
+        // [NOCPP[
+        limitNameLength("DOCTYPE identifier");
+        // ]NOCPP]
+        return strBufToString();
+    }
+
     /**
      * Emits the buffer as character tokens.
      *
@@ -1137,6 +1185,12 @@ public class Tokenizer implements Locator, Locator2 {
             throws SAXException {
         // CPPONLY: RememberGt(pos);
         // [NOCPP[
+        if (limits != null) {
+            strBufLen = limitTokenLength(
+                    Math.max(0, strBufLen - provisionalHyphens),
+                    limits.getMaxCommentLength(), "comment", true)
+                    + provisionalHyphens;
+        }
         if (wantsComments) {
             // ]NOCPP]
             tokenHandler.comment(strBuf, 0, strBufLen
@@ -1230,7 +1284,10 @@ public class Tokenizer implements Locator, Locator2 {
         errorHandler.warning(spe);
     }
 
-    private void strBufToElementNameString() {
+    private void strBufToElementNameString() throws SAXException {
+        // [NOCPP[
+        limitNameLength("tag name");
+        // ]NOCPP]
         if (containsHyphen) {
             // We've got a custom element or annotation-xml.
             @Local String annotationName = ElementName.ANNOTATION_XML.getName();
@@ -1319,6 +1376,9 @@ public class Tokenizer implements Locator, Locator2 {
     }
 
     private void attributeNameComplete() throws SAXException {
+        // [NOCPP[
+        limitNameLength("attribute name");
+        // ]NOCPP]
         attributeName = AttributeName.nameByBuffer(strBuf, strBufLen, interner);
         if (attributeName == null) {
             // [NOCPP[
@@ -1367,6 +1427,10 @@ public class Tokenizer implements Locator, Locator2 {
                         + attributeName.getLocal(AttributeName.HTML)
                         + "\u201D without an explicit value seen. The attribute may be dropped by IE7.");
             }
+            if (!attributeFitsLimit()) {
+                attributeName = null;
+                return;
+            }
             // ]NOCPP]
             attributes.addAttribute(attributeName,
                     Portability.newEmptyString()
@@ -1389,6 +1453,18 @@ public class Tokenizer implements Locator, Locator2 {
         }
         // ]NOCPP]
         if (attributeName != null) {
+            // [NOCPP[
+            if (!attributeFitsLimit()) {
+                attributeName = null;
+                clearStrBufAfterUse();
+                return;
+            }
+            if (limits != null) {
+                strBufLen = limitTokenLength(strBufLen,
+                        limits.getMaxAttributeValueLength(),
+                        "attribute value", true);
+            }
+            // ]NOCPP]
             String val = strBufToAttributeValueString(); // Ownership transferred to
             // HtmlAttributes
             // CPPONLY: if (mViewSource) {
@@ -1432,6 +1508,8 @@ public class Tokenizer implements Locator, Locator2 {
         // CPPONLY:   nextCharOnNewLine = false;
         // CPPONLY: }
         // [NOCPP[
+        stopped = false;
+        tokenTruncated = false;
         startErrorReporting();
         // ]NOCPP]
     }
@@ -1515,6 +1593,9 @@ public class Tokenizer implements Locator, Locator2 {
 
     // [NOCPP[
     private void ensureBufferSpace(int inputLength) throws SAXException {
+        if (limits != null) {
+            enforceTokenLengthLimit();
+        }
         // Add 2 to account for emissions of LT_GT, LT_SOLIDUS and RSQB_RSQB.
         // Adding to the general worst case instead of only the
         // TreeBuilder-exposed worst case to avoid re-introducing a bug when
@@ -1544,6 +1625,9 @@ public class Tokenizer implements Locator, Locator2 {
             System.arraycopy(strBuf, 0, newBuf, 0, strBufLen);
             strBuf = newBuf;
         }
+        if (strBuf.length > peakBufferLength) {
+            peakBufferLength = strBuf.length;
+        }
     }
     // ]NOCPP]
 
@@ -5569,7 +5653,7 @@ public class Tokenizer implements Locator, Locator2 {
                                  * U+0022 QUOTATION MARK (") Switch to the after
                                  * DOCTYPE public identifier state.
                                  */
-                                publicIdentifier = strBufToString();
+                                publicIdentifier = strBufToDoctypeIdentifier();
                                 state = transition(state, Tokenizer.AFTER_DOCTYPE_PUBLIC_IDENTIFIER, reconsume, pos);
                                 // `break` optimizes; `continue stateloop;` would be valid
                                 break doctypepublicidentifierdoublequotedloop;
@@ -5586,7 +5670,7 @@ public class Tokenizer implements Locator, Locator2 {
                                 /*
                                  * Emit that DOCTYPE token.
                                  */
-                                publicIdentifier = strBufToString();
+                                publicIdentifier = strBufToDoctypeIdentifier();
                                 emitDoctypeToken(pos);
                                 /*
                                  * Switch to the data state.
@@ -5807,7 +5891,7 @@ public class Tokenizer implements Locator, Locator2 {
                                  * U+0022 QUOTATION MARK (") Switch to the after
                                  * DOCTYPE system identifier state.
                                  */
-                                systemIdentifier = strBufToString();
+                                systemIdentifier = strBufToDoctypeIdentifier();
                                 state = transition(state, Tokenizer.AFTER_DOCTYPE_SYSTEM_IDENTIFIER, reconsume, pos);
                                 // `break` optimizes; `continue stateloop;` would be valid
                                 break doctypesystemidentifierdoublequotedloop;
@@ -5824,7 +5908,7 @@ public class Tokenizer implements Locator, Locator2 {
                                 /*
                                  * Emit that DOCTYPE token.
                                  */
-                                systemIdentifier = strBufToString();
+                                systemIdentifier = strBufToDoctypeIdentifier();
                                 emitDoctypeToken(pos);
                                 /*
                                  * Switch to the data state.
@@ -6190,7 +6274,7 @@ public class Tokenizer implements Locator, Locator2 {
                                  * U+0027 APOSTROPHE (') Switch to the after
                                  * DOCTYPE system identifier state.
                                  */
-                                systemIdentifier = strBufToString();
+                                systemIdentifier = strBufToDoctypeIdentifier();
                                 state = transition(state, Tokenizer.AFTER_DOCTYPE_SYSTEM_IDENTIFIER, reconsume, pos);
                                 continue stateloop;
                             case '>':
@@ -6203,7 +6287,7 @@ public class Tokenizer implements Locator, Locator2 {
                                 /*
                                  * Emit that DOCTYPE token.
                                  */
-                                systemIdentifier = strBufToString();
+                                systemIdentifier = strBufToDoctypeIdentifier();
                                 emitDoctypeToken(pos);
                                 /*
                                  * Switch to the data state.
@@ -6252,7 +6336,7 @@ public class Tokenizer implements Locator, Locator2 {
                                  * U+0027 APOSTROPHE (') Switch to the after
                                  * DOCTYPE public identifier state.
                                  */
-                                publicIdentifier = strBufToString();
+                                publicIdentifier = strBufToDoctypeIdentifier();
                                 state = transition(state, Tokenizer.AFTER_DOCTYPE_PUBLIC_IDENTIFIER, reconsume, pos);
                                 continue stateloop;
                             case '>':
@@ -6265,7 +6349,7 @@ public class Tokenizer implements Locator, Locator2 {
                                 /*
                                  * Emit that DOCTYPE token.
                                  */
-                                publicIdentifier = strBufToString();
+                                publicIdentifier = strBufToDoctypeIdentifier();
                                 emitDoctypeToken(pos);
                                 /*
                                  * Switch to the data state.
@@ -6815,7 +6899,7 @@ public class Tokenizer implements Locator, Locator2 {
                     /*
                      * Emit that DOCTYPE token.
                      */
-                    publicIdentifier = strBufToString();
+                    publicIdentifier = strBufToDoctypeIdentifier();
                     emitDoctypeToken(0);
                     /*
                      * Reconsume the EOF character in the data state.
@@ -6848,7 +6932,7 @@ public class Tokenizer implements Locator, Locator2 {
                     /*
                      * Emit that DOCTYPE token.
                      */
-                    systemIdentifier = strBufToString();
+                    systemIdentifier = strBufToDoctypeIdentifier();
                     emitDoctypeToken(0);
                     /*
                      * Reconsume the EOF character in the data state.
@@ -7286,6 +7370,13 @@ public class Tokenizer implements Locator, Locator2 {
         if (!keepBuffer) {
             strBuf = null;
         }
+        // [NOCPP[
+        if (strBuf != null && bufferHighWaterMark >= 0
+                && strBuf.length > bufferHighWaterMark) {
+            strBuf = new char[bufferHighWaterMark];
+            bufferTrimCount++;
+        }
+        // ]NOCPP]
         doctypeName = null;
         if (systemIdentifier != null) {
             Portability.releaseString(systemIdentifier);
@@ -7316,6 +7407,236 @@ public class Tokenizer implements Locator, Locator2 {
 
     // [NOCPP[
 
+    /**
+     * Suspends tokenization after the current token and tells the caller of
+     * <code>tokenizeBuffer()</code> not to feed any more input. The caller is
+     * expected to call <code>eof()</code> next.
+     */
+    public void requestStop() {
+        stopped = true;
+        shouldSuspend = true;
+    }
+
+    /**
+     * Queries whether <code>requestStop()</code> has been called since the
+     * tokenizer was started.
+     *
+     * @return <code>true</code> if no more input should be tokenized
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Sets the limits for token lengths and for the number of attributes on
+     * an element.
+     *
+     * @param limits
+     *            the limits or <code>null</code> for no limits
+     */
+    public void setParserLimits(ParserLimits limits) {
+        this.limits = limits;
+    }
+
+    /**
+     * Returns the limits.
+     *
+     * @return the limits or <code>null</code>
+     */
+    public ParserLimits getParserLimits() {
+        return limits;
+    }
+
+    /**
+     * Keeps a comment, an attribute value, a name or a DOCTYPE identifier
+     * that is still being tokenized from growing the buffer past its limit.
+     * The other states that accumulate into the buffer only match keywords,
+     * so they cannot grow it far. This is called between input
+     * buffers, so the buffer can exceed the limit by up to one input buffer.
+     *
+     * @throws SAXException
+     */
+    private void enforceTokenLengthLimit() throws SAXException {
+        int state = stateSave;
+        if (state >= CONSUME_CHARACTER_REFERENCE
+                && state <= CHARACTER_REFERENCE_HILO_LOOKUP) {
+            state = returnStateSave;
+        }
+        switch (state) {
+            case ATTRIBUTE_VALUE_DOUBLE_QUOTED:
+            case ATTRIBUTE_VALUE_SINGLE_QUOTED:
+            case ATTRIBUTE_VALUE_UNQUOTED:
+                strBufLen = limitTokenLength(strBufLen,
+                        limits.getMaxAttributeValueLength(), "attribute value",
+                        false);
+                return;
+            case COMMENT_START:
+            case COMMENT:
+            case BOGUS_COMMENT:
+            case BOGUS_COMMENT_HYPHEN:
+            case COMMENT_LESSTHAN:
+            case COMMENT_LESSTHAN_BANG:
+                limitCommentLength(0);
+                return;
+            case COMMENT_START_DASH:
+            case COMMENT_END_DASH:
+            case COMMENT_LESSTHAN_BANG_DASH:
+                limitCommentLength(1);
+                return;
+            case COMMENT_END:
+            case COMMENT_LESSTHAN_BANG_DASH_DASH:
+                limitCommentLength(2);
+                return;
+            case COMMENT_END_BANG:
+                limitCommentLength(3);
+                return;
+            case TAG_NAME:
+                strBufLen = limitTokenLength(strBufLen,
+                        limits.getMaxTokenLength(), "tag name", false);
+                return;
+            case ATTRIBUTE_NAME:
+                strBufLen = limitTokenLength(strBufLen,
+                        limits.getMaxTokenLength(), "attribute name", false);
+                return;
+            case DOCTYPE_NAME:
+                strBufLen = limitTokenLength(strBufLen,
+                        limits.getMaxTokenLength(), "DOCTYPE name", false);
+                return;
+            case DOCTYPE_PUBLIC_IDENTIFIER_DOUBLE_QUOTED:
+            case DOCTYPE_PUBLIC_IDENTIFIER_SINGLE_QUOTED:
+            case DOCTYPE_SYSTEM_IDENTIFIER_DOUBLE_QUOTED:
+            case DOCTYPE_SYSTEM_IDENTIFIER_SINGLE_QUOTED:
+                strBufLen = limitTokenLength(strBufLen,
+                        limits.getMaxTokenLength(), "DOCTYPE identifier",
+                        false);
+                return;
+            default:
+                return;
+        }
+    }
+
+    /**
+     * Truncates an incomplete comment while keeping the trailing characters
+     * that may still turn out to be part of the comment end, since
+     * <code>emitComment</code> drops them by count.
+     * 
+     * @param provisional
+     *            the number of trailing characters to keep
+     * @throws SAXException
+     */
+    private void limitCommentLength(int provisional) throws SAXException {
+        int length = limitTokenLength(strBufLen - provisional,
+                limits.getMaxCommentLength(), "comment", false);
+        if (length + provisional < strBufLen) {
+            System.arraycopy(strBuf, strBufLen - provisional, strBuf, length,
+                    provisional);
+            strBufLen = length + provisional;
+        }
+    }
+
+    /**
+     * Applies the name length limit to a complete name or DOCTYPE
+     * identifier.
+     *
+     * @param what
+     *            what is being limited for the error message
+     * @throws SAXException
+     */
+    private void limitNameLength(String what) throws SAXException {
+        if (limits != null) {
+            strBufLen = limitTokenLength(strBufLen,
+                    limits.getMaxTokenLength(), what, true);
+        }
+    }
+
+    /**
+     * Applies a length limit.
+     *
+     * @param length
+     *            the current length
+     * @param max
+     *            the limit or -1
+     * @param what
+     *            what is being limited for the error message
+     * @param complete
+     *            whether the token is complete, in which case truncation
+     *            now or earlier in the token is reported
+     * @return the length after truncation
+     * @throws SAXException
+     */
+    private int limitTokenLength(int length, int max, String what,
+            boolean complete) throws SAXException {
+        if (max >= 0 && length > max) {
+            if (limits.isFailingFast()) {
+                fatal("The " + what + " is longer than the limit of " + max
+                        + " characters.");
+            }
+            length = max;
+            tokenTruncated = true;
+        }
+        if (complete && tokenTruncated) {
+            tokenTruncated = false;
+            warn("The " + what + " was truncated to " + max
+                    + " characters.");
+        }
+        return length;
+    }
+
+    /**
+     * Checks whether one more attribute fits on the current element.
+     *
+     * @return <code>true</code> if the attribute should be added
+     * @throws SAXException
+     */
+    private boolean attributeFitsLimit() throws SAXException {
+        if (limits == null) {
+            return true;
+        }
+        int max = limits.getMaxAttributesPerElement();
+        if (max < 0 || attributes.getLength() < max) {
+            return true;
+        }
+        if (limits.isFailingFast()) {
+            fatal("The element has more than " + max + " attributes.");
+        }
+        warn("Attribute \u201C" + attributeName.getLocal(AttributeName.HTML)
+                + "\u201D dropped, because the element has more than " + max
+                + " attributes.");
+        return false;
+    }
+
+    /**
+     * Sets the length above which a buffer kept between parses is shrunk
+     * to that length when the parse ends.
+     *
+     * @param bufferHighWaterMark
+     *            the length or -1 to never shrink
+     * @see #setKeepBuffer(boolean)
+     */
+    public void setBufferHighWaterMark(int bufferHighWaterMark) {
+        this.bufferHighWaterMark = bufferHighWaterMark;
+    }
+
+    /**
+     * Returns the largest length the buffer has been grown to since this
+     * tokenizer was created.
+     *
+     * @return the peak length in <code>char</code>s
+     */
+    public int getPeakBufferLength() {
+        return peakBufferLength;
+    }
+
+    /**
+     * Returns how many times the buffer has been shrunk due to the high
+     * water mark.
+     *
+     * @return the number of times the buffer was shrunk
+     */
+    public int getBufferTrimCount() {
+        return bufferTrimCount;
+    }
+
     public void becomeConfident() {
         confident = true;
     }
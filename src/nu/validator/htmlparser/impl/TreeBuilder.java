@@ -54,7 +54,10 @@ import nu.validator.htmlparser.annotation.NoLength;
 import nu.validator.htmlparser.annotation.NsUri;
 import nu.validator.htmlparser.common.DocumentMode;
 import nu.validator.htmlparser.common.DocumentModeHandler;
+import nu.validator.htmlparser.common.ElementIndex;
 import nu.validator.htmlparser.common.Interner;
+import nu.validator.htmlparser.common.ParserLimits;
+import nu.validator.htmlparser.common.StopCondition;
 import nu.validator.htmlparser.common.TokenHandler;
 import nu.validator.htmlparser.common.XmlViolationPolicy;
 
@@ -434,12 +437,117 @@ public abstract class TreeBuilder<T> implements TokenHandler,
 
     // [NOCPP[
 
+    /**
+     * The maximum number of recycled attribute holders kept around.
+     */
+    private static final int ATTRIBUTES_POOL_SIZE = 32;
+
     private boolean reportingDoctype = true;
 
     private XmlViolationPolicy namePolicy = XmlViolationPolicy.ALTER_INFOSET;
 
     private final Map<String, LocatorImpl> idLocations = new HashMap<String, LocatorImpl>();
 
+    private StopCondition stopCondition = null;
+
+    private boolean indexingElements = false;
+
+    /**
+     * The index of the current parse or <code>null</code> if not indexing.
+     */
+    private ElementIndex<T> elementIndex = null;
+
+    /**
+     * The number of elements deep the tree may get before the deep tree
+     * policy kicks in. Matches Blink's magic number, which counts
+     * differently.
+     */
+    private int maxDepth = 513;
+
+    private XmlViolationPolicy deepTreePolicy = XmlViolationPolicy.ALTER_INFOSET;
+
+    private int peakDepth = 0;
+
+    private int flattenedInsertionCount = 0;
+
+    private ParserLimits limits = null;
+
+    /**
+     * The depth beyond which insertions are flattened during the current
+     * parse.
+     */
+    private int flattenDepth = Integer.MAX_VALUE;
+
+    /**
+     * The depth beyond which the current parse fails.
+     */
+    private int failDepth = Integer.MAX_VALUE;
+
+    /**
+     * Whether the run of text in the buffer has been truncated.
+     */
+    private boolean textTruncated = false;
+
+    /**
+     * Recycled attribute holders for the copies of attributes that the tree
+     * builder makes for formatting elements.
+     */
+    private final HtmlAttributes[] attributesPool = new HtmlAttributes[ATTRIBUTES_POOL_SIZE];
+
+    private int attributesPoolLen = 0;
+
+    /*
+     * When keepBuffer is set, the stack arrays of the previous parse are kept
+     * here between endTokenization() and the next startTokenization(). The
+     * first keptNumStackNodes entries of keptStackNodes are unused stack
+     * nodes that are reused as they are.
+     */
+
+    private StackNode<T>[] keptStackNodes;
+
+    private int keptNumStackNodes;
+
+    private StackNode<T>[] keptStack;
+
+    private StackNode<T>[] keptListOfActiveFormattingElements;
+
+    private int[] keptTemplateModeStack;
+
+    /**
+     * The length above which kept buffers are shrunk at the end of a parse
+     * or -1 if kept buffers are never shrunk.
+     */
+    private int bufferHighWaterMark = -1;
+
+    private int peakBufferLength = 0;
+
+    private int bufferTrimCount = 0;
+
+    /**
+     * The stack depth at which the stack occupancy counters start to be
+     * maintained. Below this, walking the stack is cheaper than keeping the
+     * counters up to date.
+     */
+    private static final int STACK_COUNTING_DEPTH = 32;
+
+    /**
+     * Whether <code>htmlNameCounts</code> and <code>groupCounts</code>
+     * currently reflect the stack.
+     */
+    private boolean countingStack = false;
+
+    /**
+     * The number of HTML elements on the stack by local name.
+     */
+    private final Map<String, int[]> htmlNameCounts = new HashMap<String, int[]>();
+
+    /**
+     * The number of elements in any namespace on the stack by group.
+     */
+    private final int[] groupCounts = new int[ElementName.GROUP_MASK + 1];
+
+    private final ActiveFormattingElementCounts formattingCounts = new ActiveFormattingElementCounts();
+
     // ]NOCPP]
 
     protected TreeBuilder() {
@@ -578,6 +686,12 @@ public abstract class TreeBuilder<T> implements TokenHandler,
     }
 
     public boolean dropBufferIfLongerThan(int length) {
+        // [NOCPP[
+        boolean dropped = dropKeptStackArraysLongerThan(length);
+        if (charBuffer == null) {
+            return dropped;
+        }
+        // ]NOCPP]
         if (charBuffer.length > length) {
             charBuffer = null;
             return true;
@@ -587,23 +701,62 @@ public abstract class TreeBuilder<T> implements TokenHandler,
 
     @SuppressWarnings("unchecked") public final void startTokenization(Tokenizer self) throws SAXException {
         tokenizer = self;
+        // [NOCPP[
+        if (keptStack != null) {
+            stackNodes = keptStackNodes;
+            stack = keptStack;
+            templateModeStack = keptTemplateModeStack;
+            listOfActiveFormattingElements = keptListOfActiveFormattingElements;
+            keptStackNodes = null;
+            keptStack = null;
+            keptTemplateModeStack = null;
+            keptListOfActiveFormattingElements = null;
+        } else {
+        // ]NOCPP]
         stackNodes = new StackNode[64];
         stack = new StackNode[64];
         templateModeStack = new int[64];
         listOfActiveFormattingElements = new StackNode[64];
+        // [NOCPP[
+        }
+        // ]NOCPP]
         needToDropLF = false;
         mode = INITIAL;
         originalMode = INITIAL;
         templateModePtr = -1;
         stackNodesIdx = 0;
         numStackNodes = 0;
+        // [NOCPP[
+        numStackNodes = keptNumStackNodes;
+        keptNumStackNodes = 0;
+        // ]NOCPP]
         currentPtr = -1;
+        // [NOCPP[
+        countingStack = false;
+        formattingCounts.clear();
+        peakDepth = 0;
+        flattenedInsertionCount = 0;
+        flattenDepth = deepTreePolicy == XmlViolationPolicy.ALTER_INFOSET ? maxDepth
+                : Integer.MAX_VALUE;
+        failDepth = deepTreePolicy == XmlViolationPolicy.FATAL ? maxDepth
+                : Integer.MAX_VALUE;
+        if (limits != null && limits.getMaxDepth() >= 0) {
+            if (limits.isFailingFast()) {
+                failDepth = Math.min(failDepth, limits.getMaxDepth());
+            } else {
+                flattenDepth = Math.min(flattenDepth,
+                        Math.max(2, limits.getMaxDepth()));
+            }
+        }
+        textTruncated = false;
+        // ]NOCPP]
         listPtr = -1;
         formPointer = null;
         headPointer = null;
         // [NOCPP[
         idLocations.clear();
         wantingComments = wantsComments();
+        elementIndex = indexingElements ? new ElementIndex<T>() : null;
         // ]NOCPP]
         start(fragment);
         charBufferLen = 0;
@@ -1425,7 +1578,19 @@ public abstract class TreeBuilder<T> implements TokenHandler,
         headPointer = null;
         contextName = null;
         contextNode = null;
+        // [NOCPP[
+        if (keepBuffer && stack != null) {
+            keptStackNodes = stackNodes;
+            keptStack = stack;
+            keptTemplateModeStack = templateModeStack;
+            keptListOfActiveFormattingElements = listOfActiveFormattingElements;
+        }
+        // ]NOCPP]
         templateModeStack = null;
+        // [NOCPP[
+        countingStack = false;
+        formattingCounts.clear();
+        // ]NOCPP]
         if (stack != null) {
             while (currentPtr > -1) {
                 stack[currentPtr].release(this);
@@ -1443,6 +1608,16 @@ public abstract class TreeBuilder<T> implements TokenHandler,
             listOfActiveFormattingElements = null;
         }
         if (stackNodes != null) {
+            // [NOCPP[
+            if (stackNodes == keptStackNodes) {
+                // Keep the nodes themselves but not what they point to.
+                for (int i = 0; i < numStackNodes; i++) {
+                    stackNodes[i].clearForReuse();
+                }
+                keptNumStackNodes = numStackNodes;
+                numStackNodes = 0;
+            }
+            // ]NOCPP]
             for (int i = 0; i < numStackNodes; i++) {
                 assert stackNodes[i].isUnused();
                 Portability.delete(stackNodes[i]);
@@ -1453,12 +1628,34 @@ public abstract class TreeBuilder<T> implements TokenHandler,
         }
         // [NOCPP[
         idLocations.clear();
+        if (keptStack != null) {
+            // Don't let the kept arrays keep the nodes of this parse alive.
+            // The stack nodes themselves were cleared above.
+            Arrays.fill(keptStack, null);
+            Arrays.fill(keptListOfActiveFormattingElements, null);
+        }
         // ]NOCPP]
 
         if (!keepBuffer) {
             charBuffer = null;
         }
+        // [NOCPP[
+        if (bufferHighWaterMark >= 0) {
+            boolean trimmed = dropKeptStackArraysLongerThan(bufferHighWaterMark);
+            if (charBuffer != null && charBuffer.length > bufferHighWaterMark) {
+                charBuffer = new char[bufferHighWaterMark];
+                trimmed = true;
+            }
+            if (trimmed) {
+                bufferTrimCount++;
+            }
+        }
+        // ]NOCPP]
         end();
+        // [NOCPP[
+        // The subclass has attached the index to the document by now.
+        elementIndex = null;
+        // ]NOCPP]
     }
 
     public final void startTag(ElementName elementName,
@@ -1466,6 +1663,12 @@ public abstract class TreeBuilder<T> implements TokenHandler,
         flushCharacters();
 
         // [NOCPP[
+        if (stopCondition != null
+                && stopCondition.stopBeforeStartTag(elementName.getName(),
+                        attributes)) {
+            tokenizer.requestStop();
+            return;
+        }
         boolean wasSelfClosing = selfClosing;
         boolean voidElement = false;
         if (errorHandler != null) {
@@ -3699,6 +3902,12 @@ public abstract class TreeBuilder<T> implements TokenHandler,
                                 pop();
                                 break endtagloop;
                             }
+                            // [NOCPP[
+                            if (countingStack && htmlNameCount(name) == 0) {
+                                errStrayEndTag(name);
+                                break endtagloop;
+                            }
+                            // ]NOCPP]
 
                             eltPos = currentPtr;
                             for (;;) {
@@ -3943,6 +4152,11 @@ public abstract class TreeBuilder<T> implements TokenHandler,
     }
 
     private int findLast(@Local String name) {
+        // [NOCPP[
+        if (countingStack && htmlNameCount(name) == 0) {
+            return TreeBuilder.NOT_FOUND_ON_STACK;
+        }
+        // ]NOCPP]
         for (int i = currentPtr; i > 0; i--) {
             if (stack[i].ns == "http://www.w3.org/1999/xhtml" && stack[i].name == name) {
                 return i;
@@ -3952,6 +4166,11 @@ public abstract class TreeBuilder<T> implements TokenHandler,
     }
 
     private int findLastInTableScope(@Local String name) {
+        // [NOCPP[
+        if (countingStack && htmlNameCount(name) == 0) {
+            return TreeBuilder.NOT_FOUND_ON_STACK;
+        }
+        // ]NOCPP]
         for (int i = currentPtr; i > 0; i--) {
             if (stack[i].ns == "http://www.w3.org/1999/xhtml") {
                 if (stack[i].name == name) {
@@ -3965,6 +4184,11 @@ public abstract class TreeBuilder<T> implements TokenHandler,
     }
 
     private int findLastInButtonScope(@Local String name) {
+        // [NOCPP[
+        if (countingStack && htmlNameCount(name) == 0) {
+            return TreeBuilder.NOT_FOUND_ON_STACK;
+        }
+        // ]NOCPP]
         for (int i = currentPtr; i > 0; i--) {
             if (stack[i].ns == "http://www.w3.org/1999/xhtml") {
                 if (stack[i].name == name) {
@@ -3982,6 +4206,11 @@ public abstract class TreeBuilder<T> implements TokenHandler,
     }
 
     private int findLastInScope(@Local String name) {
+        // [NOCPP[
+        if (countingStack && htmlNameCount(name) == 0) {
+            return TreeBuilder.NOT_FOUND_ON_STACK;
+        }
+        // ]NOCPP]
         for (int i = currentPtr; i > 0; i--) {
             if (stack[i].ns == "http://www.w3.org/1999/xhtml" && stack[i].name == name) {
                 return i;
@@ -3993,6 +4222,11 @@ public abstract class TreeBuilder<T> implements TokenHandler,
     }
 
     private int findLastInListScope(@Local String name) {
+        // [NOCPP[
+        if (countingStack && htmlNameCount(name) == 0) {
+            return TreeBuilder.NOT_FOUND_ON_STACK;
+        }
+        // ]NOCPP]
         for (int i = currentPtr; i > 0; i--) {
             if (stack[i].ns == "http://www.w3.org/1999/xhtml") {
                 if (stack[i].name == name) {
@@ -4010,6 +4244,12 @@ public abstract class TreeBuilder<T> implements TokenHandler,
     }
 
     private int findLastInScopeHn() {
+        // [NOCPP[
+        if (countingStack
+                && groupCounts[TreeBuilder.H1_OR_H2_OR_H3_OR_H4_OR_H5_OR_H6] == 0) {
+            return TreeBuilder.NOT_FOUND_ON_STACK;
+        }
+        // ]NOCPP]
         for (int i = currentPtr; i > 0; i--) {
             if (stack[i].getGroup() == TreeBuilder.H1_OR_H2_OR_H3_OR_H4_OR_H5_OR_H6) {
                 return i;
@@ -4198,6 +4438,12 @@ public abstract class TreeBuilder<T> implements TokenHandler,
     }
 
     private int findLastInTableScopeTdTh() {
+        // [NOCPP[
+        if (countingStack && htmlNameCount("td") == 0
+                && htmlNameCount("th") == 0) {
+            return TreeBuilder.NOT_FOUND_ON_STACK;
+        }
+        // ]NOCPP]
         for (int i = currentPtr; i > 0; i--) {
             @Local String name = stack[i].name;
             if (stack[i].ns == "http://www.w3.org/1999/xhtml") {
@@ -4343,6 +4589,9 @@ public abstract class TreeBuilder<T> implements TokenHandler,
             stack = newStack;
         }
         stack[currentPtr] = node;
+        // [NOCPP[
+        stackNodePushed(node);
+        // ]NOCPP]
         elementPushed(node.ns, node.popName, node.node);
     }
 
@@ -4354,6 +4603,9 @@ public abstract class TreeBuilder<T> implements TokenHandler,
             stack = newStack;
         }
         stack[currentPtr] = node;
+        // [NOCPP[
+        stackNodePushed(node);
+        // ]NOCPP]
     }
 
     @SuppressWarnings("unchecked") private void append(StackNode<T> node) {
@@ -4365,6 +4617,11 @@ public abstract class TreeBuilder<T> implements TokenHandler,
             listOfActiveFormattingElements = newList;
         }
         listOfActiveFormattingElements[listPtr] = node;
+        // [NOCPP[
+        if (node != null) {
+            listEntryAdded(node);
+        }
+        // ]NOCPP]
     }
 
     @Inline private void insertMarker() {
@@ -4377,6 +4634,9 @@ public abstract class TreeBuilder<T> implements TokenHandler,
                 --listPtr;
                 return;
             }
+            // [NOCPP[
+            listEntryRemoved(listOfActiveFormattingElements[listPtr]);
+            // ]NOCPP]
             listOfActiveFormattingElements[listPtr].release(this);
             --listPtr;
         }
@@ -4392,10 +4652,16 @@ public abstract class TreeBuilder<T> implements TokenHandler,
             pop();
         } else {
             fatal();
+            // [NOCPP[
+            StackNode<T> node = stack[pos];
+            // ]NOCPP]
             stack[pos].release(this);
             System.arraycopy(stack, pos + 1, stack, pos, currentPtr - pos);
             assert debugOnlyClearLastStackSlot();
             currentPtr--;
+            // [NOCPP[
+            stackNodePopped(node);
+            // ]NOCPP]
         }
     }
 
@@ -4415,11 +4681,17 @@ public abstract class TreeBuilder<T> implements TokenHandler,
             node.release(this);
             System.arraycopy(stack, pos + 1, stack, pos, currentPtr - pos);
             currentPtr--;
+            // [NOCPP[
+            stackNodePopped(node);
+            // ]NOCPP]
         }
     }
 
     private void removeFromListOfActiveFormattingElements(int pos) {
         assert listOfActiveFormattingElements[pos] != null;
+        // [NOCPP[
+        listEntryRemoved(listOfActiveFormattingElements[pos]);
+        // ]NOCPP]
         listOfActiveFormattingElements[pos].release(this);
         if (pos == listPtr) {
             assert debugOnlyClearLastListSlot();
@@ -4460,6 +4732,11 @@ public abstract class TreeBuilder<T> implements TokenHandler,
         // If you crash around here, perhaps some stack node variable claimed to
         // be a weak ref isn't.
         for (int i = 0; i < 8; ++i) {
+            // [NOCPP[
+            if (formattingCounts.count(name) == 0) {
+                return false;
+            }
+            // ]NOCPP]
             int formattingEltListPos = listPtr;
             while (formattingEltListPos > -1) {
                 StackNode<T> listNode = listOfActiveFormattingElements[formattingEltListPos]; // weak ref
@@ -4477,6 +4754,11 @@ public abstract class TreeBuilder<T> implements TokenHandler,
             // this *looks* like a weak ref to the list of formatting elements
             StackNode<T> formattingElt = listOfActiveFormattingElements[formattingEltListPos];
             int formattingEltStackPos = currentPtr;
+            // [NOCPP[
+            if (!formattingElt.onStack) {
+                formattingEltStackPos = -1;
+            }
+            // ]NOCPP]
             boolean inScope = true;
             while (formattingEltStackPos > -1) {
                 StackNode<T> node = stack[formattingEltStackPos]; // weak ref
@@ -4568,10 +4850,17 @@ public abstract class TreeBuilder<T> implements TokenHandler,
                 // if (hasChildren(node.node)) { XXX AAA CHANGE
                 assert node == listOfActiveFormattingElements[nodeListPos];
                 assert node == stack[nodePos];
+                // [NOCPP[
+                HtmlAttributes clonedAttributes = cloneAttributes(node.attributes);
+                // ]NOCPP]
+                // CPPONLY: HtmlAttributes clonedAttributes = node.attributes.cloneAttributes();
                 T clone = createElement("http://www.w3.org/1999/xhtml",
-                        node.name, node.attributes.cloneAttributes(), insertionCommonAncestor
+                        node.name, clonedAttributes, insertionCommonAncestor
                         // CPPONLY: , htmlCreator(node.getHtmlCreator())
                         );
+                // [NOCPP[
+                recycleAttributesIfCopied(clonedAttributes);
+                // ]NOCPP]
                 StackNode<T> newNode = createStackNode(node.getFlags(), node.ns,
                         node.name, clone, node.popName, node.attributes
                         // CPPONLY: , node.getHtmlCreator()
@@ -4583,6 +4872,12 @@ public abstract class TreeBuilder<T> implements TokenHandler,
                 stack[nodePos] = newNode;
                 newNode.retain(); // retain for list
                 listOfActiveFormattingElements[nodeListPos] = newNode;
+                // [NOCPP[
+                node.onStack = false;
+                newNode.onStack = true;
+                listEntryRemoved(node);
+                listEntryAdded(newNode);
+                // ]NOCPP]
                 node.release(this); // release from stack
                 node.release(this); // release from list
                 node = newNode;
@@ -4601,11 +4896,18 @@ public abstract class TreeBuilder<T> implements TokenHandler,
                 detachFromParent(lastNode.node);
                 appendElement(lastNode.node, insertionCommonAncestor);
             }
+            // [NOCPP[
+            HtmlAttributes clonedAttributes = cloneAttributes(formattingElt.attributes);
+            // ]NOCPP]
+            // CPPONLY: HtmlAttributes clonedAttributes = formattingElt.attributes.cloneAttributes();
             T clone = createElement("http://www.w3.org/1999/xhtml",
                     formattingElt.name,
-                    formattingElt.attributes.cloneAttributes(), furthestBlock.node
+                    clonedAttributes, furthestBlock.node
                     // CPPONLY: , htmlCreator(formattingElt.getHtmlCreator())
                     );
+            // [NOCPP[
+            recycleAttributesIfCopied(clonedAttributes);
+            // ]NOCPP]
             StackNode<T> formattingClone = createStackNode(
                     formattingElt.getFlags(), formattingElt.ns,
                     formattingElt.name, clone, formattingElt.popName,
@@ -4641,6 +4943,9 @@ public abstract class TreeBuilder<T> implements TokenHandler,
                     (currentPtr - position) + 1);
             currentPtr++;
             stack[position] = node;
+            // [NOCPP[
+            stackNodePushed(node);
+            // ]NOCPP]
         }
     }
 
@@ -4655,9 +4960,17 @@ public abstract class TreeBuilder<T> implements TokenHandler,
         }
         listPtr++;
         listOfActiveFormattingElements[bookmark] = formattingClone;
+        // [NOCPP[
+        listEntryAdded(formattingClone);
+        // ]NOCPP]
     }
 
     private int findInListOfActiveFormattingElements(StackNode<T> node) {
+        // [NOCPP[
+        if (!node.inList) {
+            return -1;
+        }
+        // ]NOCPP]
         for (int i = listPtr; i >= 0; i--) {
             if (node == listOfActiveFormattingElements[i]) {
                 return i;
@@ -4668,6 +4981,11 @@ public abstract class TreeBuilder<T> implements TokenHandler,
 
     private int findInListOfActiveFormattingElementsContainsBetweenEndAndLastMarker(
             @Local String name) {
+        // [NOCPP[
+        if (formattingCounts.count(name) == 0) {
+            return -1;
+        }
+        // ]NOCPP]
         for (int i = listPtr; i >= 0; i--) {
             StackNode<T> node = listOfActiveFormattingElements[i];
             if (node == null) {
@@ -4682,6 +5000,12 @@ public abstract class TreeBuilder<T> implements TokenHandler,
 
     private void maybeForgetEarlierDuplicateFormattingElement(
             @Local String name, HtmlAttributes attributes) throws SAXException {
+        // [NOCPP[
+        if (formattingCounts.count(name, attributes.formattingHashCode()) < 3) {
+            // There can't be three earlier equal elements.
+            return;
+        }
+        // ]NOCPP]
         int candidate = -1;
         int count = 0;
         for (int i = listPtr; i >= 0; i--) {
@@ -4700,6 +5024,11 @@ public abstract class TreeBuilder<T> implements TokenHandler,
     }
 
     private int findLastOrRoot(@Local String name) {
+        // [NOCPP[
+        if (countingStack && htmlNameCount(name) == 0) {
+            return 0;
+        }
+        // ]NOCPP]
         for (int i = currentPtr; i > 0; i--) {
             if (stack[i].ns == "http://www.w3.org/1999/xhtml" && stack[i].name == name) {
                 return i;
@@ -4709,6 +5038,11 @@ public abstract class TreeBuilder<T> implements TokenHandler,
     }
 
     private int findLastOrRoot(int group) {
+        // [NOCPP[
+        if (countingStack && groupCounts[group] == 0) {
+            return 0;
+        }
+        // ]NOCPP]
         for (int i = currentPtr; i > 0; i--) {
             if (stack[i].ns == "http://www.w3.org/1999/xhtml" && stack[i].getGroup() == group) {
                 return i;
@@ -4788,19 +5122,26 @@ public abstract class TreeBuilder<T> implements TokenHandler,
             StackNode<T> current = stack[currentPtr];
 
             T clone;
+            // [NOCPP[
+            HtmlAttributes clonedAttributes = cloneAttributes(entry.attributes);
+            // ]NOCPP]
+            // CPPONLY: HtmlAttributes clonedAttributes = entry.attributes.cloneAttributes();
             if (current.isFosterParenting()) {
                 clone = createAndInsertFosterParentedElement("http://www.w3.org/1999/xhtml", entry.name,
-                        entry.attributes.cloneAttributes()
+                        clonedAttributes
                         // CPPONLY: , htmlCreator(entry.getHtmlCreator())
                         );
             } else {
                 T currentNode = nodeFromStackWithBlinkCompat(currentPtr);
                 clone = createElement("http://www.w3.org/1999/xhtml", entry.name,
-                        entry.attributes.cloneAttributes(), currentNode
+                        clonedAttributes, currentNode
                         // CPPONLY: , htmlCreator(entry.getHtmlCreator())
                         );
                 appendElement(clone, currentNode);
             }
+            // [NOCPP[
+            recycleAttributesIfCopied(clonedAttributes);
+            // ]NOCPP]
 
             StackNode<T> entryClone = createStackNode(entry.getFlags(),
                     entry.ns, entry.name, clone, entry.popName,
@@ -4816,6 +5157,10 @@ public abstract class TreeBuilder<T> implements TokenHandler,
             push(entryClone);
             // stack takes ownership of the local variable
             listOfActiveFormattingElements[entryPos] = entryClone;
+            // [NOCPP[
+            listEntryRemoved(entry);
+            listEntryAdded(entryClone);
+            // ]NOCPP]
             // overwriting the old entry on the list, so release & retain
             entry.release(this);
             entryClone.retain();
@@ -4989,6 +5334,11 @@ public abstract class TreeBuilder<T> implements TokenHandler,
     }
 
     private boolean isInStack(StackNode<T> node) {
+        // [NOCPP[
+        if (!node.onStack) {
+            return false;
+        }
+        // ]NOCPP]
         for (int i = currentPtr; i >= 0; i--) {
             if (stack[i] == node) {
                 return true;
@@ -5008,6 +5358,9 @@ public abstract class TreeBuilder<T> implements TokenHandler,
             optionElementPopped(node.node);
         }
         currentPtr--;
+        // [NOCPP[
+        stackNodePopped(node);
+        // ]NOCPP]
         elementPopped(node.ns, node.popName, node.node);
         node.release(this);
     }
@@ -5022,6 +5375,9 @@ public abstract class TreeBuilder<T> implements TokenHandler,
             optionElementPopped(node.node);
         }
         currentPtr--;
+        // [NOCPP[
+        stackNodePopped(node);
+        // ]NOCPP]
         elementPopped(node.ns, node.popName, node.node);
         node.release(this);
     }
@@ -5031,6 +5387,9 @@ public abstract class TreeBuilder<T> implements TokenHandler,
         assert debugOnlyClearLastStackSlot();
         assert node.getGroup() != OPTION;
         currentPtr--;
+        // [NOCPP[
+        stackNodePopped(node);
+        // ]NOCPP]
         node.release(this);
     }
 
@@ -5041,12 +5400,77 @@ public abstract class TreeBuilder<T> implements TokenHandler,
             optionElementPopped(node.node);
         }
         currentPtr--;
+        // [NOCPP[
+        stackNodePopped(node);
+        // ]NOCPP]
         markMalformedIfScript(node.node);
         elementPopped(node.ns, node.popName, node.node);
         node.release(this);
     }
 
     // [NOCPP[
+    private void stackNodePushed(StackNode<T> node) throws SAXException {
+        node.onStack = true;
+        if (currentPtr >= peakDepth) {
+            peakDepth = currentPtr + 1;
+            if (peakDepth > failDepth) {
+                fatal("The document tree is more than " + failDepth
+                        + " elements deep.");
+            }
+        }
+        if (countingStack) {
+            countStackNode(node, 1);
+        } else if (currentPtr >= STACK_COUNTING_DEPTH) {
+            // Deep enough for the stack walks to start to hurt.
+            htmlNameCounts.clear();
+            Arrays.fill(groupCounts, 0);
+            for (int i = 0; i <= currentPtr; i++) {
+                countStackNode(stack[i], 1);
+            }
+            countingStack = true;
+        }
+    }
+
+    private void stackNodePopped(StackNode<T> node) {
+        node.onStack = false;
+        if (countingStack) {
+            if (currentPtr < STACK_COUNTING_DEPTH / 2) {
+                // Stale counts are discarded when counting starts again.
+                countingStack = false;
+            } else {
+                countStackNode(node, -1);
+            }
+        }
+    }
+
+    private void countStackNode(StackNode<T> node, int delta) {
+        groupCounts[node.getGroup()] += delta;
+        if (node.ns == "http://www.w3.org/1999/xhtml") {
+            int[] count = htmlNameCounts.get(node.name);
+            if (count == null) {
+                count = new int[1];
+                htmlNameCounts.put(node.name, count);
+            }
+            count[0] += delta;
+        }
+    }
+
+    private void listEntryAdded(StackNode<T> node) {
+        node.inList = true;
+        node.attributesHash = node.attributes.formattingHashCode();
+        formattingCounts.add(node.name, node.attributesHash);
+    }
+
+    private void listEntryRemoved(StackNode<T> node) {
+        node.inList = false;
+        formattingCounts.remove(node.name, node.attributesHash);
+    }
+
+    private int htmlNameCount(@Local String name) {
+        int[] count = htmlNameCounts.get(name);
+        return count == null ? 0 : count[0];
+    }
+
     private void checkAttributes(HtmlAttributes attributes, @NsUri String ns)
             throws SAXException {
         if (errorHandler != null) {
@@ -5228,7 +5652,10 @@ public abstract class TreeBuilder<T> implements TokenHandler,
         checkAttributes(attributes, "http://www.w3.org/1999/xhtml");
         // ]NOCPP]
         // This method can't be called for custom elements
-        HtmlAttributes clone = attributes.cloneAttributes();
+        // [NOCPP[
+        HtmlAttributes clone = cloneAttributes(attributes);
+        // ]NOCPP]
+        // CPPONLY: HtmlAttributes clone = attributes.cloneAttributes();
         // Attributes must not be read after calling createElement, because
         // createElement may delete attributes in C++.
         T elt;
@@ -5668,22 +6095,27 @@ public abstract class TreeBuilder<T> implements TokenHandler,
             throws SAXException {
         // TODO: Unify Tokenizer.strBuf and TreeBuilder.charBuffer so that
         // this method becomes unnecessary.
+        if (limits != null) {
+            charBufferLen = limitTextLength(charBufferLen);
+        }
         int worstCase = charBufferLen + inputLength;
         if (charBuffer == null) {
             // Add an arbitrary small value to avoid immediate reallocation
             // once there are a few characters in the buffer.
             charBuffer = new char[worstCase + 128];
         } else if (worstCase > charBuffer.length) {
-            // HotSpot reportedly allocates memory with 8-byte accuracy, so
-            // there's no point in trying to do math here to avoid slop.
-            // Maybe we should add some small constant to worstCase here
-            // but not doing that without profiling. In C++ with jemalloc,
-            // the corresponding method should do math to round up here
-            // to avoid slop.
-            char[] newBuf = new char[worstCase];
+            // Grow geometrically like Tokenizer.strBuf does. Growing to
+            // exactly worstCase makes a long run of text that spans many
+            // input buffers quadratic, since each buffer copies the run so
+            // far.
+            char[] newBuf = new char[Math.max(worstCase,
+                    (charBuffer.length * 5) / 4)];
             System.arraycopy(charBuffer, 0, newBuf, 0, charBufferLen);
             charBuffer = newBuf;
         }
+        if (charBuffer.length > peakBufferLength) {
+            peakBufferLength = charBuffer.length;
+        }
     }
 
     // ]NOCPP]
@@ -5900,6 +6332,45 @@ public abstract class TreeBuilder<T> implements TokenHandler,
         return stack[currentPtr].node;
     }
 
+    // [NOCPP[
+
+    /**
+     * Returns the node at the given position on the stack of open elements.
+     * Position 0 is the root and <code>getStackLength() - 1</code> is the
+     * current node.
+     *
+     * @param pos the position on the stack
+     * @return the node
+     */
+    protected final T stackNodeAt(int pos) {
+        return stack[pos].node;
+    }
+
+    /**
+     * Tells whether the node at the given position on the stack of open
+     * elements is also on the list of active formatting elements, i.e.
+     * whether the adoption agency algorithm may still move its descendants.
+     *
+     * @param pos the position on the stack
+     * @return <code>true</code> if the node is a listed formatting element
+     */
+    protected final boolean isStackNodeInList(int pos) {
+        return stack[pos].inList;
+    }
+
+    /**
+     * Tells whether a <code>frameset</code> start tag could still remove the
+     * <code>body</code> element from the tree. While the body is being
+     * pushed, the mode is still <code>AFTER_HEAD</code>.
+     *
+     * @return <code>true</code> if the body may still be replaced
+     */
+    protected final boolean isBodyReplaceable() {
+        return mode == FRAMESET_OK || mode == AFTER_HEAD || framesetOk;
+    }
+
+    // ]NOCPP]
+
     /**
      * Returns the scriptingEnabled.
      *
@@ -5942,6 +6413,89 @@ public abstract class TreeBuilder<T> implements TokenHandler,
         this.namePolicy = namePolicy;
     }
 
+    /**
+     * Sets the limits for the length of runs of text and for the depth of
+     * the tree. The depth limit applies in addition to the maximum depth set
+     * via <code>setMaxDepth()</code>.
+     *
+     * @param limits
+     *            the limits or <code>null</code> for no limits
+     */
+    public void setParserLimits(ParserLimits limits) {
+        this.limits = limits;
+    }
+
+    private int limitTextLength(int length) throws SAXException {
+        int max = limits.getMaxTextLength();
+        if (max < 0 || length <= max) {
+            return length;
+        }
+        if (limits.isFailingFast()) {
+            fatal("A run of text is longer than the limit of " + max
+                    + " characters.");
+        }
+        textTruncated = true;
+        return max;
+    }
+
+    /**
+     * Sets the number of elements deep the tree may get before the deep tree
+     * policy applies. The default is 513, which matches Blink. Under the
+     * default policy this bounds the depth of the tree but not the stack of
+     * open elements; see <code>setDeepTreePolicy()</code>.
+     *
+     * @param maxDepth
+     *            the maximum depth counting the root element
+     */
+    public void setMaxDepth(int maxDepth) {
+        if (maxDepth < 2) {
+            throw new IllegalArgumentException("The maximum depth must be at least 2.");
+        }
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Sets what happens to elements that would be deeper than the maximum
+     * depth. <code>ALTER_INFOSET</code> (the default) inserts them as
+     * siblings like Blink and Gecko do, <code>FATAL</code> stops the parse
+     * with a fatal error and <code>ALLOW</code> builds the tree as deep as
+     * the markup says.
+     *
+     * <p>Only <code>FATAL</code> bounds memory. <code>ALTER_INFOSET</code>
+     * flattens the tree, but the stack of open elements and its stack nodes
+     * still grow with the nesting of the markup, so a million nested
+     * <code>div</code>s still cost a million stack entries. When memory is
+     * the concern, as with untrusted input in a shared process, use
+     * <code>FATAL</code> or a depth limit in <code>ParserLimits</code> with
+     * the <code>FATAL</code> policy.
+     *
+     * @param deepTreePolicy
+     *            the policy
+     */
+    public void setDeepTreePolicy(XmlViolationPolicy deepTreePolicy) {
+        this.deepTreePolicy = deepTreePolicy;
+    }
+
+    /**
+     * Returns the greatest number of elements that were open at the same
+     * time during the last parse.
+     *
+     * @return the peak depth of the stack of open elements
+     */
+    public int getPeakDepth() {
+        return peakDepth;
+    }
+
+    /**
+     * Returns how many times an insertion was redirected to a shallower
+     * parent during the last parse due to the maximum depth.
+     *
+     * @return the number of flattened insertions
+     */
+    public int getFlattenedInsertionCount() {
+        return flattenedInsertionCount;
+    }
+
     /**
      * Sets the documentModeHandler.
      *
@@ -5962,6 +6516,218 @@ public abstract class TreeBuilder<T> implements TokenHandler,
         this.reportingDoctype = reportingDoctype;
     }
 
+    /**
+     * Returns the indexingElements.
+     *
+     * @return the indexingElements
+     */
+    public boolean isIndexingElements() {
+        return indexingElements;
+    }
+
+    /**
+     * Sets whether an <code>ElementIndex</code> of ids, class names and
+     * local names is built while parsing. Takes effect on the next parse.
+     *
+     * @param indexingElements
+     *            <code>true</code> to build the index
+     */
+    public void setIndexingElements(boolean indexingElements) {
+        this.indexingElements = indexingElements;
+    }
+
+    /**
+     * Returns the index of the current parse so that subclasses can attach
+     * it to the document in <code>end()</code>.
+     *
+     * @return the index or <code>null</code> if not indexing
+     */
+    protected final ElementIndex<T> getElementIndex() {
+        return elementIndex;
+    }
+
+    /**
+     * Lists a newly created element in the element index. Subclasses call
+     * this from their element creation methods.
+     *
+     * @param elt
+     *            the element
+     * @param name
+     *            its local name
+     * @param attributes
+     *            its attributes
+     */
+    protected final void indexElement(T elt, @Local String name,
+            HtmlAttributes attributes) {
+        if (elementIndex != null) {
+            elementIndex.addElement(elt, name);
+            elementIndex.addId(elt, attributes.getValue(AttributeName.ID));
+            elementIndex.addClasses(elt,
+                    attributes.getValue(AttributeName.CLASS));
+        }
+    }
+
+    /**
+     * Lists an element in the element index under an attribute that was
+     * added to it after its creation. Subclasses call this from
+     * <code>addAttributesToElement()</code> for each attribute they add.
+     *
+     * @param elt
+     *            the element
+     * @param uri
+     *            the namespace of the attribute
+     * @param localName
+     *            the local name of the attribute
+     * @param value
+     *            the value of the attribute
+     */
+    protected final void indexAddedAttribute(T elt, @NsUri String uri,
+            @Local String localName, String value) {
+        if (elementIndex != null && uri.length() == 0) {
+            if ("id".equals(localName)) {
+                elementIndex.addId(elt, value);
+            } else if ("class".equals(localName)) {
+                elementIndex.addClasses(elt, value);
+            }
+        }
+    }
+
+    /**
+     * Returns the stopCondition.
+     *
+     * @return the stopCondition
+     */
+    public StopCondition getStopCondition() {
+        return stopCondition;
+    }
+
+    /**
+     * Sets a condition for ending the parse before the end of the input.
+     *
+     * @param stopCondition
+     *            the stopCondition to set or <code>null</code> to parse the
+     *            whole input
+     */
+    public void setStopCondition(StopCondition stopCondition) {
+        this.stopCondition = stopCondition;
+    }
+
+    /**
+     * Sets the length above which the character buffer kept between parses is
+     * shrunk to that length when the parse ends. Kept stack arrays longer than
+     * this are dropped.
+     *
+     * @param bufferHighWaterMark
+     *            the length or -1 to never shrink
+     * @see #setKeepBuffer(boolean)
+     */
+    public void setBufferHighWaterMark(int bufferHighWaterMark) {
+        this.bufferHighWaterMark = bufferHighWaterMark;
+    }
+
+    /**
+     * Returns the largest length the character buffer has been grown to
+     * since this tree builder was created.
+     *
+     * @return the peak length in <code>char</code>s
+     */
+    public int getPeakBufferLength() {
+        return peakBufferLength;
+    }
+
+    /**
+     * Returns how many times kept buffers have been shrunk or dropped due to
+     * the high water mark.
+     *
+     * @return the number of parses after which buffers were trimmed
+     */
+    public int getBufferTrimCount() {
+        return bufferTrimCount;
+    }
+
+    /**
+     * Drops the stack arrays kept from the previous parse if any of them has
+     * grown longer than the given length.
+     *
+     * @param length
+     *            the maximum length to keep
+     * @return <code>true</code> if the arrays were dropped
+     */
+    private boolean dropKeptStackArraysLongerThan(int length) {
+        if (keptStack == null) {
+            return false;
+        }
+        if (keptStackNodes.length > length || keptStack.length > length
+                || keptListOfActiveFormattingElements.length > length
+                || keptTemplateModeStack.length > length) {
+            keptStackNodes = null;
+            keptNumStackNodes = 0;
+            keptStack = null;
+            keptTemplateModeStack = null;
+            keptListOfActiveFormattingElements = null;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Copies attributes into a recycled holder if one is available.
+     *
+     * @param attributes
+     *            the attributes to copy
+     * @return a copy
+     * @throws SAXException
+     */
+    private HtmlAttributes cloneAttributes(HtmlAttributes attributes)
+            throws SAXException {
+        if (attributesPoolLen == 0) {
+            return attributes.cloneAttributes();
+        }
+        HtmlAttributes clone = attributesPool[--attributesPoolLen];
+        attributesPool[attributesPoolLen] = null;
+        clone.copyFrom(attributes);
+        return clone;
+    }
+
+    /**
+     * Takes an attribute holder that nothing refers to anymore for reuse.
+     *
+     * @param attributes
+     *            the holder or <code>null</code>
+     */
+    void recycleAttributes(HtmlAttributes attributes) {
+        if (attributes == null || attributes == HtmlAttributes.EMPTY_ATTRIBUTES
+                || attributesPoolLen == attributesPool.length) {
+            return;
+        }
+        attributes.clear(0);
+        attributesPool[attributesPoolLen++] = attributes;
+    }
+
+    /**
+     * Recycles an attribute holder that was passed to <code>createElement</code>
+     * or <code>createAndInsertFosterParentedElement</code> unless the backend
+     * keeps references to the holders it is given.
+     */
+    private void recycleAttributesIfCopied(HtmlAttributes attributes) {
+        if (!isRetainingAttributes()) {
+            recycleAttributes(attributes);
+        }
+    }
+
+    /**
+     * Tells whether the backend keeps references to the
+     * <code>HtmlAttributes</code> objects passed to it when creating elements.
+     * Backends that copy the attributes into their own nodes should override
+     * this to return <code>false</code>, which allows the tree builder to
+     * reuse the objects.
+     *
+     * @return <code>true</code> if the holders must not be reused
+     */
+    protected boolean isRetainingAttributes() {
+        return true;
+    }
+
     // ]NOCPP]
 
     /**
@@ -5969,6 +6735,16 @@ public abstract class TreeBuilder<T> implements TokenHandler,
      * @throws SAXException
      */
     public final void flushCharacters() throws SAXException {
+        // [NOCPP[
+        if (limits != null) {
+            charBufferLen = limitTextLength(charBufferLen);
+            if (textTruncated) {
+                textTruncated = false;
+                warn("A run of text was truncated to "
+                        + limits.getMaxTextLength() + " characters.");
+            }
+        }
+        // ]NOCPP]
         if (charBufferLen > 0) {
             if ((mode == IN_TABLE || mode == IN_TABLE_BODY || mode == IN_ROW)
                     && charBufferContainsNonWhitespace()) {
@@ -6134,21 +6910,33 @@ public abstract class TreeBuilder<T> implements TokenHandler,
 
         for (int i = 0; i <= listPtr; i++) {
             if (listOfActiveFormattingElements[i] != null) {
+                // [NOCPP[
+                listOfActiveFormattingElements[i].inList = false;
+                // ]NOCPP]
                 listOfActiveFormattingElements[i].release(this);
             }
         }
+        // [NOCPP[
+        formattingCounts.clear();
+        // ]NOCPP]
         if (listOfActiveFormattingElements.length < listLen) {
             listOfActiveFormattingElements = new StackNode[listLen];
         }
         listPtr = listLen - 1;
 
         for (int i = 0; i <= currentPtr; i++) {
+            // [NOCPP[
+            stack[i].onStack = false;
+            // ]NOCPP]
             stack[i].release(this);
         }
         if (stack.length < stackLen) {
             stack = new StackNode[stackLen];
         }
         currentPtr = stackLen - 1;
+        // [NOCPP[
+        countingStack = false;
+        // ]NOCPP]
 
         if (templateModeStack.length < templateModeStackLen) {
             templateModeStack = new int[templateModeStackLen];
@@ -6168,6 +6956,9 @@ public abstract class TreeBuilder<T> implements TokenHandler,
                 // ]NOCPP]
                 );
                 listOfActiveFormattingElements[i] = newNode;
+                // [NOCPP[
+                listEntryAdded(newNode);
+                // ]NOCPP]
             } else {
                 listOfActiveFormattingElements[i] = null;
             }
@@ -6190,6 +6981,9 @@ public abstract class TreeBuilder<T> implements TokenHandler,
                 stack[i] = listOfActiveFormattingElements[listIndex];
                 stack[i].retain();
             }
+            // [NOCPP[
+            stack[i].onStack = true;
+            // ]NOCPP]
         }
         System.arraycopy(templateModeStackCopy, 0, templateModeStack, 0, templateModeStackLen);
         formPointer = snapshot.getFormPointer();
@@ -6228,12 +7022,19 @@ public abstract class TreeBuilder<T> implements TokenHandler,
      * @throws SAXException
      */
     private T nodeFromStackWithBlinkCompat(int stackPos) throws SAXException {
-        // Magic number if off by one relative to Blink's magic number, but the
-        // outcome is the same, because the counting is different by one.
-        if (stackPos > 511) {
+        // [NOCPP[
+        if (stackPos >= flattenDepth - 1) {
             errDeepTree();
-            return stack[511].node;
+            flattenedInsertionCount++;
+            return stack[flattenDepth - 2].node;
         }
+        // ]NOCPP]
+        // Magic number if off by one relative to Blink's magic number, but the
+        // outcome is the same, because the counting is different by one.
+        // CPPONLY: if (stackPos > 511) {
+        // CPPONLY:     errDeepTree();
+        // CPPONLY:     return stack[511].node;
+        // CPPONLY: }
         return stack[stackPos].node;
     }
     /**
@@ -31,6 +31,7 @@ import java.nio.charset.UnsupportedCharsetException;
 import nu.validator.htmlparser.common.CharacterHandler;
 import nu.validator.htmlparser.common.EncodingDeclarationHandler;
 import nu.validator.htmlparser.common.Heuristics;
+import nu.validator.htmlparser.common.ParserLimits;
 import nu.validator.htmlparser.common.TransitionHandler;
 import nu.validator.htmlparser.common.XmlViolationPolicy;
 import nu.validator.htmlparser.extra.NormalizationChecker;
@@ -77,6 +78,37 @@ public class Driver implements EncodingDeclarationHandler {
      */
     private CharacterHandler[] characterHandlers = new CharacterHandler[0];
 
+    private boolean keepBuffer = false;
+
+    private ParserLimits limits = null;
+
+    /**
+     * The number of UTF-16 code units read so far during the current parse.
+     */
+    private long documentLength;
+
+    /**
+     * Whether the input has been cut short due to the document length limit.
+     */
+    private boolean truncated;
+
+    /**
+     * The buffer decoded characters are read into. Only retained between
+     * parses if <code>keepBuffer</code> is set.
+     */
+    private char[] readBuffer = null;
+
+    /**
+     * The buffer being tokenized or <code>null</code> if not running.
+     */
+    private UTF16Buffer runBuffer = null;
+
+    private boolean lastWasCR;
+
+    private boolean firstRead;
+
+    private int streamOffset;
+
     public Driver(Tokenizer tokenizer) {
         this.tokenizer = tokenizer;
         tokenizer.setEncodingDeclarationHandler(this);
@@ -191,6 +223,113 @@ public class Driver implements EncodingDeclarationHandler {
      */
     public void tokenize(InputSource is, int bufferSize)
             throws SAXException, IOException {
+        prepare(is);
+        Throwable t = null;
+        try {
+            for (;;) {
+                try {
+                    for (int i = 0; i < characterHandlers.length; i++) {
+                        CharacterHandler ch = characterHandlers[i];
+                        ch.start();
+                    }
+                    runStates(bufferSize);
+                    break;
+                } catch (ReparseException e) {
+                    if (rewindableInputStream == null) {
+                        tokenizer.fatal("Changing encoding at this point would need non-streamable behavior.");
+                    } else {
+                        rewindableInputStream.rewind();
+                        becomeConfident();
+                        this.reader = new HtmlInputStreamReader(
+                                rewindableInputStream, tokenizer.getErrorHandler(), tokenizer,
+                                this, this.characterEncoding);
+                    }
+                    continue;
+                }
+            }
+        } catch (Throwable tr) {
+            t = tr;
+        } finally {
+            finish(t);
+        }
+    }
+
+    /**
+     * Starts tokenizing incrementally. Each subsequent call to
+     * <code>tokenizeMore()</code> runs the tokenizer until it suspends or
+     * until it has consumed a buffer's worth of input.
+     * <code>endTokenization()</code> must be called afterwards even if
+     * tokenization stops early. Since the caller may already have acted on
+     * the output, the input is never rewound: a late encoding change is a
+     * fatal error.
+     * 
+     * @param is
+     *            the input source
+     * @param bufferSize
+     *            the size of the buffer to feed to the tokenizer
+     * @throws SAXException
+     *             on fatal error or if the token handler threw
+     * @throws IOException
+     *             if the stream threw
+     */
+    public void startTokenization(InputSource is, int bufferSize)
+            throws SAXException, IOException {
+        boolean savedAllowRewinding = allowRewinding;
+        allowRewinding = false;
+        try {
+            prepare(is);
+        } finally {
+            allowRewinding = savedAllowRewinding;
+        }
+        for (int i = 0; i < characterHandlers.length; i++) {
+            CharacterHandler ch = characterHandlers[i];
+            ch.start();
+        }
+        startRunning(bufferSize);
+    }
+
+    /**
+     * Runs the tokenizer for one slice of the input started with
+     * <code>startTokenization()</code>.
+     * 
+     * @return <code>false</code> once the end of the input has been
+     *         tokenized
+     * @throws SAXException
+     *             on fatal error or if the token handler threw
+     * @throws IOException
+     *             if the stream threw
+     */
+    public boolean tokenizeMore() throws SAXException, IOException {
+        try {
+            return runSlice();
+        } catch (ReparseException e) {
+            tokenizer.fatal("Changing encoding at this point would need non-streamable behavior.");
+            return false; // unreachable
+        }
+    }
+
+    /**
+     * Ends tokenization started with <code>startTokenization()</code> and
+     * releases the input.
+     * 
+     * @throws SAXException
+     *             if the token handler threw
+     * @throws IOException
+     *             if closing the stream threw
+     */
+    public void endTokenization() throws SAXException, IOException {
+        finish(null);
+    }
+
+    /**
+     * Sets up the reader and the tokenizer for a new input source.
+     * 
+     * @param is
+     *            the input source
+     * @throws SAXException
+     * @throws IOException
+     */
+    private void prepare(InputSource is) throws SAXException, IOException {
         if (is == null) {
             throw new IllegalArgumentException("InputSource was null.");
         }
@@ -225,60 +364,47 @@ public class Driver implements EncodingDeclarationHandler {
         } else {
             becomeConfident();
         }
-        Throwable t = null;
+    }
+
+    /**
+     * Ends tokenization, closes the reader and rethrows the first throwable.
+     * 
+     * @param t
+     *            the throwable that ended tokenization or <code>null</code>
+     * @throws SAXException
+     * @throws IOException
+     */
+    private void finish(Throwable t) throws SAXException, IOException {
         try {
-            for (;;) {
-                try {
-                    for (int i = 0; i < characterHandlers.length; i++) {
-                        CharacterHandler ch = characterHandlers[i];
-                        ch.start();
-                    }
-                    runStates(bufferSize);
-                    break;
-                } catch (ReparseException e) {
-                    if (rewindableInputStream == null) {
-                        tokenizer.fatal("Changing encoding at this point would need non-streamable behavior.");
-                    } else {
-                        rewindableInputStream.rewind();
-                        becomeConfident();
-                        this.reader = new HtmlInputStreamReader(
-                                rewindableInputStream, tokenizer.getErrorHandler(), tokenizer,
-                                this, this.characterEncoding);
-                    }
-                    continue;
-                }
+            tokenizer.end();
+            characterEncoding = null;
+            for (int i = 0; i < characterHandlers.length; i++) {
+                CharacterHandler ch = characterHandlers[i];
+                ch.end();
             }
-        } catch (Throwable tr) {
-            t = tr;
-        } finally {
-            try {
-                tokenizer.end();
-                characterEncoding = null;
-                for (int i = 0; i < characterHandlers.length; i++) {
-                    CharacterHandler ch = characterHandlers[i];
-                    ch.end();
-                }
+            if (reader != null) {
                 reader.close();
-                reader = null;
-                rewindableInputStream = null;
-            } catch (Throwable tr) {
-                if (t == null) {
-                    t = tr;
-                } // else drop the later throwable
             }
-            if (t != null) {
-                if (t instanceof IOException) {
-                    throw (IOException) t;
-                } else if (t instanceof SAXException) {
-                    throw (SAXException) t;
-                } else if (t instanceof RuntimeException) {
-                    throw (RuntimeException) t;
-                } else if (t instanceof Error) {
-                    throw (Error) t;
-                } else {
-                    // impossible
-                    throw new RuntimeException(t);
-                }
+            reader = null;
+            rewindableInputStream = null;
+            runBuffer = null;
+        } catch (Throwable tr) {
+            if (t == null) {
+                t = tr;
+            } // else drop the later throwable
+        }
+        if (t != null) {
+            if (t instanceof IOException) {
+                throw (IOException) t;
+            } else if (t instanceof SAXException) {
+                throw (SAXException) t;
+            } else if (t instanceof RuntimeException) {
+                throw (RuntimeException) t;
+            } else if (t instanceof Error) {
+                throw (Error) t;
+            } else {
+                // impossible
+                throw new RuntimeException(t);
             }
         }
     }
@@ -288,59 +414,131 @@ public class Driver implements EncodingDeclarationHandler {
     }
 
     private void runStates(int bufferSize) throws SAXException, IOException {
-        char[] buffer = new char[bufferSize];
-        UTF16Buffer bufr = new UTF16Buffer(buffer, 0, 0);
-        boolean lastWasCR = false;
-        int len = -1;
-        if ((len = reader.read(buffer)) != -1) {
-            assert len > 0;
-            int streamOffset = 0;
-            int offset = 0;
-            int length = len;
-            if (swallowBom) {
-                if (buffer[0] == '\uFEFF') {
-                    streamOffset = -1;
-                    offset = 1;
-                    length--;
-                }
+        startRunning(bufferSize);
+        while (runSlice()) {
+            // keep going
+        }
+    }
+
+    /**
+     * Prepares the buffers for <code>runSlice()</code>.
+     * 
+     * @param bufferSize
+     *            the size of the buffer to feed to the tokenizer
+     */
+    private void startRunning(int bufferSize) {
+        char[] buffer = readBuffer;
+        if (buffer == null || buffer.length != bufferSize) {
+            buffer = new char[bufferSize];
+            if (keepBuffer) {
+                readBuffer = buffer;
             }
-            if (length > 0) {
-                for (int i = 0; i < characterHandlers.length; i++) {
-                    CharacterHandler ch = characterHandlers[i];
-                    ch.characters(buffer, offset, length);
-                }
-                tokenizer.setTransitionBaseOffset(streamOffset);
-                bufr.setStart(offset);
-                bufr.setEnd(offset + length);
-                while (bufr.hasMore()) {
-                    bufr.adjust(lastWasCR);
-                    lastWasCR = false;
-                    if (bufr.hasMore()) {
-                        lastWasCR = tokenizer.tokenizeBuffer(bufr);                    
-                    }
-                }
+        }
+        runBuffer = new UTF16Buffer(buffer, 0, 0);
+        lastWasCR = false;
+        firstRead = true;
+        streamOffset = 0;
+        documentLength = 0;
+        truncated = false;
+    }
+
+    /**
+     * Either tokenizes the rest of the current buffer until the tokenizer
+     * suspends or reads the next buffer. Calls <code>eof()</code> on the
+     * tokenizer at the end of the input.
+     * 
+     * @return <code>false</code> if the end of the input has been reached
+     * @throws SAXException
+     * @throws IOException
+     */
+    private boolean runSlice() throws SAXException, IOException {
+        UTF16Buffer bufr = runBuffer;
+        if (bufr == null) {
+            return false;
+        }
+        if (bufr.hasMore() && !tokenizer.isStopped()) {
+            bufr.adjust(lastWasCR);
+            lastWasCR = false;
+            if (bufr.hasMore()) {
+                lastWasCR = tokenizer.tokenizeBuffer(bufr);
             }
-            streamOffset = length;
-            while ((len = reader.read(buffer)) != -1) {
+            return true;
+        }
+        char[] buffer = bufr.getBuffer();
+        int len;
+        if (firstRead) {
+            firstRead = false;
+            if ((len = reader.read(buffer)) != -1) {
                 assert len > 0;
-                for (int i = 0; i < characterHandlers.length; i++) {
-                    CharacterHandler ch = characterHandlers[i];
-                    ch.characters(buffer, 0, len);
+                if (limits != null) {
+                    len = limitDocumentLength(len);
                 }
-                tokenizer.setTransitionBaseOffset(streamOffset);
-                bufr.setStart(0);
-                bufr.setEnd(len);
-                while (bufr.hasMore()) {
-                    bufr.adjust(lastWasCR);
-                    lastWasCR = false;
-                    if (bufr.hasMore()) {
-                        lastWasCR = tokenizer.tokenizeBuffer(bufr);                    
+                int offset = 0;
+                int length = len;
+                streamOffset = 0;
+                if (swallowBom) {
+                    if (buffer[0] == '\uFEFF') {
+                        streamOffset = -1;
+                        offset = 1;
+                        length--;
+                    }
+                }
+                if (length > 0) {
+                    for (int i = 0; i < characterHandlers.length; i++) {
+                        CharacterHandler ch = characterHandlers[i];
+                        ch.characters(buffer, offset, length);
                     }
+                    tokenizer.setTransitionBaseOffset(streamOffset);
+                    bufr.setStart(offset);
+                    bufr.setEnd(offset + length);
                 }
-                streamOffset += len;
+                streamOffset = length;
+                return true;
+            }
+        } else if (!tokenizer.isStopped() && !truncated
+                && (len = reader.read(buffer)) != -1) {
+            assert len > 0;
+            if (limits != null) {
+                len = limitDocumentLength(len);
             }
+            for (int i = 0; i < characterHandlers.length; i++) {
+                CharacterHandler ch = characterHandlers[i];
+                ch.characters(buffer, 0, len);
+            }
+            tokenizer.setTransitionBaseOffset(streamOffset);
+            bufr.setStart(0);
+            bufr.setEnd(len);
+            streamOffset += len;
+            return true;
         }
+        runBuffer = null;
         tokenizer.eof();
+        return false;
+    }
+
+    /**
+     * Counts the characters read and cuts the input short if the document
+     * length limit is exceeded.
+     *
+     * @param len
+     *            the number of characters just read
+     * @return the number of those characters to tokenize
+     * @throws SAXException
+     */
+    private int limitDocumentLength(int len) throws SAXException {
+        documentLength += len;
+        long max = limits.getMaxDocumentLength();
+        if (max < 0 || documentLength <= max) {
+            return len;
+        }
+        if (limits.isFailingFast()) {
+            tokenizer.fatal("The document is longer than the limit of " + max
+                    + " characters.");
+        }
+        tokenizer.warn("The document was truncated to " + max
+                + " characters.");
+        truncated = true;
+        return len - (int) (documentLength - max);
     }
 
     public void setEncoding(Encoding encoding, Confidence confidence) {
@@ -602,4 +800,74 @@ public class Driver implements EncodingDeclarationHandler {
     public Locator getDocumentLocator() {
         return tokenizer;
     }
+
+    /**
+     * Sets whether the buffers of the driver and the tokenizer are kept 
+     * between parses instead of being reallocated for each parse.
+     * 
+     * @param keepBuffer
+     *            <code>true</code> to keep the buffers
+     * @see nu.validator.htmlparser.impl.Tokenizer#setKeepBuffer(boolean)
+     */
+    public void setKeepBuffer(boolean keepBuffer) {
+        this.keepBuffer = keepBuffer;
+        if (!keepBuffer) {
+            readBuffer = null;
+        }
+        tokenizer.setKeepBuffer(keepBuffer);
+    }
+
+    /**
+     * Drops the kept buffers that are longer than the given number of 
+     * characters.
+     * 
+     * @param length
+     *            the maximum length to keep
+     * @return <code>true</code> if a buffer was dropped
+     * @see nu.validator.htmlparser.impl.Tokenizer#dropBufferIfLongerThan(int)
+     */
+    public boolean dropBufferIfLongerThan(int length) {
+        boolean dropped = false;
+        if (readBuffer != null && readBuffer.length > length) {
+            readBuffer = null;
+            dropped = true;
+        }
+        return tokenizer.dropBufferIfLongerThan(length) || dropped;
+    }
+
+    /**
+     * @param bufferHighWaterMark
+     * @see nu.validator.htmlparser.impl.Tokenizer#setBufferHighWaterMark(int)
+     */
+    public void setBufferHighWaterMark(int bufferHighWaterMark) {
+        tokenizer.setBufferHighWaterMark(bufferHighWaterMark);
+    }
+
+    /**
+     * @return the peak length of the tokenizer buffer
+     * @see nu.validator.htmlparser.impl.Tokenizer#getPeakBufferLength()
+     */
+    public int getPeakBufferLength() {
+        return tokenizer.getPeakBufferLength();
+    }
+
+    /**
+     * @return how many times the tokenizer buffer was shrunk
+     * @see nu.validator.htmlparser.impl.Tokenizer#getBufferTrimCount()
+     */
+    public int getBufferTrimCount() {
+        return tokenizer.getBufferTrimCount();
+    }
+
+    /**
+     * Sets the resource limits for the parse. The driver enforces the
+     * document length limit and passes the limits on to the tokenizer.
+     *
+     * @param limits
+     *            the limits or <code>null</code> for no limits
+     */
+    public void setParserLimits(ParserLimits limits) {
+        this.limits = limits;
+        tokenizer.setParserLimits(limits);
+    }
 }
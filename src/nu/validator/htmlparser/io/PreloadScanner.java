@@ -0,0 +1,573 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.io;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import nu.validator.htmlparser.common.CharacterHandler;
+import nu.validator.htmlparser.common.ResourceUrlHandler;
+import nu.validator.htmlparser.common.TokenHandler;
+import nu.validator.htmlparser.impl.AttributeName;
+import nu.validator.htmlparser.impl.ElementName;
+import nu.validator.htmlparser.impl.HtmlAttributes;
+import nu.validator.htmlparser.impl.Tokenizer;
+import nu.validator.htmlparser.impl.UTF16Buffer;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * A speculative scanner that reports the URLs of subresources (the 
+ * <code>src</code>, <code>href</code>, <code>srcset</code> and similar 
+ * attributes) without building a tree. The URLs are resolved against the 
+ * first <code>base</code> element with an <code>href</code> attribute and 
+ * reported as soon as the tag containing them has been tokenized.
+ * 
+ * <p>The scanner runs its own tokenizer and approximates the tree builder 
+ * only as far as is needed to keep the tokenizer in the right state for 
+ * <code>script</code>, <code>style</code>, <code>textarea</code> and the 
+ * like. Tags in SVG and MathML content are skipped except inside HTML 
+ * integration points such as <code>foreignObject</code> and 
+ * <code>mtext</code>. The HTML start tags that make the tree builder break 
+ * out of foreign content (e.g. <code>p</code> and <code>img</code>) end it 
+ * for the scanner as well.
+ * 
+ * <p>Before resolving, characters that are not allowed in a URI (e.g. 
+ * spaces and non-ASCII characters) are percent-encoded as UTF-8 like 
+ * browsers do, so all URLs of a document are reported resolved once there 
+ * is a base URL. A URL is reported as it appeared only if it can't be 
+ * parsed even after escaping.
+ * 
+ * <p>The scanner can be used on its own via <code>scan()</code> or added 
+ * as a <code>CharacterHandler</code> to a parser in which case it sees the 
+ * decoded input as it arrives, before the parser's tree builder does. In the 
+ * latter case, URLs may be reported twice if the parser has to restart 
+ * due to a late encoding declaration.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+public class PreloadScanner implements CharacterHandler {
+
+    private final ResourceUrlHandler resourceUrlHandler;
+
+    private final Tokenizer tokenizer;
+
+    private URI documentUri = null;
+
+    private URI baseUri = null;
+
+    private boolean seenBase = false;
+
+    /**
+     * The local names of the open SVG and MathML elements. HTML elements 
+     * are not tracked.
+     */
+    private String[] foreignNames = new String[16];
+
+    /**
+     * Whether each open foreign element is in the SVG namespace.
+     */
+    private boolean[] foreignSvg = new boolean[16];
+
+    /**
+     * Whether each open foreign element is an HTML integration point (or a 
+     * MathML text integration point) whose content is HTML.
+     */
+    private boolean[] integrationPoints = new boolean[16];
+
+    private int foreignPtr = -1;
+
+    private boolean lastWasCR = false;
+
+    /**
+     * The HTML start tags that end foreign content (<code>font</code> is 
+     * checked separately).
+     */
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private static final ElementName[] BREAKOUT = { ElementName.B,
+            ElementName.BIG, ElementName.BLOCKQUOTE, ElementName.BODY,
+            ElementName.BR, ElementName.CENTER, ElementName.CODE,
+            ElementName.DD, ElementName.DIV, ElementName.DL, ElementName.DT,
+            ElementName.EM, ElementName.EMBED, ElementName.H1, ElementName.H2,
+            ElementName.H3, ElementName.H4, ElementName.H5, ElementName.H6,
+            ElementName.HEAD, ElementName.HR, ElementName.I, ElementName.IMG,
+            ElementName.LI, ElementName.LISTING, ElementName.MENU,
+            ElementName.META, ElementName.NOBR, ElementName.OL, ElementName.P,
+            ElementName.PRE, ElementName.RUBY, ElementName.S,
+            ElementName.SMALL, ElementName.SPAN, ElementName.STRIKE,
+            ElementName.STRONG, ElementName.SUB, ElementName.SUP,
+            ElementName.TABLE, ElementName.TT, ElementName.U, ElementName.UL,
+            ElementName.VAR };
+
+    /**
+     * Instantiates the scanner.
+     * 
+     * @param resourceUrlHandler
+     *            the handler that receives the URLs
+     */
+    public PreloadScanner(ResourceUrlHandler resourceUrlHandler) {
+        this.resourceUrlHandler = resourceUrlHandler;
+        this.tokenizer = new Tokenizer(new ScanningTokenHandler(), false);
+    }
+
+    /**
+     * Sets the URL of the document for resolving relative URLs when the 
+     * scanner is used as a <code>CharacterHandler</code>. 
+     * <code>scan()</code> uses the system id of the input source instead.
+     * 
+     * @param documentUrl
+     *            the URL or <code>null</code> to report relative URLs as is
+     */
+    public void setDocumentUrl(String documentUrl) {
+        this.documentUri = null;
+        if (documentUrl != null) {
+            try {
+                this.documentUri = new URI(documentUrl);
+            } catch (URISyntaxException e) {
+                // leave relative URLs unresolved
+            }
+        }
+    }
+
+    /**
+     * Scans a document.
+     * 
+     * @param is
+     *            the input source
+     * @throws SAXException
+     *             if the handler threw
+     * @throws IOException
+     *             if the stream threw
+     */
+    public void scan(InputSource is) throws SAXException, IOException {
+        if (is == null) {
+            throw new IllegalArgumentException("Null input.");
+        }
+        setDocumentUrl(is.getSystemId());
+        if (is.getByteStream() == null && is.getCharacterStream() == null) {
+            String systemId = is.getSystemId();
+            if (systemId == null) {
+                throw new IllegalArgumentException(
+                        "No byte stream, no character stream nor URI.");
+            }
+            is = new InputSource();
+            is.setSystemId(systemId);
+            is.setByteStream(new URL(systemId).openStream());
+        }
+        new Driver(tokenizer).tokenize(is);
+    }
+
+    // CharacterHandler
+
+    /**
+     * @see nu.validator.htmlparser.common.CharacterHandler#start()
+     */
+    public void start() throws SAXException {
+        lastWasCR = false;
+        tokenizer.start();
+    }
+
+    /**
+     * @see nu.validator.htmlparser.common.CharacterHandler#characters(char[],
+     *      int, int)
+     */
+    public void characters(char[] ch, int start, int length)
+            throws SAXException {
+        UTF16Buffer bufr = new UTF16Buffer(ch, start, start + length);
+        while (bufr.hasMore()) {
+            bufr.adjust(lastWasCR);
+            lastWasCR = false;
+            if (bufr.hasMore()) {
+                lastWasCR = tokenizer.tokenizeBuffer(bufr);
+            }
+        }
+    }
+
+    /**
+     * @see nu.validator.htmlparser.common.CharacterHandler#end()
+     */
+    public void end() throws SAXException {
+        try {
+            tokenizer.eof();
+        } finally {
+            tokenizer.end();
+        }
+    }
+
+    /**
+     * Receives the tokens from the scanner's own tokenizer. (A separate class, 
+     * because <code>TokenHandler</code> and <code>CharacterHandler</code> 
+     * both declare <code>characters()</code>.)
+     */
+    private final class ScanningTokenHandler implements TokenHandler {
+
+        public void startTokenization(Tokenizer self) throws SAXException {
+            baseUri = documentUri;
+            seenBase = false;
+            foreignPtr = -1;
+        }
+
+        public boolean wantsComments() throws SAXException {
+            return false;
+        }
+
+        public void doctype(String name, String publicIdentifier,
+                String systemIdentifier, boolean forceQuirks) throws SAXException {
+        }
+
+        public void startTag(ElementName eltName, HtmlAttributes attributes,
+                boolean selfClosing) throws SAXException {
+            if (isInForeign()) {
+                if (!isBreakout(eltName, attributes)) {
+                    if (!selfClosing) {
+                        boolean svg = eltName == ElementName.SVG
+                                || (eltName != ElementName.MATH && foreignSvg[foreignPtr]);
+                        pushForeign(eltName, svg,
+                                isIntegrationPoint(eltName, svg, attributes));
+                    }
+                    return;
+                }
+                // The tree builder pops back to HTML content.
+                while (isInForeign()) {
+                    foreignPtr--;
+                }
+            }
+            if (eltName == ElementName.SVG || eltName == ElementName.MATH) {
+                if (!selfClosing) {
+                    pushForeign(eltName, eltName == ElementName.SVG, false);
+                }
+                return;
+            }
+            if (eltName == ElementName.BASE) {
+                String href = attributes.getValue(AttributeName.HREF);
+                if (!seenBase && href != null) {
+                    seenBase = true;
+                    URI uri = toUri(href);
+                    if (uri != null) {
+                        baseUri = baseUri == null ? uri : baseUri.resolve(uri);
+                    }
+                }
+            } else if (eltName == ElementName.SCRIPT) {
+                tokenizer.setStateAndEndTagExpectation(Tokenizer.SCRIPT_DATA,
+                        eltName);
+                report(eltName, AttributeName.SRC, attributes);
+            } else if (eltName == ElementName.STYLE || eltName == ElementName.XMP
+                    || eltName == ElementName.NOEMBED
+                    || eltName == ElementName.NOFRAMES) {
+                tokenizer.setStateAndEndTagExpectation(Tokenizer.RAWTEXT, eltName);
+            } else if (eltName == ElementName.IFRAME) {
+                tokenizer.setStateAndEndTagExpectation(Tokenizer.RAWTEXT, eltName);
+                report(eltName, AttributeName.SRC, attributes);
+            } else if (eltName == ElementName.TITLE
+                    || eltName == ElementName.TEXTAREA) {
+                tokenizer.setStateAndEndTagExpectation(Tokenizer.RCDATA, eltName);
+            } else if (eltName == ElementName.PLAINTEXT) {
+                tokenizer.setStateAndEndTagExpectation(Tokenizer.PLAINTEXT,
+                        eltName);
+            } else if (eltName == ElementName.IMG || eltName == ElementName.IMAGE
+                    || eltName == ElementName.SOURCE) {
+                report(eltName, AttributeName.SRC, attributes);
+                reportSrcset(eltName, AttributeName.SRCSET, attributes);
+            } else if (eltName == ElementName.LINK) {
+                report(eltName, AttributeName.HREF, attributes);
+                reportSrcset(eltName, AttributeName.IMAGESRCSET, attributes);
+            } else if (eltName == ElementName.A || eltName == ElementName.AREA) {
+                report(eltName, AttributeName.HREF, attributes);
+            } else if (eltName == ElementName.VIDEO) {
+                report(eltName, AttributeName.SRC, attributes);
+                report(eltName, AttributeName.POSTER, attributes);
+            } else if (eltName == ElementName.AUDIO || eltName == ElementName.EMBED
+                    || eltName == ElementName.FRAME || eltName == ElementName.TRACK) {
+                report(eltName, AttributeName.SRC, attributes);
+            } else if (eltName == ElementName.INPUT) {
+                if ("image".equalsIgnoreCase(attributes.getValue(AttributeName.TYPE))) {
+                    report(eltName, AttributeName.SRC, attributes);
+                }
+            } else if (eltName == ElementName.OBJECT) {
+                report(eltName, AttributeName.DATA, attributes);
+            }
+        }
+
+        public void endTag(ElementName eltName) throws SAXException {
+            if (foreignPtr == -1) {
+                return;
+            }
+            if (isInForeign()
+                    && (eltName == ElementName.BR || eltName == ElementName.P)) {
+                while (isInForeign()) {
+                    foreignPtr--;
+                }
+                return;
+            }
+            String name = eltName.getName();
+            for (int i = foreignPtr; i >= 0; i--) {
+                if (name.equals(foreignNames[i])) {
+                    foreignPtr = i - 1;
+                    return;
+                }
+            }
+        }
+
+        public void comment(char[] buf, int start, int length)
+                throws SAXException {
+        }
+
+        public void characters(char[] buf, int start, int length)
+                throws SAXException {
+        }
+
+        public void zeroOriginatingReplacementCharacter() throws SAXException {
+        }
+
+        public void zeroOrReplacementCharacter() throws SAXException {
+        }
+
+        public void eof() throws SAXException {
+        }
+
+        public void endTokenization() throws SAXException {
+        }
+
+        public boolean cdataSectionAllowed() throws SAXException {
+            return isInForeign();
+        }
+
+        public void ensureBufferSpace(int inputLength) throws SAXException {
+        }
+    }
+
+    // Helpers
+
+    private boolean isInForeign() {
+        return foreignPtr != -1 && !integrationPoints[foreignPtr];
+    }
+
+    private void pushForeign(ElementName eltName, boolean svg,
+            boolean integrationPoint) {
+        foreignPtr++;
+        if (foreignPtr == foreignNames.length) {
+            int newLen = foreignNames.length << 1;
+            String[] newNames = new String[newLen];
+            System.arraycopy(foreignNames, 0, newNames, 0, foreignPtr);
+            foreignNames = newNames;
+            boolean[] newSvg = new boolean[newLen];
+            System.arraycopy(foreignSvg, 0, newSvg, 0, foreignPtr);
+            foreignSvg = newSvg;
+            boolean[] newIntegrationPoints = new boolean[newLen];
+            System.arraycopy(integrationPoints, 0, newIntegrationPoints, 0,
+                    foreignPtr);
+            integrationPoints = newIntegrationPoints;
+        }
+        foreignNames[foreignPtr] = eltName.getName();
+        foreignSvg[foreignPtr] = svg;
+        integrationPoints[foreignPtr] = integrationPoint;
+    }
+
+    private static boolean isIntegrationPoint(ElementName eltName,
+            boolean svg, HtmlAttributes attributes) {
+        if (svg) {
+            return eltName == ElementName.FOREIGNOBJECT
+                    || eltName == ElementName.DESC
+                    || eltName == ElementName.TITLE;
+        }
+        if (eltName == ElementName.ANNOTATION_XML) {
+            String encoding = attributes.getValue(AttributeName.ENCODING);
+            return "text/html".equalsIgnoreCase(encoding)
+                    || "application/xhtml+xml".equalsIgnoreCase(encoding);
+        }
+        return eltName == ElementName.MI || eltName == ElementName.MO
+                || eltName == ElementName.MN || eltName == ElementName.MS
+                || eltName == ElementName.MTEXT;
+    }
+
+    /**
+     * Tells whether a start tag makes the tree builder leave foreign 
+     * content.
+     */
+    private static boolean isBreakout(ElementName eltName,
+            HtmlAttributes attributes) {
+        if (eltName == ElementName.FONT) {
+            return attributes.getIndex(AttributeName.COLOR) != -1
+                    || attributes.getIndex(AttributeName.FACE) != -1
+                    || attributes.getIndex(AttributeName.SIZE) != -1;
+        }
+        for (ElementName breakout : BREAKOUT) {
+            if (eltName == breakout) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void report(ElementName eltName, AttributeName attributeName,
+            HtmlAttributes attributes) throws SAXException {
+        String value = attributes.getValue(attributeName);
+        if (value == null) {
+            return;
+        }
+        reportUrl(value, 0, value.length(), eltName, attributeName, attributes);
+    }
+
+    /**
+     * Reports the URLs of the image candidates of a <code>srcset</code>-like 
+     * attribute. The descriptors are skipped without validation.
+     */
+    private void reportSrcset(ElementName eltName,
+            AttributeName attributeName, HtmlAttributes attributes)
+            throws SAXException {
+        String value = attributes.getValue(attributeName);
+        if (value == null) {
+            return;
+        }
+        int len = value.length();
+        int i = 0;
+        while (i < len) {
+            while (i < len
+                    && (isSpace(value.charAt(i)) || value.charAt(i) == ',')) {
+                i++;
+            }
+            int start = i;
+            while (i < len && !isSpace(value.charAt(i))) {
+                i++;
+            }
+            int end = i;
+            boolean trailingComma = false;
+            while (end > start && value.charAt(end - 1) == ',') {
+                end--;
+                trailingComma = true;
+            }
+            reportUrl(value, start, end, eltName, attributeName, attributes);
+            if (!trailingComma) {
+                boolean inParens = false;
+                while (i < len) {
+                    char c = value.charAt(i);
+                    if (c == '(') {
+                        inParens = true;
+                    } else if (c == ')') {
+                        inParens = false;
+                    } else if (c == ',' && !inParens) {
+                        break;
+                    }
+                    i++;
+                }
+            }
+        }
+    }
+
+    private void reportUrl(String value, int start, int end,
+            ElementName eltName, AttributeName attributeName,
+            HtmlAttributes attributes) throws SAXException {
+        while (start < end && isSpace(value.charAt(start))) {
+            start++;
+        }
+        while (end > start && isSpace(value.charAt(end - 1))) {
+            end--;
+        }
+        if (start == end) {
+            return;
+        }
+        String url = value.substring(start, end);
+        if (baseUri != null) {
+            URI uri = toUri(url);
+            if (uri != null) {
+                try {
+                    url = baseUri.resolve(uri).toASCIIString();
+                } catch (IllegalArgumentException e) {
+                    // report unresolved
+                }
+            }
+        }
+        resourceUrlHandler.resourceUrl(url, eltName.getName(),
+                attributeName.getLocal(AttributeName.HTML), attributes);
+    }
+
+    private static URI toUri(String url) {
+        url = url.trim();
+        try {
+            return new URI(url);
+        } catch (URISyntaxException e) {
+            // escape below
+        }
+        try {
+            return new URI(escape(url));
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Percent-encodes as UTF-8 the characters that may not appear in a URI 
+     * as well as percent signs that don't start an escape.
+     */
+    private static String escape(String url) {
+        StringBuilder sb = new StringBuilder(url.length() + 16);
+        int len = url.length();
+        boolean seenHash = false;
+        for (int i = 0; i < len; i++) {
+            char c = url.charAt(i);
+            if (c == '#' && !seenHash) {
+                seenHash = true;
+                sb.append(c);
+            } else if (c == '%' && i + 2 < len && isHex(url.charAt(i + 1))
+                    && isHex(url.charAt(i + 2))) {
+                sb.append(c);
+            } else if (c > ' ' && c < 0x7F && c != '%' && c != '#'
+                    && c != '"' && c != '<' && c != '>' && c != '\\'
+                    && c != '^' && c != '`' && c != '{' && c != '|'
+                    && c != '}') {
+                sb.append(c);
+            } else {
+                int cp = c;
+                if (Character.isHighSurrogate(c) && i + 1 < len
+                        && Character.isLowSurrogate(url.charAt(i + 1))) {
+                    cp = Character.toCodePoint(c, url.charAt(++i));
+                } else if (Character.isSurrogate(c)) {
+                    cp = 0xFFFD;
+                }
+                byte[] bytes = new String(Character.toChars(cp)).getBytes(
+                        StandardCharsets.UTF_8);
+                for (byte b : bytes) {
+                    sb.append('%');
+                    sb.append(HEX[(b >> 4) & 0xF]);
+                    sb.append(HEX[b & 0xF]);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isHex(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f')
+                || (c >= 'A' && c <= 'F');
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\f' || c == '\r';
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.reactive;
+
+import nu.validator.htmlparser.sax.HtmlEventReader;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * An immutable snapshot of one event of <code>HtmlEventReader</code>. The 
+ * event types are the constants of <code>HtmlEventReader</code>.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+public final class ParseEvent {
+
+    private final int type;
+
+    private final String uri;
+
+    private final String localName;
+
+    private final Attributes attributes;
+
+    private final String text;
+
+    private final String publicIdentifier;
+
+    private final String systemIdentifier;
+
+    private final int line;
+
+    private final int column;
+
+    /**
+     * Captures the current event of a reader.
+     * 
+     * @param reader
+     *            the reader
+     */
+    ParseEvent(HtmlEventReader reader) {
+        this.type = reader.getEventType();
+        this.uri = reader.getNamespaceURI();
+        this.localName = reader.getLocalName();
+        // The reader's attributes belong to the tree being built.
+        Attributes atts = reader.getAttributes();
+        this.attributes = atts == null ? null : new AttributesImpl(atts);
+        this.text = reader.getText();
+        this.publicIdentifier = reader.getPublicIdentifier();
+        this.systemIdentifier = reader.getSystemIdentifier();
+        this.line = reader.getLineNumber();
+        this.column = reader.getColumnNumber();
+    }
+
+    /**
+     * Returns the event type.
+     * 
+     * @return the type
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Returns the namespace URI of a <code>START_ELEMENT</code> or 
+     * <code>END_ELEMENT</code>.
+     * 
+     * @return the namespace URI
+     */
+    public String getNamespaceURI() {
+        return uri;
+    }
+
+    /**
+     * Returns the local name of a <code>START_ELEMENT</code> or 
+     * <code>END_ELEMENT</code> or the doctype name of a <code>DTD</code>.
+     * 
+     * @return the local name
+     */
+    public String getLocalName() {
+        return localName;
+    }
+
+    /**
+     * Returns a copy of the attributes of a <code>START_ELEMENT</code>. The 
+     * copy must not be modified.
+     * 
+     * @return the attributes or <code>null</code>
+     */
+    public Attributes getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * Returns the text of a <code>CHARACTERS</code> or <code>COMMENT</code>.
+     * 
+     * @return the text
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Returns the public identifier of a <code>DTD</code>.
+     * 
+     * @return the public identifier
+     */
+    public String getPublicIdentifier() {
+        return publicIdentifier;
+    }
+
+    /**
+     * Returns the system identifier of a <code>DTD</code>.
+     * 
+     * @return the system identifier
+     */
+    public String getSystemIdentifier() {
+        return systemIdentifier;
+    }
+
+    /**
+     * Returns the source line of the event.
+     * 
+     * @return the line or -1 if unknown
+     */
+    public int getLineNumber() {
+        return line;
+    }
+
+    /**
+     * Returns the source column of the event.
+     * 
+     * @return the column or -1 if unknown
+     */
+    public int getColumnNumber() {
+        return column;
+    }
+}
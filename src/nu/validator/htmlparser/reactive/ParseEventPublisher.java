@@ -0,0 +1,366 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.reactive;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nu.validator.htmlparser.sax.HtmlEventReader;
+
+import org.xml.sax.InputSource;
+
+/**
+ * Publishes the events of parsing one document as lists of 
+ * <code>ParseEvent</code>s. Each unit of demand requested by the subscriber 
+ * is one batch. The tokenizer runs only while there is outstanding demand 
+ * and is suspended after every token, so no more than one batch and the 
+ * events of one token are ever held, however slow the subscriber is.
+ * 
+ * <p>The nested <code>Subscriber</code> and <code>Subscription</code> 
+ * interfaces have the same methods and contracts as their counterparts in 
+ * <code>java.util.concurrent.Flow</code> and Reactive Streams, so adapting 
+ * to either is a matter of delegation. They are declared here because 
+ * this library targets Java 8 and has no dependency on Reactive Streams.
+ * 
+ * <p>A publisher reads its input source once and therefore accepts only one 
+ * subscriber. Further subscribers are signaled an 
+ * <code>IllegalStateException</code>. Without an executor, parsing happens 
+ * on the thread that calls <code>request()</code>; reentrant requests from 
+ * <code>onNext()</code> are queued rather than recursed into. With an 
+ * executor, parsing happens on the executor, one task at a time.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+public final class ParseEventPublisher {
+
+    /**
+     * Receives the batches. Mirrors <code>Flow.Subscriber</code>.
+     */
+    public interface Subscriber<T> {
+
+        /**
+         * Called once before any other method.
+         * 
+         * @param subscription
+         *            the subscription
+         */
+        void onSubscribe(Subscription subscription);
+
+        /**
+         * Called with the next item, at most as many times as requested.
+         * 
+         * @param item
+         *            the item
+         */
+        void onNext(T item);
+
+        /**
+         * Called when parsing failed. No further calls follow.
+         * 
+         * @param throwable
+         *            the failure
+         */
+        void onError(Throwable throwable);
+
+        /**
+         * Called after the batch with the end of the document. No further 
+         * calls follow.
+         */
+        void onComplete();
+    }
+
+    /**
+     * Controls the flow of batches. Mirrors <code>Flow.Subscription</code>.
+     */
+    public interface Subscription {
+
+        /**
+         * Adds demand for <code>n</code> further items.
+         * 
+         * @param n
+         *            the number of items; must be positive
+         */
+        void request(long n);
+
+        /**
+         * Stops the publication and releases the input.
+         */
+        void cancel();
+    }
+
+    private final InputSource inputSource;
+
+    private final HtmlEventReader reader;
+
+    private final int batchSize;
+
+    private final Executor executor;
+
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    /**
+     * Creates a publisher that parses on the requesting thread with a 
+     * default reader and batches of 64 events.
+     * 
+     * @param inputSource
+     *            the document
+     */
+    public ParseEventPublisher(InputSource inputSource) {
+        this(inputSource, new HtmlEventReader(), 64, null);
+    }
+
+    /**
+     * Creates a publisher.
+     * 
+     * @param inputSource
+     *            the document
+     * @param reader
+     *            a configured reader that is not used by anything else 
+     *            while the publication runs
+     * @param batchSize
+     *            the maximum number of events per batch
+     * @param executor
+     *            the executor to parse on or <code>null</code> to parse on 
+     *            the requesting thread
+     */
+    public ParseEventPublisher(InputSource inputSource,
+            HtmlEventReader reader, int batchSize, Executor executor) {
+        if (inputSource == null || reader == null) {
+            throw new IllegalArgumentException("Null input or reader.");
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive.");
+        }
+        this.inputSource = inputSource;
+        this.reader = reader;
+        this.batchSize = batchSize;
+        this.executor = executor;
+    }
+
+    /**
+     * Subscribes to the events. Parsing does not start before the first 
+     * request.
+     * 
+     * @param subscriber
+     *            the subscriber
+     */
+    public void subscribe(Subscriber<? super List<ParseEvent>> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("Null subscriber.");
+        }
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Subscription() {
+                public void request(long n) {
+                }
+
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException(
+                    "This publisher accepts only one subscriber."));
+            return;
+        }
+        subscriber.onSubscribe(new EventSubscription(subscriber));
+    }
+
+    /**
+     * The subscription. Signals are serialized with a work-in-progress 
+     * counter so that the reader is only ever touched by one thread at a 
+     * time and the atomics provide the happens-before edges between 
+     * successive drains.
+     */
+    private final class EventSubscription implements Subscription, Runnable {
+
+        private final Subscriber<? super List<ParseEvent>> subscriber;
+
+        private final AtomicLong requested = new AtomicLong();
+
+        private final AtomicInteger wip = new AtomicInteger();
+
+        private volatile boolean cancelled = false;
+
+        private volatile Throwable badRequest = null;
+
+        // Only touched while draining
+        
+        private boolean started = false;
+
+        private boolean done = false;
+
+        EventSubscription(Subscriber<? super List<ParseEvent>> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        /**
+         * @see nu.validator.htmlparser.reactive.ParseEventPublisher.Subscription#request(long)
+         */
+        public void request(long n) {
+            if (n <= 0) {
+                badRequest = new IllegalArgumentException(
+                        "Non-positive request: " + n);
+            } else {
+                for (;;) {
+                    long current = requested.get();
+                    long next = current + n;
+                    if (next < 0) {
+                        next = Long.MAX_VALUE;
+                    }
+                    if (requested.compareAndSet(current, next)) {
+                        break;
+                    }
+                }
+            }
+            schedule();
+        }
+
+        /**
+         * @see nu.validator.htmlparser.reactive.ParseEventPublisher.Subscription#cancel()
+         */
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (wip.getAndIncrement() == 0) {
+                if (executor == null) {
+                    run();
+                } else {
+                    executor.execute(this);
+                }
+            }
+        }
+
+        /**
+         * @see java.lang.Runnable#run()
+         */
+        public void run() {
+            int missed = 1;
+            for (;;) {
+                try {
+                    drain();
+                } catch (RuntimeException e) {
+                    // The subscriber threw. Treat the subscription as 
+                    // cancelled and leave it in a state where further 
+                    // signals are no-ops instead of being stuck.
+                    cancelled = true;
+                    if (!done) {
+                        done = true;
+                        release();
+                    }
+                    wip.set(0);
+                    throw e;
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        private void drain() {
+            if (done) {
+                return;
+            }
+            if (cancelled) {
+                done = true;
+                release();
+                return;
+            }
+            Throwable bad = badRequest;
+            if (bad != null) {
+                done = true;
+                release();
+                subscriber.onError(bad);
+                return;
+            }
+            long r = requested.get();
+            long emitted = 0;
+            while (emitted != r) {
+                if (cancelled) {
+                    done = true;
+                    release();
+                    return;
+                }
+                List<ParseEvent> batch;
+                try {
+                    batch = nextBatch();
+                } catch (Exception e) {
+                    done = true;
+                    release();
+                    subscriber.onError(e);
+                    return;
+                }
+                boolean last = !reader.hasNext();
+                if (last) {
+                    done = true;
+                    release();
+                }
+                subscriber.onNext(batch);
+                if (last) {
+                    if (!cancelled) {
+                        subscriber.onComplete();
+                    }
+                    return;
+                }
+                emitted++;
+            }
+            if (r != Long.MAX_VALUE) {
+                requested.addAndGet(-emitted);
+            }
+        }
+
+        private List<ParseEvent> nextBatch() throws Exception {
+            List<ParseEvent> batch = new ArrayList<ParseEvent>(batchSize);
+            if (!started) {
+                started = true;
+                reader.setInput(inputSource);
+                batch.add(new ParseEvent(reader));
+            }
+            while (batch.size() < batchSize && reader.hasNext()) {
+                reader.next();
+                batch.add(new ParseEvent(reader));
+            }
+            return batch;
+        }
+
+        /**
+         * Closes the input without letting a secondary failure mask the 
+         * terminal signal.
+         */
+        private void release() {
+            if (started) {
+                try {
+                    reader.close();
+                } catch (Exception e) {
+                    // nothing more can be signaled
+                }
+            }
+        }
+    }
+}
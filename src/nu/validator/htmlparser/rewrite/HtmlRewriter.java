@@ -0,0 +1,380 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.rewrite;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+import nu.validator.htmlparser.common.TokenHandler;
+import nu.validator.htmlparser.common.XmlViolationPolicy;
+import nu.validator.htmlparser.impl.ElementName;
+import nu.validator.htmlparser.impl.HtmlAttributes;
+import nu.validator.htmlparser.impl.Tokenizer;
+import nu.validator.htmlparser.impl.UTF16Buffer;
+
+import org.xml.sax.SAXException;
+
+/**
+ * A streaming rewriter that copies its input to its output verbatim except 
+ * for the tags and comments that a <code>RewriteHandler</code> modifies or 
+ * removes. No tree is built and the input is not re-serialized, so markup 
+ * outside the edits comes out exactly as it went in.
+ * 
+ * <p>The rewriter runs its own tokenizer and finds the input range of each 
+ * token from where the tokenizer flushes the text around it. Input is held 
+ * in a buffer only from the start of a token that may still be edited, so 
+ * memory use is bounded by the longest tag or comment rather than by the 
+ * document. Like <code>PreloadScanner</code>, the rewriter approximates the 
+ * tree builder only as far as is needed to keep the tokenizer in the right 
+ * state for <code>script</code>, <code>style</code>, <code>textarea</code> 
+ * and the like. Inside SVG and MathML, those elements don't change the 
+ * tokenizer state even at HTML integration points.
+ * 
+ * <p>The rewriter works on UTF-16 code units. To get byte-identical output 
+ * outside the edits, decode and encode with the same encoding.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+public class HtmlRewriter {
+
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private final RewriteHandler rewriteHandler;
+
+    private final Tokenizer tokenizer;
+
+    private final Tag tag = new Tag();
+
+    /**
+     * The serializations of the pending edits back to back.
+     */
+    private final StringBuilder replacements = new StringBuilder();
+
+    private int[] editStarts = new int[16];
+
+    private int[] editEnds = new int[16];
+
+    /**
+     * The end of the replacement of each edit in <code>replacements</code>.
+     */
+    private int[] editReplacementEnds = new int[16];
+
+    private int editCount = 0;
+
+    private char[] buf = null;
+
+    /**
+     * The end of the input read into <code>buf</code>.
+     */
+    private int limit = 0;
+
+    /**
+     * The end of the input already written (or replaced).
+     */
+    private int written = 0;
+
+    /**
+     * The input offset of <code>buf[0]</code>.
+     */
+    private long base = 0;
+
+    /**
+     * The index of the <code>&lt;</code> of the token being tokenized (or of 
+     * the end of the text before it) or -1 if there hasn't been any text.
+     */
+    private int tokenStart = -1;
+
+    /**
+     * Whether the token just emitted has to be replaced once its end is 
+     * known.
+     */
+    private boolean pending = false;
+
+    private int foreignDepth = 0;
+
+    /**
+     * Instantiates the rewriter.
+     * 
+     * @param rewriteHandler
+     *            the handler that gets to modify tags and comments
+     */
+    public HtmlRewriter(RewriteHandler rewriteHandler) {
+        if (rewriteHandler == null) {
+            throw new IllegalArgumentException("rewriteHandler was null.");
+        }
+        this.rewriteHandler = rewriteHandler;
+        this.tokenizer = new RewritingTokenizer(new RewritingTokenHandler());
+        // Pass attribute names and comments through as they were.
+        tokenizer.setCommentPolicy(XmlViolationPolicy.ALLOW);
+        tokenizer.setContentSpacePolicy(XmlViolationPolicy.ALLOW);
+        tokenizer.setXmlnsPolicy(XmlViolationPolicy.ALLOW);
+        tokenizer.setNamePolicy(XmlViolationPolicy.ALLOW);
+    }
+
+    /**
+     * Rewrites a document. The output is written as the input is read.
+     * 
+     * @param reader
+     *            the input
+     * @param writer
+     *            the output; not flushed or closed
+     * @throws SAXException
+     *             if the handler threw
+     * @throws IOException
+     *             if the reader or the writer threw
+     */
+    public void rewrite(Reader reader, Writer writer) throws SAXException,
+            IOException {
+        if (buf == null) {
+            buf = new char[DEFAULT_BUFFER_SIZE];
+        }
+        limit = 0;
+        written = 0;
+        base = 0;
+        tokenStart = -1;
+        pending = false;
+        editCount = 0;
+        replacements.setLength(0);
+        boolean lastCR = false;
+        tokenizer.start();
+        try {
+            for (;;) {
+                if (written > 0) {
+                    // Keep only the unfinished token.
+                    System.arraycopy(buf, written, buf, 0, limit - written);
+                    limit -= written;
+                    if (tokenStart != -1) {
+                        tokenStart -= written;
+                    }
+                    base += written;
+                    written = 0;
+                }
+                if (limit == buf.length) {
+                    char[] newBuf = new char[buf.length << 1];
+                    System.arraycopy(buf, 0, newBuf, 0, limit);
+                    buf = newBuf;
+                }
+                int num = reader.read(buf, limit, buf.length - limit);
+                if (num == -1) {
+                    break;
+                }
+                UTF16Buffer bufr = new UTF16Buffer(buf, limit, limit + num);
+                limit += num;
+                while (bufr.hasMore()) {
+                    bufr.adjust(lastCR);
+                    lastCR = false;
+                    if (bufr.hasMore()) {
+                        lastCR = tokenizer.tokenizeBuffer(bufr);
+                    }
+                }
+                flush(writer, tokenStart == -1 ? limit : tokenStart);
+            }
+            tokenizer.eof();
+            flush(writer, limit);
+        } finally {
+            tokenizer.end();
+        }
+    }
+
+    /**
+     * Writes the input up to <code>end</code> with the pending edits applied.
+     */
+    private void flush(Writer writer, int end) throws IOException {
+        int replacementStart = 0;
+        for (int i = 0; i < editCount; i++) {
+            writer.write(buf, written, editStarts[i] - written);
+            writer.append(replacements, replacementStart,
+                    editReplacementEnds[i]);
+            replacementStart = editReplacementEnds[i];
+            written = editEnds[i];
+        }
+        editCount = 0;
+        replacements.setLength(0);
+        if (end > written) {
+            writer.write(buf, written, end - written);
+            written = end;
+        }
+    }
+
+    /**
+     * Records an edit of the token that ends at <code>end</code>. The 
+     * replacement has already been appended to <code>replacements</code>.
+     */
+    private void edit(int end) {
+        pending = false;
+        if (tokenStart == -1 || buf[tokenStart] != '<') {
+            // The token didn't start where the text before it ended; keep 
+            // the original rather than cut the output in the wrong place.
+            replacements.setLength(editCount == 0 ? 0
+                    : editReplacementEnds[editCount - 1]);
+            tokenStart = -1;
+            return;
+        }
+        if (editCount == editStarts.length) {
+            int newLen = editCount << 1;
+            int[] newStarts = new int[newLen];
+            System.arraycopy(editStarts, 0, newStarts, 0, editCount);
+            editStarts = newStarts;
+            int[] newEnds = new int[newLen];
+            System.arraycopy(editEnds, 0, newEnds, 0, editCount);
+            editEnds = newEnds;
+            int[] newReplacementEnds = new int[newLen];
+            System.arraycopy(editReplacementEnds, 0, newReplacementEnds, 0,
+                    editCount);
+            editReplacementEnds = newReplacementEnds;
+        }
+        editStarts[editCount] = tokenStart;
+        editEnds[editCount] = end;
+        editReplacementEnds[editCount] = replacements.length();
+        editCount++;
+        tokenStart = -1;
+    }
+
+    /**
+     * Tracks where tokens start and end in the input.
+     */
+    private final class RewritingTokenizer extends Tokenizer {
+
+        RewritingTokenizer(TokenHandler tokenHandler) {
+            super(tokenHandler, false);
+        }
+
+        /**
+         * Called with <code>pos</code> at the <code>&lt;</code> that may 
+         * start a tag or a comment among other places. Only calls made in a 
+         * text state have <code>cstart</code> set.
+         * 
+         * @see nu.validator.htmlparser.impl.Tokenizer#flushChars(char[], int)
+         */
+        @Override protected void flushChars(char[] buf, int pos)
+                throws SAXException {
+            if (pending) {
+                // cstart is right after the '>' of the token emitted last.
+                edit(cstart);
+            }
+            if (cstart != Integer.MAX_VALUE) {
+                tokenStart = pos;
+            }
+            super.flushChars(buf, pos);
+        }
+    }
+
+    /**
+     * Receives the tokens and passes the tags and comments to the handler.
+     */
+    private final class RewritingTokenHandler implements TokenHandler {
+
+        public void startTokenization(Tokenizer self) throws SAXException {
+            foreignDepth = 0;
+        }
+
+        public boolean wantsComments() throws SAXException {
+            return true;
+        }
+
+        public void doctype(String name, String publicIdentifier,
+                String systemIdentifier, boolean forceQuirks) throws SAXException {
+        }
+
+        public void startTag(ElementName eltName, HtmlAttributes attributes,
+                boolean selfClosing) throws SAXException {
+            if (eltName == ElementName.SVG || eltName == ElementName.MATH) {
+                if (!selfClosing) {
+                    foreignDepth++;
+                }
+            } else if (foreignDepth > 0) {
+                // no special tokenizer states in foreign content
+            } else if (eltName == ElementName.SCRIPT) {
+                tokenizer.setStateAndEndTagExpectation(Tokenizer.SCRIPT_DATA,
+                        eltName);
+            } else if (eltName == ElementName.STYLE || eltName == ElementName.XMP
+                    || eltName == ElementName.IFRAME
+                    || eltName == ElementName.NOEMBED
+                    || eltName == ElementName.NOFRAMES) {
+                tokenizer.setStateAndEndTagExpectation(Tokenizer.RAWTEXT, eltName);
+            } else if (eltName == ElementName.TITLE
+                    || eltName == ElementName.TEXTAREA) {
+                tokenizer.setStateAndEndTagExpectation(Tokenizer.RCDATA, eltName);
+            } else if (eltName == ElementName.PLAINTEXT) {
+                tokenizer.setStateAndEndTagExpectation(Tokenizer.PLAINTEXT,
+                        eltName);
+            }
+            tag.reset(eltName, attributes, false, selfClosing, base + tokenStart);
+            rewriteHandler.startTag(tag);
+            if (tag.isModified()) {
+                tag.serialize(replacements);
+                pending = true;
+            }
+        }
+
+        public void endTag(ElementName eltName) throws SAXException {
+            if (foreignDepth > 0
+                    && (eltName == ElementName.SVG || eltName == ElementName.MATH)) {
+                foreignDepth--;
+            }
+            tag.reset(eltName, HtmlAttributes.EMPTY_ATTRIBUTES, true, false,
+                    base + tokenStart);
+            rewriteHandler.endTag(tag);
+            if (tag.isModified()) {
+                tag.serialize(replacements);
+                pending = true;
+            }
+        }
+
+        public void comment(char[] buf, int start, int length)
+                throws SAXException {
+            if (!rewriteHandler.comment(buf, start, length)) {
+                pending = true;
+            }
+        }
+
+        public void characters(char[] buf, int start, int length)
+                throws SAXException {
+        }
+
+        public void zeroOriginatingReplacementCharacter() throws SAXException {
+        }
+
+        public void zeroOrReplacementCharacter() throws SAXException {
+        }
+
+        public void eof() throws SAXException {
+            if (pending) {
+                // A comment cut short by the end of the input.
+                edit(limit);
+            }
+        }
+
+        public void endTokenization() throws SAXException {
+        }
+
+        public boolean cdataSectionAllowed() throws SAXException {
+            return foreignDepth > 0;
+        }
+
+        public void ensureBufferSpace(int inputLength) throws SAXException {
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.rewrite;
+
+import org.xml.sax.SAXException;
+
+/**
+ * The callback interface of <code>HtmlRewriter</code>. Tokens that the 
+ * handler leaves alone are copied to the output verbatim.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+public interface RewriteHandler {
+
+    /**
+     * Receive notification of a start tag.
+     * 
+     * @param tag
+     *            the tag to inspect and possibly modify; only valid during 
+     *            this call
+     * @throws SAXException
+     *             to stop rewriting
+     */
+    public void startTag(Tag tag) throws SAXException;
+
+    /**
+     * Receive notification of an end tag.
+     * 
+     * @param tag
+     *            the tag to inspect and possibly remove; only valid during 
+     *            this call
+     * @throws SAXException
+     *             to stop rewriting
+     */
+    public void endTag(Tag tag) throws SAXException;
+
+    /**
+     * Receive notification of a comment.
+     * 
+     * @param buf
+     *            a buffer holding the text of the comment
+     * @param start
+     *            the offset of the text in <code>buf</code>
+     * @param length
+     *            the length of the text
+     * @return <code>true</code> to keep the comment or <code>false</code> to 
+     *         remove it from the output
+     * @throws SAXException
+     *             to stop rewriting
+     */
+    public boolean comment(char[] buf, int start, int length)
+            throws SAXException;
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.rewrite;
+
+import nu.validator.htmlparser.impl.ElementName;
+import nu.validator.htmlparser.impl.HtmlAttributes;
+
+/**
+ * A start or end tag as seen by a <code>RewriteHandler</code>. The tag is 
+ * only valid during the callback it is passed to. A tag that is left 
+ * unmodified is copied to the output as it appeared in the input. A modified 
+ * tag is serialized anew from its name and attributes with the attribute 
+ * values double-quoted.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+public final class Tag {
+
+    private static final String[] EMPTY = new String[0];
+
+    private ElementName elementName;
+
+    private HtmlAttributes attributes;
+
+    private boolean endTag;
+
+    private boolean selfClosing;
+
+    private long startOffset;
+
+    /**
+     * The attribute names once the attributes have been modified.
+     */
+    private String[] names = EMPTY;
+
+    /**
+     * The attribute values once the attributes have been modified.
+     */
+    private String[] values = EMPTY;
+
+    /**
+     * The number of attributes once the attributes have been modified or 
+     * -1 if they haven't been.
+     */
+    private int length = -1;
+
+    private boolean removed;
+
+    Tag() {
+    }
+
+    void reset(ElementName elementName, HtmlAttributes attributes,
+            boolean endTag, boolean selfClosing, long startOffset) {
+        this.elementName = elementName;
+        this.attributes = attributes;
+        this.endTag = endTag;
+        this.selfClosing = selfClosing;
+        this.startOffset = startOffset;
+        for (int i = 0; i < length; i++) {
+            names[i] = null;
+            values[i] = null;
+        }
+        this.length = -1;
+        this.removed = false;
+    }
+
+    /**
+     * Returns the lower-case name of the element.
+     * 
+     * @return the name (interned for known elements)
+     */
+    public String getName() {
+        return elementName.getName();
+    }
+
+    /**
+     * Tells whether this is an end tag.
+     * 
+     * @return <code>true</code> for an end tag
+     */
+    public boolean isEndTag() {
+        return endTag;
+    }
+
+    /**
+     * Tells whether the start tag ended with <code>/&gt;</code>.
+     * 
+     * @return <code>true</code> if self-closing
+     */
+    public boolean isSelfClosing() {
+        return selfClosing;
+    }
+
+    /**
+     * Returns the offset of the <code>&lt;</code> of the tag counted in UTF-16 
+     * code units from the start of the input.
+     * 
+     * @return the input offset of the tag
+     */
+    public long getStartOffset() {
+        return startOffset;
+    }
+
+    /**
+     * Returns the number of attributes. End tags have no attributes.
+     * 
+     * @return the number of attributes
+     */
+    public int getLength() {
+        return length == -1 ? attributes.getLength() : length;
+    }
+
+    /**
+     * Returns the name of an attribute as it would be serialized.
+     * 
+     * @param index
+     *            the index of the attribute
+     * @return the name or <code>null</code> if the index is out of bounds
+     */
+    public String getAttributeName(int index) {
+        if (length == -1) {
+            return attributes.getQName(index);
+        }
+        return index < length && index >= 0 ? names[index] : null;
+    }
+
+    /**
+     * Returns the value of an attribute with character references expanded.
+     * 
+     * @param index
+     *            the index of the attribute
+     * @return the value or <code>null</code> if the index is out of bounds
+     */
+    public String getAttributeValue(int index) {
+        if (length == -1) {
+            return attributes.getValue(index);
+        }
+        return index < length && index >= 0 ? values[index] : null;
+    }
+
+    /**
+     * Returns the value of an attribute by name.
+     * 
+     * @param name
+     *            the lower-case name of the attribute
+     * @return the value or <code>null</code> if there's no such attribute
+     */
+    public String getAttributeValue(String name) {
+        if (length == -1) {
+            return attributes.getValue(name);
+        }
+        int index = indexOf(name);
+        return index == -1 ? null : values[index];
+    }
+
+    /**
+     * Sets the value of an attribute, adding the attribute after the 
+     * existing ones if the tag doesn't have it yet. This marks the tag as 
+     * modified.
+     * 
+     * @param name
+     *            the lower-case name of the attribute
+     * @param value
+     *            the value without escaping
+     */
+    public void setAttribute(String name, String value) {
+        if (name == null || value == null) {
+            throw new IllegalArgumentException("Null name or value.");
+        }
+        if (endTag) {
+            throw new IllegalStateException("End tags have no attributes.");
+        }
+        copyAttributes();
+        int index = indexOf(name);
+        if (index == -1) {
+            if (length == names.length) {
+                String[] newNames = new String[length + 8];
+                System.arraycopy(names, 0, newNames, 0, length);
+                names = newNames;
+                String[] newValues = new String[length + 8];
+                System.arraycopy(values, 0, newValues, 0, length);
+                values = newValues;
+            }
+            index = length++;
+            names[index] = name;
+        }
+        values[index] = value;
+    }
+
+    /**
+     * Removes an attribute if the tag has it. This marks the tag as 
+     * modified if the attribute was there.
+     * 
+     * @param name
+     *            the lower-case name of the attribute
+     */
+    public void removeAttribute(String name) {
+        if (getAttributeValue(name) == null) {
+            return;
+        }
+        copyAttributes();
+        int index = indexOf(name);
+        length--;
+        System.arraycopy(names, index + 1, names, index, length - index);
+        System.arraycopy(values, index + 1, values, index, length - index);
+        names[length] = null;
+        values[length] = null;
+    }
+
+    /**
+     * Removes the tag from the output. The content that follows the tag is 
+     * still tokenized as it would have been had the tag been kept.
+     */
+    public void remove() {
+        removed = true;
+    }
+
+    boolean isRemoved() {
+        return removed;
+    }
+
+    boolean isModified() {
+        return removed || length != -1;
+    }
+
+    /**
+     * Serializes the modified tag.
+     * 
+     * @param sb
+     *            the builder to append to
+     */
+    void serialize(StringBuilder sb) {
+        if (removed) {
+            return;
+        }
+        if (endTag) {
+            sb.append("</").append(getName()).append('>');
+            return;
+        }
+        sb.append('<').append(getName());
+        for (int i = 0; i < length; i++) {
+            sb.append(' ').append(names[i]).append("=\"");
+            String value = values[i];
+            int len = value.length();
+            int start = 0;
+            for (int j = 0; j < len; j++) {
+                char c = value.charAt(j);
+                if (c == '&' || c == '"') {
+                    sb.append(value, start, j);
+                    sb.append(c == '&' ? "&amp;" : "&quot;");
+                    start = j + 1;
+                }
+            }
+            sb.append(value, start, len).append('"');
+        }
+        sb.append(selfClosing ? "/>" : ">");
+    }
+
+    private void copyAttributes() {
+        if (length != -1) {
+            return;
+        }
+        int len = attributes.getLength();
+        if (names.length < len) {
+            names = new String[len + 8];
+            values = new String[len + 8];
+        }
+        for (int i = 0; i < len; i++) {
+            names[i] = attributes.getQNameNoBoundsCheck(i);
+            values[i] = attributes.getValueNoBoundsCheck(i);
+        }
+        length = len;
+    }
+
+    private int indexOf(String name) {
+        for (int i = 0; i < length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,543 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.sax;
+
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+import nu.validator.htmlparser.common.DocumentMode;
+import nu.validator.htmlparser.common.DocumentModeHandler;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.ext.Locator2;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Passes the events of a parse on to the real handlers and encodes them 
+ * into a compact binary log that <code>EventReplayer</code> can play back.
+ * 
+ * <p>The log starts with a header of four big-endian <code>int</code>s: 
+ * the magic number, the version, the length of the rest of the log and its 
+ * CRC-32, so that a truncated or corrupted log can be rejected before any 
+ * of it is replayed.
+ * 
+ * <p>Each event is an opcode followed by the line and column of the event 
+ * and the operands. Setting the locator and changes of the encoding 
+ * reported by it are recorded as opcodes of their own. Numbers are variable-length. Names, types and the other 
+ * short strings go through a table: the first occurrence is written out 
+ * and later ones are table indexes. Text is written as a UTF-16 code unit 
+ * count followed by the code units in the modified UTF-8 of 
+ * <code>DataOutput</code>, which keeps lone surrogates intact.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+final class EventRecorder implements ContentHandler, LexicalHandler,
+        ErrorHandler, DocumentModeHandler {
+
+    /**
+     * The first four bytes of a log.
+     */
+    static final int MAGIC = 0x48545345; // "HTSE"
+
+    static final int VERSION = 2;
+
+    /**
+     * The length of the header in bytes.
+     */
+    static final int HEADER_LENGTH = 16;
+
+    static final int END = 0;
+
+    static final int START_DOCUMENT = 1;
+
+    static final int END_DOCUMENT = 2;
+
+    static final int START_PREFIX_MAPPING = 3;
+
+    static final int END_PREFIX_MAPPING = 4;
+
+    static final int START_ELEMENT = 5;
+
+    static final int END_ELEMENT = 6;
+
+    static final int CHARACTERS = 7;
+
+    static final int IGNORABLE_WHITESPACE = 8;
+
+    static final int PROCESSING_INSTRUCTION = 9;
+
+    static final int SKIPPED_ENTITY = 10;
+
+    static final int START_DTD = 11;
+
+    static final int END_DTD = 12;
+
+    static final int START_ENTITY = 13;
+
+    static final int END_ENTITY = 14;
+
+    static final int START_CDATA = 15;
+
+    static final int END_CDATA = 16;
+
+    static final int COMMENT = 17;
+
+    static final int WARNING = 18;
+
+    static final int ERROR = 19;
+
+    static final int DOCUMENT_MODE = 20;
+
+    static final int ENCODING = 21;
+
+    static final int DOCUMENT_LOCATOR = 22;
+
+    private final ContentHandler contentHandler;
+
+    private final LexicalHandler lexicalHandler;
+
+    private final ErrorHandler errorHandler;
+
+    private final DocumentModeHandler documentModeHandler;
+
+    private final HashMap<String, Integer> strings = new HashMap<String, Integer>();
+
+    private byte[] buf = new byte[4096];
+
+    private int length = 0;
+
+    private Locator locator = null;
+
+    private String encoding = null;
+
+    private boolean complete = true;
+
+    /**
+     * The constructor.
+     * 
+     * @param contentHandler
+     *            the content handler to pass events to or <code>null</code>
+     * @param lexicalHandler
+     *            the lexical handler to pass events to or <code>null</code> 
+     *            if the recorder is not installed as one
+     * @param errorHandler
+     *            the error handler to pass errors to or <code>null</code> 
+     *            if the recorder is not installed as one
+     * @param documentModeHandler
+     *            the document mode handler to pass the mode to or 
+     *            <code>null</code>
+     */
+    EventRecorder(ContentHandler contentHandler,
+            LexicalHandler lexicalHandler, ErrorHandler errorHandler,
+            DocumentModeHandler documentModeHandler) {
+        this.contentHandler = contentHandler == null ? new DefaultHandler()
+                : contentHandler;
+        this.lexicalHandler = lexicalHandler;
+        this.errorHandler = errorHandler;
+        this.documentModeHandler = documentModeHandler;
+        writeInt(MAGIC);
+        writeInt(VERSION);
+        writeInt(0); // payload length, filled in by toByteArray()
+        writeInt(0); // payload CRC-32, filled in by toByteArray()
+    }
+
+    /**
+     * Returns the log or <code>null</code> if the parse did not complete 
+     * normally.
+     * 
+     * @return the log
+     */
+    byte[] toByteArray() {
+        if (!complete) {
+            return null;
+        }
+        write(END);
+        byte[] rv = new byte[length];
+        System.arraycopy(buf, 0, rv, 0, length);
+        int payloadLength = length - HEADER_LENGTH;
+        putInt(rv, 8, payloadLength);
+        putInt(rv, 12, checksum(rv, HEADER_LENGTH, payloadLength));
+        return rv;
+    }
+
+    /**
+     * Computes the CRC-32 of part of a log.
+     * 
+     * @param b
+     *            the log
+     * @param offset
+     *            the start of the part
+     * @param len
+     *            the length of the part
+     * @return the CRC-32
+     */
+    static int checksum(byte[] b, int offset, int len) {
+        CRC32 crc = new CRC32();
+        crc.update(b, offset, len);
+        return (int) crc.getValue();
+    }
+
+    private static void putInt(byte[] b, int i, int v) {
+        b[i] = (byte) (v >>> 24);
+        b[i + 1] = (byte) (v >>> 16);
+        b[i + 2] = (byte) (v >>> 8);
+        b[i + 3] = (byte) v;
+    }
+
+    private void ensureCapacity(int more) {
+        if (length + more > buf.length) {
+            byte[] newBuf = new byte[Math.max(buf.length << 1, length + more)];
+            System.arraycopy(buf, 0, newBuf, 0, length);
+            buf = newBuf;
+        }
+    }
+
+    private void write(int b) {
+        ensureCapacity(1);
+        buf[length++] = (byte) b;
+    }
+
+    private void writeInt(int i) {
+        ensureCapacity(4);
+        buf[length++] = (byte) (i >>> 24);
+        buf[length++] = (byte) (i >>> 16);
+        buf[length++] = (byte) (i >>> 8);
+        buf[length++] = (byte) i;
+    }
+
+    private void writeNumber(int n) {
+        ensureCapacity(5);
+        while ((n & ~0x7F) != 0) {
+            buf[length++] = (byte) ((n & 0x7F) | 0x80);
+            n >>>= 7;
+        }
+        buf[length++] = (byte) n;
+    }
+
+    private void writeText(char[] ch, int start, int len) {
+        writeNumber(len);
+        ensureCapacity(len * 3);
+        for (int i = start; i < start + len; i++) {
+            char c = ch[i];
+            if (c != 0 && c < 0x80) {
+                buf[length++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[length++] = (byte) (0xC0 | (c >> 6));
+                buf[length++] = (byte) (0x80 | (c & 0x3F));
+            } else {
+                buf[length++] = (byte) (0xE0 | (c >> 12));
+                buf[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[length++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private void writeText(String str) {
+        writeText(str.toCharArray(), 0, str.length());
+    }
+
+    /**
+     * Writes a string through the table. 0 stands for <code>null</code>; 
+     * an index one past the end of the table is followed by a new string.
+     */
+    private void writeString(String str) {
+        if (str == null) {
+            writeNumber(0);
+            return;
+        }
+        Integer index = strings.get(str);
+        if (index != null) {
+            writeNumber(index.intValue());
+            return;
+        }
+        int newIndex = strings.size() + 1;
+        strings.put(str, Integer.valueOf(newIndex));
+        writeNumber(newIndex);
+        writeText(str);
+    }
+
+    /**
+     * Starts a record with the position of the locator.
+     */
+    private void startRecord(int opcode) {
+        if (locator instanceof Locator2) {
+            String enc = ((Locator2) locator).getEncoding();
+            if (enc == null ? encoding != null : !enc.equals(encoding)) {
+                encoding = enc;
+                write(ENCODING);
+                writeString(enc);
+            }
+        }
+        write(opcode);
+        if (locator == null) {
+            writeNumber(0);
+            writeNumber(0);
+        } else {
+            writeNumber(locator.getLineNumber() + 1);
+            writeNumber(locator.getColumnNumber() + 1);
+        }
+    }
+
+    /**
+     * @see org.xml.sax.ContentHandler#setDocumentLocator(org.xml.sax.Locator)
+     */
+    public void setDocumentLocator(Locator locator) {
+        this.locator = locator;
+        write(DOCUMENT_LOCATOR);
+        contentHandler.setDocumentLocator(locator);
+    }
+
+    /**
+     * @see org.xml.sax.ContentHandler#startDocument()
+     */
+    public void startDocument() throws SAXException {
+        startRecord(START_DOCUMENT);
+        contentHandler.startDocument();
+    }
+
+    /**
+     * @see org.xml.sax.ContentHandler#endDocument()
+     */
+    public void endDocument() throws SAXException {
+        startRecord(END_DOCUMENT);
+        contentHandler.endDocument();
+    }
+
+    /**
+     * @see org.xml.sax.ContentHandler#startPrefixMapping(java.lang.String,
+     *      java.lang.String)
+     */
+    public void startPrefixMapping(String prefix, String uri)
+            throws SAXException {
+        startRecord(START_PREFIX_MAPPING);
+        writeString(prefix);
+        writeString(uri);
+        contentHandler.startPrefixMapping(prefix, uri);
+    }
+
+    /**
+     * @see org.xml.sax.ContentHandler#endPrefixMapping(java.lang.String)
+     */
+    public void endPrefixMapping(String prefix) throws SAXException {
+        startRecord(END_PREFIX_MAPPING);
+        writeString(prefix);
+        contentHandler.endPrefixMapping(prefix);
+    }
+
+    /**
+     * @see org.xml.sax.ContentHandler#startElement(java.lang.String,
+     *      java.lang.String, java.lang.String, org.xml.sax.Attributes)
+     */
+    public void startElement(String uri, String localName, String qName,
+            Attributes atts) throws SAXException {
+        startRecord(START_ELEMENT);
+        writeString(uri);
+        writeString(localName);
+        writeString(qName);
+        int len = atts.getLength();
+        writeNumber(len);
+        for (int i = 0; i < len; i++) {
+            writeString(atts.getURI(i));
+            writeString(atts.getLocalName(i));
+            writeString(atts.getQName(i));
+            writeString(atts.getType(i));
+            writeText(atts.getValue(i));
+        }
+        contentHandler.startElement(uri, localName, qName, atts);
+    }
+
+    /**
+     * @see org.xml.sax.ContentHandler#endElement(java.lang.String,
+     *      java.lang.String, java.lang.String)
+     */
+    public void endElement(String uri, String localName, String qName)
+            throws SAXException {
+        startRecord(END_ELEMENT);
+        writeString(uri);
+        writeString(localName);
+        writeString(qName);
+        contentHandler.endElement(uri, localName, qName);
+    }
+
+    /**
+     * @see org.xml.sax.ContentHandler#characters(char[], int, int)
+     */
+    public void characters(char[] ch, int start, int len) throws SAXException {
+        startRecord(CHARACTERS);
+        writeText(ch, start, len);
+        contentHandler.characters(ch, start, len);
+    }
+
+    /**
+     * @see org.xml.sax.ContentHandler#ignorableWhitespace(char[], int, int)
+     */
+    public void ignorableWhitespace(char[] ch, int start, int len)
+            throws SAXException {
+        startRecord(IGNORABLE_WHITESPACE);
+        writeText(ch, start, len);
+        contentHandler.ignorableWhitespace(ch, start, len);
+    }
+
+    /**
+     * @see org.xml.sax.ContentHandler#processingInstruction(java.lang.String,
+     *      java.lang.String)
+     */
+    public void processingInstruction(String target, String data)
+            throws SAXException {
+        startRecord(PROCESSING_INSTRUCTION);
+        writeString(target);
+        writeText(data);
+        contentHandler.processingInstruction(target, data);
+    }
+
+    /**
+     * @see org.xml.sax.ContentHandler#skippedEntity(java.lang.String)
+     */
+    public void skippedEntity(String name) throws SAXException {
+        startRecord(SKIPPED_ENTITY);
+        writeString(name);
+        contentHandler.skippedEntity(name);
+    }
+
+    /**
+     * @see org.xml.sax.ext.LexicalHandler#startDTD(java.lang.String,
+     *      java.lang.String, java.lang.String)
+     */
+    public void startDTD(String name, String publicId, String systemId)
+            throws SAXException {
+        startRecord(START_DTD);
+        writeString(name);
+        writeString(publicId);
+        writeString(systemId);
+        lexicalHandler.startDTD(name, publicId, systemId);
+    }
+
+    /**
+     * @see org.xml.sax.ext.LexicalHandler#endDTD()
+     */
+    public void endDTD() throws SAXException {
+        startRecord(END_DTD);
+        lexicalHandler.endDTD();
+    }
+
+    /**
+     * @see org.xml.sax.ext.LexicalHandler#startEntity(java.lang.String)
+     */
+    public void startEntity(String name) throws SAXException {
+        startRecord(START_ENTITY);
+        writeString(name);
+        lexicalHandler.startEntity(name);
+    }
+
+    /**
+     * @see org.xml.sax.ext.LexicalHandler#endEntity(java.lang.String)
+     */
+    public void endEntity(String name) throws SAXException {
+        startRecord(END_ENTITY);
+        writeString(name);
+        lexicalHandler.endEntity(name);
+    }
+
+    /**
+     * @see org.xml.sax.ext.LexicalHandler#startCDATA()
+     */
+    public void startCDATA() throws SAXException {
+        startRecord(START_CDATA);
+        lexicalHandler.startCDATA();
+    }
+
+    /**
+     * @see org.xml.sax.ext.LexicalHandler#endCDATA()
+     */
+    public void endCDATA() throws SAXException {
+        startRecord(END_CDATA);
+        lexicalHandler.endCDATA();
+    }
+
+    /**
+     * @see org.xml.sax.ext.LexicalHandler#comment(char[], int, int)
+     */
+    public void comment(char[] ch, int start, int len) throws SAXException {
+        startRecord(COMMENT);
+        writeText(ch, start, len);
+        lexicalHandler.comment(ch, start, len);
+    }
+
+    private void recordException(int opcode, SAXParseException exception) {
+        write(opcode);
+        writeNumber(exception.getLineNumber() + 1);
+        writeNumber(exception.getColumnNumber() + 1);
+        String message = exception.getMessage();
+        writeText(message == null ? "" : message);
+    }
+
+    /**
+     * @see org.xml.sax.ErrorHandler#warning(org.xml.sax.SAXParseException)
+     */
+    public void warning(SAXParseException exception) throws SAXException {
+        recordException(WARNING, exception);
+        errorHandler.warning(exception);
+    }
+
+    /**
+     * @see org.xml.sax.ErrorHandler#error(org.xml.sax.SAXParseException)
+     */
+    public void error(SAXParseException exception) throws SAXException {
+        recordException(ERROR, exception);
+        errorHandler.error(exception);
+    }
+
+    /**
+     * Fatal errors end the parse with an exception, so a log with one is 
+     * never complete.
+     * 
+     * @see org.xml.sax.ErrorHandler#fatalError(org.xml.sax.SAXParseException)
+     */
+    public void fatalError(SAXParseException exception) throws SAXException {
+        complete = false;
+        errorHandler.fatalError(exception);
+    }
+
+    /**
+     * @see nu.validator.htmlparser.common.DocumentModeHandler#documentMode(nu.validator.htmlparser.common.DocumentMode,
+     *      java.lang.String, java.lang.String)
+     */
+    public void documentMode(DocumentMode mode, String publicIdentifier,
+            String systemIdentifier) throws SAXException {
+        startRecord(DOCUMENT_MODE);
+        writeNumber(mode.ordinal());
+        writeString(publicIdentifier);
+        writeString(systemIdentifier);
+        if (documentModeHandler != null) {
+            documentModeHandler.documentMode(mode, publicIdentifier,
+                    systemIdentifier);
+        }
+    }
+}
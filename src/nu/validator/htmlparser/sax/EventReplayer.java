@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.sax;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nu.validator.htmlparser.common.DocumentMode;
+import nu.validator.htmlparser.common.DocumentModeHandler;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.ext.Locator2;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Plays back a log written by <code>EventRecorder</code>. The replayer is 
+ * the locator of the replayed events. It reports the recorded positions and 
+ * encoding with the ids of the input source being parsed.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+final class EventReplayer implements Locator2 {
+
+    private static final DocumentMode[] MODES = DocumentMode.values();
+
+    private final byte[] buf;
+
+    private int pos = 0;
+
+    private final List<String> strings = new ArrayList<String>();
+
+    private final String publicId;
+
+    private final String systemId;
+
+    private int line = -1;
+
+    private int column = -1;
+
+    private String encoding = null;
+
+    /**
+     * The constructor.
+     * 
+     * @param log
+     *            the log
+     * @param publicId
+     *            the public id to report
+     * @param systemId
+     *            the system id to report
+     */
+    EventReplayer(byte[] log, String publicId, String systemId) {
+        this.buf = log;
+        this.publicId = publicId;
+        this.systemId = systemId;
+    }
+
+    /**
+     * Checks that a log starts with the right header and that the rest of 
+     * it has the length and checksum recorded in the header.
+     * 
+     * @param log
+     *            the log
+     * @return <code>true</code> if the log can be replayed
+     */
+    static boolean isValid(byte[] log) {
+        int payloadLength = log.length - EventRecorder.HEADER_LENGTH;
+        return payloadLength > 0 && readInt(log, 0) == EventRecorder.MAGIC
+                && readInt(log, 4) == EventRecorder.VERSION
+                && readInt(log, 8) == payloadLength
+                && readInt(log, 12) == EventRecorder.checksum(log,
+                        EventRecorder.HEADER_LENGTH, payloadLength);
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return ((b[i] & 0xFF) << 24) | ((b[i + 1] & 0xFF) << 16)
+                | ((b[i + 2] & 0xFF) << 8) | (b[i + 3] & 0xFF);
+    }
+
+    private int readNumber() {
+        int n = 0;
+        int shift = 0;
+        for (;;) {
+            int b = buf[pos++];
+            n |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return n;
+            }
+            shift += 7;
+        }
+    }
+
+    private char[] readChars() {
+        int len = readNumber();
+        char[] ch = new char[len];
+        for (int i = 0; i < len; i++) {
+            int b = buf[pos++] & 0xFF;
+            if (b < 0x80) {
+                ch[i] = (char) b;
+            } else if (b < 0xE0) {
+                ch[i] = (char) (((b & 0x1F) << 6) | (buf[pos++] & 0x3F));
+            } else {
+                int b1 = buf[pos++] & 0x3F;
+                ch[i] = (char) (((b & 0x0F) << 12) | (b1 << 6) | (buf[pos++] & 0x3F));
+            }
+        }
+        return ch;
+    }
+
+    private String readText() {
+        return new String(readChars());
+    }
+
+    private String readString() {
+        int index = readNumber();
+        if (index == 0) {
+            return null;
+        }
+        if (index > strings.size()) {
+            strings.add(readText().intern());
+        }
+        return strings.get(index - 1);
+    }
+
+    private void readPosition() {
+        line = readNumber() - 1;
+        column = readNumber() - 1;
+    }
+
+    private SAXParseException readException() {
+        readPosition();
+        return new SAXParseException(readText(), publicId, systemId, line,
+                column);
+    }
+
+    /**
+     * Replays the log. The handlers may be <code>null</code>.
+     * 
+     * @param contentHandler
+     *            the content handler
+     * @param lexicalHandler
+     *            the lexical handler
+     * @param errorHandler
+     *            the error handler
+     * @param documentModeHandler
+     *            the document mode handler
+     * @throws SAXException
+     *             if a handler throws
+     */
+    void replay(ContentHandler contentHandler, LexicalHandler lexicalHandler,
+            ErrorHandler errorHandler, DocumentModeHandler documentModeHandler)
+            throws SAXException {
+        pos = EventRecorder.HEADER_LENGTH;
+        AttributesImpl attributes = new AttributesImpl();
+        if (contentHandler == null) {
+            contentHandler = new DefaultHandler();
+        }
+        for (;;) {
+            int opcode = buf[pos++];
+            switch (opcode) {
+                case EventRecorder.END:
+                    return;
+                case EventRecorder.DOCUMENT_LOCATOR:
+                    contentHandler.setDocumentLocator(this);
+                    break;
+                case EventRecorder.ENCODING:
+                    encoding = readString();
+                    break;
+                case EventRecorder.WARNING: {
+                    SAXParseException e = readException();
+                    if (errorHandler != null) {
+                        errorHandler.warning(e);
+                    }
+                    break;
+                }
+                case EventRecorder.ERROR: {
+                    SAXParseException e = readException();
+                    if (errorHandler != null) {
+                        errorHandler.error(e);
+                    }
+                    break;
+                }
+                default:
+                    readPosition();
+                    replayEvent(opcode, attributes, contentHandler,
+                            lexicalHandler, documentModeHandler);
+                    break;
+            }
+        }
+    }
+
+    private void replayEvent(int opcode, AttributesImpl attributes,
+            ContentHandler contentHandler, LexicalHandler lexicalHandler,
+            DocumentModeHandler documentModeHandler) throws SAXException {
+        // Lexical events are only recorded with a lexical handler and the 
+        // parse cache key includes whether there is one.
+        switch (opcode) {
+            case EventRecorder.START_DOCUMENT:
+                contentHandler.startDocument();
+                break;
+            case EventRecorder.END_DOCUMENT:
+                contentHandler.endDocument();
+                break;
+            case EventRecorder.START_PREFIX_MAPPING: {
+                String prefix = readString();
+                contentHandler.startPrefixMapping(prefix, readString());
+                break;
+            }
+            case EventRecorder.END_PREFIX_MAPPING:
+                contentHandler.endPrefixMapping(readString());
+                break;
+            case EventRecorder.START_ELEMENT: {
+                String uri = readString();
+                String localName = readString();
+                String qName = readString();
+                attributes.clear();
+                int len = readNumber();
+                for (int i = 0; i < len; i++) {
+                    String attUri = readString();
+                    String attLocalName = readString();
+                    String attQName = readString();
+                    String type = readString();
+                    attributes.addAttribute(attUri, attLocalName, attQName,
+                            type, readText());
+                }
+                contentHandler.startElement(uri, localName, qName, attributes);
+                break;
+            }
+            case EventRecorder.END_ELEMENT: {
+                String uri = readString();
+                String localName = readString();
+                contentHandler.endElement(uri, localName, readString());
+                break;
+            }
+            case EventRecorder.CHARACTERS: {
+                char[] ch = readChars();
+                contentHandler.characters(ch, 0, ch.length);
+                break;
+            }
+            case EventRecorder.IGNORABLE_WHITESPACE: {
+                char[] ch = readChars();
+                contentHandler.ignorableWhitespace(ch, 0, ch.length);
+                break;
+            }
+            case EventRecorder.PROCESSING_INSTRUCTION: {
+                String target = readString();
+                contentHandler.processingInstruction(target, readText());
+                break;
+            }
+            case EventRecorder.SKIPPED_ENTITY:
+                contentHandler.skippedEntity(readString());
+                break;
+            case EventRecorder.START_DTD: {
+                String name = readString();
+                String dtdPublicId = readString();
+                lexicalHandler.startDTD(name, dtdPublicId, readString());
+                break;
+            }
+            case EventRecorder.END_DTD:
+                lexicalHandler.endDTD();
+                break;
+            case EventRecorder.START_ENTITY:
+                lexicalHandler.startEntity(readString());
+                break;
+            case EventRecorder.END_ENTITY:
+                lexicalHandler.endEntity(readString());
+                break;
+            case EventRecorder.START_CDATA:
+                lexicalHandler.startCDATA();
+                break;
+            case EventRecorder.END_CDATA:
+                lexicalHandler.endCDATA();
+                break;
+            case EventRecorder.COMMENT: {
+                char[] ch = readChars();
+                lexicalHandler.comment(ch, 0, ch.length);
+                break;
+            }
+            case EventRecorder.DOCUMENT_MODE: {
+                DocumentMode mode = MODES[readNumber()];
+                String modePublicId = readString();
+                String modeSystemId = readString();
+                if (documentModeHandler != null) {
+                    documentModeHandler.documentMode(mode, modePublicId,
+                            modeSystemId);
+                }
+                break;
+            }
+            default:
+                throw new IllegalStateException("Corrupt event log.");
+        }
+    }
+
+    /**
+     * @see org.xml.sax.Locator#getColumnNumber()
+     */
+    public int getColumnNumber() {
+        return column;
+    }
+
+    /**
+     * @see org.xml.sax.Locator#getLineNumber()
+     */
+    public int getLineNumber() {
+        return line;
+    }
+
+    /**
+     * @see org.xml.sax.Locator#getPublicId()
+     */
+    public String getPublicId() {
+        return publicId;
+    }
+
+    /**
+     * @see org.xml.sax.Locator#getSystemId()
+     */
+    public String getSystemId() {
+        return systemId;
+    }
+
+    /**
+     * @see org.xml.sax.ext.Locator2#getXMLVersion()
+     */
+    public String getXMLVersion() {
+        return "1.0";
+    }
+
+    /**
+     * @see org.xml.sax.ext.Locator2#getEncoding()
+     */
+    public String getEncoding() {
+        return encoding;
+    }
+}
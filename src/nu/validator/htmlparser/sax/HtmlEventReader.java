@@ -0,0 +1,799 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.sax;
+
+import java.io.IOException;
+
+import javax.xml.stream.XMLStreamConstants;
+
+import nu.validator.htmlparser.common.Heuristics;
+import nu.validator.htmlparser.common.ParserLimits;
+import nu.validator.htmlparser.common.ReusableParser;
+import nu.validator.htmlparser.common.XmlViolationPolicy;
+import nu.validator.htmlparser.impl.ErrorReportingTokenizer;
+import nu.validator.htmlparser.impl.Tokenizer;
+import nu.validator.htmlparser.io.Driver;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+
+/**
+ * A pull parser for HTML. Instead of pushing events to a handler, the
+ * caller asks for one tree construction event at a time with
+ * <code>next()</code>. The input is tokenized on demand on the calling
+ * thread: the tokenizer is suspended after each token that yields events
+ * and resumed once those events have been consumed. Therefore, stopping
+ * early by calling <code>close()</code> does not cost reading the rest of
+ * the input.
+ * 
+ * <p>The events are the same as the ones <code>HtmlParser</code> reports
+ * when buffering incrementally:
+ * the parts of the document that tree construction may still rearrange
+ * (e.g. the contents of an open table) are held back until they become
+ * final, and attributes from a late <code>html</code> or
+ * <code>body</code> start tag are dropped with a warning. The event type
+ * constants have the same values as the corresponding constants in
+ * <code>javax.xml.stream.XMLStreamConstants</code>.
+ * 
+ * <p>The accessors for the current event throw
+ * <code>IllegalStateException</code> when there is none, i.e. before
+ * <code>setInput()</code>, after <code>close()</code> or after an
+ * exception ended the document.
+ * 
+ * <p>By default, like <code>HtmlParser</code>, this reader treats XML 1.0
+ * infoset violations as fatal. Instances can be reused for parsing many
+ * documents but are not thread-safe.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+public class HtmlEventReader implements ReusableParser {
+
+    public static final int START_ELEMENT = XMLStreamConstants.START_ELEMENT;
+
+    public static final int END_ELEMENT = XMLStreamConstants.END_ELEMENT;
+
+    public static final int CHARACTERS = XMLStreamConstants.CHARACTERS;
+
+    public static final int COMMENT = XMLStreamConstants.COMMENT;
+
+    public static final int START_DOCUMENT = XMLStreamConstants.START_DOCUMENT;
+
+    public static final int END_DOCUMENT = XMLStreamConstants.END_DOCUMENT;
+
+    public static final int DTD = XMLStreamConstants.DTD;
+
+    /**
+     * A queued event. Instances are recycled.
+     */
+    private static final class Event {
+
+        int type;
+
+        String uri;
+
+        String localName;
+
+        Attributes attributes;
+
+        char[] buf;
+
+        int start;
+
+        int length;
+
+        String publicIdentifier;
+
+        String systemIdentifier;
+
+        int line;
+
+        int column;
+
+        void clear() {
+            uri = null;
+            localName = null;
+            attributes = null;
+            buf = null;
+            publicIdentifier = null;
+            systemIdentifier = null;
+        }
+    }
+
+    /**
+     * Turns the SAX events of the tree builder into queued events and
+     * suspends the tokenizer so that control returns to <code>next()</code>.
+     */
+    private final class Sink implements ContentHandler, LexicalHandler {
+
+        private Locator locator = null;
+
+        private Event add(int type) {
+            Event event = enqueue();
+            event.type = type;
+            if (locator == null) {
+                event.line = -1;
+                event.column = -1;
+            } else {
+                event.line = locator.getLineNumber();
+                event.column = locator.getColumnNumber();
+            }
+            tokenizer.requestSuspension();
+            return event;
+        }
+
+        public void setDocumentLocator(Locator locator) {
+            this.locator = locator;
+        }
+
+        public void startDocument() throws SAXException {
+            add(START_DOCUMENT);
+        }
+
+        public void endDocument() throws SAXException {
+            add(END_DOCUMENT);
+        }
+
+        public void startPrefixMapping(String prefix, String uri)
+                throws SAXException {
+        }
+
+        public void endPrefixMapping(String prefix) throws SAXException {
+        }
+
+        public void startElement(String uri, String localName, String qName,
+                Attributes atts) throws SAXException {
+            Event event = add(START_ELEMENT);
+            event.uri = uri;
+            event.localName = localName;
+            event.attributes = atts;
+        }
+
+        public void endElement(String uri, String localName, String qName)
+                throws SAXException {
+            Event event = add(END_ELEMENT);
+            event.uri = uri;
+            event.localName = localName;
+        }
+
+        /**
+         * The arrays come from tree nodes that have just been emitted and
+         * are not modified afterwards, so they are queued without copying.
+         * 
+         * @see org.xml.sax.ContentHandler#characters(char[], int, int)
+         */
+        public void characters(char[] ch, int start, int length)
+                throws SAXException {
+            Event event = add(CHARACTERS);
+            event.buf = ch;
+            event.start = start;
+            event.length = length;
+        }
+
+        public void ignorableWhitespace(char[] ch, int start, int length)
+                throws SAXException {
+            characters(ch, start, length);
+        }
+
+        public void processingInstruction(String target, String data)
+                throws SAXException {
+        }
+
+        public void skippedEntity(String name) throws SAXException {
+        }
+
+        public void comment(char[] ch, int start, int length)
+                throws SAXException {
+            Event event = add(COMMENT);
+            event.buf = ch;
+            event.start = start;
+            event.length = length;
+        }
+
+        public void startDTD(String name, String publicId, String systemId)
+                throws SAXException {
+            Event event = add(DTD);
+            event.localName = name;
+            event.publicIdentifier = publicId;
+            event.systemIdentifier = systemId;
+        }
+
+        public void endDTD() throws SAXException {
+        }
+
+        public void startEntity(String name) throws SAXException {
+        }
+
+        public void endEntity(String name) throws SAXException {
+        }
+
+        public void startCDATA() throws SAXException {
+        }
+
+        public void endCDATA() throws SAXException {
+        }
+    }
+
+    private Driver driver = null;
+
+    private Tokenizer tokenizer = null;
+
+    private SAXBufferingStreamer treeBuilder = null;
+
+    private final Sink sink = new Sink();
+
+    /**
+     * The queued events as a ring buffer.
+     */
+    private Event[] queue = new Event[16];
+
+    private int queueHead = 0;
+
+    private int queueLength = 0;
+
+    /**
+     * The event the reader is positioned at or <code>null</code> if there is
+     * no input.
+     */
+    private Event current = null;
+
+    /**
+     * Whether the tokenizer still has input to process.
+     */
+    private boolean tokenizing = false;
+
+    private ErrorHandler errorHandler = null;
+
+    private XmlViolationPolicy xmlPolicy;
+
+    private boolean scriptingEnabled = false;
+
+    private boolean reportingComments = true;
+
+    private boolean reportingDoctype = true;
+
+    private Heuristics heuristics = Heuristics.NONE;
+
+    private ParserLimits parserLimits = null;
+
+    private boolean keepingBuffers = false;
+
+    private int bufferHighWaterMark = -1;
+
+    private int bufferSize = 2048;
+
+    /**
+     * Instantiates the reader with a fatal XML violation policy.
+     */
+    public HtmlEventReader() {
+        this(XmlViolationPolicy.FATAL);
+    }
+
+    /**
+     * Instantiates the reader with a given XML violation policy.
+     * 
+     * @param xmlPolicy
+     *            the policy
+     */
+    public HtmlEventReader(XmlViolationPolicy xmlPolicy) {
+        this.xmlPolicy = xmlPolicy;
+    }
+
+    private void lazyInit() {
+        if (driver == null) {
+            this.treeBuilder = new SAXBufferingStreamer();
+            if (errorHandler == null
+                    && xmlPolicy == XmlViolationPolicy.ALLOW) {
+                this.tokenizer = new Tokenizer(treeBuilder, true);
+            } else {
+                this.tokenizer = new ErrorReportingTokenizer(treeBuilder, true);
+            }
+            this.driver = new Driver(tokenizer);
+            this.driver.setErrorHandler(errorHandler);
+            this.driver.setAllowRewinding(false);
+            this.driver.setCommentPolicy(xmlPolicy);
+            this.driver.setContentNonXmlCharPolicy(xmlPolicy);
+            this.driver.setContentSpacePolicy(xmlPolicy);
+            this.driver.setXmlnsPolicy(xmlPolicy == XmlViolationPolicy.FATAL ? XmlViolationPolicy.ALTER_INFOSET
+                    : xmlPolicy);
+            this.driver.setHeuristics(heuristics);
+            this.driver.setParserLimits(parserLimits);
+            this.driver.setKeepBuffer(keepingBuffers);
+            this.driver.setBufferHighWaterMark(bufferHighWaterMark);
+            this.treeBuilder.setErrorHandler(errorHandler);
+            this.treeBuilder.setIgnoringComments(!reportingComments);
+            this.treeBuilder.setScriptingEnabled(scriptingEnabled);
+            this.treeBuilder.setReportingDoctype(reportingDoctype);
+            this.treeBuilder.setNamePolicy(xmlPolicy);
+            this.treeBuilder.setParserLimits(parserLimits);
+            this.treeBuilder.setKeepBuffer(keepingBuffers);
+            this.treeBuilder.setBufferHighWaterMark(bufferHighWaterMark);
+            this.treeBuilder.setContentHandler(sink);
+            this.treeBuilder.setLexicalHandler(sink);
+        }
+    }
+
+    /**
+     * Starts reading a document. Any previous input is closed. Afterwards,
+     * the reader is positioned at the <code>START_DOCUMENT</code> event.
+     * 
+     * @param is
+     *            the input source
+     * @throws SAXException
+     *             on fatal error
+     * @throws IOException
+     *             if the stream threw
+     */
+    public void setInput(InputSource is) throws SAXException, IOException {
+        close();
+        lazyInit();
+        treeBuilder.setFragmentContext(null);
+        tokenizing = true;
+        try {
+            driver.startTokenization(is, bufferSize);
+        } catch (SAXException e) {
+            abort();
+            throw e;
+        } catch (IOException e) {
+            abort();
+            throw e;
+        } catch (RuntimeException e) {
+            abort();
+            throw e;
+        }
+        current = dequeue();
+    }
+
+    /**
+     * Tells whether there are events after the current one.
+     * 
+     * @return <code>true</code> unless positioned at the end of the document
+     *         or closed
+     */
+    public boolean hasNext() {
+        return current != null && current.type != END_DOCUMENT;
+    }
+
+    /**
+     * Advances to the next event, running the tokenizer if no events are
+     * queued.
+     * 
+     * @return the type of the next event
+     * @throws SAXException
+     *             on fatal error
+     * @throws IOException
+     *             if the stream threw
+     */
+    public int next() throws SAXException, IOException {
+        if (!hasNext()) {
+            throw new IllegalStateException("No more events.");
+        }
+        current.clear();
+        current = null;
+        try {
+            while (queueLength == 0 && tokenizing) {
+                if (!driver.tokenizeMore()) {
+                    tokenizing = false;
+                    driver.endTokenization();
+                }
+            }
+        } catch (SAXException e) {
+            abort();
+            throw e;
+        } catch (IOException e) {
+            abort();
+            throw e;
+        } catch (RuntimeException e) {
+            abort();
+            throw e;
+        }
+        current = dequeue();
+        return current.type;
+    }
+
+    /**
+     * Advances past the subtree of the current <code>START_ELEMENT</code>
+     * so that the reader is positioned at the matching
+     * <code>END_ELEMENT</code>. The skipped events are not materialized for
+     * the caller.
+     * 
+     * @throws SAXException
+     *             on fatal error
+     * @throws IOException
+     *             if the stream threw
+     */
+    public void skipElement() throws SAXException, IOException {
+        if (getEventType() != START_ELEMENT) {
+            throw new IllegalStateException("Not at a start tag.");
+        }
+        int depth = 1;
+        for (;;) {
+            switch (next()) {
+                case START_ELEMENT:
+                    depth++;
+                    break;
+                case END_ELEMENT:
+                    if (--depth == 0) {
+                        return;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Stops reading the current document and closes its input. Does nothing
+     * if there is no current document.
+     * 
+     * @throws SAXException
+     *             if the tree builder threw while ending
+     * @throws IOException
+     *             if closing the stream threw
+     */
+    public void close() throws SAXException, IOException {
+        if (tokenizing) {
+            tokenizing = false;
+            try {
+                driver.endTokenization();
+            } finally {
+                clearQueue();
+            }
+        }
+        clearQueue();
+    }
+
+    /**
+     * Returns the type of the current event.
+     * 
+     * @return the event type
+     */
+    public int getEventType() {
+        return currentEvent().type;
+    }
+
+    /**
+     * Returns the namespace URI of the current <code>START_ELEMENT</code>
+     * or <code>END_ELEMENT</code>.
+     * 
+     * @return the namespace URI
+     */
+    public String getNamespaceURI() {
+        return currentEvent().uri;
+    }
+
+    /**
+     * Returns the local name of the current <code>START_ELEMENT</code> or
+     * <code>END_ELEMENT</code> or the doctype name of a <code>DTD</code>.
+     * 
+     * @return the local name
+     */
+    public String getLocalName() {
+        return currentEvent().localName;
+    }
+
+    /**
+     * Returns the attributes of the current <code>START_ELEMENT</code>.
+     * 
+     * @return the attributes
+     */
+    public Attributes getAttributes() {
+        return currentEvent().attributes;
+    }
+
+    /**
+     * Returns the array holding the text of the current
+     * <code>CHARACTERS</code> or <code>COMMENT</code>. The array must not be
+     * modified.
+     * 
+     * @return the text array
+     */
+    public char[] getTextCharacters() {
+        return currentEvent().buf;
+    }
+
+    /**
+     * Returns the offset of the text in <code>getTextCharacters()</code>.
+     * 
+     * @return the offset
+     */
+    public int getTextStart() {
+        return currentEvent().start;
+    }
+
+    /**
+     * Returns the length of the text in <code>getTextCharacters()</code>.
+     * 
+     * @return the length
+     */
+    public int getTextLength() {
+        return currentEvent().length;
+    }
+
+    /**
+     * Returns the text of the current <code>CHARACTERS</code> or
+     * <code>COMMENT</code> as a string.
+     * 
+     * @return the text
+     */
+    public String getText() {
+        Event event = currentEvent();
+        return event.buf == null ? null : new String(event.buf, event.start,
+                event.length);
+    }
+
+    /**
+     * Returns the public identifier of the current <code>DTD</code>.
+     * 
+     * @return the public identifier
+     */
+    public String getPublicIdentifier() {
+        return currentEvent().publicIdentifier;
+    }
+
+    /**
+     * Returns the system identifier of the current <code>DTD</code>.
+     * 
+     * @return the system identifier
+     */
+    public String getSystemIdentifier() {
+        return currentEvent().systemIdentifier;
+    }
+
+    /**
+     * Returns the line of the source that the current event came from.
+     * 
+     * @return the line or -1 if unknown
+     */
+    public int getLineNumber() {
+        return currentEvent().line;
+    }
+
+    /**
+     * Returns the column of the source that the current event came from.
+     * 
+     * @return the column or -1 if unknown
+     */
+    public int getColumnNumber() {
+        return currentEvent().column;
+    }
+
+    private Event currentEvent() {
+        if (current == null) {
+            throw new IllegalStateException("No input.");
+        }
+        return current;
+    }
+
+    private Event enqueue() {
+        if (queueLength == queue.length) {
+            Event[] newQueue = new Event[queue.length << 1];
+            for (int i = 0; i < queueLength; i++) {
+                newQueue[i] = queue[(queueHead + i) % queue.length];
+            }
+            queue = newQueue;
+            queueHead = 0;
+        }
+        int idx = (queueHead + queueLength) % queue.length;
+        Event event = queue[idx];
+        if (event == null) {
+            event = new Event();
+            queue[idx] = event;
+        }
+        queueLength++;
+        return event;
+    }
+
+    private Event dequeue() {
+        Event event = queue[queueHead];
+        queueHead = (queueHead + 1) % queue.length;
+        queueLength--;
+        return event;
+    }
+
+    private void clearQueue() {
+        while (queueLength > 0) {
+            dequeue().clear();
+        }
+        if (current != null) {
+            current.clear();
+            current = null;
+        }
+        queueHead = 0;
+    }
+
+    /**
+     * Releases the input after a failure without masking the original
+     * exception.
+     */
+    private void abort() {
+        if (tokenizing) {
+            tokenizing = false;
+            try {
+                driver.endTokenization();
+            } catch (Exception e) {
+                // the original exception is more relevant
+            }
+        }
+        clearQueue();
+    }
+
+    /**
+     * Returns the error handler.
+     * 
+     * @return the error handler
+     */
+    public ErrorHandler getErrorHandler() {
+        return errorHandler;
+    }
+
+    /**
+     * Sets the error handler. Takes effect on the next document.
+     * 
+     * @param errorHandler
+     *            the error handler
+     */
+    public void setErrorHandler(ErrorHandler errorHandler) {
+        this.errorHandler = errorHandler;
+        driver = null;
+    }
+
+    /**
+     * Sets the policy for XML 1.0 infoset violations.
+     * 
+     * @param xmlPolicy
+     *            the policy
+     */
+    public void setXmlPolicy(XmlViolationPolicy xmlPolicy) {
+        this.xmlPolicy = xmlPolicy;
+        driver = null;
+    }
+
+    /**
+     * Sets whether scripting is considered enabled.
+     * 
+     * @param scriptingEnabled
+     *            <code>true</code> if enabled
+     */
+    public void setScriptingEnabled(boolean scriptingEnabled) {
+        this.scriptingEnabled = scriptingEnabled;
+        if (treeBuilder != null) {
+            treeBuilder.setScriptingEnabled(scriptingEnabled);
+        }
+    }
+
+    /**
+     * Sets whether <code>COMMENT</code> events are reported.
+     * 
+     * @param reportingComments
+     *            <code>true</code> to report comments
+     */
+    public void setReportingComments(boolean reportingComments) {
+        this.reportingComments = reportingComments;
+        if (treeBuilder != null) {
+            treeBuilder.setIgnoringComments(!reportingComments);
+        }
+    }
+
+    /**
+     * Sets whether the doctype is reported as a <code>DTD</code> event.
+     * 
+     * @param reportingDoctype
+     *            <code>true</code> to report the doctype
+     */
+    public void setReportingDoctype(boolean reportingDoctype) {
+        this.reportingDoctype = reportingDoctype;
+        if (treeBuilder != null) {
+            treeBuilder.setReportingDoctype(reportingDoctype);
+        }
+    }
+
+    /**
+     * Sets the encoding sniffing heuristics.
+     * 
+     * @param heuristics
+     *            the heuristics
+     */
+    public void setHeuristics(Heuristics heuristics) {
+        this.heuristics = heuristics;
+        if (driver != null) {
+            driver.setHeuristics(heuristics);
+        }
+    }
+
+    /**
+     * Sets resource limits for parsing untrusted input.
+     * 
+     * @param parserLimits
+     *            the limits or <code>null</code> for no limits
+     * @see nu.validator.htmlparser.common.ParserLimits
+     */
+    public void setParserLimits(ParserLimits parserLimits) {
+        this.parserLimits = parserLimits;
+        if (driver != null) {
+            driver.setParserLimits(parserLimits);
+            treeBuilder.setParserLimits(parserLimits);
+        }
+    }
+
+    /**
+     * Sets the size of the buffer the input is read into. Smaller buffers
+     * make the first event available sooner on slow streams.
+     * 
+     * @param bufferSize
+     *            the buffer size in UTF-16 code units
+     */
+    public void setBufferSize(int bufferSize) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Buffer size must be positive.");
+        }
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * @see nu.validator.htmlparser.common.ReusableParser#setKeepingBuffers(boolean)
+     */
+    public void setKeepingBuffers(boolean keepingBuffers) {
+        this.keepingBuffers = keepingBuffers;
+        if (driver != null) {
+            driver.setKeepBuffer(keepingBuffers);
+            treeBuilder.setKeepBuffer(keepingBuffers);
+        }
+    }
+
+    /**
+     * Closes the current document, if any.
+     * 
+     * @see nu.validator.htmlparser.common.ReusableParser#reset()
+     */
+    public void reset() {
+        abort();
+    }
+
+    /**
+     * @see nu.validator.htmlparser.common.ReusableParser#dropBuffersLongerThan(int)
+     */
+    public void dropBuffersLongerThan(int length) {
+        if (driver != null) {
+            driver.dropBufferIfLongerThan(length);
+            treeBuilder.dropBufferIfLongerThan(length);
+        }
+    }
+
+    /**
+     * @see nu.validator.htmlparser.common.ReusableParser#setBufferHighWaterMark(int)
+     */
+    public void setBufferHighWaterMark(int bufferHighWaterMark) {
+        this.bufferHighWaterMark = bufferHighWaterMark;
+        if (driver != null) {
+            driver.setBufferHighWaterMark(bufferHighWaterMark);
+            treeBuilder.setBufferHighWaterMark(bufferHighWaterMark);
+        }
+    }
+}
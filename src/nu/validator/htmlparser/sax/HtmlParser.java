@@ -28,11 +28,15 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.TreeMap;
 import java.util.HashMap;
 
 import nu.validator.htmlparser.common.CharacterHandler;
 import nu.validator.htmlparser.common.DocumentModeHandler;
 import nu.validator.htmlparser.common.Heuristics;
+import nu.validator.htmlparser.common.ReusableParser;
+import nu.validator.htmlparser.common.ParserLimits;
+import nu.validator.htmlparser.common.StopCondition;
 import nu.validator.htmlparser.common.TokenHandler;
 import nu.validator.htmlparser.common.TransitionHandler;
 import nu.validator.htmlparser.common.XmlViolationPolicy;
@@ -74,7 +78,13 @@ import org.xml.sax.helpers.DefaultHandler;
  * first. The parser can be made truly streaming by calling 
  * <code>setStreamabilityViolationPolicy(XmlViolationPolicy.FATAL)</code>. This 
  * has the consequence that errors that require non-streamable recovery are 
- * treated as fatal.
+ * treated as fatal. Alternatively, calling 
+ * <code>setBufferingIncrementally(true)</code> makes the parser emit each 
+ * part of the document as soon as tree construction can no longer change 
+ * it, buffering only the unstable region (e.g. an open table). In that 
+ * mode, attributes from a late <code>html</code> or <code>body</code> start 
+ * tag are dropped with a warning if the start tag of the element has 
+ * already been emitted.
  * 
  * <p>By default, in order to make the parse events emulate the parse events 
  * for a DTDless XML document, the parser does not report the doctype through 
@@ -85,7 +95,7 @@ import org.xml.sax.helpers.DefaultHandler;
  * @version $Id$
  * @author hsivonen
  */
-public class HtmlParser implements XMLReader {
+public class HtmlParser implements XMLReader, ReusableParser {
 
     private Driver driver = null;
 
@@ -95,6 +105,8 @@ public class HtmlParser implements XMLReader {
 
     private SAXTreeBuilder saxTreeBuilder = null; // work around javac bug
 
+    private SAXBufferingStreamer saxBufferingStreamer = null; // work around javac bug
+
     private ContentHandler contentHandler = null;
 
     private LexicalHandler lexicalHandler = null;
@@ -122,6 +134,8 @@ public class HtmlParser implements XMLReader {
     private XmlViolationPolicy namePolicy = XmlViolationPolicy.FATAL;
 
     private XmlViolationPolicy streamabilityViolationPolicy = XmlViolationPolicy.ALLOW;
+
+    private boolean bufferingIncrementally = false;
     
     private boolean mappingLangToXmlLang = false;
 
@@ -129,6 +143,10 @@ public class HtmlParser implements XMLReader {
     
     private boolean reportingDoctype = true;
 
+    private boolean retainingLocations = true;
+
+    private boolean packingText = false;
+
     private ErrorHandler treeBuilderErrorHandler = null;
 
     private Heuristics heuristics = Heuristics.NONE;
@@ -136,6 +154,18 @@ public class HtmlParser implements XMLReader {
     private HashMap<String, String> errorProfileMap = null;
 
     private TransitionHandler transitionHandler = null;
+
+    private StopCondition stopCondition = null;
+
+    private ParserLimits parserLimits = null;
+
+    private boolean keepingBuffers = false;
+
+    private int bufferHighWaterMark = -1;
+
+    private int maxDepth = 513;
+
+    private XmlViolationPolicy deepTreePolicy = XmlViolationPolicy.ALTER_INFOSET;
     
     /**
      * Instantiates the parser with a fatal XML violation policy.
@@ -170,15 +200,24 @@ public class HtmlParser implements XMLReader {
      */
     private void lazyInit() {
         if (driver == null) {
-            if (streamabilityViolationPolicy == XmlViolationPolicy.ALLOW) {
+            if (bufferingIncrementally
+                    && streamabilityViolationPolicy != XmlViolationPolicy.FATAL) {
+                this.saxBufferingStreamer = new SAXBufferingStreamer();
+                this.saxTreeBuilder = this.saxBufferingStreamer;
+                this.treeBuilder = this.saxBufferingStreamer;
+                this.saxStreamer = null;
+                this.driver = new Driver(newTokenizer(treeBuilder, true));
+            } else if (streamabilityViolationPolicy == XmlViolationPolicy.ALLOW) {
                 this.saxTreeBuilder = new SAXTreeBuilder();
                 this.treeBuilder = this.saxTreeBuilder;
                 this.saxStreamer = null;
+                this.saxBufferingStreamer = null;
                 this.driver = new Driver(newTokenizer(treeBuilder, true));
             } else {
                 this.saxStreamer = new SAXStreamer();
                 this.treeBuilder = this.saxStreamer;
                 this.saxTreeBuilder = null;
+                this.saxBufferingStreamer = null;
                 this.driver = new Driver(newTokenizer(treeBuilder, false));
             }
             this.driver.setErrorHandler(errorHandler);
@@ -199,12 +238,31 @@ public class HtmlParser implements XMLReader {
             this.treeBuilder.setScriptingEnabled(scriptingEnabled);
             this.treeBuilder.setReportingDoctype(reportingDoctype);
             this.treeBuilder.setNamePolicy(namePolicy);
+            this.treeBuilder.setStopCondition(stopCondition);
+            this.treeBuilder.setParserLimits(parserLimits);
+            this.driver.setParserLimits(parserLimits);
+            this.driver.setKeepBuffer(keepingBuffers);
+            this.treeBuilder.setKeepBuffer(keepingBuffers);
+            this.driver.setBufferHighWaterMark(bufferHighWaterMark);
+            this.treeBuilder.setBufferHighWaterMark(bufferHighWaterMark);
+            this.treeBuilder.setMaxDepth(maxDepth);
+            this.treeBuilder.setDeepTreePolicy(deepTreePolicy);
+            if (saxTreeBuilder != null) {
+                saxTreeBuilder.setRetainingLocations(retainingLocations);
+                saxTreeBuilder.setPackingText(packingText);
+            }
             if (saxStreamer != null) {
                 saxStreamer.setContentHandler(contentHandler == null ? new DefaultHandler()
                         : contentHandler);
                 saxStreamer.setLexicalHandler(lexicalHandler);
                 driver.setAllowRewinding(false);
             }
+            if (saxBufferingStreamer != null) {
+                saxBufferingStreamer.setContentHandler(contentHandler == null ? new DefaultHandler()
+                        : contentHandler);
+                saxBufferingStreamer.setLexicalHandler(lexicalHandler);
+                driver.setAllowRewinding(false);
+            }
         }
     }
 
@@ -351,6 +409,10 @@ public class HtmlParser implements XMLReader {
      * <dd><code>getStreamabilityViolationPolicy</code></dd>
      * <dt><code>http://validator.nu/properties/document-mode-handler</code></dt>
      * <dd><code>getDocumentModeHandler</code></dd>
+     * <dt><code>http://validator.nu/properties/stop-condition</code></dt>
+     * <dd><code>getStopCondition</code></dd>
+     * <dt><code>http://validator.nu/properties/parser-limits</code></dt>
+     * <dd><code>getParserLimits</code></dd>
      * <dt><code>http://xml.org/sax/features/unicode-normalization-checking</code></dt>
      * </dl>
      * 
@@ -393,6 +455,10 @@ public class HtmlParser implements XMLReader {
                     "Cannot get a convenience setter.");
         } else if ("http://validator.nu/properties/heuristics".equals(name)) {
             return getHeuristics();
+        } else if ("http://validator.nu/properties/stop-condition".equals(name)) {
+            return getStopCondition();
+        } else if ("http://validator.nu/properties/parser-limits".equals(name)) {
+            return getParserLimits();
         } else {
             throw new SAXNotRecognizedException();
         }
@@ -515,6 +581,24 @@ public class HtmlParser implements XMLReader {
     }
     private void tokenize(InputSource is, int bufferSize) throws SAXException,
             IOException, MalformedURLException {
+        is = resolve(is);
+        if (bufferSize == -1) {
+            driver.tokenize(is);
+        } else {
+            driver.tokenize(is, bufferSize);
+        }
+    }
+
+    /**
+     * Opens the input if the input source only has a system id.
+     * 
+     * @param is
+     *            the input source
+     * @return an input source with a stream
+     * @throws SAXException
+     * @throws IOException
+     */
+    InputSource resolve(InputSource is) throws SAXException, IOException {
         if (is == null) {
             throw new IllegalArgumentException("Null input.");            
         }
@@ -532,10 +616,98 @@ public class HtmlParser implements XMLReader {
                 is.setByteStream(new URL(systemId).openStream());
             }
         }
-        if (bufferSize == -1) {
-            driver.tokenize(is);
-        } else {
-            driver.tokenize(is, bufferSize);
+        return is;
+    }
+
+    /**
+     * Returns a string that identifies the settings that affect the events 
+     * reported for an input, or <code>null</code> if the parser has 
+     * callbacks whose effects a <code>ParseCache</code> could not replay.
+     * 
+     * @param bufferSize
+     *            the buffer size the input would be parsed with
+     * @return the key or <code>null</code>
+     */
+    String getCacheKey(int bufferSize) {
+        if (transitionHandler != null || stopCondition != null
+                || !characterHandlers.isEmpty()
+                || treeBuilderErrorHandler != errorHandler) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(bufferSize).append(' ');
+        sb.append(contentHandler != null).append(' ');
+        sb.append(lexicalHandler != null).append(' ');
+        sb.append(errorHandler != null).append(' ');
+        sb.append(checkingNormalization).append(' ');
+        sb.append(scriptingEnabled).append(' ');
+        sb.append(contentSpacePolicy).append(' ');
+        sb.append(contentNonXmlCharPolicy).append(' ');
+        sb.append(commentPolicy).append(' ');
+        sb.append(namePolicy).append(' ');
+        sb.append(streamabilityViolationPolicy).append(' ');
+        sb.append(bufferingIncrementally).append(' ');
+        sb.append(mappingLangToXmlLang).append(' ');
+        sb.append(xmlnsPolicy).append(' ');
+        sb.append(reportingDoctype).append(' ');
+        sb.append(retainingLocations).append(' ');
+        sb.append(heuristics).append(' ');
+        sb.append(maxDepth).append(' ');
+        sb.append(deepTreePolicy).append(' ');
+        if (parserLimits != null) {
+            sb.append(parserLimits.getPolicy()).append(',');
+            sb.append(parserLimits.getMaxDocumentLength()).append(',');
+            sb.append(parserLimits.getMaxAttributesPerElement()).append(',');
+            sb.append(parserLimits.getMaxAttributeValueLength()).append(',');
+            sb.append(parserLimits.getMaxCommentLength()).append(',');
+            sb.append(parserLimits.getMaxTokenLength()).append(',');
+            sb.append(parserLimits.getMaxTextLength()).append(',');
+            sb.append(parserLimits.getMaxDepth()).append(',');
+            sb.append(parserLimits.isFailingFast());
+        }
+        sb.append(' ');
+        if (errorProfileMap != null) {
+            sb.append(new TreeMap<String, String>(errorProfileMap));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Replaces the handlers without discarding the tokenizer and the tree 
+     * builder. The lexical handler and the error handler must be 
+     * <code>null</code> exactly when the ones they replace are, since the 
+     * setup of the tokenizer and the tree builder depends on that.
+     * 
+     * @param ch
+     *            the content handler
+     * @param lh
+     *            the lexical handler
+     * @param eh
+     *            the error handler
+     * @param dmh
+     *            the document mode handler
+     */
+    void swapHandlers(ContentHandler ch, LexicalHandler lh, ErrorHandler eh,
+            DocumentModeHandler dmh) {
+        contentHandler = ch;
+        lexicalHandler = lh;
+        errorHandler = eh;
+        treeBuilderErrorHandler = eh;
+        documentModeHandler = dmh;
+        if (driver != null) {
+            driver.setErrorHandler(eh);
+            treeBuilder.setErrorHandler(eh);
+            treeBuilder.setDocumentModeHandler(dmh);
+            if (saxStreamer != null) {
+                saxStreamer.setContentHandler(ch == null ? new DefaultHandler()
+                        : ch);
+                saxStreamer.setLexicalHandler(lh);
+            }
+            if (saxBufferingStreamer != null) {
+                saxBufferingStreamer.setContentHandler(ch == null ? new DefaultHandler()
+                        : ch);
+                saxBufferingStreamer.setLexicalHandler(lh);
+            }
         }
     }
 
@@ -555,6 +727,10 @@ public class HtmlParser implements XMLReader {
             saxStreamer.setContentHandler(contentHandler == null ? new DefaultHandler()
                     : contentHandler);
         }
+        if (saxBufferingStreamer != null) {
+            saxBufferingStreamer.setContentHandler(contentHandler == null ? new DefaultHandler()
+                    : contentHandler);
+        }
     }
 
     /**
@@ -568,6 +744,9 @@ public class HtmlParser implements XMLReader {
             if (saxStreamer != null) {
                 saxStreamer.setLexicalHandler(handler);
             }
+            if (saxBufferingStreamer != null) {
+                saxBufferingStreamer.setLexicalHandler(handler);
+            }
         }
     }
 
@@ -720,6 +899,10 @@ public class HtmlParser implements XMLReader {
      * <dd><code>setDocumentModeHandler</code></dd>
      * <dt><code>http://validator.nu/properties/xml-policy</code></dt>
      * <dd><code>setXmlPolicy</code></dd>
+     * <dt><code>http://validator.nu/properties/stop-condition</code></dt>
+     * <dd><code>setStopCondition</code></dd>
+     * <dt><code>http://validator.nu/properties/parser-limits</code></dt>
+     * <dd><code>setParserLimits</code></dd>
      * </dl>
      * 
      * @see org.xml.sax.XMLReader#setProperty(java.lang.String,
@@ -757,6 +940,10 @@ public class HtmlParser implements XMLReader {
             setXmlPolicy((XmlViolationPolicy) value);
         } else if ("http://validator.nu/properties/heuristics".equals(name)) {
             setHeuristics((Heuristics) value);
+        } else if ("http://validator.nu/properties/stop-condition".equals(name)) {
+            setStopCondition((StopCondition) value);
+        } else if ("http://validator.nu/properties/parser-limits".equals(name)) {
+            setParserLimits((ParserLimits) value);
         } else {
             throw new SAXNotRecognizedException();
         }
@@ -870,7 +1057,11 @@ public class HtmlParser implements XMLReader {
     }
 
     /**
-     * Sets the streamabilityViolationPolicy.
+     * Sets the streamabilityViolationPolicy. <code>ALLOW</code> buffers the 
+     * whole document, <code>ALTER_INFOSET</code> and <code>FATAL</code> 
+     * stream and treat errors that require non-streamable recovery as 
+     * fatal. Unless the policy is <code>FATAL</code>, 
+     * <code>setBufferingIncrementally(true)</code> takes precedence.
      * 
      * @param streamabilityViolationPolicy
      *            the streamabilityViolationPolicy to set
@@ -881,6 +1072,37 @@ public class HtmlParser implements XMLReader {
         driver = null;
     }
 
+    /**
+     * Whether parts of the document are emitted as soon as tree 
+     * construction can no longer change them.
+     * 
+     * @return <code>true</code> if buffering incrementally
+     * @see #setBufferingIncrementally(boolean)
+     */
+    public boolean isBufferingIncrementally() {
+        return bufferingIncrementally;
+    }
+
+    /**
+     * Sets whether parts of the document are emitted as soon as tree 
+     * construction can no longer change them instead of after the whole 
+     * document has been buffered. Only the region that tree construction 
+     * may still rearrange (e.g. an open table) is held back. Unlike the 
+     * <code>FATAL</code> streamability violation policy, this recovers from 
+     * all errors, but attributes from a late <code>html</code> or 
+     * <code>body</code> start tag are dropped with a warning if the start 
+     * tag of the element has already been emitted. Has no effect when the 
+     * streamability violation policy is <code>FATAL</code>. Defaults to 
+     * <code>false</code>.
+     * 
+     * @param bufferingIncrementally
+     *            <code>true</code> to buffer incrementally
+     */
+    public void setBufferingIncrementally(boolean bufferingIncrementally) {
+        this.bufferingIncrementally = bufferingIncrementally;
+        driver = null;
+    }
+
     /**
      * Returns the <code>Locator</code> during parse.
      * @return the <code>Locator</code>
@@ -982,6 +1204,62 @@ public class HtmlParser implements XMLReader {
         }
     }
 
+    /**
+     * Sets whether the tree that is buffered when the streamability 
+     * violation policy is not <code>FATAL</code> records the source location 
+     * of each node. The nodes always share one record of the system id, 
+     * public id and encoding and pack the line and column into a 
+     * <code>long</code>; turning locations off saves that too, and the 
+     * locator then reports unknown positions for the buffered events. Errors 
+     * are reported with locations either way. Takes effect on the next 
+     * parse.
+     * 
+     * @param retainingLocations
+     *            <code>false</code> to not record locations in the buffer
+     */
+    public void setRetainingLocations(boolean retainingLocations) {
+        this.retainingLocations = retainingLocations;
+        if (saxTreeBuilder != null) {
+            saxTreeBuilder.setRetainingLocations(retainingLocations);
+        }
+    }
+
+    /**
+     * Returns the retainingLocations.
+     * 
+     * @return the retainingLocations
+     */
+    public boolean isRetainingLocations() {
+        return retainingLocations;
+    }
+
+    /**
+     * Sets whether the text and comments of the tree that is buffered when 
+     * the streamability violation policy is not <code>FATAL</code> are 
+     * copied into shared chunks of a <code>TextArena</code> instead of an 
+     * array per node. This saves an array header and padding per text node 
+     * and the buffered text is replayed straight from the chunks. Takes 
+     * effect on the next parse.
+     * 
+     * @param packingText
+     *            <code>true</code> to share text storage in the buffer
+     */
+    public void setPackingText(boolean packingText) {
+        this.packingText = packingText;
+        if (saxTreeBuilder != null) {
+            saxTreeBuilder.setPackingText(packingText);
+        }
+    }
+
+    /**
+     * Returns the packingText.
+     * 
+     * @return the packingText
+     */
+    public boolean isPackingText() {
+        return packingText;
+    }
+
     /**
      * Returns the reportingDoctype.
      * 
@@ -1029,6 +1307,243 @@ public class HtmlParser implements XMLReader {
         return this.heuristics;
     }
 
+    /**
+     * Returns the stop condition.
+     * 
+     * @return the stop condition or <code>null</code> if the whole input is parsed
+     */
+    public StopCondition getStopCondition() {
+        return stopCondition;
+    }
+
+    /**
+     * Sets a condition for ending the parse early. When the condition 
+     * matches a start tag, the parser stops reading input, closes the open 
+     * elements as at the end of the input and closes the input stream.
+     * 
+     * @param stopCondition the condition or <code>null</code> to parse the whole input
+     * @see nu.validator.htmlparser.common.StopCondition#BEFORE_BODY
+     * @see nu.validator.htmlparser.impl.TreeBuilder#setStopCondition(nu.validator.htmlparser.common.StopCondition)
+     */
+    public void setStopCondition(StopCondition stopCondition) {
+        this.stopCondition = stopCondition;
+        if (treeBuilder != null) {
+            treeBuilder.setStopCondition(stopCondition);
+        }
+    }
+
+    /**
+     * Returns the resource limits.
+     * 
+     * @return the limits or <code>null</code> if there are no limits
+     */
+    public ParserLimits getParserLimits() {
+        return parserLimits;
+    }
+
+    /**
+     * Sets resource limits for parsing untrusted input, such as the 
+     * maximum document length and the maximum number of attributes on an 
+     * element.
+     * 
+     * @param parserLimits the limits or <code>null</code> for no limits
+     * @see nu.validator.htmlparser.common.ParserLimits
+     */
+    public void setParserLimits(ParserLimits parserLimits) {
+        this.parserLimits = parserLimits;
+        if (driver != null) {
+            driver.setParserLimits(parserLimits);
+            treeBuilder.setParserLimits(parserLimits);
+        }
+    }
+
+    /**
+     * Returns whether buffers are kept between parses.
+     * 
+     * @return <code>true</code> if buffers are kept
+     */
+    public boolean isKeepingBuffers() {
+        return keepingBuffers;
+    }
+
+    /**
+     * Sets whether the buffers that have been grown while parsing a document 
+     * are kept for the next parse. Useful when the same instance parses 
+     * many documents.
+     * 
+     * @param keepingBuffers <code>true</code> to keep the buffers
+     * @see nu.validator.htmlparser.common.ReusableParser#setKeepingBuffers(boolean)
+     */
+    public void setKeepingBuffers(boolean keepingBuffers) {
+        this.keepingBuffers = keepingBuffers;
+        if (driver != null) {
+            driver.setKeepBuffer(keepingBuffers);
+            treeBuilder.setKeepBuffer(keepingBuffers);
+        }
+    }
+
+    /**
+     * Drops the references to the last parsed document. The configuration
+     * and the kept buffers are retained.
+     * 
+     * @see nu.validator.htmlparser.common.ReusableParser#reset()
+     */
+    public void reset() {
+        if (saxTreeBuilder != null) {
+            saxTreeBuilder.clearDocument();
+        }
+    }
+
+    /**
+     * Drops the kept buffers that have grown longer than the given length.
+     * 
+     * @param length the maximum length to keep
+     * @see nu.validator.htmlparser.common.ReusableParser#dropBuffersLongerThan(int)
+     */
+    public void dropBuffersLongerThan(int length) {
+        if (driver != null) {
+            driver.dropBufferIfLongerThan(length);
+            treeBuilder.dropBufferIfLongerThan(length);
+        }
+    }
+
+    /**
+     * Returns the length above which kept buffers are shrunk at the end of 
+     * each parse.
+     * 
+     * @return the length or -1 if kept buffers are never shrunk
+     */
+    public int getBufferHighWaterMark() {
+        return bufferHighWaterMark;
+    }
+
+    /**
+     * Sets the length above which kept buffers are shrunk at the end of 
+     * each parse. This bounds the memory an idle parser holds on to after 
+     * an unusually large document without giving up buffer reuse for 
+     * typical documents.
+     * 
+     * @param bufferHighWaterMark the length or -1 to never shrink
+     * @see nu.validator.htmlparser.common.ReusableParser#setBufferHighWaterMark(int)
+     */
+    public void setBufferHighWaterMark(int bufferHighWaterMark) {
+        this.bufferHighWaterMark = bufferHighWaterMark;
+        if (driver != null) {
+            driver.setBufferHighWaterMark(bufferHighWaterMark);
+            treeBuilder.setBufferHighWaterMark(bufferHighWaterMark);
+        }
+    }
+
+    /**
+     * Returns the largest length the tokenizer buffer has grown to.
+     * 
+     * @return the peak length or 0 if nothing has been parsed
+     */
+    public int getPeakTokenizerBufferLength() {
+        return driver == null ? 0 : driver.getPeakBufferLength();
+    }
+
+    /**
+     * Returns the largest length the tree builder character buffer has grown 
+     * to.
+     * 
+     * @return the peak length or 0 if nothing has been parsed
+     */
+    public int getPeakTreeBuilderBufferLength() {
+        return treeBuilder == null ? 0 : treeBuilder.getPeakBufferLength();
+    }
+
+    /**
+     * Returns how many times kept buffers have been shrunk due to the high 
+     * water mark.
+     * 
+     * @return the number of trims
+     */
+    public int getBufferTrimCount() {
+        return driver == null ? 0
+                : driver.getBufferTrimCount() + treeBuilder.getBufferTrimCount();
+    }
+
+    /**
+     * Returns the number of elements deep the tree may get before the deep 
+     * tree policy applies.
+     * 
+     * @return the maximum depth
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Sets the number of elements deep the tree may get before the deep 
+     * tree policy applies. The default is 513, which matches browsers. 
+     * Under the default policy this bounds the depth of the tree but not 
+     * the stack of open elements; see <code>setDeepTreePolicy()</code>.
+     * 
+     * @param maxDepth the maximum depth counting the root element
+     */
+    public void setMaxDepth(int maxDepth) {
+        if (maxDepth < 2) {
+            throw new IllegalArgumentException("The maximum depth must be at least 2.");
+        }
+        this.maxDepth = maxDepth;
+        if (treeBuilder != null) {
+            treeBuilder.setMaxDepth(maxDepth);
+        }
+    }
+
+    /**
+     * Returns the deep tree policy.
+     * 
+     * @return the deep tree policy
+     */
+    public XmlViolationPolicy getDeepTreePolicy() {
+        return deepTreePolicy;
+    }
+
+    /**
+     * Sets what happens to elements that would be deeper than the maximum 
+     * depth. <code>ALTER_INFOSET</code> (the default) inserts them as 
+     * siblings like browsers do, <code>FATAL</code> stops the parse with a 
+     * fatal error and <code>ALLOW</code> builds the tree as deep as the 
+     * markup says.
+     * 
+     * <p>Only <code>FATAL</code> bounds memory. <code>ALTER_INFOSET</code> 
+     * flattens the tree, but the parser's stack of open elements still 
+     * grows with the nesting of the markup. When memory is the concern, as 
+     * with untrusted input in a shared process, use <code>FATAL</code> or a 
+     * depth limit in failing <code>ParserLimits</code>.
+     * 
+     * @param deepTreePolicy the policy
+     */
+    public void setDeepTreePolicy(XmlViolationPolicy deepTreePolicy) {
+        this.deepTreePolicy = deepTreePolicy;
+        if (treeBuilder != null) {
+            treeBuilder.setDeepTreePolicy(deepTreePolicy);
+        }
+    }
+
+    /**
+     * Returns the greatest number of elements that were open at the same 
+     * time during the last parse.
+     * 
+     * @return the peak depth or 0 if nothing has been parsed
+     */
+    public int getPeakDepth() {
+        return treeBuilder == null ? 0 : treeBuilder.getPeakDepth();
+    }
+
+    /**
+     * Returns how many insertions were redirected to a shallower parent 
+     * during the last parse due to the maximum depth.
+     * 
+     * @return the number of flattened insertions
+     */
+    public int getFlattenedInsertionCount() {
+        return treeBuilder == null ? 0
+                : treeBuilder.getFlattenedInsertionCount();
+    }
+
     /**
      * This is a catch-all convenience method for setting name, xmlns, content space, 
      * content non-XML char and comment policies in one go. This does not affect the 
@@ -25,8 +25,6 @@ package nu.validator.htmlparser.sax;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.util.Arrays;
 
@@ -47,11 +45,7 @@ public class HtmlSerializer implements ContentHandler, LexicalHandler {
             "noframes", "noscript", "plaintext", "script", "style", "xmp" };
 
     private static Writer wrap(OutputStream out) {
-        try {
-            return new OutputStreamWriter(out, "UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e);
-        }
+        return new Utf8Writer(out, Utf8Writer.QUESTION_MARK);
     }
 
     private int ignoreLevel = 0;
@@ -74,25 +68,34 @@ public class HtmlSerializer implements ContentHandler, LexicalHandler {
             if (escapeLevel > 0) {
                 writer.write(ch, start, length);
             } else {
-                for (int i = start; i < start + length; i++) {
-                    char c = ch[i];
-                    switch (c) {
+                int end = start + length;
+                int runStart = start;
+                for (int i = start; i < end; i++) {
+                    String escape;
+                    switch (ch[i]) {
                         case '<':
-                            writer.write("&lt;");
+                            escape = "&lt;";
                             break;
                         case '>':
-                            writer.write("&gt;");
+                            escape = "&gt;";
                             break;
                         case '&':
-                            writer.write("&amp;");
+                            escape = "&amp;";
                             break;
                         case '\u00A0':
-                            writer.write("&nbsp;");
+                            escape = "&nbsp;";
                             break;
                         default:
-                            writer.write(c);
-                            break;
+                            continue;
+                    }
+                    if (i > runStart) {
+                        writer.write(ch, runStart, i - runStart);
                     }
+                    writer.write(escape);
+                    runStart = i + 1;
+                }
+                if (end > runStart) {
+                    writer.write(ch, runStart, end - runStart);
                 }
             }
         } catch (IOException e) {
@@ -187,22 +190,31 @@ public class HtmlSerializer implements ContentHandler, LexicalHandler {
                 writer.write('=');
                 writer.write('"');
                 String val = atts.getValue(i);
-                for (int j = 0; j < val.length(); j++) {
-                    char c = val.charAt(j);
-                    switch (c) {
+                int end = val.length();
+                int runStart = 0;
+                for (int j = 0; j < end; j++) {
+                    String escape;
+                    switch (val.charAt(j)) {
                         case '"':
-                            writer.write("&quot;");
+                            escape = "&quot;";
                             break;
                         case '&':
-                            writer.write("&amp;");
+                            escape = "&amp;";
                             break;
                         case '\u00A0':
-                            writer.write("&nbsp;");
+                            escape = "&nbsp;";
                             break;
                         default:
-                            writer.write(c);
-                            break;
+                            continue;
                     }
+                    if (j > runStart) {
+                        writer.write(val, runStart, j - runStart);
+                    }
+                    writer.write(escape);
+                    runStart = j + 1;
+                }
+                if (end > runStart) {
+                    writer.write(val, runStart, end - runStart);
                 }
                 writer.write('"');
             }
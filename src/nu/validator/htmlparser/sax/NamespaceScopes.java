@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.sax;
+
+/**
+ * The namespace bindings in scope during serialization, kept in parallel 
+ * arrays that are reused from element to element. The bindings declared 
+ * on an element are appended to the arrays and dropped when the element 
+ * ends, so opening and closing elements does not allocate once the arrays 
+ * have grown to the depth and the number of bindings of the document. 
+ * 
+ * <p>The bindings for the element about to be started are pending until 
+ * <code>push()</code>. Lookups scan from the innermost binding outwards. 
+ * Since HTML documents typically bind the XHTML, SVG and MathML namespaces 
+ * as the default namespace near the root and the URIs come from the parser 
+ * as the same string instances, lookups usually end at the first binding 
+ * compared on an identity check.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+final class NamespaceScopes {
+
+    private String[] prefixes = new String[16];
+
+    private String[] uris = new String[16];
+
+    private int bindingCount = 0;
+
+    /**
+     * The index of the first pending binding.
+     */
+    private int pendingStart = 0;
+
+    /**
+     * The qualified names of the open elements.
+     */
+    private String[] names = new String[64];
+
+    /**
+     * The index of the first binding of each open element.
+     */
+    private int[] scopeStarts = new int[64];
+
+    private int depth = 0;
+
+    /**
+     * Forgets all bindings and open elements.
+     */
+    void clear() {
+        for (int i = 0; i < bindingCount; i++) {
+            prefixes[i] = null;
+            uris[i] = null;
+        }
+        for (int i = 0; i < depth; i++) {
+            names[i] = null;
+        }
+        bindingCount = 0;
+        pendingStart = 0;
+        depth = 0;
+    }
+
+    /**
+     * Adds a pending binding.
+     * 
+     * @param prefix
+     *            the prefix, the empty string for the default namespace
+     * @param uri
+     *            the namespace URI
+     */
+    void declare(String prefix, String uri) {
+        if (bindingCount == prefixes.length) {
+            int newLength = bindingCount << 1;
+            String[] newPrefixes = new String[newLength];
+            System.arraycopy(prefixes, 0, newPrefixes, 0, bindingCount);
+            prefixes = newPrefixes;
+            String[] newUris = new String[newLength];
+            System.arraycopy(uris, 0, newUris, 0, bindingCount);
+            uris = newUris;
+        }
+        prefixes[bindingCount] = prefix;
+        uris[bindingCount] = uri;
+        bindingCount++;
+    }
+
+    /**
+     * Checks whether a prefix already has a pending binding.
+     * 
+     * @param prefix
+     *            the prefix
+     * @return <code>true</code> if the prefix is pending
+     */
+    boolean isPending(String prefix) {
+        for (int i = pendingStart; i < bindingCount; i++) {
+            if (prefixes[i].equals(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the URI bound to a prefix, including pending bindings.
+     * 
+     * @param prefix
+     *            the prefix
+     * @return the URI or <code>null</code> if the prefix is not bound
+     */
+    String lookupUri(String prefix) {
+        for (int i = bindingCount - 1; i >= 0; i--) {
+            if (prefixes[i].equals(prefix)) {
+                return uris[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a non-empty prefix bound to a URI that is not shadowed by an 
+     * inner binding of the same prefix, including pending bindings.
+     * 
+     * @param uri
+     *            the namespace URI
+     * @return the prefix or <code>null</code>
+     */
+    String lookupPrefix(String uri) {
+        outer: for (int i = bindingCount - 1; i >= 0; i--) {
+            String prefix = prefixes[i];
+            if (prefix.length() == 0 || !uris[i].equals(uri)) {
+                continue;
+            }
+            for (int j = i + 1; j < bindingCount; j++) {
+                if (prefixes[j].equals(prefix)) {
+                    continue outer;
+                }
+            }
+            return prefix;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of pending bindings.
+     * 
+     * @return the number of pending bindings
+     */
+    int getPendingCount() {
+        return bindingCount - pendingStart;
+    }
+
+    /**
+     * Returns the prefix of a pending binding.
+     * 
+     * @param index
+     *            the index among the pending bindings
+     * @return the prefix
+     */
+    String getPendingPrefix(int index) {
+        return prefixes[pendingStart + index];
+    }
+
+    /**
+     * Returns the URI of a pending binding.
+     * 
+     * @param index
+     *            the index among the pending bindings
+     * @return the URI
+     */
+    String getPendingUri(int index) {
+        return uris[pendingStart + index];
+    }
+
+    /**
+     * Opens an element, putting the pending bindings in scope.
+     * 
+     * @param qName
+     *            the qualified name the element was written with
+     */
+    void push(String qName) {
+        if (depth == names.length) {
+            int newLength = depth << 1;
+            String[] newNames = new String[newLength];
+            System.arraycopy(names, 0, newNames, 0, depth);
+            names = newNames;
+            int[] newStarts = new int[newLength];
+            System.arraycopy(scopeStarts, 0, newStarts, 0, depth);
+            scopeStarts = newStarts;
+        }
+        names[depth] = qName;
+        scopeStarts[depth] = pendingStart;
+        depth++;
+        pendingStart = bindingCount;
+    }
+
+    /**
+     * Closes the current element, dropping its bindings and any pending 
+     * ones.
+     * 
+     * @return the qualified name the element was written with
+     */
+    String pop() {
+        depth--;
+        String rv = names[depth];
+        names[depth] = null;
+        int start = scopeStarts[depth];
+        for (int i = start; i < bindingCount; i++) {
+            prefixes[i] = null;
+            uris[i] = null;
+        }
+        bindingCount = start;
+        pendingStart = start;
+        return rv;
+    }
+}
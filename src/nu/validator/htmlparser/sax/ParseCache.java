@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.sax;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.CharArrayReader;
+import java.io.CharArrayWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import nu.validator.htmlparser.common.DocumentModeHandler;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+
+/**
+ * A cache of parse results for inputs that are parsed over and over again. 
+ * The cache is keyed by a SHA-256 hash of the input and of the settings of 
+ * the parser that affect the result. On a miss, the input is parsed 
+ * normally and the events reported to the content handler, the lexical 
+ * handler, the error handler and the document mode handler are recorded 
+ * in a compact binary log. On a hit, the log is replayed to the handlers 
+ * without tokenizing the input.
+ * 
+ * <p>The logs are kept in memory in least recently used order within a 
+ * byte budget. Optionally, they are also written to a directory, which 
+ * serves as a second tier that survives restarts and that is never 
+ * pruned by the cache itself. A file whose length or checksum does not 
+ * match its header is treated as a miss and replaced after the parse.
+ * 
+ * <p>The input is read into memory in full before it is parsed. The 
+ * replayed events report the recorded positions and encoding and the ids 
+ * of the input source being parsed. Errors are replayed as plain 
+ * <code>SAXParseException</code>s with the recorded message and position. 
+ * Parses that end with an exception are not cached. A parser that has a 
+ * transition handler, a stop condition, character handlers or a tree 
+ * builder error handler override is passed the input without caching, 
+ * since the effects of those could not be replayed.
+ * 
+ * <p>The cache is thread-safe. Each thread must use its own parser.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+public final class ParseCache {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final long memoryBudget;
+
+    private final File directory;
+
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<String, byte[]>(
+            16, 0.75f, true);
+
+    private long memoryUsage = 0;
+
+    private long hitCount = 0;
+
+    private long missCount = 0;
+
+    /**
+     * Instantiates a cache that is kept in memory only.
+     * 
+     * @param memoryBudget
+     *            the maximum total size of the logs kept in memory in bytes
+     */
+    public ParseCache(long memoryBudget) {
+        this(memoryBudget, null);
+    }
+
+    /**
+     * Instantiates a cache that also stores the logs in a directory.
+     * 
+     * @param memoryBudget
+     *            the maximum total size of the logs kept in memory in bytes
+     * @param directory
+     *            an existing directory for the logs or <code>null</code>
+     */
+    public ParseCache(long memoryBudget, File directory) {
+        if (memoryBudget < 0) {
+            throw new IllegalArgumentException(
+                    "Memory budget must not be negative.");
+        }
+        if (directory != null && !directory.isDirectory()) {
+            throw new IllegalArgumentException("Not a directory: "
+                    + directory);
+        }
+        this.memoryBudget = memoryBudget;
+        this.directory = directory;
+    }
+
+    /**
+     * Parses an input with a parser or replays the events of an earlier 
+     * parse of the same input with the same settings to the handlers of the 
+     * parser.
+     * 
+     * @param parser
+     *            the parser
+     * @param input
+     *            the input
+     * @throws IOException
+     * @throws SAXException
+     */
+    public void parse(HtmlParser parser, InputSource input)
+            throws IOException, SAXException {
+        parse(parser, input, -1);
+    }
+
+    /**
+     * Parses an input with a parser using a given buffer size or replays 
+     * the events of an earlier parse of the same input with the same 
+     * settings to the handlers of the parser.
+     * 
+     * @param parser
+     *            the parser
+     * @param input
+     *            the input
+     * @param bufferSize
+     *            the buffer size or -1 for the default
+     * @throws IOException
+     * @throws SAXException
+     */
+    public void parse(HtmlParser parser, InputSource input, int bufferSize)
+            throws IOException, SAXException {
+        String configuration = parser.getCacheKey(bufferSize);
+        if (configuration == null) {
+            parser.parse(input, bufferSize);
+            return;
+        }
+        InputSource is = parser.resolve(input);
+        InputSource copy = new InputSource();
+        copy.setPublicId(is.getPublicId());
+        copy.setSystemId(is.getSystemId());
+        copy.setEncoding(is.getEncoding());
+        MessageDigest digest = newDigest();
+        digest.update(configuration.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        if (is.getEncoding() != null) {
+            digest.update(is.getEncoding().getBytes(StandardCharsets.UTF_8));
+        }
+        digest.update((byte) 0);
+        Reader reader = is.getCharacterStream();
+        if (reader != null) {
+            char[] chars = readFully(reader);
+            digest.update((byte) 'c');
+            byte[] pair = new byte[2];
+            for (int i = 0; i < chars.length; i++) {
+                pair[0] = (byte) (chars[i] >> 8);
+                pair[1] = (byte) chars[i];
+                digest.update(pair);
+            }
+            copy.setCharacterStream(new CharArrayReader(chars));
+        } else {
+            byte[] bytes = readFully(is.getByteStream());
+            digest.update((byte) 'b');
+            digest.update(bytes);
+            copy.setByteStream(new ByteArrayInputStream(bytes));
+        }
+        String key = toHex(digest.digest());
+
+        ContentHandler contentHandler = parser.getContentHandler();
+        LexicalHandler lexicalHandler = parser.getLexicalHandler();
+        ErrorHandler errorHandler = parser.getErrorHandler();
+        DocumentModeHandler documentModeHandler = parser.getDocumentModeHandler();
+
+        byte[] log = lookup(key);
+        if (log != null) {
+            new EventReplayer(log, is.getPublicId(), is.getSystemId()).replay(
+                    contentHandler, lexicalHandler, errorHandler,
+                    documentModeHandler);
+            return;
+        }
+
+        EventRecorder recorder = new EventRecorder(contentHandler,
+                lexicalHandler, errorHandler, documentModeHandler);
+        parser.swapHandlers(recorder, lexicalHandler == null ? null
+                : recorder, errorHandler == null ? null : recorder, recorder);
+        try {
+            parser.parse(copy, bufferSize);
+        } finally {
+            parser.swapHandlers(contentHandler, lexicalHandler, errorHandler,
+                    documentModeHandler);
+        }
+        log = recorder.toByteArray();
+        if (log != null) {
+            store(key, log);
+        }
+    }
+
+    private byte[] lookup(String key) throws IOException {
+        synchronized (this) {
+            byte[] log = entries.get(key);
+            if (log != null) {
+                hitCount++;
+                return log;
+            }
+        }
+        if (directory != null) {
+            File file = new File(directory, key);
+            if (file.isFile()) {
+                byte[] log = Files.readAllBytes(file.toPath());
+                if (EventReplayer.isValid(log)) {
+                    synchronized (this) {
+                        hitCount++;
+                        remember(key, log);
+                    }
+                    return log;
+                }
+            }
+        }
+        synchronized (this) {
+            missCount++;
+        }
+        return null;
+    }
+
+    private void store(String key, byte[] log) throws IOException {
+        synchronized (this) {
+            remember(key, log);
+        }
+        if (directory != null) {
+            File temp = File.createTempFile("parse", ".tmp", directory);
+            try {
+                Files.write(temp.toPath(), log);
+                Files.move(temp.toPath(), new File(directory, key).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Puts a log in the memory tier and evicts the least recently used logs 
+     * that no longer fit. Must be called while holding the lock.
+     */
+    private void remember(String key, byte[] log) {
+        if (log.length > memoryBudget) {
+            return;
+        }
+        byte[] old = entries.put(key, log);
+        if (old != null) {
+            memoryUsage -= old.length;
+        }
+        memoryUsage += log.length;
+        Iterator<Map.Entry<String, byte[]>> iter = entries.entrySet().iterator();
+        while (memoryUsage > memoryBudget) {
+            memoryUsage -= iter.next().getValue().length;
+            iter.remove();
+        }
+    }
+
+    /**
+     * Drops the logs kept in memory. The directory is left as is.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        memoryUsage = 0;
+    }
+
+    /**
+     * Returns the number of parses that were replayed from either tier.
+     * 
+     * @return the hit count
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of cacheable parses that were not found in either 
+     * tier.
+     * 
+     * @return the miss count
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Returns the total size of the logs kept in memory in bytes.
+     * 
+     * @return the memory usage
+     */
+    public synchronized long getMemoryUsage() {
+        return memoryUsage;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] ch = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            ch[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            ch[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(ch);
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int len;
+            while ((len = in.read(buf)) != -1) {
+                out.write(buf, 0, len);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static char[] readFully(Reader in) throws IOException {
+        try {
+            CharArrayWriter out = new CharArrayWriter();
+            char[] buf = new char[8192];
+            int len;
+            while ((len = in.read(buf)) != -1) {
+                out.write(buf, 0, len);
+            }
+            return out.toCharArray();
+        } finally {
+            in.close();
+        }
+    }
+}
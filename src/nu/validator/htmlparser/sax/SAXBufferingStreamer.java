@@ -0,0 +1,458 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.sax;
+
+import java.util.ArrayList;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.ext.LexicalHandler;
+
+import nu.validator.htmlparser.impl.HtmlAttributes;
+import nu.validator.saxtree.Document;
+import nu.validator.saxtree.Element;
+import nu.validator.saxtree.Node;
+import nu.validator.saxtree.NodeType;
+import nu.validator.saxtree.ParentNode;
+import nu.validator.saxtree.TreeParser;
+
+/**
+ * A SAX tree builder that emits the parts of the tree that can no longer
+ * change while the tree is still being built. Only the unstable region is
+ * kept as a SAX tree: an open table (foster parenting inserts before it), the
+ * open elements above a formatting element that the adoption agency
+ * algorithm may still move, an open <code>select</code> (whose
+ * <code>selectedcontent</code> may still be rewritten), the
+ * <code>head</code> until the <code>body</code> has been inserted and the
+ * <code>body</code> while a <code>frameset</code> could still replace it.
+ * Emitted nodes are removed from the tree.
+ * 
+ * <p>The only change to the infoset compared to building the whole tree
+ * first concerns attributes that appear on a later <code>html</code> or
+ * <code>body</code> start tag after the start tag of the element has
+ * already been emitted. Such attributes are dropped and a warning is
+ * reported.
+ * 
+ * <p>Fragments are not streamed but built in full as with
+ * <code>SAXTreeBuilder</code>.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+class SAXBufferingStreamer extends SAXTreeBuilder {
+
+    private ContentHandler contentHandler = null;
+
+    private LexicalHandler lexicalHandler = null;
+
+    private TreeParser treeParser = null;
+
+    /**
+     * Whether the current document is being emitted incrementally.
+     */
+    private boolean streaming = false;
+
+    /**
+     * Whether the whole remaining tree can be emitted.
+     */
+    private boolean ending = false;
+
+    /**
+     * The nodes whose start has been emitted but whose end hasn't. The first
+     * entry is the document.
+     */
+    private final ArrayList<ParentNode> emittedOpen = new ArrayList<ParentNode>();
+
+    /**
+     * The ancestors of the nodes on the stack of open elements that are not
+     * themselves on the stack. Usually, each node on the stack is a child of
+     * the node below it, in which case this is empty.
+     */
+    private Node[] pinnedAncestors = new Node[8];
+
+    private int pinnedAncestorCount = 0;
+
+    /**
+     * Whether <code>pinnedAncestors</code> and <code>firstListedPos</code>
+     * reflect the current stack.
+     */
+    private boolean pinnedValid = false;
+
+    /**
+     * The lowest stack position of a node that is also on the list of active
+     * formatting elements.
+     */
+    private int firstListedPos = Integer.MAX_VALUE;
+
+    /**
+     * An open table or select that blocked the last drain. Nothing can be
+     * emitted while it stays open and remains the first unemitted node.
+     */
+    private Element blockingElement = null;
+
+    SAXBufferingStreamer() {
+        super();
+    }
+
+    public void setContentHandler(ContentHandler handler) {
+        contentHandler = handler;
+    }
+
+    public void setLexicalHandler(LexicalHandler handler) {
+        lexicalHandler = handler;
+    }
+
+    /**
+     * @see nu.validator.htmlparser.sax.SAXTreeBuilder#start(boolean)
+     */
+    @Override
+    protected void start(boolean fragment) throws SAXException {
+        super.start(fragment);
+        emittedOpen.clear();
+        clearPinnedAncestors();
+        pinnedValid = false;
+        blockingElement = null;
+        ending = false;
+        streaming = !fragment;
+        if (streaming) {
+            treeParser = new TreeParser(contentHandler, lexicalHandler);
+            Document document = peekDocument();
+            treeParser.startNode(document);
+            emittedOpen.add(document);
+        }
+    }
+
+    /**
+     * @see nu.validator.htmlparser.sax.SAXTreeBuilder#end()
+     */
+    @Override
+    protected void end() throws SAXException {
+        super.end();
+        if (streaming) {
+            ending = true;
+            drain();
+            treeParser.endNode(peekDocument());
+            emittedOpen.clear();
+            clearPinnedAncestors();
+            blockingElement = null;
+            treeParser = null;
+        }
+    }
+
+    /**
+     * Returns <code>null</code> if the document was streamed.
+     * 
+     * @see nu.validator.htmlparser.sax.SAXTreeBuilder#getDocument()
+     */
+    @Override
+    Document getDocument() {
+        Document document = super.getDocument();
+        if (streaming) {
+            stopStreaming();
+            return null;
+        }
+        return document;
+    }
+
+    /**
+     * @see nu.validator.htmlparser.sax.SAXTreeBuilder#clearDocument()
+     */
+    @Override
+    void clearDocument() {
+        super.clearDocument();
+        if (streaming) {
+            stopStreaming();
+        }
+    }
+
+    private void stopStreaming() {
+        streaming = false;
+        emittedOpen.clear();
+        clearPinnedAncestors();
+        blockingElement = null;
+        treeParser = null;
+    }
+
+    @Override
+    protected void addAttributesToElement(Element element,
+            HtmlAttributes attributes) throws SAXException {
+        if (!streaming || !emittedOpen.contains(element)) {
+            super.addAttributesToElement(element, attributes);
+            return;
+        }
+        HtmlAttributes existingAttrs = (HtmlAttributes) element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            String qName = attributes.getQNameNoBoundsCheck(i);
+            if (existingAttrs.getIndex(qName) < 0) {
+                warnDroppedAttribute(qName);
+            }
+        }
+    }
+
+    @Override
+    protected void appendCharacters(Element parent, char[] buf, int start,
+            int length) throws SAXException {
+        super.appendCharacters(parent, buf, start, length);
+        drain();
+    }
+
+    /**
+     * @see nu.validator.htmlparser.impl.TreeBuilder#elementPushed(String,
+     *      java.lang.String, java.lang.Object)
+     */
+    @Override
+    protected void elementPushed(String ns, String name, Element node)
+            throws SAXException {
+        drain();
+    }
+
+    /**
+     * @see nu.validator.htmlparser.impl.TreeBuilder#elementPopped(String,
+     *      java.lang.String, java.lang.Object)
+     */
+    @Override
+    protected void elementPopped(String ns, String name, Element node)
+            throws SAXException {
+        drain();
+    }
+
+    /**
+     * Emits and removes from the tree everything that can no longer change,
+     * in document order.
+     * 
+     * @throws SAXException
+     */
+    private void drain() throws SAXException {
+        if (!streaming) {
+            return;
+        }
+        if (blockingElement != null) {
+            if (!ending
+                    && emittedOpen.get(emittedOpen.size() - 1).getFirstChild() == blockingElement
+                    && stackPosition(blockingElement) != -1) {
+                return;
+            }
+            blockingElement = null;
+        }
+        pinnedValid = false;
+        for (;;) {
+            ParentNode parent = emittedOpen.get(emittedOpen.size() - 1);
+            Node child = parent.getFirstChild();
+            if (child == null) {
+                if (parent.getNodeType() == NodeType.DOCUMENT
+                        || isPinned(parent)) {
+                    return;
+                }
+                treeParser.endNode(parent);
+                emittedOpen.remove(emittedOpen.size() - 1);
+                detach(parent);
+                continue;
+            }
+            if (child.getNodeType() != NodeType.ELEMENT) {
+                treeParser.startNode(child);
+                treeParser.endNode(child);
+                detach(child);
+                continue;
+            }
+            Element element = (Element) child;
+            if (!ending && isHtml(element, "head") && !hasElementAfter(element)) {
+                // until the body is inserted, the head may be reopened
+                return;
+            }
+            if (!isPinned(element)) {
+                emitSubtree(element);
+                detach(element);
+                continue;
+            }
+            if (!canStart(element)) {
+                return;
+            }
+            treeParser.startNode(element);
+            emittedOpen.add(element);
+        }
+    }
+
+    /**
+     * Tells whether the start of a pinned element is final.
+     * 
+     * @param element
+     *            a pinned element whose parent has been started
+     * @return <code>true</code> if the start tag can be emitted
+     */
+    private boolean canStart(Element element) {
+        if (isHtml(element, "table")) {
+            // foster parenting inserts before the table
+            blockingElement = element;
+            return false;
+        }
+        if (isHtml(element, "select")) {
+            // popping an option may rewrite selectedcontent
+            blockingElement = element;
+            return false;
+        }
+        if (isHtml(element, "body") && isBodyReplaceable()) {
+            // a frameset may still replace the body
+            return false;
+        }
+        // the adoption agency algorithm may move the open elements above a
+        // formatting element
+        return stackPosition(element) <= firstListedPos;
+    }
+
+    /**
+     * Tells whether a node is on the stack of open elements or an ancestor
+     * of one.
+     * 
+     * @param node
+     *            the node
+     * @return <code>true</code> if the node may still change
+     */
+    private boolean isPinned(Node node) {
+        if (ending) {
+            return false;
+        }
+        if (!pinnedValid) {
+            clearPinnedAncestors();
+            firstListedPos = Integer.MAX_VALUE;
+            int len = getStackLength();
+            for (int i = 0; i < len; i++) {
+                Element element = stackNodeAt(i);
+                if (firstListedPos == Integer.MAX_VALUE
+                        && isStackNodeInList(i)) {
+                    firstListedPos = i;
+                }
+                Node ancestor = element.getParentNode();
+                if (i > 0 && ancestor == stackNodeAt(i - 1)) {
+                    continue;
+                }
+                while (ancestor != null && stackPosition(ancestor) == -1
+                        && !isPinnedAncestor(ancestor)) {
+                    if (pinnedAncestorCount == pinnedAncestors.length) {
+                        Node[] newArr = new Node[pinnedAncestors.length << 1];
+                        System.arraycopy(pinnedAncestors, 0, newArr, 0,
+                                pinnedAncestorCount);
+                        pinnedAncestors = newArr;
+                    }
+                    pinnedAncestors[pinnedAncestorCount++] = ancestor;
+                    ancestor = ancestor.getParentNode();
+                }
+            }
+            pinnedValid = true;
+        }
+        return stackPosition(node) != -1 || isPinnedAncestor(node);
+    }
+
+    /**
+     * Returns the position of a node on the stack of open elements.
+     * 
+     * @param node
+     *            the node
+     * @return the position or -1 if the node is not on the stack
+     */
+    private int stackPosition(Node node) {
+        for (int i = getStackLength() - 1; i >= 0; i--) {
+            if (stackNodeAt(i) == node) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isPinnedAncestor(Node node) {
+        for (int i = 0; i < pinnedAncestorCount; i++) {
+            if (pinnedAncestors[i] == node) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void clearPinnedAncestors() {
+        for (int i = 0; i < pinnedAncestorCount; i++) {
+            pinnedAncestors[i] = null;
+        }
+        pinnedAncestorCount = 0;
+    }
+
+    /**
+     * Emits a subtree that can no longer change.
+     * 
+     * @param root
+     *            the root of the subtree
+     * @throws SAXException
+     */
+    private void emitSubtree(Node root) throws SAXException {
+        Node current = root;
+        Node next;
+        for (;;) {
+            treeParser.startNode(current);
+            if ((next = current.getFirstChild()) != null) {
+                current = next;
+                continue;
+            }
+            for (;;) {
+                treeParser.endNode(current);
+                if (current == root) {
+                    return;
+                }
+                if ((next = current.getNextSibling()) != null) {
+                    current = next;
+                    break;
+                }
+                current = current.getParentNode();
+            }
+        }
+    }
+
+    private static boolean hasElementAfter(Node node) {
+        for (Node next = node.getNextSibling(); next != null; next = next.getNextSibling()) {
+            if (next.getNodeType() == NodeType.ELEMENT) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void detach(Node node) {
+        node.detach();
+        forgetCachedTable();
+    }
+
+    private static boolean isHtml(Element element, String localName) {
+        return localName == element.getLocalName()
+                && "http://www.w3.org/1999/xhtml" == element.getUri();
+    }
+
+    private void warnDroppedAttribute(String qName) throws SAXException {
+        if (errorHandler == null) {
+            return;
+        }
+        SAXParseException spe = new SAXParseException(
+                "Attribute \u201C"
+                        + qName
+                        + "\u201D could not be added, because the start tag of the element had already been emitted.",
+                tokenizer);
+        errorHandler.warning(spe);
+    }
+}
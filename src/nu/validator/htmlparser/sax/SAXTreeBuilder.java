@@ -23,6 +23,7 @@
 
 package nu.validator.htmlparser.sax;
 
+import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
 
 import nu.validator.htmlparser.impl.HtmlAttributes;
@@ -36,6 +37,8 @@ import nu.validator.saxtree.Element;
 import nu.validator.saxtree.Node;
 import nu.validator.saxtree.NodeType;
 import nu.validator.saxtree.ParentNode;
+import nu.validator.saxtree.SharedLocator;
+import nu.validator.saxtree.TextArena;
 
 class SAXTreeBuilder extends TreeBuilder<Element> {
 
@@ -45,23 +48,78 @@ class SAXTreeBuilder extends TreeBuilder<Element> {
 
     private Node cachedTablePreviousSibling = null;
 
+    private boolean retainingLocations = true;
+
+    /**
+     * The locator the nodes are created with: the tokenizer wrapped so that
+     * the nodes share the record of ids and encoding, or <code>null</code>
+     * if locations are not retained.
+     */
+    private Locator nodeLocator = null;
+
+    private boolean packingText = false;
+
+    /**
+     * The arena the text of the current tree is copied into or
+     * <code>null</code> if each node gets an array of its own.
+     */
+    private TextArena textArena = null;
+
     SAXTreeBuilder() {
         super();
     }
 
+    /**
+     * Sets whether the nodes record their source locations. Takes effect on
+     * the next parse.
+     *
+     * @param retainingLocations
+     *            <code>false</code> to make the nodes report unknown
+     *            locations
+     */
+    void setRetainingLocations(boolean retainingLocations) {
+        this.retainingLocations = retainingLocations;
+    }
+
+    /**
+     * Sets whether the text and comment nodes of a tree share their storage
+     * in a <code>TextArena</code>. Takes effect on the next parse.
+     *
+     * @param packingText
+     *            <code>true</code> to copy text into an arena
+     */
+    void setPackingText(boolean packingText) {
+        this.packingText = packingText;
+    }
+
+    private Characters newCharacters(Locator locator, char[] buf, int start,
+            int length) {
+        if (textArena == null) {
+            return new Characters(locator, buf, start, length);
+        }
+        return new Characters(locator, textArena, buf, start, length);
+    }
+
+    private Comment newComment(char[] buf, int start, int length) {
+        if (textArena == null) {
+            return new Comment(nodeLocator, buf, start, length);
+        }
+        return new Comment(nodeLocator, textArena, buf, start, length);
+    }
+
     @Override
-    protected void appendComment(Element parent, char[] buf, int start, int length) {
-        parent.appendChild(new Comment(tokenizer, buf, start, length));
+    protected void appendComment(Element parent, char[] buf, int start, int length) throws SAXException {
+        parent.appendChild(newComment(buf, start, length));
     }
 
     @Override
-    protected void appendCommentToDocument(char[] buf, int start, int length) {
-        document.appendChild(new Comment(tokenizer, buf, start, length));
+    protected void appendCommentToDocument(char[] buf, int start, int length) throws SAXException {
+        document.appendChild(newComment(buf, start, length));
     }
 
     @Override
-    protected void appendCharacters(Element parent, char[] buf, int start, int length) {
-        parent.appendChild(new Characters(tokenizer, buf, start, length));
+    protected void appendCharacters(Element parent, char[] buf, int start, int length) throws SAXException {
+        parent.appendChild(newCharacters(nodeLocator, buf, start, length));
     }
 
     @Override
@@ -76,7 +134,7 @@ class SAXTreeBuilder extends TreeBuilder<Element> {
 
     @Override
     protected Element createHtmlElementSetAsRoot(HtmlAttributes attributes) {
-        Element newElt = new Element(tokenizer, "http://www.w3.org/1999/xhtml", "html", "html", attributes, true, null);
+        Element newElt = new Element(nodeLocator, "http://www.w3.org/1999/xhtml", "html", "html", attributes, true, null);
         document.appendChild(newElt);
         return newElt;
     }
@@ -92,8 +150,8 @@ class SAXTreeBuilder extends TreeBuilder<Element> {
      */
     @Override
     protected void appendDoctypeToDocument(String name, String publicIdentifier, String systemIdentifier) {
-         DTD dtd = new DTD(tokenizer, name, publicIdentifier, systemIdentifier);
-         dtd.setEndLocator(tokenizer);
+         DTD dtd = new DTD(nodeLocator, name, publicIdentifier, systemIdentifier);
+         dtd.setEndLocator(nodeLocator);
          document.appendChild(dtd);
     }
 
@@ -108,6 +166,33 @@ class SAXTreeBuilder extends TreeBuilder<Element> {
         return rv;
     }
 
+    /**
+     * Forgets the document built by the last parse without returning it.
+     */
+    void clearDocument() {
+        document = null;
+        forgetCachedTable();
+    }
+
+    /**
+     * Returns the document under construction without releasing it.
+     *
+     * @return the document
+     */
+    Document peekDocument() {
+        return document;
+    }
+
+    /**
+     * Forgets the cached foster parenting insertion point. Needs to be
+     * called when children are removed from the tree other than by the tree
+     * builder itself.
+     */
+    void forgetCachedTable() {
+        cachedTable = null;
+        cachedTablePreviousSibling = null;
+    }
+
     DocumentFragment getDocumentFragment() {
         DocumentFragment rv = new DocumentFragment();
         rv.appendChildren(document.getFirstChild());
@@ -121,7 +206,8 @@ class SAXTreeBuilder extends TreeBuilder<Element> {
      */
     @Override
     protected void end() throws SAXException {
-        document.setEndLocator(tokenizer);
+        document.setEndLocator(nodeLocator);
+        textArena = null;
         cachedTable = null;
         cachedTablePreviousSibling = null;
     }
@@ -130,8 +216,10 @@ class SAXTreeBuilder extends TreeBuilder<Element> {
      * @see nu.validator.htmlparser.impl.TreeBuilder#start()
      */
     @Override
-    protected void start(boolean fragment) {
-        document = new Document(tokenizer);
+    protected void start(boolean fragment) throws SAXException {
+        nodeLocator = retainingLocations ? new SharedLocator(tokenizer) : null;
+        document = new Document(nodeLocator);
+        textArena = packingText ? new TextArena() : null;
         cachedTable = null;
         cachedTablePreviousSibling = null;
     }
@@ -144,7 +232,7 @@ class SAXTreeBuilder extends TreeBuilder<Element> {
     @Override
     protected Element createElement(String ns, String name, HtmlAttributes attributes,
             Element intendedParent) throws SAXException {
-        return new Element(tokenizer, ns, name, name, attributes, true, null);
+        return new Element(nodeLocator, ns, name, name, attributes, true, null);
     }
 
     @Override
@@ -164,7 +252,7 @@ class SAXTreeBuilder extends TreeBuilder<Element> {
 
     @Override protected void insertFosterParentedCharacters(char[] buf,
             int start, int length, Element table, Element stackParent) throws SAXException {
-        Node child = new Characters(tokenizer, buf, start, length);
+        Node child = newCharacters(nodeLocator, buf, start, length);
         ParentNode parent = table.getParentNode();
         if (parent != null) { // always an element if not null
             parent.insertBetween(child, previousSibling(table), table);
@@ -225,9 +313,13 @@ class SAXTreeBuilder extends TreeBuilder<Element> {
             return;
         }
 
-        // Clear selectedcontent children and deep-clone option children
+        // Clear selectedcontent children and deep-clone option children.
+        // The clones are built detached, since selectedcontent may be
+        // inside the option.
         selectedContent.clearChildren();
-        deepCloneChildren(option, selectedContent);
+        DocumentFragment clones = new DocumentFragment();
+        deepCloneChildren(option, clones);
+        selectedContent.appendChildren(clones);
     }
 
     private Element findAncestor(Element element, String localName) {
@@ -285,7 +377,7 @@ class SAXTreeBuilder extends TreeBuilder<Element> {
         }
     }
 
-    private void deepCloneChildren(Element source, Element destination)
+    private void deepCloneChildren(Element source, ParentNode destination)
             throws SAXException {
         Node current = source.getFirstChild();
         if (current == null) {
@@ -316,7 +408,7 @@ class SAXTreeBuilder extends TreeBuilder<Element> {
                     Characters srcChars = (Characters) current;
                     char[] buf = srcChars.getBuffer();
                     destParent.appendChild(
-                            new Characters(null, buf, 0, buf.length));
+                            newCharacters(null, buf, 0, buf.length));
                     break;
                 default:
                     break;
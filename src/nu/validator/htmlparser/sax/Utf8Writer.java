@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.sax;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * A writer that encodes UTF-8 straight into a byte buffer of its own and 
+ * passes full buffers to an output stream. Unlike 
+ * <code>OutputStreamWriter</code>, it does not go through a 
+ * <code>CharsetEncoder</code> and its intermediate buffers, and it copies 
+ * ASCII runs with a tight loop. Unpaired surrogates are replaced with the 
+ * given replacement bytes, like a <code>CharsetEncoder</code> set to 
+ * <code>CodingErrorAction.REPLACE</code> would do.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+final class Utf8Writer extends Writer {
+
+    /**
+     * The replacement bytes of the default UTF-8 encoder: a question mark.
+     */
+    static final byte[] QUESTION_MARK = { '?' };
+
+    /**
+     * The replacement bytes for U+FFFD REPLACEMENT CHARACTER.
+     */
+    static final byte[] REPLACEMENT_CHARACTER = { (byte) 0xEF, (byte) 0xBF,
+            (byte) 0xBD };
+
+    private final OutputStream out;
+
+    private final byte[] replacement;
+
+    private final byte[] buf = new byte[8192];
+
+    private int pos = 0;
+
+    /**
+     * A high surrogate from the end of the previous write or 0.
+     */
+    private char pendingHighSurrogate = 0;
+
+    /**
+     * The constructor.
+     * 
+     * @param out
+     *            the stream to write to
+     * @param replacement
+     *            the bytes to write for an unpaired surrogate
+     */
+    Utf8Writer(OutputStream out, byte[] replacement) {
+        this.out = out;
+        this.replacement = replacement;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (pos > 0) {
+            out.write(buf, 0, pos);
+            pos = 0;
+        }
+    }
+
+    private void writeReplacement() throws IOException {
+        if (buf.length - pos < replacement.length) {
+            flushBuffer();
+        }
+        System.arraycopy(replacement, 0, buf, pos, replacement.length);
+        pos += replacement.length;
+    }
+
+    /**
+     * Encodes a non-ASCII character that is not a surrogate or a surrogate 
+     * pair. The caller makes sure there is room for four bytes.
+     */
+    private void writeNonAscii(int c) {
+        if (c < 0x800) {
+            buf[pos++] = (byte) (0xC0 | (c >> 6));
+            buf[pos++] = (byte) (0x80 | (c & 0x3F));
+        } else if (c < 0x10000) {
+            buf[pos++] = (byte) (0xE0 | (c >> 12));
+            buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buf[pos++] = (byte) (0x80 | (c & 0x3F));
+        } else {
+            buf[pos++] = (byte) (0xF0 | (c >> 18));
+            buf[pos++] = (byte) (0x80 | ((c >> 12) & 0x3F));
+            buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buf[pos++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    /**
+     * Encodes a character that is not ASCII, pairing surrogates.
+     * 
+     * @param c
+     *            the character
+     * @param next
+     *            the next character or -1 if the write ends with 
+     *            <code>c</code>
+     * @return the number of characters consumed
+     */
+    private int writeChar(char c, int next) throws IOException {
+        if (buf.length - pos < 4) {
+            flushBuffer();
+        }
+        if (Character.isHighSurrogate(c)) {
+            if (next == -1) {
+                pendingHighSurrogate = c;
+                return 1;
+            }
+            if (Character.isLowSurrogate((char) next)) {
+                writeNonAscii(Character.toCodePoint(c, (char) next));
+                return 2;
+            }
+            writeReplacement();
+            return 1;
+        }
+        if (Character.isLowSurrogate(c)) {
+            writeReplacement();
+            return 1;
+        }
+        writeNonAscii(c);
+        return 1;
+    }
+
+    /**
+     * Deals with a high surrogate left over from the previous write.
+     */
+    private int resolvePending(char next) throws IOException {
+        char high = pendingHighSurrogate;
+        pendingHighSurrogate = 0;
+        if (Character.isLowSurrogate(next)) {
+            if (buf.length - pos < 4) {
+                flushBuffer();
+            }
+            writeNonAscii(Character.toCodePoint(high, next));
+            return 1;
+        }
+        writeReplacement();
+        return 0;
+    }
+
+    /**
+     * @see java.io.Writer#write(char[], int, int)
+     */
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        int end = off + len;
+        if (pendingHighSurrogate != 0 && off < end) {
+            off += resolvePending(cbuf[off]);
+        }
+        while (off < end) {
+            int asciiEnd = Math.min(end, off + (buf.length - pos));
+            char c;
+            while (off < asciiEnd && (c = cbuf[off]) < 0x80) {
+                buf[pos++] = (byte) c;
+                off++;
+            }
+            if (off == end) {
+                return;
+            }
+            if (pos == buf.length) {
+                flushBuffer();
+                continue;
+            }
+            c = cbuf[off];
+            off += writeChar(c, off + 1 < end ? cbuf[off + 1] : -1);
+        }
+    }
+
+    /**
+     * @see java.io.Writer#write(java.lang.String, int, int)
+     */
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        int end = off + len;
+        if (pendingHighSurrogate != 0 && off < end) {
+            off += resolvePending(str.charAt(off));
+        }
+        while (off < end) {
+            int asciiEnd = Math.min(end, off + (buf.length - pos));
+            char c;
+            while (off < asciiEnd && (c = str.charAt(off)) < 0x80) {
+                buf[pos++] = (byte) c;
+                off++;
+            }
+            if (off == end) {
+                return;
+            }
+            if (pos == buf.length) {
+                flushBuffer();
+                continue;
+            }
+            c = str.charAt(off);
+            off += writeChar(c, off + 1 < end ? str.charAt(off + 1) : -1);
+        }
+    }
+
+    /**
+     * @see java.io.Writer#write(java.lang.String)
+     */
+    @Override
+    public void write(String str) throws IOException {
+        write(str, 0, str.length());
+    }
+
+    /**
+     * @see java.io.Writer#write(int)
+     */
+    @Override
+    public void write(int c) throws IOException {
+        char ch = (char) c;
+        if (pendingHighSurrogate != 0) {
+            if (resolvePending(ch) == 1) {
+                return;
+            }
+        }
+        if (ch < 0x80) {
+            if (pos == buf.length) {
+                flushBuffer();
+            }
+            buf[pos++] = (byte) ch;
+        } else {
+            writeChar(ch, -1);
+        }
+    }
+
+    /**
+     * @see java.io.Writer#flush()
+     */
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    /**
+     * Writes a replacement for a high surrogate left at the end and closes 
+     * the stream.
+     * 
+     * @see java.io.Writer#close()
+     */
+    @Override
+    public void close() throws IOException {
+        if (pendingHighSurrogate != 0) {
+            pendingHighSurrogate = 0;
+            writeReplacement();
+        }
+        flushBuffer();
+        out.close();
+    }
+}
@@ -25,17 +25,9 @@ package nu.validator.htmlparser.sax;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.UnsupportedEncodingException;
 import java.io.Writer;
-import java.nio.charset.Charset;
-import java.nio.charset.CharsetEncoder;
-import java.nio.charset.CodingErrorAction;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.Map;
-import java.util.Set;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.ContentHandler;
@@ -45,61 +37,6 @@ import org.xml.sax.ext.LexicalHandler;
 
 public class XmlSerializer implements ContentHandler, LexicalHandler {
 
-    private final class PrefixMapping {
-        public final String uri;
-
-        public final String prefix;
-
-        /**
-         * @param uri
-         * @param prefix
-         */
-        public PrefixMapping(String uri, String prefix) {
-            this.uri = uri;
-            this.prefix = prefix;
-        }
-
-        /**
-         * @see java.lang.Object#equals(java.lang.Object)
-         */
-        @Override public final boolean equals(Object obj) {
-            if (obj instanceof PrefixMapping) {
-                PrefixMapping other = (PrefixMapping) obj;
-                return this.prefix.equals(other.prefix);
-            } else {
-                return false;
-            }
-        }
-
-        /**
-         * @see java.lang.Object#hashCode()
-         */
-        @Override public final int hashCode() {
-            return prefix.hashCode();
-        }
-
-    }
-
-    private final class StackNode {
-        public final String uri;
-
-        public final String prefix;
-
-        public final String qName;
-
-        public final Set<PrefixMapping> mappings = new HashSet<PrefixMapping>();
-
-        /**
-         * @param uri
-         * @param qName
-         */
-        public StackNode(String uri, String qName, String prefix) {
-            this.uri = uri;
-            this.qName = qName;
-            this.prefix = prefix;
-        }
-    }
-
     private final static Map<String, String> WELL_KNOWN_ATTRIBUTE_PREFIXES = new HashMap<String, String>();
 
     static {
@@ -238,20 +175,10 @@ public class XmlSerializer implements ContentHandler, LexicalHandler {
     }
 
     private final static Writer wrap(OutputStream out) {
-        Charset charset = Charset.forName("utf-8");
-        CharsetEncoder encoder = charset.newEncoder();
-        encoder.onMalformedInput(CodingErrorAction.REPLACE);
-        encoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
-        try {
-            encoder.replaceWith("\uFFFD".getBytes("utf-8"));
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e);
-        }
-        return new OutputStreamWriter(out, encoder);
+        return new Utf8Writer(out, Utf8Writer.REPLACEMENT_CHARACTER);
     }
 
-    // grows from head
-    private final LinkedList<StackNode> stack = new LinkedList<StackNode>();
+    private final NamespaceScopes scopes = new NamespaceScopes();
 
     private final Writer writer;
 
@@ -267,42 +194,15 @@ public class XmlSerializer implements ContentHandler, LexicalHandler {
         
     }
 
-    private final void push(String uri, String local, String prefix) {
-        stack.addFirst(new StackNode(uri, local, prefix));
-    }
-
-    private final String pop() {
-        String rv = stack.removeFirst().qName;
-        stack.getFirst().mappings.clear();
-        return rv;
-    }
-
     private final String lookupPrefixAttribute(String ns) {
         if ("http://www.w3.org/XML/1998/namespace".equals(ns)) {
             return "xml";
         }
-        Set<String> hidden = new HashSet<String>();
-        for (StackNode node : stack) {
-            for (PrefixMapping mapping : node.mappings) {
-                if (mapping.prefix.length() != 0 && mapping.uri.equals(ns)
-                        && !hidden.contains(mapping.prefix)) {
-                    return mapping.prefix;
-                }
-                hidden.add(mapping.prefix);
-            }
-        }
-        return null;
+        return scopes.lookupPrefix(ns);
     }
 
     private final String lookupUri(String prefix) {
-        for (StackNode node : stack) {
-            for (PrefixMapping mapping : node.mappings) {
-                if (mapping.prefix.equals(prefix)) {
-                    return mapping.uri;
-                }
-            }
-        }
-        return null;
+        return scopes.lookupUri(prefix);
     }
 
     private final boolean xmlNsQname(String name) {
@@ -320,63 +220,60 @@ public class XmlSerializer implements ContentHandler, LexicalHandler {
     private final void writeAttributeValue(String val) throws IOException {
         boolean prevWasSpace = true;
         int last = val.length() - 1;
+        int runStart = 0;
         for (int i = 0; i <= last; i++) {
             char c = val.charAt(i);
+            String escape;
             switch (c) {
                 case '<':
-                    writer.write("&lt;");
-                    prevWasSpace = false;
+                    escape = "&lt;";
                     break;
                 case '>':
-                    writer.write("&gt;");
-                    prevWasSpace = false;
+                    escape = "&gt;";
                     break;
                 case '&':
-                    writer.write("&amp;");
-                    prevWasSpace = false;
+                    escape = "&amp;";
                     break;
                 case '"':
-                    writer.write("&quot;");
-                    prevWasSpace = false;
+                    escape = "&quot;";
                     break;
                 case '\r':
-                    writer.write("&#xD;");
-                    prevWasSpace = false;
+                    escape = "&#xD;";
                     break;
                 case '\t':
-                    writer.write("&#x9;");
-                    prevWasSpace = false;
+                    escape = "&#x9;";
                     break;
                 case '\n':
-                    writer.write("&#xA;");
-                    prevWasSpace = false;
+                    escape = "&#xA;";
                     break;
                 case ' ':
                     if (prevWasSpace || i == last) {
-                        writer.write("&#x20;");
-                        prevWasSpace = false;
-                    } else {
-                        writer.write(' ');
-                        prevWasSpace = true;
+                        escape = "&#x20;";
+                        break;
                     }
-                    break;
+                    prevWasSpace = true;
+                    continue;
                 case '\uFFFE':
-                    writer.write('\uFFFD');
-                    prevWasSpace = false;
-                    break;
                 case '\uFFFF':
-                    writer.write('\uFFFD');
-                    prevWasSpace = false;
+                    escape = "\uFFFD";
                     break;
                 default:
                     if (c < ' ') {
-                        writer.write('\uFFFD');
-                    } else {
-                        writer.write(c);
+                        escape = "\uFFFD";
+                        break;
                     }
                     prevWasSpace = false;
-                    break;
+                    continue;
             }
+            if (i > runStart) {
+                writer.write(val, runStart, i - runStart);
+            }
+            writer.write(escape);
+            runStart = i + 1;
+            prevWasSpace = false;
+        }
+        if (last >= runStart) {
+            writer.write(val, runStart, last + 1 - runStart);
         }
     }
 
@@ -395,41 +292,46 @@ public class XmlSerializer implements ContentHandler, LexicalHandler {
     public final void characters(char[] ch, int start, int length)
             throws SAXException {
         try {
-            for (int i = start; i < start + length; i++) {
+            int end = start + length;
+            int runStart = start;
+            for (int i = start; i < end; i++) {
                 char c = ch[i];
+                String escape;
                 switch (c) {
                     case '<':
-                        writer.write("&lt;");
+                        escape = "&lt;";
                         break;
                     case '>':
-                        writer.write("&gt;");
+                        escape = "&gt;";
                         break;
                     case '&':
-                        writer.write("&amp;");
+                        escape = "&amp;";
                         break;
                     case '\r':
-                        writer.write("&#xD;");
+                        escape = "&#xD;";
                         break;
                     case '\t':
-                        writer.write('\t');
-                        break;
                     case '\n':
-                        writer.write('\n');
-                        break;
+                        continue;
                     case '\uFFFE':
-                        writer.write('\uFFFD');
-                        break;
                     case '\uFFFF':
-                        writer.write('\uFFFD');
+                        escape = "\uFFFD";
                         break;
                     default:
                         if (c < ' ') {
-                            writer.write('\uFFFD');
-                        } else {
-                            writer.write(c);
+                            escape = "\uFFFD";
+                            break;
                         }
-                        break;
+                        continue;
                 }
+                if (i > runStart) {
+                    writer.write(ch, runStart, i - runStart);
+                }
+                writer.write(escape);
+                runStart = i + 1;
+            }
+            if (end > runStart) {
+                writer.write(ch, runStart, end - runStart);
             }
         } catch (IOException e) {
             throw new SAXException(e);
@@ -438,7 +340,7 @@ public class XmlSerializer implements ContentHandler, LexicalHandler {
 
     public final void endDocument() throws SAXException {
         try {
-            stack.clear();
+            scopes.clear();
             writer.flush();
             writer.close();
         } catch (IOException e) {
@@ -451,7 +353,7 @@ public class XmlSerializer implements ContentHandler, LexicalHandler {
         try {
             writer.write('<');
             writer.write('/');
-            writer.write(pop());
+            writer.write(scopes.pop());
             writer.write('>');
         } catch (IOException e) {
             throw new SAXException(e);
@@ -528,8 +430,7 @@ public class XmlSerializer implements ContentHandler, LexicalHandler {
         } catch (IOException e) {
             throw new SAXException(e);
         }
-        stack.clear();
-        push(null, null, null);
+        scopes.clear();
     }
 
     public final void startElement(String uri, String localName, String q,
@@ -577,17 +478,19 @@ public class XmlSerializer implements ContentHandler, LexicalHandler {
         try {
             writer.write('<');
             writer.write(qName);
-            for (PrefixMapping mapping : stack.getFirst().mappings) {
+            int bindings = scopes.getPendingCount();
+            for (int i = 0; i < bindings; i++) {
+                String bindingPrefix = scopes.getPendingPrefix(i);
                 writer.write(' ');
-                if (mapping.prefix.length() == 0) {
+                if (bindingPrefix.length() == 0) {
                     writer.write("xmlns");
                 } else {
                     writer.write("xmlns:");
-                    writer.write(mapping.prefix);
+                    writer.write(bindingPrefix);
                 }
                 writer.write('=');
                 writer.write('"');
-                writeAttributeValue(mapping.uri);
+                writeAttributeValue(scopes.getPendingUri(i));
                 writer.write('"');
             }
 
@@ -616,7 +519,7 @@ public class XmlSerializer implements ContentHandler, LexicalHandler {
         } catch (IOException e) {
             throw new SAXException(e);
         }
-        push(uri, qName, prefix);
+        scopes.push(qName);
     }
 
     public final void comment(char[] ch, int start, int length) throws SAXException {
@@ -711,13 +614,11 @@ public class XmlSerializer implements ContentHandler, LexicalHandler {
             throw new SAXException("Can bind a prefix to no namespace.");           
         }
         checkNCName(prefix);
-        Set<PrefixMapping> theSet = stack.getFirst().mappings;
-        PrefixMapping mapping = new PrefixMapping(uri, prefix);
-        if (theSet.contains(mapping)) {
+        if (scopes.isPending(prefix)) {
             throw new SAXException(
                     "Attempt to map one prefix to two URIs on one element.");
         }
-        theSet.add(mapping);
+        scopes.declare(prefix, uri);
     }
 
     public final void startPrefixMappingPrivate(String prefix, String uri)
@@ -725,7 +626,10 @@ public class XmlSerializer implements ContentHandler, LexicalHandler {
         if (uri.equals(lookupUri(prefix))) {
             return;
         }
-        stack.getFirst().mappings.add(new PrefixMapping(uri, prefix));
+        if (scopes.isPending(prefix)) {
+            return;
+        }
+        scopes.declare(prefix, uri);
     }
 
     public final void endPrefixMapping(String prefix) throws SAXException {
@@ -0,0 +1,401 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.select;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xml.sax.Attributes;
+
+/**
+ * A parsed group of CSS selectors. The supported subset is type and 
+ * universal selectors, <code>#id</code>, <code>.class</code>, attribute 
+ * selectors with the <code>=</code>, <code>~=</code>, <code>|=</code>, 
+ * <code>^=</code>, <code>$=</code> and <code>*=</code> operators and the 
+ * descendant and child combinators. Type and attribute names match ASCII 
+ * case-insensitively; ids, class names and attribute values match 
+ * case-sensitively. Namespaces are not considered.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+public final class Selector {
+
+    /**
+     * A compound selector: the conditions on one element.
+     */
+    static final class Step {
+
+        /**
+         * The lower-case local name or <code>null</code> for any.
+         */
+        String localName;
+
+        String id;
+
+        final List<String> classes = new ArrayList<String>();
+
+        final List<AttributeCondition> attributes = new ArrayList<AttributeCondition>();
+
+        /**
+         * Whether the step is joined to the previous one with the child 
+         * combinator rather than the descendant combinator.
+         */
+        boolean child;
+
+        boolean matches(String elementName, Attributes atts) {
+            if (localName != null && !localName.equalsIgnoreCase(elementName)) {
+                return false;
+            }
+            if (id != null && !id.equals(atts.getValue("", "id"))) {
+                return false;
+            }
+            if (!classes.isEmpty()) {
+                String classAttribute = atts.getValue("", "class");
+                if (classAttribute == null) {
+                    return false;
+                }
+                for (String className : classes) {
+                    if (!containsToken(classAttribute, className)) {
+                        return false;
+                    }
+                }
+            }
+            for (AttributeCondition condition : attributes) {
+                if (!condition.matches(atts)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * An attribute selector.
+     */
+    static final class AttributeCondition {
+
+        final String name;
+
+        /**
+         * The operator character (<code>=</code>, <code>~</code>, 
+         * <code>|</code>, <code>^</code>, <code>$</code> or <code>*</code>) 
+         * or 0 for presence.
+         */
+        final char operator;
+
+        final String value;
+
+        AttributeCondition(String name, char operator, String value) {
+            this.name = name;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        boolean matches(Attributes atts) {
+            String actual = null;
+            for (int i = 0; i < atts.getLength(); i++) {
+                if (atts.getURI(i).length() == 0
+                        && name.equalsIgnoreCase(atts.getLocalName(i))) {
+                    actual = atts.getValue(i);
+                    break;
+                }
+            }
+            if (actual == null) {
+                return false;
+            }
+            switch (operator) {
+                case 0:
+                    return true;
+                case '=':
+                    return actual.equals(value);
+                case '~':
+                    return containsToken(actual, value);
+                case '|':
+                    return actual.equals(value)
+                            || actual.startsWith(value + "-");
+                case '^':
+                    return value.length() != 0 && actual.startsWith(value);
+                case '$':
+                    return value.length() != 0 && actual.endsWith(value);
+                case '*':
+                    return value.length() != 0 && actual.contains(value);
+                default:
+                    throw new IllegalStateException();
+            }
+        }
+    }
+
+    /**
+     * The complex selectors of the group, each as steps from left to right.
+     */
+    private final Step[][] chains;
+
+    private final String text;
+
+    private Selector(Step[][] chains, String text) {
+        this.chains = chains;
+        this.text = text;
+    }
+
+    Step[][] getChains() {
+        return chains;
+    }
+
+    /**
+     * Parses a selector group such as <code>div.item &gt; a[href], #main p</code>.
+     * 
+     * @param text
+     *            the selector text
+     * @return the selector
+     * @throws IllegalArgumentException
+     *             if the text is not in the supported subset
+     */
+    public static Selector parse(String text) {
+        return new Parser(text).parseGroup();
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    static boolean isWhitespace(char c) {
+        switch (c) {
+            case ' ':
+            case '\t':
+            case '\n':
+            case '\u000C':
+            case '\r':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Tells whether a whitespace-separated list contains the token.
+     */
+    static boolean containsToken(String list, String token) {
+        int len = token.length();
+        if (len == 0) {
+            return false;
+        }
+        int from = 0;
+        for (;;) {
+            int i = list.indexOf(token, from);
+            if (i == -1) {
+                return false;
+            }
+            int end = i + len;
+            if ((i == 0 || isWhitespace(list.charAt(i - 1)))
+                    && (end == list.length() || isWhitespace(list.charAt(end)))) {
+                return true;
+            }
+            from = i + 1;
+        }
+    }
+
+    /**
+     * A recursive descent parser for the supported subset.
+     */
+    private static final class Parser {
+
+        private final String text;
+
+        private int pos = 0;
+
+        Parser(String text) {
+            if (text == null) {
+                throw new IllegalArgumentException("Null selector.");
+            }
+            this.text = text;
+        }
+
+        Selector parseGroup() {
+            List<Step[]> chains = new ArrayList<Step[]>();
+            for (;;) {
+                skipWhitespace();
+                chains.add(parseComplex());
+                if (pos == text.length()) {
+                    break;
+                }
+                expect(',');
+            }
+            return new Selector(chains.toArray(new Step[chains.size()][]),
+                    text);
+        }
+
+        private Step[] parseComplex() {
+            List<Step> steps = new ArrayList<Step>();
+            steps.add(parseCompound());
+            for (;;) {
+                boolean sawWhitespace = skipWhitespace();
+                if (pos == text.length() || peek() == ',') {
+                    break;
+                }
+                boolean child = false;
+                if (peek() == '>') {
+                    pos++;
+                    skipWhitespace();
+                    child = true;
+                } else if (!sawWhitespace || peek() == '~' || peek() == '+') {
+                    throw error("Unsupported combinator");
+                }
+                Step step = parseCompound();
+                step.child = child;
+                steps.add(step);
+            }
+            return steps.toArray(new Step[steps.size()]);
+        }
+
+        private Step parseCompound() {
+            Step step = new Step();
+            int start = pos;
+            if (pos < text.length() && peek() == '*') {
+                pos++;
+            } else if (pos < text.length() && isNameChar(peek())) {
+                step.localName = toAsciiLowerCase(parseName());
+            }
+            for (;;) {
+                if (pos == text.length()) {
+                    break;
+                }
+                char c = peek();
+                if (c == '#') {
+                    pos++;
+                    step.id = parseName();
+                } else if (c == '.') {
+                    pos++;
+                    step.classes.add(parseName());
+                } else if (c == '[') {
+                    pos++;
+                    step.attributes.add(parseAttribute());
+                } else {
+                    break;
+                }
+            }
+            if (pos == start) {
+                throw error("Expected a selector");
+            }
+            return step;
+        }
+
+        private AttributeCondition parseAttribute() {
+            skipWhitespace();
+            String name = toAsciiLowerCase(parseName());
+            skipWhitespace();
+            char operator = 0;
+            String value = null;
+            if (peek() != ']') {
+                char c = peek();
+                if (c == '=') {
+                    pos++;
+                } else if ("~|^$*".indexOf(c) != -1) {
+                    pos++;
+                    expect('=');
+                } else {
+                    throw error("Expected an attribute operator");
+                }
+                operator = c;
+                skipWhitespace();
+                char q = peek();
+                if (q == '"' || q == '\'') {
+                    pos++;
+                    int end = text.indexOf(q, pos);
+                    if (end == -1) {
+                        throw error("Unterminated string");
+                    }
+                    value = text.substring(pos, end);
+                    pos = end + 1;
+                } else {
+                    value = parseName();
+                }
+                skipWhitespace();
+            }
+            expect(']');
+            return new AttributeCondition(name, operator, value);
+        }
+
+        private String parseName() {
+            int start = pos;
+            while (pos < text.length() && isNameChar(text.charAt(pos))) {
+                pos++;
+            }
+            if (pos == start) {
+                throw error("Expected a name");
+            }
+            return text.substring(start, pos);
+        }
+
+        private boolean skipWhitespace() {
+            int start = pos;
+            while (pos < text.length() && isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+            return pos != start;
+        }
+
+        private char peek() {
+            if (pos == text.length()) {
+                throw error("Unexpected end");
+            }
+            return text.charAt(pos);
+        }
+
+        private void expect(char c) {
+            if (peek() != c) {
+                throw error("Expected \u201C" + c + "\u201D");
+            }
+            pos++;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at offset " + pos
+                    + " in selector \u201C" + text + "\u201D.");
+        }
+
+        private static boolean isNameChar(char c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+                    || (c >= '0' && c <= '9') || c == '-' || c == '_'
+                    || c >= 0x80;
+        }
+
+        private static String toAsciiLowerCase(String s) {
+            StringBuilder sb = null;
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c >= 'A' && c <= 'Z') {
+                    if (sb == null) {
+                        sb = new StringBuilder(s);
+                    }
+                    sb.setCharAt(i, (char) (c + 0x20));
+                }
+            }
+            return sb == null ? s : sb.toString();
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.select;
+
+import java.util.Arrays;
+
+import nu.validator.htmlparser.select.Selector.Step;
+import nu.validator.saxtree.Element;
+import nu.validator.saxtree.TreeBuilder;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+
+/**
+ * Matches a selector against a stream of SAX events and hands the subtree of 
+ * each matching element to a <code>MatchHandler</code>. Everything outside 
+ * matching subtrees is discarded as it streams past, so memory is 
+ * proportional to the depth of the document plus the size of the subtrees 
+ * being captured.
+ * 
+ * <p>The matcher is meant to be the content and lexical handler of an 
+ * <code>HtmlParser</code> that streams, since by default the parser 
+ * buffers the whole document before reporting any events: 
+ * 
+ * <pre>
+ * HtmlParser parser = new HtmlParser(XmlViolationPolicy.ALLOW);
+ * parser.setBufferingIncrementally(true);
+ * SelectorMatcher matcher = new SelectorMatcher(Selector.parse("li &gt; a[href]"), handler);
+ * parser.setContentHandler(matcher);
+ * parser.setLexicalHandler(matcher);
+ * </pre>
+ * 
+ * <p>In that mode, attributes from stray <code>html</code> and 
+ * <code>body</code> start tags that arrive after the element has been 
+ * reported are dropped, so selectors cannot match on them.
+ * 
+ * <p>Each open element has a match state of two bit sets over the positions 
+ * in the selector chains: the positions that any descendant may match next 
+ * (reached through a descendant combinator) and those that only its 
+ * children may match next (reached through a child combinator). A match 
+ * found inside a subtree that is already being captured is captured and 
+ * reported as well, after the inner element ends.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+public class SelectorMatcher implements ContentHandler, LexicalHandler {
+
+    /**
+     * A subtree being captured.
+     */
+    private static final class Capture {
+
+        final TreeBuilder builder;
+
+        final int depth;
+
+        Capture(TreeBuilder builder, int depth) {
+            this.builder = builder;
+            this.depth = depth;
+        }
+    }
+
+    private final Step[][] chains;
+
+    /**
+     * The bit index of each chain position; position 0 of each chain is 
+     * always open and has no bit.
+     */
+    private final int[][] bits;
+
+    /**
+     * The number of <code>long</code>s per bit set.
+     */
+    private final int words;
+
+    private final MatchHandler handler;
+
+    /**
+     * The match states of the open elements: for depth <code>d</code>, the 
+     * descendant set is at <code>2 * d * words</code> and the child set 
+     * follows it. Depth 0 is the document.
+     */
+    private long[] states;
+
+    private int depth = 0;
+
+    private Capture[] captures = new Capture[4];
+
+    private int captureCount = 0;
+
+    private Locator locator = null;
+
+    /**
+     * Instantiates the matcher.
+     * 
+     * @param selector
+     *            the selector
+     * @param handler
+     *            receives the matches
+     */
+    public SelectorMatcher(Selector selector, MatchHandler handler) {
+        if (selector == null || handler == null) {
+            throw new IllegalArgumentException("Null selector or handler.");
+        }
+        this.chains = selector.getChains();
+        this.handler = handler;
+        this.bits = new int[chains.length][];
+        int bit = 0;
+        for (int i = 0; i < chains.length; i++) {
+            bits[i] = new int[chains[i].length];
+            for (int k = 1; k < chains[i].length; k++) {
+                bits[i][k] = bit++;
+            }
+        }
+        this.words = Math.max(1, (bit + 63) >>> 6);
+        this.states = new long[2 * words * 32];
+    }
+
+    /**
+     * @see org.xml.sax.ContentHandler#startElement(java.lang.String,
+     *      java.lang.String, java.lang.String, org.xml.sax.Attributes)
+     */
+    public void startElement(String uri, String localName, String qName,
+            Attributes atts) throws SAXException {
+        int parent = 2 * depth * words;
+        depth++;
+        int self = 2 * depth * words;
+        if (self + 2 * words > states.length) {
+            states = Arrays.copyOf(states, states.length << 1);
+        }
+        // Descendant positions are inherited; child positions are not.
+        System.arraycopy(states, parent, states, self, words);
+        Arrays.fill(states, self + words, self + 2 * words, 0L);
+        boolean matched = false;
+        for (int i = 0; i < chains.length; i++) {
+            Step[] chain = chains[i];
+            int[] chainBits = bits[i];
+            for (int k = 0; k < chain.length; k++) {
+                if (k != 0 && !isSet(parent, chainBits[k])
+                        && !isSet(parent + words, chainBits[k])) {
+                    continue;
+                }
+                if (!chain[k].matches(localName, atts)) {
+                    continue;
+                }
+                if (k == chain.length - 1) {
+                    matched = true;
+                } else {
+                    int next = chainBits[k + 1];
+                    int base = chain[k + 1].child ? self + words : self;
+                    states[base + (next >>> 6)] |= 1L << (next & 63);
+                }
+            }
+        }
+        if (matched) {
+            TreeBuilder builder = new TreeBuilder(true, false);
+            builder.setDocumentLocator(locator);
+            if (captureCount == captures.length) {
+                captures = Arrays.copyOf(captures, captureCount << 1);
+            }
+            captures[captureCount++] = new Capture(builder, depth);
+        }
+        for (int i = 0; i < captureCount; i++) {
+            captures[i].builder.startElement(uri, localName, qName, atts);
+        }
+    }
+
+    /**
+     * @see org.xml.sax.ContentHandler#endElement(java.lang.String,
+     *      java.lang.String, java.lang.String)
+     */
+    public void endElement(String uri, String localName, String qName)
+            throws SAXException {
+        for (int i = 0; i < captureCount; i++) {
+            captures[i].builder.endElement(uri, localName, qName);
+        }
+        if (captureCount > 0 && captures[captureCount - 1].depth == depth) {
+            Capture capture = captures[--captureCount];
+            captures[captureCount] = null;
+            handler.matched((Element) capture.builder.getRoot().getFirstChild());
+        }
+        depth--;
+    }
+
+    private boolean isSet(int base, int bit) {
+        return (states[base + (bit >>> 6)] & (1L << (bit & 63))) != 0;
+    }
+
+    /**
+     * @see org.xml.sax.ContentHandler#characters(char[], int, int)
+     */
+    public void characters(char[] ch, int start, int length)
+            throws SAXException {
+        for (int i = 0; i < captureCount; i++) {
+            captures[i].builder.characters(ch, start, length);
+        }
+    }
+
+    /**
+     * @see org.xml.sax.ext.LexicalHandler#comment(char[], int, int)
+     */
+    public void comment(char[] ch, int start, int length) throws SAXException {
+        for (int i = 0; i < captureCount; i++) {
+            captures[i].builder.comment(ch, start, length);
+        }
+    }
+
+    /**
+     * @see org.xml.sax.ContentHandler#setDocumentLocator(org.xml.sax.Locator)
+     */
+    public void setDocumentLocator(Locator locator) {
+        this.locator = locator;
+    }
+
+    /**
+     * @see org.xml.sax.ContentHandler#startDocument()
+     */
+    public void startDocument() throws SAXException {
+        depth = 0;
+        Arrays.fill(states, 0, 2 * words, 0L);
+        Arrays.fill(captures, 0, captureCount, null);
+        captureCount = 0;
+    }
+
+    /**
+     * @see org.xml.sax.ContentHandler#endDocument()
+     */
+    public void endDocument() throws SAXException {
+    }
+
+    /**
+     * @see org.xml.sax.ContentHandler#ignorableWhitespace(char[], int, int)
+     */
+    public void ignorableWhitespace(char[] ch, int start, int length)
+            throws SAXException {
+        characters(ch, start, length);
+    }
+
+    /**
+     * @see org.xml.sax.ContentHandler#processingInstruction(java.lang.String,
+     *      java.lang.String)
+     */
+    public void processingInstruction(String target, String data)
+            throws SAXException {
+    }
+
+    /**
+     * @see org.xml.sax.ContentHandler#skippedEntity(java.lang.String)
+     */
+    public void skippedEntity(String name) throws SAXException {
+    }
+
+    /**
+     * @see org.xml.sax.ContentHandler#startPrefixMapping(java.lang.String,
+     *      java.lang.String)
+     */
+    public void startPrefixMapping(String prefix, String uri)
+            throws SAXException {
+    }
+
+    /**
+     * @see org.xml.sax.ContentHandler#endPrefixMapping(java.lang.String)
+     */
+    public void endPrefixMapping(String prefix) throws SAXException {
+    }
+
+    /**
+     * @see org.xml.sax.ext.LexicalHandler#startDTD(java.lang.String,
+     *      java.lang.String, java.lang.String)
+     */
+    public void startDTD(String name, String publicId, String systemId)
+            throws SAXException {
+    }
+
+    /**
+     * @see org.xml.sax.ext.LexicalHandler#endDTD()
+     */
+    public void endDTD() throws SAXException {
+    }
+
+    /**
+     * @see org.xml.sax.ext.LexicalHandler#startEntity(java.lang.String)
+     */
+    public void startEntity(String name) throws SAXException {
+    }
+
+    /**
+     * @see org.xml.sax.ext.LexicalHandler#endEntity(java.lang.String)
+     */
+    public void endEntity(String name) throws SAXException {
+    }
+
+    /**
+     * @see org.xml.sax.ext.LexicalHandler#startCDATA()
+     */
+    public void startCDATA() throws SAXException {
+    }
+
+    /**
+     * @see org.xml.sax.ext.LexicalHandler#endCDATA()
+     */
+    public void endCDATA() throws SAXException {
+    }
+}
@@ -37,6 +37,9 @@ import java.util.List;
 import nu.validator.htmlparser.common.CharacterHandler;
 import nu.validator.htmlparser.common.DocumentModeHandler;
 import nu.validator.htmlparser.common.Heuristics;
+import nu.validator.htmlparser.common.ReusableParser;
+import nu.validator.htmlparser.common.ParserLimits;
+import nu.validator.htmlparser.common.StopCondition;
 import nu.validator.htmlparser.common.TokenHandler;
 import nu.validator.htmlparser.common.TransitionHandler;
 import nu.validator.htmlparser.common.XmlViolationPolicy;
@@ -81,7 +84,7 @@ import org.xml.sax.SAXParseException;
  * @version $Id$
  * @author hsivonen
  */
-public class HtmlBuilder extends Builder {
+public class HtmlBuilder extends Builder implements ReusableParser {
 
     private Driver driver;
 
@@ -117,11 +120,25 @@ public class HtmlBuilder extends Builder {
     
     private boolean reportingDoctype = true;
 
+    private boolean indexingElements = false;
+
     private ErrorHandler treeBuilderErrorHandler = null;
 
     private Heuristics heuristics = Heuristics.NONE;
 
     private TransitionHandler transitionHandler = null;
+
+    private StopCondition stopCondition = null;
+
+    private ParserLimits parserLimits = null;
+
+    private boolean keepingBuffers = false;
+
+    private int bufferHighWaterMark = -1;
+
+    private int maxDepth = 513;
+
+    private XmlViolationPolicy deepTreePolicy = XmlViolationPolicy.ALTER_INFOSET;
     
     /**
      * Constructor with default node factory and fatal XML violation policy.
@@ -191,7 +208,17 @@ public class HtmlBuilder extends Builder {
             this.treeBuilder.setDocumentModeHandler(documentModeHandler);
             this.treeBuilder.setScriptingEnabled(scriptingEnabled);
             this.treeBuilder.setReportingDoctype(reportingDoctype);
+            this.treeBuilder.setIndexingElements(indexingElements);
             this.treeBuilder.setNamePolicy(namePolicy);
+            this.treeBuilder.setStopCondition(stopCondition);
+            this.treeBuilder.setParserLimits(parserLimits);
+            this.driver.setParserLimits(parserLimits);
+            this.driver.setKeepBuffer(keepingBuffers);
+            this.treeBuilder.setKeepBuffer(keepingBuffers);
+            this.driver.setBufferHighWaterMark(bufferHighWaterMark);
+            this.treeBuilder.setBufferHighWaterMark(bufferHighWaterMark);
+            this.treeBuilder.setMaxDepth(maxDepth);
+            this.treeBuilder.setDeepTreePolicy(deepTreePolicy);
         }
     }
 
@@ -620,6 +647,31 @@ public class HtmlBuilder extends Builder {
         }
     }
 
+    /**
+     * Sets whether ids, class names and element local names are indexed 
+     * while parsing. The index of each parsed document is available as 
+     * <code>ModalDocument.getElementIndex()</code>.
+     * 
+     * @param indexingElements
+     *            <code>true</code> to build the index
+     * @see nu.validator.htmlparser.impl.TreeBuilder#setIndexingElements(boolean)
+     */
+    public void setIndexingElements(boolean indexingElements) {
+        this.indexingElements = indexingElements;
+        if (treeBuilder != null) {
+            treeBuilder.setIndexingElements(indexingElements);
+        }
+    }
+
+    /**
+     * Returns the indexingElements.
+     * 
+     * @return the indexingElements
+     */
+    public boolean isIndexingElements() {
+        return indexingElements;
+    }
+
     /**
      * Returns the reportingDoctype.
      * 
@@ -659,6 +711,241 @@ public class HtmlBuilder extends Builder {
         return this.heuristics;
     }
 
+    /**
+     * Returns the stop condition.
+     * 
+     * @return the stop condition or <code>null</code> if the whole input is parsed
+     */
+    public StopCondition getStopCondition() {
+        return stopCondition;
+    }
+
+    /**
+     * Sets a condition for ending the parse early. When the condition 
+     * matches a start tag, the parser stops reading input, closes the open 
+     * elements as at the end of the input and closes the input stream.
+     * 
+     * @param stopCondition the condition or <code>null</code> to parse the whole input
+     * @see nu.validator.htmlparser.common.StopCondition#BEFORE_BODY
+     * @see nu.validator.htmlparser.impl.TreeBuilder#setStopCondition(nu.validator.htmlparser.common.StopCondition)
+     */
+    public void setStopCondition(StopCondition stopCondition) {
+        this.stopCondition = stopCondition;
+        if (treeBuilder != null) {
+            treeBuilder.setStopCondition(stopCondition);
+        }
+    }
+
+    /**
+     * Returns the resource limits.
+     * 
+     * @return the limits or <code>null</code> if there are no limits
+     */
+    public ParserLimits getParserLimits() {
+        return parserLimits;
+    }
+
+    /**
+     * Sets resource limits for parsing untrusted input, such as the 
+     * maximum document length and the maximum number of attributes on an 
+     * element.
+     * 
+     * @param parserLimits the limits or <code>null</code> for no limits
+     * @see nu.validator.htmlparser.common.ParserLimits
+     */
+    public void setParserLimits(ParserLimits parserLimits) {
+        this.parserLimits = parserLimits;
+        if (driver != null) {
+            driver.setParserLimits(parserLimits);
+            treeBuilder.setParserLimits(parserLimits);
+        }
+    }
+
+    /**
+     * Returns whether buffers are kept between parses.
+     * 
+     * @return <code>true</code> if buffers are kept
+     */
+    public boolean isKeepingBuffers() {
+        return keepingBuffers;
+    }
+
+    /**
+     * Sets whether the buffers that have been grown while parsing a document 
+     * are kept for the next parse. Useful when the same instance parses 
+     * many documents.
+     * 
+     * @param keepingBuffers <code>true</code> to keep the buffers
+     * @see nu.validator.htmlparser.common.ReusableParser#setKeepingBuffers(boolean)
+     */
+    public void setKeepingBuffers(boolean keepingBuffers) {
+        this.keepingBuffers = keepingBuffers;
+        if (driver != null) {
+            driver.setKeepBuffer(keepingBuffers);
+            treeBuilder.setKeepBuffer(keepingBuffers);
+        }
+    }
+
+    /**
+     * Drops the references to the last parsed document. The configuration
+     * and the kept buffers are retained.
+     * 
+     * @see nu.validator.htmlparser.common.ReusableParser#reset()
+     */
+    public void reset() {
+        treeBuilder.clearDocument();
+    }
+
+    /**
+     * Drops the kept buffers that have grown longer than the given length.
+     * 
+     * @param length the maximum length to keep
+     * @see nu.validator.htmlparser.common.ReusableParser#dropBuffersLongerThan(int)
+     */
+    public void dropBuffersLongerThan(int length) {
+        if (driver != null) {
+            driver.dropBufferIfLongerThan(length);
+            treeBuilder.dropBufferIfLongerThan(length);
+        }
+    }
+
+    /**
+     * Returns the length above which kept buffers are shrunk at the end of 
+     * each parse.
+     * 
+     * @return the length or -1 if kept buffers are never shrunk
+     */
+    public int getBufferHighWaterMark() {
+        return bufferHighWaterMark;
+    }
+
+    /**
+     * Sets the length above which kept buffers are shrunk at the end of 
+     * each parse. This bounds the memory an idle parser holds on to after 
+     * an unusually large document without giving up buffer reuse for 
+     * typical documents.
+     * 
+     * @param bufferHighWaterMark the length or -1 to never shrink
+     * @see nu.validator.htmlparser.common.ReusableParser#setBufferHighWaterMark(int)
+     */
+    public void setBufferHighWaterMark(int bufferHighWaterMark) {
+        this.bufferHighWaterMark = bufferHighWaterMark;
+        if (driver != null) {
+            driver.setBufferHighWaterMark(bufferHighWaterMark);
+            treeBuilder.setBufferHighWaterMark(bufferHighWaterMark);
+        }
+    }
+
+    /**
+     * Returns the largest length the tokenizer buffer has grown to.
+     * 
+     * @return the peak length or 0 if nothing has been parsed
+     */
+    public int getPeakTokenizerBufferLength() {
+        return driver == null ? 0 : driver.getPeakBufferLength();
+    }
+
+    /**
+     * Returns the largest length the tree builder character buffer has grown 
+     * to.
+     * 
+     * @return the peak length or 0 if nothing has been parsed
+     */
+    public int getPeakTreeBuilderBufferLength() {
+        return treeBuilder == null ? 0 : treeBuilder.getPeakBufferLength();
+    }
+
+    /**
+     * Returns how many times kept buffers have been shrunk due to the high 
+     * water mark.
+     * 
+     * @return the number of trims
+     */
+    public int getBufferTrimCount() {
+        return driver == null ? 0
+                : driver.getBufferTrimCount() + treeBuilder.getBufferTrimCount();
+    }
+
+    /**
+     * Returns the number of elements deep the tree may get before the deep 
+     * tree policy applies.
+     * 
+     * @return the maximum depth
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Sets the number of elements deep the tree may get before the deep 
+     * tree policy applies. The default is 513, which matches browsers. 
+     * Under the default policy this bounds the depth of the tree but not 
+     * the stack of open elements; see <code>setDeepTreePolicy()</code>.
+     * 
+     * @param maxDepth the maximum depth counting the root element
+     */
+    public void setMaxDepth(int maxDepth) {
+        if (maxDepth < 2) {
+            throw new IllegalArgumentException("The maximum depth must be at least 2.");
+        }
+        this.maxDepth = maxDepth;
+        if (treeBuilder != null) {
+            treeBuilder.setMaxDepth(maxDepth);
+        }
+    }
+
+    /**
+     * Returns the deep tree policy.
+     * 
+     * @return the deep tree policy
+     */
+    public XmlViolationPolicy getDeepTreePolicy() {
+        return deepTreePolicy;
+    }
+
+    /**
+     * Sets what happens to elements that would be deeper than the maximum 
+     * depth. <code>ALTER_INFOSET</code> (the default) inserts them as 
+     * siblings like browsers do, <code>FATAL</code> stops the parse with a 
+     * fatal error and <code>ALLOW</code> builds the tree as deep as the 
+     * markup says.
+     * 
+     * <p>Only <code>FATAL</code> bounds memory. <code>ALTER_INFOSET</code> 
+     * flattens the tree, but the parser's stack of open elements still 
+     * grows with the nesting of the markup. When memory is the concern, as 
+     * with untrusted input in a shared process, use <code>FATAL</code> or a 
+     * depth limit in failing <code>ParserLimits</code>.
+     * 
+     * @param deepTreePolicy the policy
+     */
+    public void setDeepTreePolicy(XmlViolationPolicy deepTreePolicy) {
+        this.deepTreePolicy = deepTreePolicy;
+        if (treeBuilder != null) {
+            treeBuilder.setDeepTreePolicy(deepTreePolicy);
+        }
+    }
+
+    /**
+     * Returns the greatest number of elements that were open at the same 
+     * time during the last parse.
+     * 
+     * @return the peak depth or 0 if nothing has been parsed
+     */
+    public int getPeakDepth() {
+        return treeBuilder == null ? 0 : treeBuilder.getPeakDepth();
+    }
+
+    /**
+     * Returns how many insertions were redirected to a shallower parent 
+     * during the last parse due to the maximum depth.
+     * 
+     * @return the number of flattened insertions
+     */
+    public int getFlattenedInsertionCount() {
+        return treeBuilder == null ? 0
+                : treeBuilder.getFlattenedInsertionCount();
+    }
+
     /**
      * This is a catch-all convenience method for setting name, xmlns, content space, 
      * content non-XML char and comment policies in one go. This does not affect the 
@@ -23,6 +23,7 @@
 package nu.validator.htmlparser.xom;
 
 import nu.validator.htmlparser.common.DocumentMode;
+import nu.validator.htmlparser.common.ElementIndex;
 import nu.xom.Document;
 import nu.xom.Element;
 
@@ -34,6 +35,8 @@ import nu.xom.Element;
 public class ModalDocument extends Document implements Mode {
 
     private DocumentMode mode = null;
+
+    private ElementIndex<Element> elementIndex = null;
     
     /**
      * Copy constructor (<code>Mode</code>-aware).
@@ -71,5 +74,25 @@ public class ModalDocument extends Document implements Mode {
     public void setMode(DocumentMode mode) {
         this.mode = mode;
     }
+
+    /**
+     * Returns the index built while parsing this document. The index is not 
+     * carried over by the copy constructor, since it refers to the elements 
+     * of the original.
+     * 
+     * @return the index or <code>null</code> if the parser was not indexing
+     */
+    public ElementIndex<Element> getElementIndex() {
+        return elementIndex;
+    }
+
+    /**
+     * Sets the index.
+     * 
+     * @param elementIndex the index
+     */
+    public void setElementIndex(ElementIndex<Element> elementIndex) {
+        this.elementIndex = elementIndex;
+    }
     
 }
@@ -62,12 +62,14 @@ class XOMTreeBuilder extends CoalescingTreeBuilder<Element> {
                 String localName = attributes.getLocalNameNoBoundsCheck(i);
                 String uri = attributes.getURINoBoundsCheck(i);
                 if (element.getAttribute(localName, uri) == null) {
+                    String value = attributes.getValueNoBoundsCheck(i);
                     element.addAttribute(nodeFactory.makeAttribute(
                             localName,
                             uri,
-                            attributes.getValueNoBoundsCheck(i),
+                            value,
                             attributes.getTypeNoBoundsCheck(i) == "ID" ? Attribute.Type.ID
                                     : Attribute.Type.CDATA));
+                    indexAddedAttribute(element, uri, localName, value);
                 }
             }
         } catch (XMLException e) {
@@ -142,6 +144,7 @@ class XOMTreeBuilder extends CoalescingTreeBuilder<Element> {
                         attributes.getTypeNoBoundsCheck(i) == "ID" ? Attribute.Type.ID
                                 : Attribute.Type.CDATA));
             }
+            indexElement(rv, name, attributes);
             return rv;
         } catch (XMLException e) {
             fatal(e);
@@ -149,6 +152,15 @@ class XOMTreeBuilder extends CoalescingTreeBuilder<Element> {
         }
     }
 
+    /**
+     * The attributes are copied into the XOM tree.
+     * 
+     * @see nu.validator.htmlparser.impl.TreeBuilder#isRetainingAttributes()
+     */
+    @Override protected boolean isRetainingAttributes() {
+        return false;
+    }
+
     @Override
  protected Element createHtmlElementSetAsRoot(
             HtmlAttributes attributes) throws SAXException {
@@ -163,6 +175,7 @@ class XOMTreeBuilder extends CoalescingTreeBuilder<Element> {
                         attributes.getTypeNoBoundsCheck(i) == "ID" ? Attribute.Type.ID
                                 : Attribute.Type.CDATA));
             }
+            indexElement(rv, "html", attributes);
             document.setRootElement(rv);
             return rv;
         } catch (XMLException e) {
@@ -212,6 +225,13 @@ class XOMTreeBuilder extends CoalescingTreeBuilder<Element> {
         return rv;
     }
 
+    /**
+     * Forgets the document built by the last parse without returning it.
+     */
+    void clearDocument() {
+        document = null;
+    }
+
     Nodes getDocumentFragment() {
         Element rootElt = document.getRootElement();
         Nodes rv = rootElt.removeChildren();
@@ -237,6 +257,7 @@ class XOMTreeBuilder extends CoalescingTreeBuilder<Element> {
                         attributes.getTypeNoBoundsCheck(i) == "ID" ? Attribute.Type.ID
                                 : Attribute.Type.CDATA));
             }
+            indexElement(rv, name, attributes);
             return rv;
         } catch (XMLException e) {
             fatal(e);
@@ -349,6 +370,9 @@ class XOMTreeBuilder extends CoalescingTreeBuilder<Element> {
     @Override protected void end() throws SAXException {
         cachedTableIndex = -1;
         cachedTable = null;
+        if (getElementIndex() != null && document instanceof ModalDocument) {
+            ((ModalDocument) document).setElementIndex(getElementIndex());
+        }
     }
 
     @Override
@@ -33,9 +33,20 @@ import org.xml.sax.Locator;
 public abstract class CharBufferNode extends Node {
 
     /**
-     * The buffer.
+     * The buffer. When the node was created in a <code>TextArena</code>, 
+     * this is a chunk of the arena that other nodes share.
      */
     protected final char[] buffer;
+
+    /**
+     * The offset of the text in the buffer.
+     */
+    protected final int start;
+
+    /**
+     * The length of the text.
+     */
+    protected final int length;
     
     /**
      * The constructor.
@@ -48,14 +59,55 @@ public abstract class CharBufferNode extends Node {
         super(locator);
         this.buffer = new char[length];
         System.arraycopy(buf, start, buffer, 0, length);
+        this.start = 0;
+        this.length = length;
     }
 
     /**
-     * Returns the buffer.
+     * The constructor for nodes whose text lives in an arena.
+     * @param locator the locator
+     * @param arena the arena to copy the text into
+     * @param buf the buffer
+     * @param start the offset
+     * @param length the length
+     */
+    CharBufferNode(Locator locator, TextArena arena, char[] buf, int start,
+            int length) {
+        super(locator);
+        this.start = arena.append(buf, start, length);
+        this.buffer = arena.lastBuffer();
+        this.length = length;
+    }
+
+    /**
+     * Returns the buffer. If the node shares its storage with other nodes, 
+     * this is a copy of the text of this node.
      * @return the buffer
      */
     public char[] getBuffer() {
-        return buffer;
+        if (start == 0 && length == buffer.length) {
+            return buffer;
+        }
+        char[] rv = new char[length];
+        System.arraycopy(buffer, start, rv, 0, length);
+        return rv;
+    }
+
+    /**
+     * Returns the length of the text.
+     * @return the length
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Copies the text of this node into an array.
+     * @param dst the destination
+     * @param dstStart the offset in the destination
+     */
+    public void getChars(char[] dst, int dstStart) {
+        System.arraycopy(buffer, start, dst, dstStart, length);
     }
 
     /**
@@ -65,6 +117,6 @@ public abstract class CharBufferNode extends Node {
      */
     @Override
     public String toString() {
-        return new String(buffer);
+        return new String(buffer, start, length);
     }
 }
@@ -45,13 +45,26 @@ public final class Comment extends CharBufferNode {
         super(locator, buf, start, length);
     }
 
+    /**
+     * The constructor.
+     * @param locator the locator
+     * @param arena the arena to copy the text into
+     * @param buf the buffer
+     * @param start the offset
+     * @param length the length
+     */
+    public Comment(Locator locator, TextArena arena, char[] buf,
+            int start, int length) {
+        super(locator, arena, buf, start, length);
+    }
+
     /**
      * 
      * @see nu.validator.saxtree.Node#visit(nu.validator.saxtree.TreeParser)
      */
     @Override
     void visit(TreeParser treeParser) throws SAXException {
-        treeParser.comment(buffer, 0, buffer.length, this);
+        treeParser.comment(buffer, start, length, this);
     }
 
     /**
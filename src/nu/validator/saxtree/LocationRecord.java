@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.saxtree;
+
+import org.xml.sax.Locator;
+import org.xml.sax.ext.Locator2;
+
+/**
+ * The document-level part of a location: the system id, the public id and 
+ * the encoding. These rarely change within a document, so nodes share one 
+ * record instead of each holding three references.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+final class LocationRecord {
+
+    final String systemId;
+
+    final String publicId;
+
+    final String encoding;
+
+    private LocationRecord(String systemId, String publicId, String encoding) {
+        this.systemId = systemId;
+        this.publicId = publicId;
+        this.encoding = encoding;
+    }
+
+    /**
+     * Returns a record for the current state of a locator, reusing the 
+     * previous record if it still applies.
+     * 
+     * @param locator
+     *            the locator
+     * @param previous
+     *            the previous record or <code>null</code>
+     * @return the record or <code>null</code> if the locator has no ids and 
+     *         no encoding
+     */
+    static LocationRecord of(Locator locator, LocationRecord previous) {
+        String systemId = locator.getSystemId();
+        String publicId = locator.getPublicId();
+        String encoding = locator instanceof Locator2 ? ((Locator2) locator).getEncoding()
+                : null;
+        if (systemId == null && publicId == null && encoding == null) {
+            return null;
+        }
+        if (previous != null && equal(previous.systemId, systemId)
+                && equal(previous.publicId, publicId)
+                && equal(previous.encoding, encoding)) {
+            return previous;
+        }
+        return new LocationRecord(systemId, publicId, encoding);
+    }
+
+    /**
+     * Returns the record for a locator that nodes are created with, sharing 
+     * the record of a <code>SharedLocator</code>, a node or a packed 
+     * locator.
+     * 
+     * @param locator
+     *            the locator
+     * @return the record or <code>null</code>
+     */
+    static LocationRecord recordFor(Locator locator) {
+        if (locator instanceof SharedLocator) {
+            return ((SharedLocator) locator).record();
+        } else if (locator instanceof Node) {
+            return ((Node) locator).record;
+        } else if (locator instanceof PackedLocator) {
+            return ((PackedLocator) locator).record;
+        }
+        return of(locator, null);
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == b || (a != null && a.equals(b));
+    }
+
+    /**
+     * Packs a line and a column into one <code>long</code>.
+     * 
+     * @param line the line
+     * @param column the column
+     * @return the packed position
+     */
+    static long pack(int line, int column) {
+        return ((long) line << 32) | (column & 0xFFFFFFFFL);
+    }
+
+    static int line(long position) {
+        return (int) (position >> 32);
+    }
+
+    static int column(long position) {
+        return (int) position;
+    }
+}
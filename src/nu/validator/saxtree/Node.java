@@ -38,29 +38,15 @@ import org.xml.sax.SAXException;
 public abstract class Node implements Locator, Locator2 {
 
     /**
-     * The system id.
+     * The system id, public id and encoding, shared with the other nodes 
+     * created while they were the same, or <code>null</code> if none.
      */
-    private final String systemId;
-    
-    /**
-     * The public id.
-     */
-    private final String publicId;
+    final LocationRecord record;
 
     /**
-     * The encoding.
-     */
-    private final String encoding;
-    
-    /**
-     * The column.
+     * The line and column packed by <code>LocationRecord.pack()</code>.
      */
-    private final int column;
-    
-    /**
-     * The line.
-     */
-    private final int line;
+    private final long position;
 
     /**
      * The next sibling.
@@ -79,21 +65,12 @@ public abstract class Node implements Locator, Locator2 {
      */
     Node(Locator locator) {
         if (locator == null) {
-            this.systemId = null;
-            this.publicId = null;
-            this.encoding = null;
-            this.column = -1;
-            this.line = -1;
+            this.record = null;
+            this.position = LocationRecord.pack(-1, -1);
         } else {
-            this.systemId = locator.getSystemId();
-            this.publicId = locator.getPublicId();
-            this.column = locator.getColumnNumber();
-            this.line = locator.getLineNumber();
-            if (locator instanceof Locator2) {
-                this.encoding = ((Locator2)locator).getEncoding();
-            } else {
-                this.encoding = null;
-            }
+            this.record = LocationRecord.recordFor(locator);
+            this.position = LocationRecord.pack(locator.getLineNumber(),
+                    locator.getColumnNumber());
         }
     }
     
@@ -102,7 +79,7 @@ public abstract class Node implements Locator, Locator2 {
      * @see org.xml.sax.Locator#getColumnNumber()
      */
     public int getColumnNumber() {
-        return column;
+        return LocationRecord.column(position);
     }
 
     /**
@@ -110,7 +87,7 @@ public abstract class Node implements Locator, Locator2 {
      * @see org.xml.sax.Locator#getLineNumber()
      */
     public int getLineNumber() {
-        return line;
+        return LocationRecord.line(position);
     }
 
     /**
@@ -118,7 +95,7 @@ public abstract class Node implements Locator, Locator2 {
      * @see org.xml.sax.Locator#getPublicId()
      */
     public String getPublicId() {
-        return publicId;
+        return record == null ? null : record.publicId;
     }
 
     /**
@@ -126,7 +103,7 @@ public abstract class Node implements Locator, Locator2 {
      * @see org.xml.sax.Locator#getSystemId()
      */
     public String getSystemId() {
-        return systemId;
+        return record == null ? null : record.systemId;
     }
 
     /**
@@ -140,7 +117,7 @@ public abstract class Node implements Locator, Locator2 {
      * @see org.xml.sax.ext.Locator2#getEncoding
      */
     public String getEncoding() {
-        return encoding;
+        return record == null ? null : record.encoding;
     }
 
     /**
@@ -238,6 +215,7 @@ public abstract class Node implements Locator, Locator2 {
         if (parentNode != null) {
             parentNode.removeChild(this);
             parentNode = null;
+            nextSibling = null;
         }
     }
     
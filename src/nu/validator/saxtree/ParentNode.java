@@ -61,7 +61,7 @@ public abstract class ParentNode extends Node {
      * @param endLocator the endLocator to set
      */
     public void setEndLocator(Locator endLocator) {
-        this.endLocator = new LocatorImpl(endLocator);
+        this.endLocator = endLocator == null ? null : new PackedLocator(endLocator);
     }
 
     /**
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.saxtree;
+
+import org.xml.sax.Locator;
+import org.xml.sax.ext.Locator2;
+
+/**
+ * A locator that reports the current position of another locator and lets 
+ * the nodes created with it share one record of the system id, public id 
+ * and encoding. Tree builders wrap the locator of the event source in one 
+ * of these so that each node only stores its line and column.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+public final class SharedLocator implements Locator, Locator2 {
+
+    private final Locator delegate;
+
+    private LocationRecord record = null;
+
+    /**
+     * The constructor.
+     * 
+     * @param delegate
+     *            the locator of the event source
+     */
+    public SharedLocator(Locator delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Returns the record for the current position, reusing the previous one 
+     * when the ids and encoding have not changed.
+     * 
+     * @return the record or <code>null</code>
+     */
+    LocationRecord record() {
+        record = LocationRecord.of(delegate, record);
+        return record;
+    }
+
+    /**
+     * @see org.xml.sax.Locator#getColumnNumber()
+     */
+    public int getColumnNumber() {
+        return delegate.getColumnNumber();
+    }
+
+    /**
+     * @see org.xml.sax.Locator#getLineNumber()
+     */
+    public int getLineNumber() {
+        return delegate.getLineNumber();
+    }
+
+    /**
+     * @see org.xml.sax.Locator#getPublicId()
+     */
+    public String getPublicId() {
+        return delegate.getPublicId();
+    }
+
+    /**
+     * @see org.xml.sax.Locator#getSystemId()
+     */
+    public String getSystemId() {
+        return delegate.getSystemId();
+    }
+
+    /**
+     * @see org.xml.sax.ext.Locator2#getXMLVersion()
+     */
+    public String getXMLVersion() {
+        return "1.0";
+    }
+
+    /**
+     * @see org.xml.sax.ext.Locator2#getEncoding()
+     */
+    public String getEncoding() {
+        return delegate instanceof Locator2 ? ((Locator2) delegate).getEncoding()
+                : null;
+    }
+}
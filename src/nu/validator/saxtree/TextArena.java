@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.saxtree;
+
+/**
+ * Storage shared by the character buffer nodes of a tree. Instead of each 
+ * node copying its text into an array of its own, the text is appended to 
+ * fixed-size chunks and the nodes point at their slice of a chunk. The 
+ * chunks are never reallocated, so the nodes can keep referring to them 
+ * directly as the arena grows. Runs longer than the chunk size get an array 
+ * of their own.
+ * 
+ * <p>An arena is not thread-safe. It is meant to be filled by the single 
+ * thread building a tree; the finished tree can be read concurrently.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+public final class TextArena {
+
+    /**
+     * The default chunk size in UTF-16 code units.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 8192;
+
+    private final int chunkSize;
+
+    /**
+     * The chunk currently being filled or <code>null</code>.
+     */
+    private char[] chunk = null;
+
+    /**
+     * The number of code units used in <code>chunk</code>.
+     */
+    private int used = 0;
+
+    /**
+     * The array that the last append went to.
+     */
+    private char[] lastBuffer = null;
+
+    /**
+     * The total number of code units appended.
+     */
+    private long length = 0;
+
+    /**
+     * The constructor.
+     */
+    public TextArena() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * The constructor.
+     * 
+     * @param chunkSize
+     *            the chunk size in UTF-16 code units
+     */
+    public TextArena(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive.");
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Copies a run of text into the arena. The array the text went to is 
+     * available from <code>lastBuffer()</code> afterwards.
+     * 
+     * @param buf
+     *            the source buffer
+     * @param start
+     *            the offset in the source buffer
+     * @param len
+     *            the length
+     * @return the offset of the copy in <code>lastBuffer()</code>
+     */
+    int append(char[] buf, int start, int len) {
+        length += len;
+        if (len > chunkSize) {
+            lastBuffer = new char[len];
+            System.arraycopy(buf, start, lastBuffer, 0, len);
+            return 0;
+        }
+        if (chunk == null || chunkSize - used < len) {
+            chunk = new char[chunkSize];
+            used = 0;
+        }
+        int offset = used;
+        System.arraycopy(buf, start, chunk, offset, len);
+        used += len;
+        lastBuffer = chunk;
+        return offset;
+    }
+
+    /**
+     * Returns the array that the last appended run was copied to.
+     * 
+     * @return the array
+     */
+    char[] lastBuffer() {
+        return lastBuffer;
+    }
+
+    /**
+     * Returns the total number of UTF-16 code units appended to the arena.
+     * 
+     * @return the length
+     */
+    public long getLength() {
+        return length;
+    }
+}
@@ -144,7 +144,7 @@ public class TreeBuilder implements ContentHandler, LexicalHandler {
      * @see org.xml.sax.ContentHandler#setDocumentLocator(org.xml.sax.Locator)
      */
     public void setDocumentLocator(Locator locator) {
-        this.locator = locator;
+        this.locator = locator == null ? null : new SharedLocator(locator);
     }
 
     public void skippedEntity(String name) throws SAXException {
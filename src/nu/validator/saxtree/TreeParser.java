@@ -106,6 +106,36 @@ public final class TreeParser implements Locator, Locator2 {
         }
     }
 
+    /**
+     * Emits the SAX events that precede the children of the argument node
+     * without descending into the children. For nodes that do not have
+     * children, this emits all the events of the node. Together with
+     * <code>endNode()</code>, this allows a tree to be emitted incrementally
+     * while it is still being built. The document locator is set when
+     * starting a <code>Document</code> node.
+     * 
+     * @param node
+     *            the node to start
+     * @throws SAXException
+     */
+    public void startNode(Node node) throws SAXException {
+        if (node.getNodeType() == NodeType.DOCUMENT) {
+            contentHandler.setDocumentLocator(this);
+        }
+        node.visit(this);
+    }
+
+    /**
+     * Emits the SAX events that follow the children of the argument node.
+     * 
+     * @param node
+     *            the node to end
+     * @throws SAXException
+     */
+    public void endNode(Node node) throws SAXException {
+        node.revisit(this);
+    }
+
     /**
      * @see org.xml.sax.ContentHandler#characters(char[], int, int)
      */
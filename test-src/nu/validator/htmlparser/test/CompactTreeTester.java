@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.channels.FileChannel;
+
+import nu.validator.htmlparser.common.XmlViolationPolicy;
+import nu.validator.htmlparser.compact.CompactDocument;
+import nu.validator.htmlparser.compact.CompactTree;
+import nu.validator.htmlparser.compact.HtmlCompactBuilder;
+import nu.validator.htmlparser.compact.OffHeapDocument;
+import nu.validator.htmlparser.sax.HtmlParser;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Checks that the compact tree builder builds the same trees as the SAX 
+ * tree builder, both on the heap and after copying off the heap or writing 
+ * to a file and mapping it. Exits with a non-zero status if a check fails.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+public class CompactTreeTester {
+
+    private static int failures = 0;
+
+    private static final String[] INPUTS = {
+            "<!DOCTYPE html><title>t</title><p class=a id=b>x<!--c-->y",
+            "<table><tr><td>a</td>b<td>c</table>",
+            "<b><i>x</b>y</i>z<p><b>1<p>2",
+            "<a href=x>1<div>2<a>3</a></div>",
+            "<template><td>x</td></template><svg viewBox='0 0 1 1'><g/>"
+                    + "<foreignObject><p>y</p></foreignObject></svg>",
+            "<math><mi>x</mi><annotation-xml encoding=text/html><p>y",
+            "<pre>\n\nx</pre><textarea>\ny</textarea><script>a<b</script>",
+            "<select><selectedcontent></selectedcontent>"
+                    + "<option>a<b>b</b></option><option>c</option></select>",
+            "<select><selectedcontent></selectedcontent><option>a</option>"
+                    + "<option selected><i>s</i>t</option></select>",
+            "<select><option><selectedcontent></selectedcontent>x</option>"
+                    + "</select>",
+            "<select><option>a<selectedcontent><b>b</b></selectedcontent>"
+                    + "c</option><option selected>d<selectedcontent>"
+                    + "</selectedcontent></option></select>",
+            "<select multiple><selectedcontent></selectedcontent>"
+                    + "<option>a</option></select>" };
+
+    private static String dumpSax(String html) throws SAXException,
+            IOException {
+        StringWriter writer = new StringWriter();
+        TreeDumpContentHandler dumper = new TreeDumpContentHandler(writer,
+                false);
+        HtmlParser parser = new HtmlParser(XmlViolationPolicy.ALLOW);
+        parser.setContentHandler(dumper);
+        parser.setLexicalHandler(dumper);
+        parser.parse(new InputSource(new StringReader(html)));
+        return writer.toString();
+    }
+
+    private static String dump(CompactTree tree) throws SAXException {
+        StringWriter writer = new StringWriter();
+        TreeDumpContentHandler dumper = new TreeDumpContentHandler(writer,
+                false);
+        tree.replay(dumper, dumper);
+        return writer.toString();
+    }
+
+    private static OffHeapDocument writeAndMap(CompactDocument document)
+            throws IOException {
+        File file = File.createTempFile("compact", ".bin");
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                FileChannel channel = raf.getChannel();
+                int length = OffHeapDocument.write(document, channel);
+                if (length != channel.size()) {
+                    failures++;
+                    System.out.println("FAIL: wrote " + length
+                            + " bytes, file has " + channel.size());
+                }
+                return OffHeapDocument.map(channel, 0);
+            } finally {
+                raf.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void check(String html) throws SAXException, IOException {
+        String expected = dumpSax(html);
+        HtmlCompactBuilder builder = new HtmlCompactBuilder();
+        builder.setIgnoringComments(false);
+        CompactDocument document = builder.parse(new InputSource(
+                new StringReader(html)));
+        String[] actual = { dump(document),
+                dump(OffHeapDocument.copyOf(document)),
+                dump(writeAndMap(document)) };
+        String[] labels = { "heap", "off-heap", "written" };
+        for (int i = 0; i < actual.length; i++) {
+            if (!expected.equals(actual[i])) {
+                failures++;
+                System.out.println("FAIL (" + labels[i] + "): " + html);
+                System.out.println("  expected:\n" + expected);
+                System.out.println("  got:\n" + actual[i]);
+            }
+        }
+    }
+
+    /**
+     * @param args
+     * @throws IOException
+     * @throws SAXException
+     */
+    public static void main(String[] args) throws SAXException, IOException {
+        for (String html : INPUTS) {
+            check(html);
+        }
+        // Larger than the buffer OffHeapDocument.write() encodes through
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            sb.append("<p class=c").append(i).append(">text ").append(i);
+        }
+        check(sb.toString());
+        if (failures == 0) {
+            System.out.println("All passed.");
+        } else {
+            System.out.println(failures + " failed.");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import nu.validator.htmlparser.common.XmlViolationPolicy;
+import nu.validator.htmlparser.sax.HtmlParser;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Times parsing of generated documents with misnested and unclosed 
+ * formatting elements that exercise the list of active formatting elements 
+ * and the adoption agency algorithm.
+ * 
+ * <p>Usage: <code>FormattingBenchmark [count [rounds]]</code>
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+public class FormattingBenchmark {
+
+    private static String unclosedDistinct(int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append("<b id=").append(i).append(">x");
+        }
+        return sb.toString();
+    }
+
+    private static String unclosedSame(int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append("<font color=red>x");
+        }
+        return sb.toString();
+    }
+
+    private static String strayEndTags(int count) {
+        StringBuilder sb = new StringBuilder(unclosedDistinct(count));
+        for (int i = 0; i < count; i++) {
+            sb.append("</i>y");
+        }
+        return sb.toString();
+    }
+
+    private static String misnestedInline(int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append("<b class=").append(i).append("><i><div>x</b>y</i></div>");
+        }
+        return sb.toString();
+    }
+
+    private static String nestedLinks(int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append("<em title=").append(i).append("><a href=").append(i).append(
+                    ">x");
+        }
+        return sb.toString();
+    }
+
+    private static long time(String doc) throws SAXException, IOException {
+        HtmlParser parser = new HtmlParser(XmlViolationPolicy.ALLOW);
+        parser.setContentHandler(new DefaultHandler());
+        long start = System.nanoTime();
+        parser.parse(new InputSource(new StringReader(doc)));
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    private static void run(String label, String doc, int rounds)
+            throws SAXException, IOException {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < rounds; i++) {
+            best = Math.min(best, time(doc));
+        }
+        System.out.println(label + ": " + best + " ms");
+    }
+
+    public static void main(String[] args) throws SAXException, IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        run("unclosed distinct <b>", unclosedDistinct(count), rounds);
+        run("unclosed identical <font>", unclosedSame(count), rounds);
+        run("stray </i> after unclosed <b>", strayEndTags(count), rounds);
+        run("<b> misnested with <div>", misnestedInline(count), rounds);
+        run("<a> inside unclosed <em>", nestedLinks(count), rounds);
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import nu.validator.htmlparser.common.XmlViolationPolicy;
+import nu.validator.htmlparser.sax.HtmlEventReader;
+import nu.validator.htmlparser.sax.HtmlParser;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.DefaultHandler2;
+
+/**
+ * Checks that <code>HtmlEventReader</code> pulls the same events that 
+ * <code>HtmlParser</code> pushes when buffering incrementally, that 
+ * <code>skipElement()</code> lands on the matching end tag and that the 
+ * accessors throw <code>IllegalStateException</code> when there is no 
+ * current event. Exits with a non-zero status if a check fails.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+public class HtmlEventReaderTester {
+
+    private static int failures = 0;
+
+    private static final String[] INPUTS = {
+            "<!DOCTYPE html><title>t</title><p class=a id=b>x<!--c-->y<p>z",
+            "<table><tr><td>a</td>b<td>c</table>after",
+            "<b><i>x</b>y</i>z<p><b>1<p>2",
+            "<select><selectedcontent></selectedcontent><option>a<b>b</b>"
+                    + "<option selected>c</select><p>d",
+            "<svg><g><foreignObject><p>x</p></foreignObject></g></svg>",
+            "<frameset><frame></frameset>" };
+
+    private static String element(String prefix, String localName,
+            Attributes atts) {
+        StringBuilder sb = new StringBuilder(prefix);
+        sb.append(localName);
+        if (atts != null) {
+            for (int i = 0; i < atts.getLength(); i++) {
+                sb.append(' ').append(atts.getQName(i)).append('=').append(
+                        atts.getValue(i));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static final class Recorder extends DefaultHandler2 {
+
+        final List<String> events = new ArrayList<String>();
+
+        final StringBuilder text = new StringBuilder();
+
+        private void flushText() {
+            if (text.length() > 0) {
+                events.add("\"" + text);
+                text.setLength(0);
+            }
+        }
+
+        @Override public void startDTD(String name, String publicId,
+                String systemId) {
+            events.add("!DOCTYPE " + name);
+        }
+
+        @Override public void startElement(String uri, String localName,
+                String qName, Attributes atts) {
+            flushText();
+            events.add(element("(", localName, atts));
+        }
+
+        @Override public void endElement(String uri, String localName,
+                String qName) {
+            flushText();
+            events.add(")" + localName);
+        }
+
+        @Override public void characters(char[] ch, int start, int length) {
+            text.append(ch, start, length);
+        }
+
+        @Override public void comment(char[] ch, int start, int length) {
+            flushText();
+            events.add("!" + new String(ch, start, length));
+        }
+
+        @Override public void endDocument() {
+            flushText();
+        }
+    }
+
+    private static List<String> push(String html) throws SAXException,
+            IOException {
+        Recorder recorder = new Recorder();
+        HtmlParser parser = new HtmlParser(XmlViolationPolicy.ALLOW);
+        parser.setBufferingIncrementally(true);
+        parser.setReportingDoctype(true);
+        parser.setContentHandler(recorder);
+        parser.setLexicalHandler(recorder);
+        parser.parse(new InputSource(new StringReader(html)));
+        return recorder.events;
+    }
+
+    private static List<String> pull(String html) throws SAXException,
+            IOException {
+        List<String> events = new ArrayList<String>();
+        StringBuilder text = new StringBuilder();
+        HtmlEventReader reader = new HtmlEventReader(XmlViolationPolicy.ALLOW);
+        reader.setInput(new InputSource(new StringReader(html)));
+        while (reader.hasNext()) {
+            int type = reader.next();
+            if (type != HtmlEventReader.CHARACTERS && text.length() > 0) {
+                events.add("\"" + text);
+                text.setLength(0);
+            }
+            switch (type) {
+                case HtmlEventReader.DTD:
+                    events.add("!DOCTYPE " + reader.getLocalName());
+                    break;
+                case HtmlEventReader.START_ELEMENT:
+                    events.add(element("(", reader.getLocalName(),
+                            reader.getAttributes()));
+                    break;
+                case HtmlEventReader.END_ELEMENT:
+                    events.add(")" + reader.getLocalName());
+                    break;
+                case HtmlEventReader.CHARACTERS:
+                    text.append(reader.getText());
+                    break;
+                case HtmlEventReader.COMMENT:
+                    events.add("!" + reader.getText());
+                    break;
+                default:
+                    break;
+            }
+        }
+        reader.close();
+        return events;
+    }
+
+    private static void checkEvents(String html) throws SAXException,
+            IOException {
+        List<String> expected = push(html);
+        List<String> actual = pull(html);
+        if (!expected.equals(actual)) {
+            failures++;
+            System.out.println("FAIL: " + html);
+            System.out.println("  expected " + expected);
+            System.out.println("  got      " + actual);
+        }
+    }
+
+    private static void checkSkip() throws SAXException, IOException {
+        HtmlEventReader reader = new HtmlEventReader();
+        reader.setInput(new InputSource(new StringReader(
+                "<div><p>a<b>b</b></p><div>c</div></div><i>d</i>")));
+        while (reader.next() != HtmlEventReader.START_ELEMENT
+                || !"div".equals(reader.getLocalName())) {
+            // skip to the first div
+        }
+        reader.skipElement();
+        String end = reader.getEventType() + " " + reader.getLocalName();
+        reader.next();
+        String after = reader.getEventType() + " " + reader.getLocalName();
+        reader.close();
+        if (!end.equals(HtmlEventReader.END_ELEMENT + " div")
+                || !after.equals(HtmlEventReader.START_ELEMENT + " i")) {
+            failures++;
+            System.out.println("FAIL: skipElement() ended at " + end
+                    + " followed by " + after);
+        }
+    }
+
+    private static void checkNoCurrentEvent(HtmlEventReader reader,
+            String when) {
+        String[] names = { "getEventType", "getNamespaceURI", "getLocalName",
+                "getAttributes", "getText", "getTextCharacters",
+                "getTextStart", "getTextLength", "getPublicIdentifier",
+                "getSystemIdentifier", "getLineNumber", "getColumnNumber" };
+        for (int i = 0; i < names.length; i++) {
+            try {
+                switch (i) {
+                    case 0:
+                        reader.getEventType();
+                        break;
+                    case 1:
+                        reader.getNamespaceURI();
+                        break;
+                    case 2:
+                        reader.getLocalName();
+                        break;
+                    case 3:
+                        reader.getAttributes();
+                        break;
+                    case 4:
+                        reader.getText();
+                        break;
+                    case 5:
+                        reader.getTextCharacters();
+                        break;
+                    case 6:
+                        reader.getTextStart();
+                        break;
+                    case 7:
+                        reader.getTextLength();
+                        break;
+                    case 8:
+                        reader.getPublicIdentifier();
+                        break;
+                    case 9:
+                        reader.getSystemIdentifier();
+                        break;
+                    case 10:
+                        reader.getLineNumber();
+                        break;
+                    default:
+                        reader.getColumnNumber();
+                        break;
+                }
+                failures++;
+                System.out.println("FAIL: " + names[i] + "() " + when
+                        + " did not throw");
+            } catch (IllegalStateException e) {
+                // expected
+            } catch (RuntimeException e) {
+                failures++;
+                System.out.println("FAIL: " + names[i] + "() " + when
+                        + " threw " + e);
+            }
+        }
+    }
+
+    private static void checkState() throws SAXException, IOException {
+        HtmlEventReader reader = new HtmlEventReader();
+        checkNoCurrentEvent(reader, "before input");
+        reader.setInput(new InputSource(new StringReader("<p>x")));
+        reader.next();
+        reader.close();
+        checkNoCurrentEvent(reader, "after close");
+        reader.setInput(new InputSource(new StringReader(
+                "<p>x<!-- a -- b -->y")));
+        try {
+            while (reader.hasNext()) {
+                reader.next();
+            }
+            failures++;
+            System.out.println("FAIL: no fatal error");
+        } catch (SAXException e) {
+            checkNoCurrentEvent(reader, "after a fatal error");
+        }
+    }
+
+    /**
+     * @param args
+     * @throws IOException
+     * @throws SAXException
+     */
+    public static void main(String[] args) throws SAXException, IOException {
+        for (String html : INPUTS) {
+            checkEvents(html);
+        }
+        checkSkip();
+        checkState();
+        if (failures == 0) {
+            System.out.println("All passed.");
+        } else {
+            System.out.println(failures + " failed.");
+            System.exit(1);
+        }
+    }
+}
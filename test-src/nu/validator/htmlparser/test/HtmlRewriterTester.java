@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Random;
+
+import nu.validator.htmlparser.rewrite.HtmlRewriter;
+import nu.validator.htmlparser.rewrite.RewriteHandler;
+import nu.validator.htmlparser.rewrite.Tag;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Checks that <code>HtmlRewriter</code> copies its input verbatim when the 
+ * handler changes nothing, however the input is split into reads, and that 
+ * edits only touch the edited tokens. Exits with a non-zero status if a 
+ * check fails.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+public class HtmlRewriterTester {
+
+    private static int failures = 0;
+
+    private static final String[] INPUTS = {
+            "<!DOCTYPE html>\r\n<html lang=en><head><title>a < b</title>",
+            "<a  HREF='/x?a=1&amp;b=2' class=k>t</a><!-- c --><img src=\"a.png\">",
+            "<script>var s = '<a href=q>'; if (a<!--b) {}</script><p>x",
+            "<style>p > a { color: red }</style><textarea><b>x</textarea>",
+            "<svg><style><a href=x></style><![CDATA[<p>]]></svg><title><i></title>",
+            "<math><annotation-xml encoding=text/html><style>x</style>",
+            "<plaintext><a href=x></plaintext>",
+            "<p>\u0000 &nosuch; &amp &#x41; \uD800</p><!-- tail",
+            "<!<> <? pi ?> </ x> <a b='c' b=d/> <!---> <!----!> <",
+            "" };
+
+    private static final String[] BITS = { "<", "</", "<!--", "-->", "--",
+            ">", "/>", "'", "\"", "=", "a", "script", "style", "title",
+            "textarea", "svg", "math", "p", " ", "\r", "\n", "\r\n", "x",
+            "&amp;", "&", "<![CDATA[", "]]>", "<!DOCTYPE html>", "<?", "!",
+            "-", "</script>", "</style>", "<script>", "<title>", "<svg>",
+            "</svg>", "<a href=x>", "\u0000", "plaintext", "<iframe>",
+            "</iframe>", " id=y", " b='c'", "<a", "</a>" };
+
+    private static final class Noop implements RewriteHandler {
+
+        public void startTag(Tag tag) {
+        }
+
+        public void endTag(Tag tag) {
+        }
+
+        public boolean comment(char[] buf, int start, int length) {
+            return true;
+        }
+    }
+
+    /**
+     * Returns the input in reads of random lengths.
+     */
+    private static final class ChunkedReader extends Reader {
+
+        private final String data;
+
+        private final Random random;
+
+        private int pos = 0;
+
+        ChunkedReader(String data, Random random) {
+            this.data = data;
+            this.random = random;
+        }
+
+        @Override public int read(char[] cbuf, int off, int len) {
+            if (pos == data.length()) {
+                return -1;
+            }
+            int n = Math.min(Math.min(len, 1 + random.nextInt(7)),
+                    data.length() - pos);
+            data.getChars(pos, pos + n, cbuf, off);
+            pos += n;
+            return n;
+        }
+
+        @Override public void close() {
+        }
+    }
+
+    private static String rewrite(String html, RewriteHandler handler,
+            Random random) throws SAXException, IOException {
+        StringWriter writer = new StringWriter();
+        new HtmlRewriter(handler).rewrite(random == null ? new StringReader(
+                html) : new ChunkedReader(html, random), writer);
+        return writer.toString();
+    }
+
+    private static void check(String what, String input, String expected,
+            String actual) {
+        if (!expected.equals(actual)) {
+            failures++;
+            System.out.println("FAIL (" + what + "): " + escape(input));
+            System.out.println("  expected " + escape(expected));
+            System.out.println("  got      " + escape(actual));
+        }
+    }
+
+    private static void checkPassthrough(String html, Random random)
+            throws SAXException, IOException {
+        check("whole", html, html, rewrite(html, new Noop(), null));
+        check("chunked", html, html, rewrite(html, new Noop(), random));
+    }
+
+    private static void checkEdits() throws SAXException, IOException {
+        String html = "<!DOCTYPE html>\r\n<a  HREF='/x' class=k>t</a>"
+                + "<!-- c --><img src=\"a.png\"><script>var s='<a href=q>';"
+                + "</script><b>x</b>";
+        String expected = "<!DOCTYPE html>\r\n<a href=\"https://cdn/x\" "
+                + "class=\"k\">t</a><img src=\"a.png\"><script>var s='<a href=q>';"
+                + "</script>x";
+        RewriteHandler handler = new RewriteHandler() {
+            public void startTag(Tag tag) {
+                String href = tag.getAttributeValue("href");
+                if (href != null) {
+                    tag.setAttribute("href", "https://cdn" + href);
+                }
+                if ("b".equals(tag.getName())) {
+                    tag.remove();
+                }
+            }
+
+            public void endTag(Tag tag) {
+                if ("b".equals(tag.getName())) {
+                    tag.remove();
+                }
+            }
+
+            public boolean comment(char[] buf, int start, int length) {
+                return false;
+            }
+        };
+        check("edits", html, expected, rewrite(html, handler, null));
+        check("edits chunked", html, expected, rewrite(html, handler,
+                new Random(1)));
+    }
+
+    private static String escape(String s) {
+        return s.replace("\r", "\\r").replace("\n", "\\n").replace("\u0000",
+                "\\0");
+    }
+
+    /**
+     * @param args
+     * @throws IOException
+     * @throws SAXException
+     */
+    public static void main(String[] args) throws SAXException, IOException {
+        Random random = new Random(42);
+        for (String html : INPUTS) {
+            checkPassthrough(html, random);
+        }
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int n = random.nextInt(80);
+            for (int j = 0; j < n; j++) {
+                sb.append(BITS[random.nextInt(BITS.length)]);
+            }
+            checkPassthrough(sb.toString(), random);
+        }
+        checkEdits();
+        if (failures == 0) {
+            System.out.println("All passed.");
+        } else {
+            System.out.println(failures + " failed.");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import nu.validator.htmlparser.common.XmlViolationPolicy;
+import nu.validator.htmlparser.sax.HtmlParser;
+import nu.validator.htmlparser.sax.ParseCache;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.DefaultHandler2;
+
+/**
+ * Checks that <code>ParseCache</code> reports the same events, errors and 
+ * positions on a miss, on a memory hit and on a disk hit as a direct parse, 
+ * and that truncated or corrupted disk entries are treated as misses. Exits 
+ * with a non-zero status if a check fails.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+public class ParseCacheTester {
+
+    private static int failures = 0;
+
+    private static final String[] INPUTS = {
+            "<!DOCTYPE html><title>t</title><p class=a>x<!--c-->y",
+            "<table><tr><td>a</td>b<td>c</table>after",
+            "<b><i>x</b>y</i>z<p>1\u0000<p>2",
+            "<p>caf\u00E9 \uD83D\uDE00 \uD800 &amp; &nosuch;",
+            "<svg><g/><foreignObject><p>x</p></foreignObject></svg>" };
+
+    private static final class Recorder extends DefaultHandler2 {
+
+        final List<String> events = new ArrayList<String>();
+
+        private Locator locator;
+
+        private String at() {
+            return locator == null ? "" : locator.getLineNumber() + ":"
+                    + locator.getColumnNumber() + " ";
+        }
+
+        @Override public void setDocumentLocator(Locator locator) {
+            this.locator = locator;
+        }
+
+        @Override public void startElement(String uri, String localName,
+                String qName, Attributes atts) {
+            StringBuilder sb = new StringBuilder(at());
+            sb.append('(').append(localName);
+            for (int i = 0; i < atts.getLength(); i++) {
+                sb.append(' ').append(atts.getQName(i)).append('=').append(
+                        atts.getValue(i));
+            }
+            events.add(sb.toString());
+        }
+
+        @Override public void endElement(String uri, String localName,
+                String qName) {
+            events.add(at() + ")" + localName);
+        }
+
+        @Override public void characters(char[] ch, int start, int length) {
+            events.add(at() + "\"" + new String(ch, start, length));
+        }
+
+        @Override public void comment(char[] ch, int start, int length) {
+            events.add(at() + "!" + new String(ch, start, length));
+        }
+
+        @Override public void startDTD(String name, String publicId,
+                String systemId) {
+            events.add(at() + "!DOCTYPE " + name);
+        }
+
+        @Override public void error(SAXParseException e) {
+            events.add("E " + e.getLineNumber() + ":" + e.getColumnNumber()
+                    + " " + e.getMessage());
+        }
+
+        @Override public void warning(SAXParseException e) {
+            events.add("W " + e.getLineNumber() + ":" + e.getColumnNumber()
+                    + " " + e.getMessage());
+        }
+    }
+
+    private static List<String> parse(String html, ParseCache cache)
+            throws SAXException, IOException {
+        Recorder recorder = new Recorder();
+        HtmlParser parser = new HtmlParser(XmlViolationPolicy.ALLOW);
+        parser.setContentHandler(recorder);
+        parser.setLexicalHandler(recorder);
+        parser.setErrorHandler(recorder);
+        InputSource is = new InputSource(new StringReader(html));
+        if (cache == null) {
+            parser.parse(is);
+        } else {
+            cache.parse(parser, is);
+        }
+        return recorder.events;
+    }
+
+    private static void check(String what, String html, List<String> expected,
+            List<String> actual) {
+        if (!expected.equals(actual)) {
+            failures++;
+            System.out.println("FAIL (" + what + "): " + html);
+            System.out.println("  expected " + expected);
+            System.out.println("  got      " + actual);
+        }
+    }
+
+    private static void checkCounts(String what, ParseCache cache, long hits,
+            long misses) {
+        if (cache.getHitCount() != hits || cache.getMissCount() != misses) {
+            failures++;
+            System.out.println("FAIL (" + what + "): " + cache.getHitCount()
+                    + " hits and " + cache.getMissCount()
+                    + " misses, expected " + hits + " and " + misses);
+        }
+    }
+
+    private static void damage(File directory, boolean truncate)
+            throws IOException {
+        for (File file : directory.listFiles()) {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                long length = raf.length();
+                if (truncate) {
+                    raf.setLength(length - 3);
+                } else {
+                    raf.seek(length / 2);
+                    int b = raf.read();
+                    raf.seek(length / 2);
+                    raf.write(b ^ 0x20);
+                }
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    private static void delete(File directory) {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    /**
+     * @param args
+     * @throws IOException
+     * @throws SAXException
+     */
+    public static void main(String[] args) throws SAXException, IOException {
+        File directory = File.createTempFile("parsecache", "");
+        directory.delete();
+        directory.mkdir();
+        try {
+            for (String html : INPUTS) {
+                List<String> expected = parse(html, null);
+                ParseCache cache = new ParseCache(1024 * 1024, directory);
+                check("miss", html, expected, parse(html, cache));
+                check("memory hit", html, expected, parse(html, cache));
+                checkCounts("memory", cache, 1, 1);
+                ParseCache fresh = new ParseCache(1024 * 1024, directory);
+                check("disk hit", html, expected, parse(html, fresh));
+                checkCounts("disk", fresh, 1, 0);
+                for (int i = 0; i < 2; i++) {
+                    damage(directory, i == 0);
+                    fresh = new ParseCache(1024 * 1024, directory);
+                    check("damaged", html, expected, parse(html, fresh));
+                    checkCounts("damaged", fresh, 0, 1);
+                    // The damaged file was replaced.
+                    fresh = new ParseCache(1024 * 1024, directory);
+                    check("rewritten", html, expected, parse(html, fresh));
+                    checkCounts("rewritten", fresh, 1, 0);
+                }
+                for (File file : directory.listFiles()) {
+                    file.delete();
+                }
+            }
+        } finally {
+            delete(directory);
+        }
+        if (failures == 0) {
+            System.out.println("All passed.");
+        } else {
+            System.out.println(failures + " failed.");
+            System.exit(1);
+        }
+    }
+}
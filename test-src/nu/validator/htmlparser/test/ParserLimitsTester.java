@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import nu.validator.htmlparser.common.ParserLimits;
+import nu.validator.htmlparser.common.XmlViolationPolicy;
+import nu.validator.htmlparser.sax.HtmlParser;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.ext.DefaultHandler2;
+
+/**
+ * Checks that comment, attribute value and name length limits truncate the 
+ * same way and report the truncation once wherever the input buffer 
+ * boundaries fall. Each input is split into two reads at every offset. Also 
+ * checks that the limits fail under <code>FATAL</code> and keep the 
+ * tokenizer buffer bounded. Exits with a non-zero status if a check fails.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+public class ParserLimitsTester {
+
+    private static int failures = 0;
+
+    private static final String[] COMMENTS = { "<!--abcdef-->x",
+            "<!--abcdef--!>x", "<!--abcdef-x-->x", "<!--abcdef---->x",
+            "<!--ab<!--cd-->x", "<!--ab<!-cd-->x", "<!---->x", "<!--->x",
+            "<!--abcdef--", "<!--abcdef-", "<!--abcdef--!", "<?abcdef>x",
+            "<!abc-def>x" };
+
+    private static final String[] ATTRIBUTES = { "<p title=abcdef>x",
+            "<p title='abcdef'>x", "<p title=\"ab&amp;cdef\">x",
+            "<p title=abcdef a b c>x" };
+
+    private static final String[] NAMES = { "<abcdef>x",
+            "<abcdef></abcdef>x", "<abcdef/>x", "<p abcdef>x",
+            "<p abcdef=x ghijkl>x", "<p abcdef/>x", "<abcdef", "<p abcdef",
+            "<!DOCTYPE abcdef>x", "<!DOCTYPE abcdef",
+            "<!DOCTYPE html PUBLIC \"abcdef\" 'ghijkl'>x",
+            "<!DOCTYPE html PUBLIC 'abcdef'>x",
+            "<!DOCTYPE html SYSTEM \"abcdef\">x",
+            "<!DOCTYPE html PUBLIC \"abcdef",
+            "<!DOCTYPE html SYSTEM 'abcdef" };
+
+    private static final String[] LONG_PREFIXES = { "<a", "<a ",
+            "<!DOCTYPE ", "<!DOCTYPE html PUBLIC \"",
+            "<!DOCTYPE html PUBLIC 'a' \"", "<!DOCTYPE html SYSTEM '",
+            "<p title='", "<!--" };
+
+    private static final int COMMENT = 0;
+
+    private static final int ATTRIBUTE_VALUE = 1;
+
+    private static final int NAME = 2;
+
+    /**
+     * Returns at most <code>split</code> characters on the first read.
+     */
+    private static final class SplitReader extends Reader {
+
+        private final String data;
+
+        private int split;
+
+        private int pos = 0;
+
+        SplitReader(String data, int split) {
+            this.data = data;
+            this.split = split;
+        }
+
+        @Override public int read(char[] cbuf, int off, int len) {
+            if (pos == data.length()) {
+                return -1;
+            }
+            int end = data.length();
+            if (pos < split) {
+                end = split;
+            }
+            int n = Math.min(len, end - pos);
+            data.getChars(pos, pos + n, cbuf, off);
+            pos += n;
+            return n;
+        }
+
+        @Override public void close() {
+        }
+    }
+
+    private static final class Recorder extends DefaultHandler2 {
+
+        private final int kind;
+
+        final List<String> tokens = new ArrayList<String>();
+
+        int truncations = 0;
+
+        Recorder(int kind) {
+            this.kind = kind;
+        }
+
+        @Override public void comment(char[] ch, int start, int length) {
+            if (kind == COMMENT) {
+                tokens.add(new String(ch, start, length));
+            }
+        }
+
+        @Override public void startDTD(String name, String publicId,
+                String systemId) {
+            if (kind == NAME) {
+                tokens.add(name);
+                if (publicId != null) {
+                    tokens.add(publicId);
+                }
+                if (systemId != null) {
+                    tokens.add(systemId);
+                }
+            }
+        }
+
+        @Override public void startElement(String uri, String localName,
+                String qName, Attributes atts) {
+            if (kind == ATTRIBUTE_VALUE) {
+                String title = atts.getValue("", "title");
+                if (title != null) {
+                    tokens.add(title);
+                }
+            } else if (kind == NAME) {
+                addElementName(localName);
+                for (int i = 0; i < atts.getLength(); i++) {
+                    tokens.add(atts.getLocalName(i));
+                }
+            }
+        }
+
+        @Override public void endElement(String uri, String localName,
+                String qName) {
+            if (kind == NAME) {
+                addElementName(localName);
+            }
+        }
+
+        private void addElementName(String localName) {
+            // The implied elements are not tokenized.
+            if (!"html".equals(localName) && !"head".equals(localName)
+                    && !"body".equals(localName)) {
+                tokens.add(localName);
+            }
+        }
+
+        @Override public void warning(SAXParseException e) {
+            if (e.getMessage().contains("truncated")) {
+                truncations++;
+            }
+        }
+    }
+
+    private static Recorder parse(String html, int split, int kind,
+            ParserLimits limits) throws SAXException, IOException {
+        Recorder recorder = new Recorder(kind);
+        HtmlParser parser = new HtmlParser(XmlViolationPolicy.ALLOW);
+        parser.setContentHandler(recorder);
+        parser.setLexicalHandler(recorder);
+        parser.setErrorHandler(recorder);
+        parser.setParserLimits(limits);
+        parser.parse(new InputSource(new SplitReader(html, split)));
+        return recorder;
+    }
+
+    private static ParserLimits limits(int kind, int max) {
+        ParserLimits limits = new ParserLimits();
+        if (kind == COMMENT) {
+            limits.setMaxCommentLength(max);
+        } else if (kind == ATTRIBUTE_VALUE) {
+            limits.setMaxAttributeValueLength(max);
+            limits.setMaxAttributesPerElement(2);
+        } else {
+            limits.setMaxTokenLength(max);
+        }
+        return limits;
+    }
+
+    private static void check(String html, int max, int kind)
+            throws SAXException, IOException {
+        List<String> full = parse(html, html.length(), kind, null).tokens;
+        List<String> expected = new ArrayList<String>();
+        int expectedTruncations = 0;
+        for (String token : full) {
+            if (token.length() > max) {
+                token = token.substring(0, max);
+                expectedTruncations++;
+            }
+            expected.add(token);
+        }
+        ParserLimits limits = limits(kind, max);
+        if (kind == NAME) {
+            // An element name is reported at both ends of the element but
+            // truncated once per tag, so compare with the unsplit parse.
+            int unsplit = parse(html, html.length(), kind, limits).truncations;
+            if (expectedTruncations > 0 && unsplit == 0) {
+                failures++;
+                System.out.println("FAIL: " + html + " limit " + max
+                        + " truncated without a warning");
+            }
+            expectedTruncations = unsplit;
+        }
+        for (int split = 1; split <= html.length(); split++) {
+            Recorder recorder;
+            try {
+                recorder = parse(html, split, kind, limits);
+            } catch (RuntimeException e) {
+                failures++;
+                System.out.println("FAIL: " + html + " split at " + split
+                        + " limit " + max + ": " + e);
+                continue;
+            }
+            if (!recorder.tokens.equals(expected)
+                    || recorder.truncations != expectedTruncations) {
+                failures++;
+                System.out.println("FAIL: " + html + " split at " + split
+                        + " limit " + max);
+                System.out.println("  expected " + expected + ", "
+                        + expectedTruncations + " warnings");
+                System.out.println("  got      " + recorder.tokens + ", "
+                        + recorder.truncations + " warnings");
+            }
+        }
+    }
+
+    private static void checkFatal(String html, int max, int kind)
+            throws IOException {
+        ParserLimits limits = limits(kind, max);
+        limits.setPolicy(XmlViolationPolicy.FATAL);
+        for (int split = 1; split <= html.length(); split++) {
+            try {
+                parse(html, split, kind, limits);
+                failures++;
+                System.out.println("FAIL: " + html + " split at " + split
+                        + " limit " + max + " did not fail");
+            } catch (SAXParseException e) {
+                // expected
+            } catch (SAXException e) {
+                failures++;
+                System.out.println("FAIL: " + html + " split at " + split
+                        + ": " + e);
+            }
+        }
+    }
+
+    private static void checkBufferBounded(String prefix)
+            throws SAXException, IOException {
+        StringBuilder sb = new StringBuilder(prefix);
+        for (int i = 0; i < 1000000; i++) {
+            sb.append('x');
+        }
+        ParserLimits limits = new ParserLimits();
+        limits.setMaxAttributeValueLength(100);
+        limits.setMaxCommentLength(100);
+        limits.setMaxTokenLength(100);
+        HtmlParser parser = new HtmlParser(XmlViolationPolicy.ALLOW);
+        parser.setContentHandler(new DefaultHandler2());
+        parser.setParserLimits(limits);
+        parser.parse(new InputSource(new StringReader(sb.toString())));
+        int peak = parser.getPeakTokenizerBufferLength();
+        if (peak > 10000) {
+            failures++;
+            System.out.println("FAIL: " + prefix + "x... grew the buffer to "
+                    + peak);
+        }
+    }
+
+    private static void checkMaxDepth(int maxDepth, boolean valid) {
+        try {
+            new ParserLimits().setMaxDepth(maxDepth);
+            if (!valid) {
+                failures++;
+                System.out.println("FAIL: depth limit " + maxDepth
+                        + " accepted");
+            }
+        } catch (IllegalArgumentException e) {
+            if (valid) {
+                failures++;
+                System.out.println("FAIL: depth limit " + maxDepth
+                        + " rejected");
+            }
+        }
+    }
+
+    /**
+     * @param args
+     * @throws IOException
+     * @throws SAXException
+     */
+    public static void main(String[] args) throws SAXException, IOException {
+        int[] maxes = { 0, 1, 3, 6, 20 };
+        for (int max : maxes) {
+            for (String html : COMMENTS) {
+                check(html, max, COMMENT);
+            }
+            for (String html : ATTRIBUTES) {
+                check(html, max, ATTRIBUTE_VALUE);
+            }
+            if (max > 0) {
+                for (String html : NAMES) {
+                    check(html, max, NAME);
+                }
+            }
+        }
+        for (String html : NAMES) {
+            // A tag cut off by the end of the input is dropped unfinished.
+            if (html.endsWith(">x") || html.startsWith("<!")) {
+                checkFatal(html, 3, NAME);
+            }
+        }
+        for (String prefix : LONG_PREFIXES) {
+            checkBufferBounded(prefix);
+        }
+        checkMaxDepth(-1, true);
+        checkMaxDepth(2, true);
+        checkMaxDepth(513, true);
+        checkMaxDepth(1, false);
+        checkMaxDepth(0, false);
+        checkMaxDepth(-2, false);
+        if (failures == 0) {
+            System.out.println("All passed.");
+        } else {
+            System.out.println(failures + " failed.");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import nu.validator.htmlparser.common.ResourceUrlHandler;
+import nu.validator.htmlparser.io.PreloadScanner;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Checks the URLs that <code>PreloadScanner</code> reports, in particular 
+ * around foreign content and URLs that need escaping. Exits with a 
+ * non-zero status if a check fails.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+public class PreloadScannerTester {
+
+    private static int failures = 0;
+
+    private static List<String> scan(String html, String systemId)
+            throws SAXException, IOException {
+        final List<String> urls = new ArrayList<String>();
+        PreloadScanner scanner = new PreloadScanner(new ResourceUrlHandler() {
+            public void resourceUrl(String url, String localName,
+                    String attributeName, Attributes attributes)
+                    throws SAXException {
+                urls.add(url);
+            }
+        });
+        InputSource is = new InputSource(new StringReader(html));
+        is.setSystemId(systemId);
+        scanner.scan(is);
+        return urls;
+    }
+
+    private static void check(String html, String systemId,
+            String... expected) throws SAXException, IOException {
+        List<String> actual = scan(html, systemId);
+        if (!actual.equals(Arrays.asList(expected))) {
+            failures++;
+            System.out.println("FAIL: " + html);
+            System.out.println("  expected " + Arrays.asList(expected));
+            System.out.println("  got      " + actual);
+        }
+    }
+
+    /**
+     * @param args
+     * @throws IOException
+     * @throws SAXException
+     */
+    public static void main(String[] args) throws SAXException, IOException {
+        check("<img src=a.png><script src=s.js></script><link href=c.css>",
+                null, "a.png", "s.js", "c.css");
+        check("<script>document.write('<img src=x.png>')</script><img src=y.png>",
+                null, "y.png");
+        check("<textarea><img src=x.png></textarea><img src=y.png>", null,
+                "y.png");
+        check("<img srcset='a.png 1x, b.png 2x'>", null, "a.png", "b.png");
+        // foreign content
+        check("<svg><image src=x.png></image></svg><img src=y.png>", null,
+                "y.png");
+        check("<svg><img src=a.png><p>x</p><img src=b.png>", null, "a.png",
+                "b.png");
+        check("<svg><g><font color=red><img src=a.png>", null, "a.png");
+        check("<svg><font><img src=a.png>", null, "a.png");
+        check("<svg><g><font></font></g></svg><img src=a.png>", null,
+                "a.png");
+        check("<math><mtext><img src=m.png>", null, "m.png");
+        check("<math><mi><img src=m.png></mi><mo></mo></math><img src=n.png>",
+                null, "m.png", "n.png");
+        check("<svg><foreignObject><img src=f.png><svg><image src=x.png>"
+                + "</svg><img src=g.png></foreignObject><image src=y.png>"
+                + "</svg><img src=h.png>", null, "f.png", "g.png", "h.png");
+        check("<svg><desc><script src=s.js></script></desc></svg>", null,
+                "s.js");
+        check("<math><annotation-xml encoding='text/html'><img src=a.png>"
+                + "</annotation-xml><annotation-xml><img src=b.png>", null,
+                "a.png", "b.png");
+        check("<svg><title><style><img src=x.png></style></title>"
+                + "<img src=a.png>", null, "a.png");
+        // resolution and escaping
+        check("<img src=a.png>", "http://example.org/dir/page.html",
+                "http://example.org/dir/a.png");
+        check("<base href='http://example.com/x/'><img src='a b.png'>"
+                + "<img src=\u00E9.png><img src='c.png#f#g'><img src='100%.png'>",
+                null, "http://example.com/x/a%20b.png",
+                "http://example.com/x/%C3%A9.png",
+                "http://example.com/x/c.png#f%23g",
+                "http://example.com/x/100%25.png");
+        check("<img src='a%20b.png'><img src='{x}.png'>",
+                "http://example.org/", "http://example.org/a%20b.png",
+                "http://example.org/%7Bx%7D.png");
+        if (failures == 0) {
+            System.out.println("All passed.");
+        } else {
+            System.out.println(failures + " failed.");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import nu.validator.htmlparser.common.XmlViolationPolicy;
+import nu.validator.htmlparser.sax.HtmlParser;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.ext.DefaultHandler2;
+
+/**
+ * Checks that <code>HtmlParser</code> reports the same events when 
+ * buffering incrementally as when buffering the whole document, except for 
+ * late <code>html</code> and <code>body</code> attributes, and that 
+ * incremental buffering reports events before the input ends. Exits with a 
+ * non-zero status if a check fails.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+public class StreamingTester {
+
+    private static int failures = 0;
+
+    private static final String[] INPUTS = {
+            "<!DOCTYPE html><title>t</title><p class=a>x<!--c-->y<p>z",
+            "<table><tr><td>a</td>b<td>c</table>after",
+            "<table>x<tr>y<td>z</table><p>w",
+            "<b><i>x</b>y</i>z<p><b>1<p>2",
+            "<a href=x>1<div>2<a>3</a></div>",
+            "<head><meta charset=utf-8></head><script>a<b</script><p>x",
+            "<frameset><frame></frameset>",
+            "<p>x<frameset><frame></frameset>",
+            "<select><selectedcontent></selectedcontent><option>a<b>b</b>"
+                    + "<option selected>c</select><p>d",
+            "<svg><g><foreignObject><p>x</p></foreignObject></g></svg>"
+                    + "<math><mi>y</mi></math>",
+            "<template><td>x</td></template><ul><li>a<li>b</ul>" };
+
+    /**
+     * Counts the characters read so far.
+     */
+    private static final class ChunkedReader extends Reader {
+
+        private final String data;
+
+        int pos = 0;
+
+        ChunkedReader(String data) {
+            this.data = data;
+        }
+
+        @Override public int read(char[] cbuf, int off, int len) {
+            if (pos == data.length()) {
+                return -1;
+            }
+            int n = Math.min(Math.min(len, 16), data.length() - pos);
+            data.getChars(pos, pos + n, cbuf, off);
+            pos += n;
+            return n;
+        }
+
+        @Override public void close() {
+        }
+    }
+
+    private static final class Recorder extends DefaultHandler2 {
+
+        final List<String> events = new ArrayList<String>();
+
+        final StringBuilder text = new StringBuilder();
+
+        int warnings = 0;
+
+        ChunkedReader reader;
+
+        int readAtFirstElement = -1;
+
+        private void flushText() {
+            if (text.length() > 0) {
+                events.add("\"" + text);
+                text.setLength(0);
+            }
+        }
+
+        @Override public void startElement(String uri, String localName,
+                String qName, Attributes atts) {
+            flushText();
+            if (readAtFirstElement == -1 && "p".equals(localName)) {
+                readAtFirstElement = reader.pos;
+            }
+            StringBuilder sb = new StringBuilder("(");
+            sb.append(localName);
+            for (int i = 0; i < atts.getLength(); i++) {
+                sb.append(' ').append(atts.getQName(i)).append('=').append(
+                        atts.getValue(i));
+            }
+            events.add(sb.toString());
+        }
+
+        @Override public void endElement(String uri, String localName,
+                String qName) {
+            flushText();
+            events.add(")" + localName);
+        }
+
+        @Override public void characters(char[] ch, int start, int length) {
+            text.append(ch, start, length);
+        }
+
+        @Override public void comment(char[] ch, int start, int length) {
+            flushText();
+            events.add("!" + new String(ch, start, length));
+        }
+
+        @Override public void endDocument() {
+            flushText();
+        }
+
+        @Override public void warning(SAXParseException e) {
+            warnings++;
+        }
+    }
+
+    private static Recorder parse(String html, boolean incremental)
+            throws SAXException, IOException {
+        Recorder recorder = new Recorder();
+        recorder.reader = new ChunkedReader(html);
+        HtmlParser parser = new HtmlParser(XmlViolationPolicy.ALLOW);
+        parser.setBufferingIncrementally(incremental);
+        parser.setContentHandler(recorder);
+        parser.setLexicalHandler(recorder);
+        parser.setErrorHandler(recorder);
+        parser.parse(new InputSource(recorder.reader));
+        return recorder;
+    }
+
+    private static void check(String html) throws SAXException, IOException {
+        List<String> expected = parse(html, false).events;
+        List<String> actual = parse(html, true).events;
+        if (!expected.equals(actual)) {
+            failures++;
+            System.out.println("FAIL: " + html);
+            System.out.println("  expected " + expected);
+            System.out.println("  got      " + actual);
+        }
+    }
+
+    private static void checkLateAttributes() throws SAXException,
+            IOException {
+        String html = "<body a=1><p>x</p><div>y</div><body a=2 b=3>z";
+        List<String> buffered = parse(html, false).events;
+        Recorder incremental = parse(html, true);
+        if (!buffered.contains("(body a=1 b=3")
+                || !incremental.events.contains("(body a=1")
+                || incremental.warnings == 0) {
+            failures++;
+            System.out.println("FAIL: late body attributes");
+            System.out.println("  buffered    " + buffered);
+            System.out.println("  incremental " + incremental.events + ", "
+                    + incremental.warnings + " warnings");
+        }
+    }
+
+    private static void checkEarly() throws SAXException, IOException {
+        StringBuilder sb = new StringBuilder("<p>first");
+        for (int i = 0; i < 1000; i++) {
+            sb.append("<div>").append(i).append("</div>");
+        }
+        String html = sb.toString();
+        int buffered = parse(html, false).readAtFirstElement;
+        int incremental = parse(html, true).readAtFirstElement;
+        if (buffered != html.length() || incremental >= html.length() / 2) {
+            failures++;
+            System.out.println("FAIL: first element after reading "
+                    + incremental + " characters incrementally and "
+                    + buffered + " buffered out of " + html.length());
+        }
+    }
+
+    /**
+     * @param args
+     * @throws IOException
+     * @throws SAXException
+     */
+    public static void main(String[] args) throws SAXException, IOException {
+        for (String html : INPUTS) {
+            check(html);
+        }
+        checkLateAttributes();
+        checkEarly();
+        if (failures == 0) {
+            System.out.println("All passed.");
+        } else {
+            System.out.println(failures + " failed.");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 2026 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.htmlparser.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import nu.validator.htmlparser.common.XmlViolationPolicy;
+import nu.validator.htmlparser.concurrent.HtmlParserPool;
+import nu.validator.htmlparser.concurrent.ParseService;
+import nu.validator.htmlparser.concurrent.ParseStatistics;
+import nu.validator.htmlparser.sax.HtmlParser;
+import nu.validator.htmlparser.sax.HtmlSerializer;
+import nu.validator.htmlparser.sax.XmlSerializer;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+
+/**
+ * Converts many HTML files to XML (like <code>HTML2XML</code>) or to 
+ * normalized HTML (like <code>HTML2HTML</code>) in one JVM, in parallel. 
+ * Each output is written to a temporary file that is then moved into 
+ * place, so an interrupted run never leaves a truncated output behind.
+ * Progress is printed to stderr every five seconds.
+ * 
+ * <p>Usage: <code>BulkConvert [-html] [-threads N] input output</code>, 
+ * where <code>input</code> is a directory that is walked for 
+ * <code>.html</code> and <code>.htm</code> files or <code>@list</code> 
+ * naming a file with one path per line, and <code>output</code> is the 
+ * directory that receives the results under the same relative paths.
+ * 
+ * @version $Id$
+ * @author hsivonen
+ */
+public class BulkConvert {
+
+    private static final long REPORT_INTERVAL_MILLIS = 5000;
+
+    /**
+     * An input file with the path of its result.
+     */
+    private static final class FileSource extends InputSource {
+
+        final Path source;
+
+        final Path target;
+
+        FileSource(Path source, Path target) {
+            this.source = source;
+            this.target = target;
+            setSystemId(source.toUri().toString());
+        }
+    }
+
+    private final boolean html;
+
+    private final Path outputRoot;
+
+    private final AtomicLong bytesIn = new AtomicLong();
+
+    private final AtomicLong bytesOut = new AtomicLong();
+
+    private BulkConvert(boolean html, Path outputRoot) {
+        this.html = html;
+        this.outputRoot = outputRoot;
+    }
+
+    /**
+     * @param args
+     */
+    public static void main(String[] args) throws Exception {
+        boolean html = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("-"); i++) {
+            if ("-html".equals(args[i])) {
+                html = true;
+            } else if ("-threads".equals(args[i]) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else {
+                usage();
+                return;
+            }
+        }
+        if (args.length - i != 2) {
+            usage();
+            return;
+        }
+        final Path outputRoot = Paths.get(args[i + 1]);
+        final String extension = html ? ".html" : ".xhtml";
+        final Stream<Path> inputs;
+        final Path inputRoot;
+        if (args[i].startsWith("@")) {
+            inputRoot = null;
+            BufferedReader list = Files.newBufferedReader(
+                    Paths.get(args[i].substring(1)), StandardCharsets.UTF_8);
+            inputs = list.lines().filter(line -> !line.isEmpty()).map(
+                    line -> Paths.get(line)).onClose(() -> {
+                try {
+                    list.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            });
+        } else {
+            inputRoot = Paths.get(args[i]);
+            inputs = Files.walk(inputRoot).filter(
+                    path -> Files.isRegularFile(path)
+                            && isHtml(path.getFileName().toString()));
+        }
+
+        final BulkConvert converter = new BulkConvert(html, outputRoot);
+        HtmlParserPool<HtmlParser> pool = new HtmlParserPool<HtmlParser>(
+                () -> new HtmlParser(converter.html ? XmlViolationPolicy.ALLOW
+                        : XmlViolationPolicy.ALTER_INFOSET), threads);
+        final AtomicLong errors = new AtomicLong();
+        long start = System.nanoTime();
+        try (ParseService<HtmlParser, Long> service = new ParseService<HtmlParser, Long>(
+                pool, (parser, is) -> converter.convert(parser,
+                        (FileSource) is), threads, 256L * 1024 * 1024);
+                Stream<Path> paths = inputs) {
+            // Serializing holds about one copy of the document in flight.
+            service.setEstimator(is -> 16 * lengthOf(((FileSource) is).source));
+            Thread reporter = new Thread(() -> {
+                try {
+                    for (;;) {
+                        Thread.sleep(REPORT_INTERVAL_MILLIS);
+                        converter.report(service.getStatistics(),
+                                errors.get(), System.nanoTime() - start);
+                    }
+                } catch (InterruptedException e) {
+                    // done
+                }
+            });
+            reporter.setDaemon(true);
+            reporter.start();
+            Iterator<FileSource> sources = map(paths.iterator(), path -> {
+                Path relative = inputRoot == null ? relativize(path)
+                        : inputRoot.relativize(path);
+                return new FileSource(path, outputRoot.resolve(
+                        replaceExtension(relative.toString(), extension)));
+            });
+            service.parseAll(sources, (is, written) -> {
+            }, (is, t) -> {
+                errors.incrementAndGet();
+                System.err.println(((FileSource) is).source + ": " + t);
+            });
+            reporter.interrupt();
+            converter.report(service.getStatistics(), errors.get(),
+                    System.nanoTime() - start);
+        }
+        System.exit(errors.get() == 0 ? 0 : 1);
+    }
+
+    private Long convert(HtmlParser parser, FileSource source)
+            throws SAXException, IOException {
+        Path parent = source.target.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = createTempFile(parent == null ? Paths.get(".") : parent);
+        try {
+            try (InputStream in = Files.newInputStream(source.source);
+                    OutputStream out = new BufferedOutputStream(
+                            Files.newOutputStream(temp), 64 * 1024)) {
+                ContentHandler serializer = html ? new HtmlSerializer(out)
+                        : new XmlSerializer(out);
+                parser.setContentHandler(serializer);
+                parser.setLexicalHandler((LexicalHandler) serializer);
+                InputSource is = new InputSource(in);
+                is.setSystemId(source.getSystemId());
+                parser.parse(is);
+            }
+            long length = Files.size(temp);
+            try {
+                Files.move(temp, source.target,
+                        StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, source.target,
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            bytesIn.addAndGet(lengthOf(source.source));
+            bytesOut.addAndGet(length);
+            return Long.valueOf(length);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Creates an empty temporary file with the default permissions for new 
+     * files, unlike <code>Files.createTempFile()</code>, which restricts 
+     * them to the owner. The file becomes the output file when moved.
+     */
+    private static Path createTempFile(Path dir) throws IOException {
+        for (;;) {
+            Path temp = dir.resolve(".bulk"
+                    + Long.toHexString(ThreadLocalRandom.current().nextLong())
+                    + ".tmp");
+            try {
+                return Files.createFile(temp);
+            } catch (FileAlreadyExistsException e) {
+                // try another name
+            }
+        }
+    }
+
+    private void report(ParseStatistics stats, long errors, long nanos) {
+        double seconds = nanos / 1e9;
+        System.err.println(String.format(
+                "%d docs, %d errors, %.1f docs/s, %.2f MB/s in, %.2f MB/s out, p99 %.1f ms",
+                stats.getCompleted(), errors,
+                stats.getCompleted() / seconds, bytesIn.get() / 1e6
+                        / seconds, bytesOut.get() / 1e6 / seconds,
+                stats.getP99Nanos() / 1e6));
+    }
+
+    private static boolean isHtml(String name) {
+        String lower = name.toLowerCase();
+        return lower.endsWith(".html") || lower.endsWith(".htm");
+    }
+
+    private static String replaceExtension(String name, String extension) {
+        int dot = name.lastIndexOf('.');
+        int slash = name.lastIndexOf(java.io.File.separatorChar);
+        if (dot > slash) {
+            name = name.substring(0, dot);
+        }
+        return name + extension;
+    }
+
+    /**
+     * Maps a listed path to a path under the output root by dropping the 
+     * root component.
+     */
+    private static Path relativize(Path path) {
+        Path root = path.getRoot();
+        return root == null ? path : root.relativize(path);
+    }
+
+    private static long lengthOf(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static <A, B> Iterator<B> map(final Iterator<A> iterator,
+            final Function<A, B> function) {
+        return new Iterator<B>() {
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            public B next() {
+                if (!iterator.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return function.apply(iterator.next());
+            }
+        };
+    }
+
+    private static void usage() {
+        System.err.println("Usage: BulkConvert [-html] [-threads N] input output");
+        System.err.println("input is a directory to walk for .html/.htm files or @file listing one path per line.");
+        System.err.println("output is the directory to write the results to.");
+        System.exit(2);
+    }
+}